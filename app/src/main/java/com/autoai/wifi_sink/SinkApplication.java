@@ -2,11 +2,28 @@ package com.autoai.wifi_sink;
 
 import android.app.Application;
 
+import com.autoai.wifi_sink.display.WfdLog;
+
 public class SinkApplication extends Application {
 
     @Override
     public void onCreate() {
         super.onCreate();
         LogUtils.setContext(getApplicationContext());
+        //wfd-core中的日志也输出到logcat
+        WfdLog.setLogger(new WfdLog.Logger() {
+            @Override
+            public void log(int priority, String tag, String msg) {
+                if (priority == WfdLog.ERROR) {
+                    LogUtils.e(tag, msg);
+                } else if (priority == WfdLog.WARN) {
+                    LogUtils.w(tag, msg);
+                } else if (priority == WfdLog.DEBUG) {
+                    LogUtils.d(tag, msg);
+                } else {
+                    LogUtils.i(tag, msg);
+                }
+            }
+        });
     }
 }
@@ -28,6 +28,7 @@ import com.autoai.wifi_sink.LogUtils;
 import com.autoai.wifi_sink.R;
 import com.autoai.wifi_sink.display.RarpImpl;
 import com.autoai.wifi_sink.display.RtspSink;
+import com.autoai.wifi_sink.display.SinkSession;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -264,6 +265,8 @@ public class MainActivity extends AppCompatActivity {
         Intent intent = new Intent(this, WifiDisplayActivity.class);
         intent.putExtra("address", mSourceAddress);
         intent.putExtra("port", mSourcePort);
+        //启动MainActivity时带上的解码后端，不解码时只统计
+        intent.putExtra("decoder_backend", getIntent().getIntExtra("decoder_backend", SinkSession.DECODER_BACKEND_MEDIA_CODEC));
         startActivity(intent);
 //        finish();
     }
@@ -14,6 +14,7 @@ import com.autoai.wifi_sink.LogUtils;
 import com.autoai.wifi_sink.R;
 import com.autoai.wifi_sink.display.AudioDataManager;
 import com.autoai.wifi_sink.display.RtspSink;
+import com.autoai.wifi_sink.display.SinkSession;
 import com.autoai.wifi_sink.display.VideoDataManager;
 import com.autoai.wifi_sink.display.VideoResolutionConstant;
 
@@ -27,6 +28,10 @@ public class WifiDisplayActivity extends Activity {
     private RtspSink mRtspSink;
     private AudioDataManager audioDataManager;
     private VideoDataManager videoDataManager;
+    //只作为音频输出设备，不解码视频
+    private boolean isAudioOnly;
+    //Wi-Fi短暂中断时，在这个时间内恢复投屏，不退出页面
+    private static final long RECOVERY_WINDOW_MS = 10 * 1000;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -37,7 +42,10 @@ public class WifiDisplayActivity extends Activity {
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
 
         setContentView(R.layout.activity_wifidisplay);
-        initView();
+        isAudioOnly = getIntent().getBooleanExtra("audio_only", false);
+        if (!isAudioOnly) {
+            initView();
+        }
         initData();
 
     }
@@ -92,11 +100,22 @@ public class WifiDisplayActivity extends Activity {
 
     private void initData() {
         audioDataManager = AudioDataManager.getInstance();
-        videoDataManager = VideoDataManager.getInstance();
         String address = getIntent().getStringExtra("address");
         int port = getIntent().getIntExtra("port", 0);
         mRtspSink = RtspSink.getInstance();
-        mRtspSink.createRTSPClient(address, port, VideoResolutionConstant.Resolution1);
+        mRtspSink.setRecoveryWindow(RECOVERY_WINDOW_MS);
+        //测量接收和解析能承受的码率时不解码：am start ... --ei decoder_backend 1
+        int decoderBackend = getIntent().getIntExtra("decoder_backend", SinkSession.DECODER_BACKEND_MEDIA_CODEC);
+        audioDataManager.setDecoderBackend(decoderBackend);
+        if (isAudioOnly) {
+            //不需要surface，音频直接初始化
+            audioDataManager.initDecode();
+            mRtspSink.createRTSPClient(address, port, VideoResolutionConstant.ResolutionNone);
+        } else {
+            videoDataManager = VideoDataManager.getInstance();
+            videoDataManager.setDecoderBackend(decoderBackend);
+            mRtspSink.createRTSPClient(address, port, VideoResolutionConstant.Resolution1);
+        }
 
         mRtspSink.addOnConnectStateListener(stateListener);
     }
@@ -104,6 +123,7 @@ public class WifiDisplayActivity extends Activity {
     private RtspSink.OnConnectStateListener stateListener = new RtspSink.OnConnectStateListener() {
         @Override
         public void onConnectStateListener(int state) {
+            //STATE_RTSP_RECOVERING时保持画面，等待恢复
             if (state == RtspSink.STATE_RTSP_IDLE
                     || state == RtspSink.STATE_RTSP_CONNECT_FAILED
                     || state == RtspSink.STATE_RTSP_DISCONNECTED) {
@@ -118,6 +138,15 @@ public class WifiDisplayActivity extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         LogUtils.i(TAG, "onDestroy");
+        if (isAudioOnly) {
+            //停止播放，断开连接
+            audioDataManager.stopDecode();
+            mRtspSink.closeRtspSession();
+        }
         mRtspSink.removeOnConnectStateListener(stateListener);
+        LogUtils.i(TAG, "audio decoder: " + audioDataManager.getDecoderStats());
+        if (videoDataManager != null) {
+            LogUtils.i(TAG, "video decoder: " + videoDataManager.getDecoderStats());
+        }
     }
 }
@@ -0,0 +1,174 @@
+package com.autoai.wifi_sink.display;
+
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.text.TextUtils;
+
+import com.autoai.wifi_sink.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 音频格式的协商配置
+ * <p>
+ * 按照优先级生成M3中的wfd_audio_codecs（只列出本机能解码的格式，并带上实测的解码延迟），
+ * 解析M4中Source端最终选择的格式。延迟优先的场景把LPCM放在前面，兼容优先的场景只保留AAC
+ * wfd_audio_codecs: LPCM 00000003 00, AAC 00000001 00
+ * 每一项依次是：格式，模式的位图（32位，16进制），解码延迟（8位，16进制，单位5ms，00表示未知）
+ */
+
+public class AudioCodecConfig {
+
+    private static final String TAG = AudioCodecConfig.class.getSimpleName();
+
+    //音频格式
+    public final static int CODEC_LPCM = 1;
+    public final static int CODEC_AAC = 2;
+
+    //LPCM的模式：bit0是44.1kHz双声道，bit1是48kHz双声道
+    private final static int LPCM_MODE_44100_2CH = 0x1;
+    private final static int LPCM_MODE_48000_2CH = 0x2;
+    //AAC的模式：bit0是48kHz双声道
+    private final static int AAC_MODE_48000_2CH = 0x1;
+
+    //每种格式实测的解码延迟（微秒），进程内一直有效，下一次协商时使用
+    private static final long[] sDecoderDelayUs = new long[3];
+    //本机是否有AAC解码器，0未检查，1有，-1没有
+    private static int sAacDecoderState = 0;
+
+    private final int[] mPreference;
+
+    /**
+     * @param preference 音频格式的优先级，比如{CODEC_LPCM, CODEC_AAC}
+     */
+    public AudioCodecConfig(int... preference) {
+        mPreference = preference;
+    }
+
+    //默认延迟优先：LPCM不需要解码，其次是AAC
+    public static AudioCodecConfig getDefault() {
+        return new AudioCodecConfig(CODEC_LPCM, CODEC_AAC);
+    }
+
+    //提前检查解码器，查询MediaCodecList比较耗时，不要放在M3的回复中
+    void prepare() {
+        for (int codec : mPreference) {
+            isDecoderSupported(codec);
+        }
+    }
+
+    /**
+     * 生成M3中wfd_audio_codecs的值
+     */
+    String getM3Value() {
+        List<String> items = new ArrayList<>();
+        for (int codec : mPreference) {
+            if (!isDecoderSupported(codec)) {
+                continue;
+            }
+            if (codec == CODEC_LPCM) {
+                items.add(formatItem("LPCM", LPCM_MODE_44100_2CH | LPCM_MODE_48000_2CH, codec));
+            } else if (codec == CODEC_AAC) {
+                items.add(formatItem("AAC", AAC_MODE_48000_2CH, codec));
+            }
+        }
+        if (items.isEmpty()) {
+            //LPCM是WFD规定必须支持的
+            items.add(formatItem("LPCM", LPCM_MODE_44100_2CH | LPCM_MODE_48000_2CH, CODEC_LPCM));
+        }
+        return TextUtils.join(", ", items);
+    }
+
+    private String formatItem(String name, int modes, int codec) {
+        //延迟的单位是5ms，向上取整，最大0xFF
+        long delayUs = sDecoderDelayUs[codec];
+        int latency = (int) Math.min(0xFF, (delayUs + 4999) / 5000);
+        return String.format(Locale.ENGLISH, "%s %08x %02x", name, modes, latency);
+    }
+
+    //本机是否能解码这种格式
+    private static synchronized boolean isDecoderSupported(int codec) {
+        if (codec == CODEC_LPCM) {
+            return true;
+        }
+        if (codec != CODEC_AAC) {
+            return false;
+        }
+        if (sAacDecoderState == 0) {
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, 48000, 2);
+            sAacDecoderState = codecList.findDecoderForFormat(format) != null ? 1 : -1;
+            LogUtils.i(TAG, "aac decoder supported: " + (sAacDecoderState == 1));
+        }
+        return sAacDecoderState == 1;
+    }
+
+    /**
+     * 记录实测的解码延迟，平滑处理
+     */
+    static synchronized void recordDecoderDelay(int codec, long delayUs) {
+        if (codec != CODEC_LPCM && codec != CODEC_AAC) {
+            return;
+        }
+        long last = sDecoderDelayUs[codec];
+        sDecoderDelayUs[codec] = last == 0 ? delayUs : (last * 7 + delayUs) / 8;
+    }
+
+    static synchronized long getDecoderDelayUs(int codec) {
+        return sDecoderDelayUs[codec];
+    }
+
+    /**
+     * 解析M4中wfd_audio_codecs的值，Source端只会选择一种格式和一种模式
+     *
+     * @return 解析失败返回null
+     */
+    static AudioMode parseM4Value(String value) {
+        if (TextUtils.isEmpty(value)) {
+            return null;
+        }
+        String[] values = value.trim().split(" ");
+        if (values.length < 2) {
+            return null;
+        }
+        int modes;
+        try {
+            modes = (int) Long.parseLong(values[1], 16);
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if ("LPCM".equals(values[0])) {
+            if ((modes & LPCM_MODE_44100_2CH) != 0) {
+                return new AudioMode(CODEC_LPCM, 44100, 2);
+            }
+            return new AudioMode(CODEC_LPCM, 48000, 2);
+        } else if ("AAC".equals(values[0])) {
+            return new AudioMode(CODEC_AAC, 48000, 2);
+        }
+        LogUtils.w(TAG, "unsupported audio codec: " + value);
+        return null;
+    }
+
+    /**
+     * Source端选择的音频格式
+     */
+    static class AudioMode {
+        final int codec;
+        final int sampleRate;
+        final int channelCount;
+
+        AudioMode(int codec, int sampleRate, int channelCount) {
+            this.codec = codec;
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+        }
+
+        @Override
+        public String toString() {
+            return "AudioMode{codec=" + codec + ", sampleRate=" + sampleRate + ", channelCount=" + channelCount + "}";
+        }
+    }
+}
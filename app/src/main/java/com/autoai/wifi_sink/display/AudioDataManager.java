@@ -18,18 +18,22 @@ import com.autoai.wifi_sink.LogUtils;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * 拿到音频的裸流后，使用MediaCodec解码，AudioTrack播放
  */
 
-public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener {
+public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener, ElementaryStreamConsumer {
 
     private final String TAG = AudioDataManager.class.getSimpleName();
 
     private static final int MEDIA_INIT = 1;
     private static final int MEDIA_DECODE = 2;
     private static final int MEDIA_RELEASE = 3;
+    private static final int MEDIA_PCM = 4;
+    private static final int MEDIA_CONFIGURE = 5;
+    private static final int MEDIA_FLUSH = 6;
 
     private static AudioDataManager instance;
 
@@ -37,10 +41,46 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
     private volatile AudioTrack mAudioTrack = null;
     private volatile MediaCodec mMediaCodec = null;
     private volatile boolean isInitDecode;
+    //AudioTrack的标称采样率和声道数
+    private volatile int mSampleRate;
+    private volatile int mChannelCount;
+    //最后一次设置给AudioTrack的播放采样率，只在解码线程中使用，每个buffer都要比较，不用每次查询AudioTrack
+    private int mPlaybackRate;
 
-    private HandlerThread mHThread = new HandlerThread("audio_data_thread");
+    //Source端时钟，用来补偿两端时钟的漂移
+    private volatile SourceClock mSourceClock;
+
+    //M4中Source端选择的音频格式
+    private volatile AudioCodecConfig.AudioMode mAudioMode;
+    //解码队列的帧统计
+    private final DecoderStats mStats = new DecoderStats();
+
+    private final HandlerThread mHThread;
     private Handler tHandler;
 
+    //默认的解码后端：AAC用MediaCodec解码，AudioTrack播放
+    private final DecoderBackend mMediaCodecBackend = new DecoderBackend() {
+        @Override
+        public void decode(long ptsUs, long dtsUs, byte[] data, long queuedNs) {
+            decodeAudioData(ptsUs, dtsUs, data);
+        }
+
+        @Override
+        public void flush() {
+            flushDecoder();
+        }
+
+        @Override
+        public void release() {
+            if (mMediaCodec != null) {
+                mMediaCodec.release();
+                mMediaCodec = null;
+            }
+            releaseAudioTrack();
+        }
+    };
+    private volatile DecoderBackend mBackend = mMediaCodecBackend;
+
     private FileOutputStream outputStream = null;
 
     public static AudioDataManager getInstance() {
@@ -55,6 +95,12 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
     }
 
     private AudioDataManager() {
+        this("audio_data_thread");
+    }
+
+    //每个投屏会话一个，解码线程的名字带上会话的标识
+    AudioDataManager(String threadName) {
+        mHThread = new HandlerThread(threadName);
         mHThread.start();
         tHandler = new Handler(mHThread.getLooper(), tCallback);
     }
@@ -64,43 +110,133 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
         public boolean handleMessage(Message msg) {
             if (msg.what == MEDIA_INIT) {
                 isInitDecode = true;
-
+                //M4可能在initDecode之前到达，那时的MEDIA_CONFIGURE没有生效，或者被initDecode清掉了
+                try {
+                    configureAudioMode();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
             } else if (msg.what == MEDIA_DECODE) {
                 Bundle bundle = msg.getData();
                 byte[] bytes = bundle.getByteArray("bytes");
                 long pts = bundle.getLong("pts");
                 long dts = bundle.getLong("dts");
+                long queued = bundle.getLong("queued");
                 try {
-                    decodeAudioData(pts, dts, bytes);
+                    mBackend.decode(pts, dts, bytes, queued);
+                    mStats.onDequeued(true);
                 } catch (Exception e) {
                     e.printStackTrace();
-                    tHandler.removeCallbacksAndMessages(null);
+                    mStats.onDequeued(false);
+                    clearDecodeQueue(true);
                     tHandler.sendEmptyMessage(MEDIA_RELEASE);
                     tHandler.sendEmptyMessage(MEDIA_INIT);
                 }
-            } else if (msg.what == MEDIA_RELEASE) {
-                if (mMediaCodec != null) {
-                    mMediaCodec.release();
-                    mMediaCodec = null;
+            } else if (msg.what == MEDIA_PCM) {
+                Bundle bundle = msg.getData();
+                byte[] bytes = bundle.getByteArray("bytes");
+                long pts = bundle.getLong("pts");
+                long queued = bundle.getLong("queued");
+                try {
+                    if (mBackend == mMediaCodecBackend) {
+                        writePcmData(pts, bytes);
+                    } else {
+                        //LPCM和AAC一样交给后端统计
+                        mBackend.decode(pts, pts, bytes, queued);
+                    }
+                    mStats.onDequeued(true);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    mStats.onDequeued(false);
+                }
+            } else if (msg.what == MEDIA_CONFIGURE) {
+                try {
+                    configureAudioMode();
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
+            } else if (msg.what == MEDIA_RELEASE) {
+                mBackend.release();
                 isInitDecode = false;
+            } else if (msg.what == MEDIA_FLUSH) {
+                try {
+                    mBackend.flush();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
             }
 
             return true;
         }
     };
 
+    /**
+     * 选择解码后端，在会话开始、初始化解码之前调用
+     *
+     * @param type {@link SinkSession#DECODER_BACKEND_MEDIA_CODEC}或者{@link SinkSession#DECODER_BACKEND_NULL}
+     */
+    public void setDecoderBackend(int type) {
+        mBackend = type == DecoderBackend.TYPE_NULL ? new NullDecoderBackend("audio") : mMediaCodecBackend;
+        LogUtils.i(TAG, "decoder backend: " + type);
+    }
+
+    DecoderBackend getDecoderBackend() {
+        return mBackend;
+    }
+
+    //解码队列的帧统计，AAC和LPCM一起计算，返回的是当前的副本
+    public DecoderStats getDecoderStats() {
+        return mStats.snapshot();
+    }
+
+    //清掉还没有解码的帧，计入丢帧
+    private void clearDecodeQueue(boolean allMessages) {
+        synchronized (mStats) {
+            if (allMessages) {
+                tHandler.removeCallbacksAndMessages(null);
+            } else {
+                tHandler.removeMessages(MEDIA_DECODE);
+                tHandler.removeMessages(MEDIA_PCM);
+            }
+            mStats.onQueueCleared();
+        }
+    }
+
     public void initDecode() {
-        tHandler.removeCallbacksAndMessages(null);
+        clearDecodeQueue(true);
         tHandler.sendEmptyMessage(MEDIA_INIT);
     }
 
     //停止解码
     public void stopDecode() {
-        tHandler.removeCallbacksAndMessages(null);
+        clearDecodeQueue(true);
         tHandler.sendEmptyMessage(MEDIA_RELEASE);
     }
 
+    //会话结束，释放解码器和AudioTrack后退出解码线程，之后不能再使用
+    void quit() {
+        stopDecode();
+        mHThread.quitSafely();
+    }
+
+    //Source端换了一路流，丢掉还没有播放的旧数据，解码器和AudioTrack不用重新创建
+    void flush() {
+        clearDecodeQueue(false);
+        tHandler.sendEmptyMessage(MEDIA_FLUSH);
+    }
+
+    private void flushDecoder() {
+        if (mMediaCodec != null) {
+            mMediaCodec.flush();
+        }
+        if (isPlay()) {
+            //AudioTrack只有暂停或者停止时才能清空
+            mAudioTrack.pause();
+            mAudioTrack.flush();
+            mAudioTrack.play();
+        }
+    }
+
     //初始化数据
     private void initData(int profile, int sampleRate, int channelCount) {
         int sampleRateValue;
@@ -134,6 +270,11 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
             e.printStackTrace();
         }
 
+        initAudioTrack(sampleRateValue, channelCount);
+    }
+
+    //创建AudioTrack，开始播放
+    private void initAudioTrack(int sampleRate, int channelCount) {
         int channelConfig = 0;
         if (channelCount == 1) {
             channelConfig = AudioFormat.CHANNEL_OUT_MONO;
@@ -141,13 +282,96 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
             channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
         }
         int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
-        int trackBuffSize = AudioTrack.getMinBufferSize(sampleRateValue, channelConfig, audioFormat);
+        int trackBuffSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, audioFormat);
         mAudioManager = (AudioManager) LogUtils.getContext().getSystemService(Context.AUDIO_SERVICE);
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRateValue, channelConfig,
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
                 audioFormat, trackBuffSize, AudioTrack.MODE_STREAM);
+        mSampleRate = sampleRate;
+        mPlaybackRate = sampleRate;
+        mChannelCount = channelCount;
         play();
     }
 
+    //释放AudioTrack
+    private void releaseAudioTrack() {
+        if (mAudioTrack != null) {
+            stop();
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
+        mSampleRate = 0;
+        mPlaybackRate = 0;
+        mChannelCount = 0;
+    }
+
+    //设置M4中协商好的音频格式
+    void setAudioMode(AudioCodecConfig.AudioMode audioMode) {
+        LogUtils.i(TAG, "setAudioMode " + audioMode);
+        mAudioMode = audioMode;
+        tHandler.sendEmptyMessage(MEDIA_CONFIGURE);
+    }
+
+    //根据协商好的音频格式提前创建解码器和AudioTrack，不用等到第一帧数据
+    private void configureAudioMode() {
+        AudioCodecConfig.AudioMode audioMode = mAudioMode;
+        if (audioMode == null || !isInitDecode || mBackend != mMediaCodecBackend) {
+            return;
+        }
+        if (audioMode.codec == AudioCodecConfig.CODEC_AAC && mMediaCodec == null) {
+            //AAC_LC的AudioObjectType是2，48000对应的采样率索引是3，44100是4
+            int sampleRateIndex = audioMode.sampleRate == 44100 ? 4 : 3;
+            initData(2, sampleRateIndex, audioMode.channelCount);
+        } else if (audioMode.codec == AudioCodecConfig.CODEC_LPCM && mAudioTrack == null) {
+            initAudioTrack(audioMode.sampleRate, audioMode.channelCount);
+        }
+    }
+
+    //设置Source端时钟
+    void setSourceClock(SourceClock sourceClock) {
+        mSourceClock = sourceClock;
+    }
+
+    /**
+     * 根据两端时钟的漂移调整AudioTrack的播放采样率
+     * Source端时钟快时播放快一点，慢时播放慢一点，避免长时间播放后缓存欠载或者堆积
+     */
+    private void adjustPlaybackRate() {
+        SourceClock clock = mSourceClock;
+        if (clock == null || mAudioTrack == null || mSampleRate == 0) {
+            return;
+        }
+        int rate = (int) Math.round(mSampleRate * clock.getRateRatio());
+        if (rate != mPlaybackRate) {
+            LogUtils.i(TAG, "adjustPlaybackRate " + rate + ", drift: " + clock.getDriftPpm() + "ppm");
+            if (mAudioTrack.setPlaybackRate(rate) == AudioTrack.SUCCESS) {
+                mPlaybackRate = rate;
+            }
+        }
+    }
+
+    //音频格式在M4中已经确定，这里不需要处理
+    @Override
+    public void onStreamInfo(StreamInfo stream) {
+    }
+
+    @Override
+    public void onAccessUnit(StreamInfo stream, byte[] data, int offset, int length, long ptsUs, long dtsUs, int flags) {
+        if (offset != 0 || length != data.length) {
+            data = Arrays.copyOfRange(data, offset, offset + length);
+        }
+        if (stream.streamType == StreamInfo.STREAM_TYPE_LPCM) {
+            //LPCM不需要解码，直接播放
+            processPcmData(ptsUs, data);
+        } else {
+            processAudioData(ptsUs, dtsUs, data);
+        }
+    }
+
+    @Override
+    public void onFlush(StreamInfo stream) {
+        flush();
+    }
+
     //数据放到handler队列中
     void processAudioData(long pts, long dts, byte[] bytes) {
         if (bytes == null || bytes.length == 0) {
@@ -170,8 +394,73 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
         Bundle bundle = message.getData();
         bundle.putLong("pts", pts);
         bundle.putLong("dts", dts);
+        bundle.putLong("queued", System.nanoTime());
+        bundle.putByteArray("bytes", bytes);
+        synchronized (mStats) {
+            tHandler.sendMessage(message);
+            mStats.onQueued();
+        }
+    }
+
+    //LPCM数据放到handler队列中，不经过解码器
+    void processPcmData(long pts, byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return;
+        }
+        Message message = Message.obtain();
+        message.what = MEDIA_PCM;
+        Bundle bundle = message.getData();
+        bundle.putLong("pts", pts);
+        bundle.putLong("queued", System.nanoTime());
         bundle.putByteArray("bytes", bytes);
-        tHandler.sendMessage(message);
+        synchronized (mStats) {
+            tHandler.sendMessage(message);
+            mStats.onQueued();
+        }
+    }
+
+    //WFD LPCM头部的长度
+    private static final int LPCM_HEADER_LENGTH = 4;
+
+    /**
+     * 播放WFD的LPCM数据，PES的负载前4个字节是LPCM头
+     * sub_stream_id(8): 固定为0xA0
+     * number_of_frame_header(8)
+     * reserved(8)
+     * quantization_word_length(2): 0表示16bit
+     * audio_sampling_frequency(3): 1是44.1kHz，2是48kHz
+     * number_of_audio_channels(3): 0是单声道，1是双声道
+     * 后面是大端的16bit采样，需要转换成小端后写入AudioTrack
+     */
+    private void writePcmData(long pts, byte[] bytes) {
+        if (bytes.length <= LPCM_HEADER_LENGTH || (bytes[0] & 0xFF) != 0xA0) {
+            return;
+        }
+        int audio_sampling_frequency = (bytes[3] >> 3) & 0x7;
+        int number_of_audio_channels = bytes[3] & 0x7;
+        int sampleRate = audio_sampling_frequency == 1 ? 44100 : 48000;
+        int channelCount = number_of_audio_channels == 0 ? 1 : 2;
+        if (!isInitDecode) {
+            return;
+        }
+        if (mAudioTrack == null || mSampleRate != sampleRate || mChannelCount != channelCount) {
+            LogUtils.i(TAG, "lpcm sampleRate: " + sampleRate + ", channelCount: " + channelCount);
+            releaseAudioTrack();
+            initAudioTrack(sampleRate, channelCount);
+        }
+        if (!isPlay()) {
+            return;
+        }
+        //大端转小端，直接在原数组上交换
+        int length = bytes.length - LPCM_HEADER_LENGTH;
+        length -= length % 2;
+        for (int i = LPCM_HEADER_LENGTH; i < LPCM_HEADER_LENGTH + length; i += 2) {
+            byte b = bytes[i];
+            bytes[i] = bytes[i + 1];
+            bytes[i + 1] = b;
+        }
+        mAudioTrack.write(bytes, LPCM_HEADER_LENGTH, length);
+        adjustPlaybackRate();
     }
 
     private MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
@@ -201,11 +490,14 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
             //开始为buffer填充数据
             byteBuffer.put(bytes);
             //将输入buffer放入队列
-            mMediaCodec.queueInputBuffer(inIndex, 0, bytes.length, 0, 0);
+            long ptsUs = pts < 0 ? 0 : pts;
+            mMediaCodec.queueInputBuffer(inIndex, 0, bytes.length, ptsUs, 0);
+            recordInputTime(ptsUs);
         }
 
         int outIndex = mMediaCodec.dequeueOutputBuffer(bufferInfo, 100 * 1000);
         if (outIndex >= 0) {
+            measureDecoderDelay(bufferInfo.presentationTimeUs);
             ByteBuffer outputBuffer = mMediaCodec.getOutputBuffer(outIndex);
             byte[] chunkPCM = new byte[bufferInfo.size];
             outputBuffer.get(chunkPCM);
@@ -213,11 +505,37 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
             outputBuffer.clear();
             // 播放解码后的PCM数据
             mAudioTrack.write(chunkPCM, 0, chunkPCM.length);
+            adjustPlaybackRate();
             //如果surface绑定了，则直接输入到surface渲染并释放
             mMediaCodec.releaseOutputBuffer(outIndex, false);
         }
     }
 
+    //最近送入解码器的数据的pts和时间，用来计算解码延迟
+    private final long[] inputPts = new long[16];
+    private final long[] inputTimeNs = new long[16];
+    private int inputIndex = 0;
+
+    private void recordInputTime(long ptsUs) {
+        inputPts[inputIndex] = ptsUs;
+        inputTimeNs[inputIndex] = System.nanoTime();
+        inputIndex = (inputIndex + 1) % inputPts.length;
+    }
+
+    //根据输出数据的pts找到对应的输入时间，得到解码延迟，协商时作为wfd_audio_codecs中的延迟
+    private void measureDecoderDelay(long ptsUs) {
+        if (ptsUs <= 0) {
+            return;
+        }
+        for (int i = 0; i < inputPts.length; i++) {
+            if (inputPts[i] == ptsUs && inputTimeNs[i] > 0) {
+                AudioCodecConfig.recordDecoderDelay(AudioCodecConfig.CODEC_AAC, (System.nanoTime() - inputTimeNs[i]) / 1000);
+                inputTimeNs[i] = 0;
+                return;
+            }
+        }
+    }
+
     private void play() {
         if (!requestAudioFocus()) {
             return;
@@ -229,7 +547,7 @@ public class AudioDataManager implements AudioManager.OnAudioFocusChangeListener
     }
 
     private boolean isPlay() {
-        return mAudioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+        return mAudioTrack != null && mAudioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
     }
 
     private void pause() {
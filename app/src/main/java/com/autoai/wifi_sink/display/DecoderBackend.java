@@ -0,0 +1,30 @@
+package com.autoai.wifi_sink.display;
+
+/**
+ * 解码后端：解码线程从队列中取出一帧后交给它处理
+ * <p>
+ * 默认使用MediaCodec解码，视频输出到surface，音频交给AudioTrack播放；{@link NullDecoderBackend}不解码，
+ * 只统计帧率、码率和排队延迟，用来测量RTP接收、TS解析到解码线程这一段能承受多大的码率，
+ * 分析现场问题时区分是网络/解析的瓶颈还是解码器的瓶颈
+ */
+
+interface DecoderBackend {
+
+    //MediaCodec解码
+    int TYPE_MEDIA_CODEC = 0;
+    //不解码，只统计
+    int TYPE_NULL = 1;
+
+    /**
+     * 处理一帧数据，在解码线程中调用
+     *
+     * @param queuedNs 放入解码队列的时间，System.nanoTime()
+     */
+    void decode(long ptsUs, long dtsUs, byte[] data, long queuedNs);
+
+    //Source端换流时清空还没有输出的数据
+    void flush();
+
+    //停止解码时释放
+    void release();
+}
@@ -0,0 +1,76 @@
+package com.autoai.wifi_sink.display;
+
+/**
+ * 解码线程的帧统计：放入队列的帧数、交给解码后端的帧数、没有解码就丢掉的帧数
+ * <p>
+ * 丢掉的帧包括换流、重新创建解码器、停止解码时从队列中清掉的，以及解码出错的。
+ * 往队列中放数据和清空队列要在这个对象的锁中进行，队列中剩下的帧数才是准确的
+ */
+
+public class DecoderStats {
+
+    private long framesIn;
+    private long framesOut;
+    private long framesDropped;
+    //还在解码队列中的帧数
+    private long pending;
+
+    DecoderStats() {
+    }
+
+    private DecoderStats(DecoderStats stats) {
+        framesIn = stats.framesIn;
+        framesOut = stats.framesOut;
+        framesDropped = stats.framesDropped;
+        pending = stats.pending;
+    }
+
+    //一帧放入了解码队列
+    synchronized void onQueued() {
+        framesIn++;
+        pending++;
+    }
+
+    //解码线程取出一帧，decoded为false表示解码出错
+    synchronized void onDequeued(boolean decoded) {
+        pending = Math.max(0, pending - 1);
+        if (decoded) {
+            framesOut++;
+        } else {
+            framesDropped++;
+        }
+    }
+
+    //队列被清空，还没有解码的帧都算丢掉
+    synchronized void onQueueCleared() {
+        framesDropped += pending;
+        pending = 0;
+    }
+
+    //当前统计的副本
+    synchronized DecoderStats snapshot() {
+        return new DecoderStats(this);
+    }
+
+    public synchronized long getFramesIn() {
+        return framesIn;
+    }
+
+    public synchronized long getFramesOut() {
+        return framesOut;
+    }
+
+    public synchronized long getFramesDropped() {
+        return framesDropped;
+    }
+
+    //还在队列中等待解码的帧数
+    public synchronized long getFramesPending() {
+        return pending;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "in=" + framesIn + ", out=" + framesOut + ", dropped=" + framesDropped + ", pending=" + pending;
+    }
+}
@@ -0,0 +1,108 @@
+package com.autoai.wifi_sink.display;
+
+import com.autoai.wifi_sink.LogUtils;
+
+/**
+ * 不解码的后端，只统计收到的帧：帧率、码率，以及从放入队列到解码线程取出的排队延迟
+ * <p>
+ * 每隔{@link #REPORT_INTERVAL_MS}输出一次这段时间的统计，释放时输出整个会话的统计
+ */
+
+class NullDecoderBackend implements DecoderBackend {
+
+    private final String TAG = NullDecoderBackend.class.getSimpleName();
+
+    private static final long REPORT_INTERVAL_MS = 5 * 1000;
+
+    //视频或者音频，日志中区分
+    private final String mName;
+
+    //整个会话的统计，在解码线程中修改
+    private volatile long frames = 0;
+    private volatile long bytes = 0;
+    private volatile long maxQueueLatencyNs = 0;
+    private long totalQueueLatencyNs = 0;
+    private long startTimeNs = 0;
+
+    //当前统计周期
+    private long periodStartNs = 0;
+    private long periodFrames = 0;
+    private long periodBytes = 0;
+    private long periodQueueLatencyNs = 0;
+    private long periodMaxQueueLatencyNs = 0;
+
+    NullDecoderBackend(String name) {
+        mName = name;
+    }
+
+    @Override
+    public void decode(long ptsUs, long dtsUs, byte[] data, long queuedNs) {
+        long now = System.nanoTime();
+        if (startTimeNs == 0) {
+            startTimeNs = now;
+            periodStartNs = now;
+        }
+        long latencyNs = queuedNs > 0 ? now - queuedNs : 0;
+        frames++;
+        bytes += data.length;
+        totalQueueLatencyNs += latencyNs;
+        if (latencyNs > maxQueueLatencyNs) {
+            maxQueueLatencyNs = latencyNs;
+        }
+        periodFrames++;
+        periodBytes += data.length;
+        periodQueueLatencyNs += latencyNs;
+        if (latencyNs > periodMaxQueueLatencyNs) {
+            periodMaxQueueLatencyNs = latencyNs;
+        }
+        if (now - periodStartNs >= REPORT_INTERVAL_MS * 1000000) {
+            LogUtils.i(TAG, mName + " " + format(periodFrames, periodBytes, periodQueueLatencyNs,
+                    periodMaxQueueLatencyNs, now - periodStartNs));
+            periodStartNs = now;
+            periodFrames = 0;
+            periodBytes = 0;
+            periodQueueLatencyNs = 0;
+            periodMaxQueueLatencyNs = 0;
+        }
+    }
+
+    //不解码，没有要清空的数据
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void release() {
+        if (frames > 0) {
+            LogUtils.i(TAG, mName + " total " + this);
+        }
+    }
+
+    long getFrames() {
+        return frames;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getMaxQueueLatencyNs() {
+        return maxQueueLatencyNs;
+    }
+
+    private static String format(long frames, long bytes, long totalLatencyNs, long maxLatencyNs, long durationNs) {
+        if (frames == 0 || durationNs <= 0) {
+            return "no frames";
+        }
+        double seconds = durationNs / 1e9;
+        return String.format("%.1f fps, %.2f Mbps, queue latency avg %.2fms max %.2fms",
+                frames / seconds, bytes * 8 / seconds / 1e6, totalLatencyNs / 1e6 / frames, maxLatencyNs / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        long duration = startTimeNs == 0 ? 0 : System.nanoTime() - startTimeNs;
+        return "frames=" + frames + ", bytes=" + bytes + ", "
+                + format(frames, bytes, totalQueueLatencyNs, maxQueueLatencyNs, duration);
+    }
+}
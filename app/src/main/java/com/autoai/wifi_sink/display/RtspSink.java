@@ -3,26 +3,19 @@ package com.autoai.wifi_sink.display;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.Message;
 import android.support.annotation.MainThread;
 import android.support.annotation.WorkerThread;
-import android.text.TextUtils;
 
 import com.autoai.wifi_sink.LogUtils;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * 解析RTSP协议
+ * <p>
+ * M1~M16的协商、连接和中断恢复在wfd-core的{@link WfdSinkSession}中，这里负责Android相关的部分：
+ * RTSP线程、M3中的解码能力、把M4中的参数交给解码器、在主线程通知连接状态
  */
 
 public class RtspSink {
@@ -31,39 +24,40 @@ public class RtspSink {
 
     private static RtspSink mRtspSink;
 
-    private final int ACTION_CONNECT_SOCKET = 0;
-    private final int ACTION_CLOSE_SOCKET = 1;
-    private final int ACTION_CLOSE_RTSP = 2;
-
-    private final int M1 = 1;
-    private final int M2 = 2;
-    private final int M3 = 3;
-    private final int M4 = 4;
-    private final int M5 = 5;
-    private final int M6 = 6;
-    private final int M7 = 7;
-    private final int M8 = 8;
-    private final int M16 = 16;
-
     //RTSP协议连接状态
-    public final static int STATE_RTSP_IDLE = 0;
-    public final static int STATE_RTSP_CONNECTING = 1;
-    public final static int STATE_RTSP_CONNECT_SUCCESS = 2;
-    public final static int STATE_RTSP_CONNECT_FAILED = 3;
-    public final static int STATE_RTSP_DISCONNECTED = 4;
-
-    private HandlerThread handlerThread = new HandlerThread("rtspThread");
-    private Handler mTHandler;
-
-    private volatile RTPReceiver rtpReceiver;
-    private volatile String mAddress;
-    private volatile int mPort;
-    private volatile int mWfdVideoResolution = 0;
-    private volatile String rtspUrl;
-    private volatile String rtspSession;
-    private volatile int mStepMessage = 0;
+    public final static int STATE_RTSP_IDLE = WfdSinkSession.STATE_IDLE;
+    public final static int STATE_RTSP_CONNECTING = WfdSinkSession.STATE_CONNECTING;
+    public final static int STATE_RTSP_CONNECT_SUCCESS = WfdSinkSession.STATE_CONNECT_SUCCESS;
+    public final static int STATE_RTSP_CONNECT_FAILED = WfdSinkSession.STATE_CONNECT_FAILED;
+    public final static int STATE_RTSP_DISCONNECTED = WfdSinkSession.STATE_DISCONNECTED;
+    //连接暂时中断，正在恢复，解码器和surface保持不变
+    public final static int STATE_RTSP_RECOVERING = WfdSinkSession.STATE_RECOVERING;
+
+    //RTP的传输方式
+    public final static int RTP_TRANSPORT_UDP = WfdSinkSession.RTP_TRANSPORT_UDP;
+    //RTP交织在RTSP的TCP连接上传输，延迟稍大但不丢包，Source端不支持时自动改用UDP
+    public final static int RTP_TRANSPORT_TCP = WfdSinkSession.RTP_TRANSPORT_TCP;
+
+    private final HandlerThread handlerThread;
+    private final Handler mTHandler;
+    //这个会话的视频和音频管理者，解析出来的数据只交给它们
+    private final VideoDataManager mVideoDataManager;
+    private final AudioDataManager mAudioDataManager;
+    //协商和连接的状态机
+    private final WfdSinkSession mSession;
+
+    //M3中声明的分辨率，VideoResolutionConstant中的值
+    private volatile int mWfdVideoResolution = VideoResolutionConstant.Resolution1;
+    //M4中协商的会话参数，每个会话重新创建
+    private volatile WfdSessionConfig mSessionConfig = new WfdSessionConfig();
+    //音频格式的优先级
+    private volatile AudioCodecConfig mAudioCodecConfig = AudioCodecConfig.getDefault();
+    //本机有HEVC解码器时，在M3中通过wfd2_video_formats告诉Source端
+    private volatile boolean mHevcEnabled = true;
 
     private int rtspConnectState = STATE_RTSP_IDLE;
+    //quit之后连接关闭时通知
+    private volatile Runnable mQuitCallback;
 
     private List<OnConnectStateListener> stateListeners = new ArrayList<>();
 
@@ -79,538 +73,380 @@ public class RtspSink {
     }
 
     private RtspSink() {
+        this("rtspThread", VideoDataManager.getInstance(), AudioDataManager.getInstance(), null);
+    }
+
+    /**
+     * 由{@link SinkSession}创建，每个会话有自己的RTSP线程和解码器
+     *
+     * @param sharedEventLoop 不为null时使用事件循环模式，并且和其他会话共用这个循环，会话结束时不退出
+     */
+    RtspSink(String threadName, VideoDataManager videoDataManager, AudioDataManager audioDataManager,
+             WfdEventLoop sharedEventLoop) {
+        mVideoDataManager = videoDataManager;
+        mAudioDataManager = audioDataManager;
+        handlerThread = new HandlerThread(threadName);
         handlerThread.start();
-        mTHandler = new Handler(handlerThread.getLooper(), tCallback);
+        mTHandler = new Handler(handlerThread.getLooper());
+        mSession = new WfdSinkSession(new WfdScheduler() {
+            @Override
+            public void post(Runnable runnable) {
+                mTHandler.post(runnable);
+            }
+
+            @Override
+            public void postDelayed(Runnable runnable, long delayMs) {
+                mTHandler.postDelayed(runnable, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable runnable) {
+                mTHandler.removeCallbacks(runnable);
+            }
+        }, sharedEventLoop, Build.VERSION.RELEASE, sessionCallback);
+        mSession.addElementaryStreamConsumer(ElementaryStreamConsumer.StreamInfo.TRACK_VIDEO, videoDataManager);
+        mSession.addElementaryStreamConsumer(ElementaryStreamConsumer.StreamInfo.TRACK_AUDIO, audioDataManager);
     }
 
     @MainThread
     @WorkerThread
     public void createRTSPClient(String address, int port,int wfdVideoResolution) {
         LogUtils.d(TAG, "createRTSPClient " + address + ", " + port);
-        mAddress = address;
-        mPort = port;
+        if (wfdVideoResolution != VideoResolutionConstant.ResolutionNone
+                && wfdVideoResolution != VideoResolutionConstant.Resolution1
+                && wfdVideoResolution != VideoResolutionConstant.Resolution2) {
+            //不认识的值在M3中不会声明任何视频格式，按720p处理
+            LogUtils.w(TAG, "unknown video resolution: " + wfdVideoResolution + ", use Resolution1");
+            wfdVideoResolution = VideoResolutionConstant.Resolution1;
+        }
         mWfdVideoResolution = wfdVideoResolution;
-        mTHandler.sendEmptyMessage(ACTION_CONNECT_SOCKET);
+        mSession.connect(address, port, isAudioOnly());
     }
 
-    //断开RTSP连接
+    /**
+     * 注册ES数据的接收者，可以在投屏过程中随时增删，回调在解析TS的线程中执行
+     *
+     * @param track {@link ElementaryStreamConsumer.StreamInfo#TRACK_VIDEO}或者TRACK_AUDIO
+     */
     @MainThread
     @WorkerThread
-    public void closeRtspSession() {
-        LogUtils.d(TAG, "closeRtspSession");
-        if (getRtspConnectState() == STATE_RTSP_CONNECT_SUCCESS) {
-            new Thread() {
-                @Override
-                public void run() {
-                    try {
-                        requestM8();
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }.start();
-
-        }
+    public void addElementaryStreamConsumer(int track, ElementaryStreamConsumer consumer) {
+        mSession.addElementaryStreamConsumer(track, consumer);
     }
 
     @MainThread
     @WorkerThread
-    public void close(int status) {
-        Message msg = Message.obtain();
-        msg.what = ACTION_CLOSE_SOCKET;
-        msg.arg1 = status;
-        mTHandler.sendMessage(msg);
+    public void removeElementaryStreamConsumer(ElementaryStreamConsumer consumer) {
+        mSession.removeElementaryStreamConsumer(consumer);
     }
 
-
     /**
-     * ---------------------------------------------------------------------------------------------
-     * -----------------------------------协议连接以及解析---------------------------------------------
-     * ---------------------------------------------------------------------------------------------
+     * 是否向Source端声明支持H.265，在createRTSPClient之前调用
+     * 默认开启，本机没有HEVC解码器或者Source端不查询wfd2_video_formats时仍然只用H.264
      */
-
-
-    private volatile Socket mSocket = null;
-    private volatile BufferedInputStream reader = null;
-    private volatile BufferedOutputStream writer = null;
-
-    private Handler.Callback tCallback = new Handler.Callback() {
-        @Override
-        public boolean handleMessage(Message msg) {
-            switch (msg.what) {
-                case ACTION_CONNECT_SOCKET:
-                    connectSocket();
-                    break;
-                case ACTION_CLOSE_SOCKET:
-                    closeSocket(msg.arg1);
-                    break;
-                case ACTION_CLOSE_RTSP:
-
-                    break;
-            }
-            return true;
-        }
-    };
-
+    @MainThread
     @WorkerThread
-    private void connectSocket() {
-        LogUtils.i(TAG, "connectSocket");
-        if (TextUtils.isEmpty(mAddress) || mPort == 0) {
-            close(STATE_RTSP_CONNECT_FAILED);
-            return;
-        }
-        rtpReceiver = new RTPReceiver(new RTPReceiver.OnRTPExceptionListener() {
-            @Override
-            public void onIOException() {
-                close(STATE_RTSP_DISCONNECTED);
-            }
-        });
-
-        //设置连接中的状态
-        setRtspConnectState(STATE_RTSP_CONNECTING);
-        try {
-            mSocket = new Socket();
-            mSocket.connect((new InetSocketAddress(mAddress, mPort)), 3 * 1000);
-            //创建IO流
-            reader = new BufferedInputStream(mSocket.getInputStream());
-            writer = new BufferedOutputStream(mSocket.getOutputStream());
-            //读取数据
-            readData();
-        } catch (Exception e) {
-            e.printStackTrace();
-            close(STATE_RTSP_CONNECT_FAILED);
-        }
+    public void setHevcEnabled(boolean hevcEnabled) {
+        mHevcEnabled = hevcEnabled;
     }
 
+    /**
+     * 是否使用事件循环模式，在createRTSPClient之前调用
+     * 开启后一个投屏会话只用一个线程收发RTSP和RTP/RTCP数据，减少线程切换，适合CPU核数少的车机
+     */
+    @MainThread
     @WorkerThread
-    private void resetData() {
-        LogUtils.d(TAG, "resetData");
-        mAddress = "";
-        mPort = 0;
-        rtspUrl = "";
-        rtspSession = "";
-        mStepMessage = 0;
-        setRtspConnectState(STATE_RTSP_IDLE);
-        if (rtpReceiver != null) {
-            rtpReceiver.close();
-            rtpReceiver = null;
-        }
+    public void setEventLoopMode(boolean eventLoopMode) {
+        mSession.setEventLoopMode(eventLoopMode);
     }
 
+    //设置音频格式的优先级，在createRTSPClient之前调用
+    @MainThread
     @WorkerThread
-    private void closeSocket(int status) {
-        LogUtils.i(TAG, "closeSocket WifiDisplaySink");
-        try {
-            if (reader != null) {
-                reader.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            reader = null;
-        }
-        try {
-            if (writer != null) {
-                writer.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            writer = null;
-        }
-        try {
-            if (mSocket != null) {
-                mSocket.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            mSocket = null;
-        }
-        setRtspConnectState(status);
-        //重置数据
-        resetData();
+    public void setAudioCodecConfig(AudioCodecConfig audioCodecConfig) {
+        mAudioCodecConfig = audioCodecConfig == null ? AudioCodecConfig.getDefault() : audioCodecConfig;
     }
 
-    public synchronized void addOnConnectStateListener(OnConnectStateListener listener) {
-        if (stateListeners.contains(listener)) {
-            return;
-        }
-        stateListeners.add(listener);
+    /**
+     * 连接中断后的恢复窗口，在createRTSPClient之前调用
+     * RTP超时没有数据时重新发送PLAY，RTSP连接断开时重新连接并协商，解码器和surface保持不变；
+     * 超过这个时间还没有恢复才断开连接。0表示不恢复，和之前一样直接断开
+     */
+    @MainThread
+    @WorkerThread
+    public void setRecoveryWindow(long windowMs) {
+        mSession.setRecoveryWindow(windowMs);
     }
 
-    public synchronized void removeOnConnectStateListener(OnConnectStateListener listener) {
-        if (!stateListeners.contains(listener)) {
-            return;
-        }
-        stateListeners.remove(listener);
+    //上一次中断到恢复的时长，没有中断过时为0
+    public long getLastOutageMs() {
+        return mSession.getLastOutageMs();
     }
 
-    //设置连接状态
-    private synchronized void setRtspConnectState(int state) {
-        if (rtspConnectState == state) {
-            return;
-        }
-        LogUtils.getHandler().post(new Runnable() {
-            @Override
-            public void run() {
-                rtspConnectState = state;
-                LogUtils.i(TAG, "setConnectState: " + rtspConnectState);
-                for (int i = 0; i < stateListeners.size(); i++) {
-                    stateListeners.get(i).onConnectStateListener(rtspConnectState);
-                }
-            }
-        });
+    //恢复成功的次数
+    public int getRecoveryCount() {
+        return mSession.getRecoveryCount();
+    }
 
+    /**
+     * RTP的传输方式，RTP_TRANSPORT_UDP或者RTP_TRANSPORT_TCP，在createRTSPClient之前调用
+     * 可以按Source端分别设置，比如干扰大的车内环境对已知支持TCP的手机使用TCP
+     */
+    @MainThread
+    @WorkerThread
+    public void setRtpTransport(int transport) {
+        mSession.setRtpTransport(transport);
     }
 
-    //获取连接状态
-    public synchronized int getRtspConnectState() {
-        return rtspConnectState;
+    //当前会话的RTP是否通过TCP传输
+    public boolean isRtpOverTcp() {
+        return mSession.isRtpOverTcp();
     }
 
+    /**
+     * UDP传输时的丢包恢复，在createRTSPClient之前调用
+     * 开启后RTP包会按序列号缓存windowMs，缺的包通过NACK请求重传或者用FEC恢复，
+     * 恢复一部分丢包就能少等很多IDR帧
+     *
+     * @param nackEnabled    是否通过RTCP NACK请求Source端重传
+     * @param fecPayloadType Source端FEC包（RFC 5109）的payload type，-1表示不使用FEC
+     * @param windowMs       缺的包最多等待的时间
+     */
+    @MainThread
     @WorkerThread
-    private void readData() {
-        new Thread() {
-            @Override
-            public void run() {
-                mStepMessage = M1;
-                byte[] buffered = new byte[2 * 1024];
-                String mSourceData = "";
-                boolean isReadData = true;
-                try {
-                    while (isReadData) {
-                        int count = reader.read(buffered, 0, buffered.length);
-                        LogUtils.i(TAG, "-------------------source data--------------------readCount: " + count);
-                        mSourceData = new String(buffered, 0, count);
-                        LogUtils.d(TAG, mSourceData);
-
-                        if (mStepMessage == M1) {
-                            //相应第一个消息
-                            responseM1(getCSeq(mSourceData));
-                            //接着发送第二个消息
-                            mStepMessage = M2;
-                            requestM2(getCSeq(mSourceData));
-                            continue;
-                        }
-                        if (mStepMessage == M2) {
-                            //第二个消息source端回复了，并且source端接着发了第三个消息
-                            String[] splits = mSourceData.split("\r\n");
-                            for (int i = 0; i < splits.length; i++) {
-                                if (splits[i].contains("GET_PARAMETER ")) {
-                                    mStepMessage = M3;
-                                    break;
-                                }
-                            }
-                        }
-                        if (mStepMessage == M3) {
-                            responseM3(getCSeq(mSourceData));
-                            //后面会是第四个消息
-                            mStepMessage = M4;
-                            continue;
-                        }
-                        if (mStepMessage == M4) {
-                            //第四个消息中，获取地址
-                            String[] splits = mSourceData.split("\r\n");
-                            for (int i = 0; i < splits.length; i++) {
-                                if (splits[i].contains("wfd_presentation_URL")) {
-                                    String[] values = splits[i].split(" ");
-                                    rtspUrl = values[1];
-                                }
-                            }
-                            responseM4(getCSeq(mSourceData));
-                            //后面会是第五个消息
-                            mStepMessage = M5;
-                            continue;
-                        }
-                        if (mStepMessage == M5) {
-                            //解析第五个消息中的wfd_trigger_method值，如果是 TEARDOWN，表示Source端要断开连接
-                            String[] splits = mSourceData.split("\r\n");
-                            for (int i = 0; i < splits.length; i++) {
-                                if (splits[i].contains("wfd_trigger_method:")) {
-                                    String[] values = splits[i].split(" ");
-                                    if ("TEARDOWN".equals(values[1])) {
-                                        return;
-                                    }
-                                }
-                            }
-                            responseM5(getCSeq(mSourceData));
-                            //Sink端发送第六个消息
-                            mStepMessage = M6;
-                            requestM6(getCSeq(mSourceData));
-                            continue;
-                        }
-                        if (mStepMessage == M6) {
-                            //第六个消息中，获取Session值
-                            String[] splits = mSourceData.split("\r\n");
-                            for (int i = 0; i < splits.length; i++) {
-                                if (splits[i].contains("Session:")) {
-                                    String[] values = splits[i].split(" ");
-                                    rtspSession = values[1].split(";")[0];
-                                }
-//                    else if (splits[i].contains("Transport:")) {
-//                        mRtpServerPort = 0;
-//                        String value = splits[i];
-//                        String substring = value.substring(value.lastIndexOf("=") + 1);
-//                        mRtpServerPort = Integer.parseInt(substring);
-//                    }
-                            }
-                            //Sink端发送第七个消息
-                            mStepMessage = M7;
-                            requestM7(getCSeq(mSourceData));
-                            continue;
-                        }
-                        if (mStepMessage == M7) {
-                            if (mSourceData.contains("RTSP/1.0 200 OK")) {
-                                setRtspConnectState(STATE_RTSP_CONNECT_SUCCESS);
-                                //消息发送完毕，置空
-                                mStepMessage = 0;
-                                continue;
-                            }
-                        }
-
-                        //这是心跳包的回复
-                        if (mSourceData.contains("GET_PARAMETER ") && mSourceData.contains("Session")) {
-                            responseM16(getCSeq(mSourceData));
-                            continue;
-                        }
-
-                        //断开连接
-                        String[] splits = mSourceData.split("\r\n");
-                        for (int i = 0; i < splits.length; i++) {
-                            if (splits[i].contains("wfd_trigger_method:")) {
-                                String[] values = splits[i].split(" ");
-                                if ("TEARDOWN".equals(values[1])) {
-                                    //Source端要断开连接
-                                    isReadData = false;
-                                }
-                            } else if (splits[i].equals("CSeq: " + M8)) {
-                                //Sink端要断开连接
-                                isReadData = false;
-                            }
-                        }
-                    }
-                    //跳出循环，关闭socket
-                    close(STATE_RTSP_DISCONNECTED);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    close(STATE_RTSP_CONNECT_FAILED);
-                }
-            }
-        }.start();
+    public void setLossRecovery(boolean nackEnabled, int fecPayloadType, long windowMs) {
+        mSession.setLossRecovery(nackEnabled, fecPayloadType, windowMs);
     }
 
-    private String getCSeq(String data) {
-        String value = "0";
-        String[] heartSplits = data.split("\r\n");
-        for (int i = 0; i < heartSplits.length; i++) {
-            if (heartSplits[i].contains("CSeq:")) {
-                String[] values = heartSplits[i].split(" ");
-                value = values[1];
-            }
-        }
-        return value;
+    //当前会话中通过重传或者FEC恢复的RTP包数
+    public long getRecoveredPacketCount() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? 0 : receiver.getLossRecovery().getRecoveredCount();
     }
 
-    private String getDate() {
-//        %a, %d %b %Y %H:%M:%S %z
-        SimpleDateFormat format = new SimpleDateFormat("E, d M yyyy HH:mm:ss Z", Locale.ENGLISH);
-        return format.format(new Date());
+    //当前会话中没有恢复的RTP包数
+    public long getUnrecoveredPacketCount() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? 0 : receiver.getLossRecovery().getUnrecoveredCount();
     }
 
-    private String getUserAgent() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("stagefright/1.2 (Linux;Android ");
-        sb.append(Build.VERSION.RELEASE);
-        sb.append(")");
-        return sb.toString();
+    /**
+     * Source端RTP头部扩展的ID，在createRTSPClient之前调用
+     * WFD没有SDP协商扩展，需要和Source端事先约定，0表示没有这个扩展
+     *
+     * @param absSendTimeId        abs-send-time的ID
+     * @param transmissionOffsetId transmission time offset（RFC 5450）的ID
+     */
+    @MainThread
+    @WorkerThread
+    public void setRtpExtensionIds(int absSendTimeId, int transmissionOffsetId) {
+        mSession.setRtpExtensionIds(absSendTimeId, transmissionOffsetId);
     }
 
-    @WorkerThread
-    //M1，响应数据
-    private void responseM1(String cseq) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        sb.append("RTSP/1.0 200 OK\r\n");
-        sb.append("User-Agent: " + getUserAgent() + "\r\n");
-        sb.append("Date: " + getDate() + "\r\n");
-        sb.append("CSeq: " + cseq + "\r\n");
-        sb.append("Public: org.wfa.wfd1.0, GET_PARAMETER, SET_PARAMETER\r\n");
-        sb.append("\r\n");
+    //网络抖动，有abs-send-time时按发送时间计算，否则按RTP时间戳（RFC 3550）计算，单位毫秒
+    public double getNetworkJitterMs() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        if (receiver == null) {
+            return 0;
+        }
+        double sendTimeJitterMs = receiver.getTiming().getSendTimeJitterMs();
+        return sendTimeJitterMs >= 0 ? sendTimeJitterMs : receiver.getTiming().getJitterMs();
+    }
 
-        LogUtils.i(TAG, "-------------------sink data--------------------responseM1");
-        LogUtils.d(TAG, sb.toString());
+    //网络中的排队延迟，需要abs-send-time，没有时返回-1
+    public long getQueuingDelayMs() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? -1 : receiver.getTiming().getQueuingDelayMs();
+    }
 
-        writer.write(sb.toString().getBytes());
-        writer.flush();
+    //当前会话中TS流重新同步的次数
+    public long getTsResyncCount() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? 0 : receiver.getDemuxer().getResyncCount();
+    }
 
+    //当前会话中TS流同步时丢弃的字节数
+    public long getTsDiscardedBytes() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? 0 : receiver.getDemuxer().getDiscardedBytes();
     }
 
-    @WorkerThread
-    //M2，向source端发送数据
-    private void requestM2(String cseq) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        sb.append("OPTIONS * RTSP/1.0\r\n");
-        sb.append("User-Agent: " + getUserAgent() + "\r\n");
-        sb.append("Date: " + getDate() + "\r\n");
-        sb.append("CSeq: " + cseq + "\r\n");
-        sb.append("Require: org.wfa.wfd1.0\r\n");
-        sb.append("\r\n");
+    //当前会话中transport_error_indicator为1被丢弃的TS包数
+    public long getTsErrorPacketCount() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? 0 : receiver.getDemuxer().getErrorPackets();
+    }
 
-        LogUtils.i(TAG, "-------------------sink data--------------------requestM2");
-        LogUtils.d(TAG, sb.toString());
+    //当前会话中Source端重新开始编码（SSRC变化）的次数
+    public long getStreamSwitchCount() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? 0 : receiver.getDemuxer().getStreamChangeCount();
+    }
 
-        writer.write(sb.toString().getBytes());
-        writer.flush();
+    //当前会话中payload type不对被丢弃的RTP包数
+    public long getUnexpectedPayloadTypeCount() {
+        RTPReceiver receiver = mSession.getRtpReceiver();
+        return receiver == null ? 0 : receiver.getDemuxer().getUnexpectedPayloadTypeCount();
     }
 
+    //协商每一步的超时时间，在createRTSPClient之前调用
+    @MainThread
     @WorkerThread
-    //M3，响应数据
-    private void responseM3(String cseq) throws Exception {
-        StringBuilder bodyBuilder = new StringBuilder();
-//        bodyBuilder.append("wfd_video_formats: %02x 00 %02x %02x %08x %08x %08x 00 0000 0000 00 none none\r\n");值都是16进制表示
-        if (mWfdVideoResolution == VideoResolutionConstant.Resolution1) {
-            //1280x720
-            bodyBuilder.append("wfd_video_formats: 30 00 02 02 00008c60 00000000 00000000 00 0000 0000 00 none none\r\n");
-        } else if (mWfdVideoResolution == VideoResolutionConstant.Resolution2) {
-            //1920x1080
-            bodyBuilder.append("wfd_video_formats: 38 00 02 02 00017380 00000000 00000000 00 0000 0000 00 none none\r\n");
-        }
-        //音频是AAC格式的
-        bodyBuilder.append("wfd_audio_codecs: AAC 00000001 00\r\n");
-        bodyBuilder.append("wfd_client_rtp_ports: RTP/AVP/UDP;unicast " + rtpReceiver.getLocalRTPPort() + " 0 mode=play\r\n");
-
-        StringBuilder responseBuilder = new StringBuilder();
-        responseBuilder.append("RTSP/1.0 200 OK\r\n");
-        responseBuilder.append("User-Agent: " + getUserAgent() + "\r\n");
-        responseBuilder.append("Date: " + getDate() + "\r\n");
-        responseBuilder.append("CSeq: " + cseq + "\r\n");
-        responseBuilder.append("Content-type: text/parameters\r\n");
-        responseBuilder.append("Content-length: " + bodyBuilder.toString().length() + "\r\n");
-        responseBuilder.append("\r\n");
-        responseBuilder.append(bodyBuilder);
-
-        LogUtils.i(TAG, "-------------------sink data--------------------responseM3");
-        LogUtils.d(TAG, responseBuilder.toString());
+    public void setHandshakeTimeout(long timeoutMs) {
+        mSession.setHandshakeTimeout(timeoutMs);
+    }
 
-        writer.write(responseBuilder.toString().getBytes());
-        writer.flush();
+    /**
+     * 最近一次协商每一步的耗时，比如：M1=120ms(+120) M2=180ms(+60) ... total=1500ms
+     */
+    public String getHandshakeTimingSummary() {
+        return mSession.getHandshakeTimingSummary();
     }
 
+    //断开RTSP连接
+    @MainThread
     @WorkerThread
-    //M4，响应数据
-    private void responseM4(String cseq) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        sb.append("RTSP/1.0 200 OK\r\n");
-        sb.append("User-Agent: " + getUserAgent() + "\r\n");
-        sb.append("Date: " + getDate() + "\r\n");
-        sb.append("CSeq: " + cseq + "\r\n");
-        sb.append("\r\n");
-
-        LogUtils.i(TAG, "-------------------sink data--------------------responseM4");
-        LogUtils.d(TAG, sb.toString());
-
-        writer.write(sb.toString().getBytes());
-        writer.flush();
+    public void closeRtspSession() {
+        LogUtils.d(TAG, "closeRtspSession");
+        mSession.closeRtspSession();
     }
 
+    @MainThread
     @WorkerThread
-    //M5，响应数据
-    private void responseM5(String cseq) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        sb.append("RTSP/1.0 200 OK\r\n");
-        sb.append("CSeq: " + cseq + "\r\n");
-        sb.append("\r\n");
-
-        LogUtils.i(TAG, "-------------------sink data--------------------responseM5");
-        LogUtils.d(TAG, sb.toString());
+    public void close(final int status) {
+        mSession.close(status);
+    }
 
-        writer.write(sb.toString().getBytes());
-        writer.flush();
+    /**
+     * 会话释放时调用：已经连接的先发送TEARDOWN，连接关闭后退出RTSP线程，之后不能再使用
+     *
+     * @param onQuit 连接关闭后调用，可以为null，事件循环模式下在循环线程中执行
+     */
+    void quit(Runnable onQuit) {
+        mQuitCallback = onQuit;
+        mSession.quit();
+    }
 
+    public synchronized void addOnConnectStateListener(OnConnectStateListener listener) {
+        if (stateListeners.contains(listener)) {
+            return;
+        }
+        stateListeners.add(listener);
     }
 
-    @WorkerThread
-    //M6，向source端发送数据
-    private void requestM6(String cseq) throws Exception {
-        //准备接受UDP数据
-        rtpReceiver.createRTPServer();
+    public synchronized void removeOnConnectStateListener(OnConnectStateListener listener) {
+        if (!stateListeners.contains(listener)) {
+            return;
+        }
+        stateListeners.remove(listener);
+    }
 
-        //发送M6消息给Source端
-        int rtpPort = rtpReceiver.getLocalRTPPort();
-        StringBuilder sb = new StringBuilder();
-        sb.append("SETUP " + rtspUrl + " RTSP/1.0\r\n");
-        sb.append("User-Agent: " + getUserAgent() + "\r\n");
-        sb.append("Date: " + getDate() + "\r\n");
-        sb.append("CSeq: " + cseq + "\r\n");
-        sb.append("Transport: RTP/AVP/UDP;unicast;client_port=" + rtpPort + "-" + (rtpPort + 1) + "\r\n");
-        sb.append("\r\n");
+    //设置连接状态，WfdSinkSession只在状态变化时通知
+    private synchronized void setRtspConnectState(int state) {
+        LogUtils.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                rtspConnectState = state;
+                LogUtils.i(TAG, "setConnectState: " + rtspConnectState);
+                for (int i = 0; i < stateListeners.size(); i++) {
+                    stateListeners.get(i).onConnectStateListener(rtspConnectState);
+                }
+            }
+        });
 
-        LogUtils.i(TAG, "-------------------sink data--------------------requestM6");
-        LogUtils.d(TAG, sb.toString());
+    }
 
-        writer.write(sb.toString().getBytes());
-        writer.flush();
+    //获取连接状态
+    public synchronized int getRtspConnectState() {
+        return rtspConnectState;
     }
 
-    @WorkerThread
-    //M7，向source端发送数据
-    private void requestM7(String cseq) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        sb.append("PLAY " + rtspUrl + " RTSP/1.0\r\n");
-        sb.append("User-Agent: " + getUserAgent() + "\r\n");
-        sb.append("Date: " + getDate() + "\r\n");
-        sb.append("CSeq: " + cseq + "\r\n");
-        sb.append("Session: " + rtspSession + "\r\n"); //荣耀手机如果最后一个结尾没有\r\n，会出现M7指令延迟25秒回复的情况
-        sb.append("\r\n");
-
-//        sb.append("PLAY rtsp://x.x.x.x:x/wfd1.0/streamid=0 RTSP/1.0" + "\r\n");
-//        sb.append("Date: Thu, 31 Oct 2024 09:41:46 +0000" + "\r\n");
-//        sb.append("User-Agent: stagefright/1.2 (Linux;Android 9)" + "\r\n");
-//        sb.append("CSeq: 3" + "\r\n");
-//        sb.append("Session: " + rtspSession + "\r\n");
-//        sb.append("\r\n");
-
-        LogUtils.i(TAG, "-------------------sink data--------------------requestM7");
-        LogUtils.d(TAG, sb.toString());
-
-        writer.write(sb.toString().getBytes());
-        writer.flush();
+    //是否只接收音频
+    private boolean isAudioOnly() {
+        return mWfdVideoResolution == VideoResolutionConstant.ResolutionNone;
     }
 
-    @WorkerThread
-    //M8指令，断开投屏连接
-    private void requestM8() throws Exception {
-        StringBuilder sb = new StringBuilder();
-        sb.append("TEARDOWN " + rtspUrl + " RTSP/1.0\r\n");
-        sb.append("User-Agent: " + getUserAgent() + "\r\n");
-        sb.append("Date: " + getDate() + "\r\n");
-        sb.append("CSeq: " + M8 + "\r\n");
-        sb.append("Session: " + rtspSession + "\r\n");
-        sb.append("\r\n");
+    //把M4中协商的参数交给视频和音频的管理者，在第一个RTP包到达之前配置好解码器和缓存
+    private void applySessionConfig(RTPReceiver rtpReceiver) {
+        AudioCodecConfig.AudioMode audioMode = mSessionConfig.getAudioMode();
+        if (audioMode != null) {
+            mAudioDataManager.setAudioMode(audioMode);
+        }
+        WfdSessionConfig.VideoFormat videoFormat = mSessionConfig.getVideoFormat();
+        if (videoFormat == null || isAudioOnly()) {
+            return;
+        }
+        mVideoDataManager.setVideoFormat(videoFormat);
+        if (rtpReceiver != null) {
+            rtpReceiver.setMaxVideoFrameSize(videoFormat.getMaxFrameSize());
+        }
+    }
 
-        LogUtils.i(TAG, "-------------------sink data--------------------requestM8");
-        LogUtils.d(TAG, sb.toString());
+    //和解码器相关的部分，在RTSP线程（事件循环模式下是循环线程）中调用
+    private final WfdSinkSession.Callback sessionCallback = new WfdSinkSession.Callback() {
+        @Override
+        public void onPrepare(RTPReceiver receiver) {
+            mSessionConfig = new WfdSessionConfig();
+            if (!isAudioOnly()) {
+                mVideoDataManager.setSourceClock(receiver.getSourceClock());
+            }
+            mAudioDataManager.setSourceClock(receiver.getSourceClock());
+            mAudioCodecConfig.prepare();
+            if (mHevcEnabled && !isAudioOnly()) {
+                VideoDataManager.isHevcDecoderSupported();
+            }
+        }
 
-        writer.write(sb.toString().getBytes());
-        writer.flush();
-    }
+        @Override
+        public void appendCapabilities(RtspMessage request, StringBuilder body) {
+//        body.append("wfd_video_formats: %02x 00 %02x %02x %08x %08x %08x 00 0000 0000 00 none none\r\n");值都是16进制表示
+            String videoFormats = null;
+            if (mWfdVideoResolution == VideoResolutionConstant.Resolution1) {
+                //1280x720
+                videoFormats = "30 00 %s %s 00008c60 00000000 00000000 00 0000 0000 00 none none";
+            } else if (mWfdVideoResolution == VideoResolutionConstant.Resolution2) {
+                //1920x1080
+                videoFormats = "38 00 %s %s 00017380 00000000 00000000 00 0000 0000 00 none none";
+            }
+            if (videoFormats != null) {
+                body.append("wfd_video_formats: ").append(String.format(videoFormats, "02", "02")).append("\r\n");
+                //Source端支持R2时才会查询wfd2_video_formats，profile前面多一个codec：02是H.265（Main），01是H.264
+                //H.265放在前面优先选择
+                if (mHevcEnabled && request.hasParameter("wfd2_video_formats") && VideoDataManager.isHevcDecoderSupported()) {
+                    body.append("wfd2_video_formats: ")
+                            .append(String.format(videoFormats, "02 01", "02")).append(", ")
+                            .append(String.format(videoFormats, "01 02", "02")).append("\r\n");
+                }
+            } else if (isAudioOnly()) {
+                //只接收音频，Source端不会发送视频流
+                body.append("wfd_video_formats: none\r\n");
+            }
+            //音频格式按照配置的优先级排列，带上实测的解码延迟
+            body.append("wfd_audio_codecs: ").append(mAudioCodecConfig.getM3Value()).append("\r\n");
+        }
 
-    @WorkerThread
-    //心跳回复
-    private void responseM16(String cseq) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        sb.append("RTSP/1.0 200 OK\r\n");
-        sb.append("User-Agent: " + getUserAgent() + "\r\n");
-        sb.append("Date: " + getDate() + "\r\n");
-        sb.append("CSeq: " + cseq + "\r\n");
-        sb.append("\r\n");
+        @Override
+        public boolean onSessionConfig(RtspMessage request, RTPReceiver receiver) {
+            boolean formatChanged = mSessionConfig.update(request);
+            applySessionConfig(receiver);
+            return formatChanged;
+        }
 
-        LogUtils.i(TAG, "-------------------sink data--------------------responseM16");
-        LogUtils.d(TAG, sb.toString());
+        @Override
+        public void onStateChanged(int state) {
+            setRtspConnectState(state);
+        }
 
-        writer.write(sb.toString().getBytes());
-        writer.flush();
-    }
+        @Override
+        public void onQuit() {
+            handlerThread.quitSafely();
+            Runnable onQuit = mQuitCallback;
+            mQuitCallback = null;
+            if (onQuit != null) {
+                onQuit.run();
+            }
+        }
+    };
 
 
     public interface OnConnectStateListener {
@@ -0,0 +1,104 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.MainThread;
+
+/**
+ * 一个投屏会话：自己的RTSP客户端、RTP接收、TS解析和音视频解码器，和其他会话互不影响
+ * <p>
+ * 由{@link SinkSessionManager}创建和释放，双屏车机上两部手机可以同时投到主驾屏和后排屏。
+ * 使用方式和单个会话时一样：surface准备好后初始化解码，再用{@link #getRtspSink()}连接Source端
+ */
+
+public class SinkSession {
+
+    //解码后端：MediaCodec解码
+    public static final int DECODER_BACKEND_MEDIA_CODEC = DecoderBackend.TYPE_MEDIA_CODEC;
+    //解码后端：不解码，只统计
+    public static final int DECODER_BACKEND_NULL = DecoderBackend.TYPE_NULL;
+
+    private final String mId;
+    private final VideoDataManager mVideoDataManager;
+    private final AudioDataManager mAudioDataManager;
+    private final RtspSink mRtspSink;
+    private volatile boolean released = false;
+
+    /**
+     * @param sharedEventLoop 多个会话共用的事件循环，为null时使用线程模式
+     */
+    SinkSession(String id, WfdEventLoop sharedEventLoop) {
+        mId = id;
+        mVideoDataManager = new VideoDataManager("video_data_thread-" + id);
+        mAudioDataManager = new AudioDataManager("audio_data_thread-" + id);
+        mRtspSink = new RtspSink("rtspThread-" + id, mVideoDataManager, mAudioDataManager, sharedEventLoop);
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public RtspSink getRtspSink() {
+        return mRtspSink;
+    }
+
+    public VideoDataManager getVideoDataManager() {
+        return mVideoDataManager;
+    }
+
+    public AudioDataManager getAudioDataManager() {
+        return mAudioDataManager;
+    }
+
+    /**
+     * 选择音视频的解码后端，在初始化解码和连接Source端之前调用
+     * 使用{@link #DECODER_BACKEND_NULL}时不解码，只统计帧率、码率和排队延迟，用来测量接收和解析能承受的码率
+     *
+     * @param type {@link #DECODER_BACKEND_MEDIA_CODEC}或者{@link #DECODER_BACKEND_NULL}
+     */
+    @MainThread
+    public void setDecoderBackend(int type) {
+        mVideoDataManager.setDecoderBackend(type);
+        mAudioDataManager.setDecoderBackend(type);
+    }
+
+    //视频解码队列的帧统计
+    public DecoderStats getVideoDecoderStats() {
+        return mVideoDataManager.getDecoderStats();
+    }
+
+    //音频解码队列的帧统计
+    public DecoderStats getAudioDecoderStats() {
+        return mAudioDataManager.getDecoderStats();
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    //断开连接，释放解码器，退出这个会话的所有线程
+    @MainThread
+    void release() {
+        release(null);
+    }
+
+    /**
+     * @param onReleased RTSP连接关闭（TEARDOWN完成或者超时）后调用，可以为null
+     */
+    @MainThread
+    synchronized void release(Runnable onReleased) {
+        if (released) {
+            if (onReleased != null) {
+                onReleased.run();
+            }
+            return;
+        }
+        released = true;
+        mRtspSink.quit(onReleased);
+        mVideoDataManager.quit();
+        mAudioDataManager.quit();
+    }
+
+    @Override
+    public String toString() {
+        return "SinkSession{" + mId + ", state=" + mRtspSink.getRtspConnectState() + "}";
+    }
+}
@@ -0,0 +1,136 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.MainThread;
+
+import com.autoai.wifi_sink.LogUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 管理同时进行的多个投屏会话，比如双屏车机的主驾屏和后排屏各连一部手机
+ * <p>
+ * 每个会话有自己的解码器和解码线程；事件循环模式下所有会话的RTSP连接和RTP/RTCP端口
+ * 共用一个事件循环线程，不会因为会话数量增加而多出收包线程
+ */
+
+public class SinkSessionManager {
+
+    private final String TAG = SinkSessionManager.class.getSimpleName();
+
+    private final Map<String, SinkSession> mSessions = new LinkedHashMap<>();
+    private final boolean mEventLoopMode;
+    //所有会话共用的事件循环，第一个会话创建时启动
+    private WfdEventLoop mEventLoop;
+    //release时等待各个会话TEARDOWN的最长时间，比M8的超时稍长
+    private static final long RELEASE_TIMEOUT_MS = 3 * 1000;
+
+    public SinkSessionManager() {
+        this(false);
+    }
+
+    /**
+     * @param eventLoopMode 是否使用事件循环模式，所有会话共用一个线程收发数据，适合CPU核数少的车机
+     */
+    public SinkSessionManager(boolean eventLoopMode) {
+        mEventLoopMode = eventLoopMode;
+    }
+
+    /**
+     * 创建一个会话，id用来区分显示屏，已经存在时返回原来的会话
+     */
+    @MainThread
+    public synchronized SinkSession createSession(String id) {
+        SinkSession session = mSessions.get(id);
+        if (session != null) {
+            LogUtils.w(TAG, "session " + id + " already exists");
+            return session;
+        }
+        session = new SinkSession(id, getEventLoop());
+        mSessions.put(id, session);
+        LogUtils.i(TAG, "create session " + id + ", count: " + mSessions.size());
+        return session;
+    }
+
+    //没有时返回null
+    public synchronized SinkSession getSession(String id) {
+        return mSessions.get(id);
+    }
+
+    public synchronized List<SinkSession> getSessions() {
+        return new ArrayList<>(mSessions.values());
+    }
+
+    //断开并释放一个会话，其他会话不受影响
+    @MainThread
+    public synchronized void releaseSession(String id) {
+        SinkSession session = mSessions.remove(id);
+        if (session == null) {
+            return;
+        }
+        session.release();
+        LogUtils.i(TAG, "release session " + id + ", count: " + mSessions.size());
+    }
+
+    /**
+     * 释放所有会话和共用的事件循环，之后还可以继续创建新的会话
+     */
+    @MainThread
+    public synchronized void release() {
+        final WfdEventLoop eventLoop = mEventLoop;
+        mEventLoop = null;
+        List<SinkSession> sessions = new ArrayList<>(mSessions.values());
+        mSessions.clear();
+        if (eventLoop == null) {
+            for (SinkSession session : sessions) {
+                session.release();
+            }
+            return;
+        }
+        //TEARDOWN要等Source端回复或者超时，所有会话的连接都关闭后循环才能退出
+        final Runnable quitRunnable = new Runnable() {
+            @Override
+            public void run() {
+                eventLoop.quit();
+            }
+        };
+        final AtomicInteger pending = new AtomicInteger(sessions.size());
+        Runnable onReleased = new Runnable() {
+            @Override
+            public void run() {
+                if (pending.decrementAndGet() == 0) {
+                    eventLoop.post(quitRunnable);
+                }
+            }
+        };
+        //会话没有正常结束时最多等这么久
+        eventLoop.postDelayed(quitRunnable, RELEASE_TIMEOUT_MS);
+        if (sessions.isEmpty()) {
+            eventLoop.post(quitRunnable);
+        }
+        for (SinkSession session : sessions) {
+            session.release(onReleased);
+        }
+    }
+
+    //事件循环模式下返回共用的循环，创建失败时退回线程模式
+    private WfdEventLoop getEventLoop() {
+        if (!mEventLoopMode) {
+            return null;
+        }
+        if (mEventLoop == null) {
+            try {
+                mEventLoop = new WfdEventLoop("wfdEventLoop");
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            mEventLoop.start();
+        }
+        return mEventLoop;
+    }
+}
@@ -1,6 +1,7 @@
 package com.autoai.wifi_sink.display;
 
 import android.media.MediaCodec;
+import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.os.Bundle;
 import android.os.Handler;
@@ -8,32 +9,74 @@ import android.os.HandlerThread;
 import android.os.Message;
 import android.view.Surface;
 
+import com.autoai.wifi_sink.LogUtils;
+
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * 拿到视频的裸流后，使用MediaCodec解码，输出到surface中
  */
 
-public class VideoDataManager {
+public class VideoDataManager implements ElementaryStreamConsumer {
 
     private final String TAG = VideoDataManager.class.getSimpleName();
 
     private static final int MEDIA_INIT = 1;
     private static final int MEDIA_DECODE = 2;
     private static final int MEDIA_RELEASE = 3;
+    private static final int MEDIA_FLUSH = 4;
 
     private static VideoDataManager instance;
+    //本机是否有HEVC解码器，0未检查，1有，-1没有
+    private static int sHevcDecoderState = 0;
 
-    private HandlerThread mHThread = new HandlerThread("video_data_thread");
-    private Handler tHandler;
+    private final HandlerThread mHThread;
+    private volatile Handler tHandler;
 
     private volatile Surface mSurface;
     private volatile int mWidth;
     private volatile int mHeight;
+    //M4中协商的视频格式，有的话按这个格式创建解码器
+    private volatile WfdSessionConfig.VideoFormat mVideoFormat;
+    //解码器类型，M4中协商了H.265或者PMT中的stream_type是0x24时为HEVC
+    private volatile String mMimeType = MediaFormat.MIMETYPE_VIDEO_AVC;
 
     private volatile MediaCodec mMediaCodec;
+    //当前解码器配置的宽高，只在解码线程中使用
+    private int mCodecWidth;
+    private int mCodecHeight;
+
+    //Source端时钟，用来安排每一帧的渲染时间
+    private volatile SourceClock mSourceClock;
+
+    //默认的解码后端：MediaCodec解码，输出到surface
+    private final DecoderBackend mMediaCodecBackend = new DecoderBackend() {
+        @Override
+        public void decode(long ptsUs, long dtsUs, byte[] data, long queuedNs) {
+            decodeVideoData(ptsUs, dtsUs, data);
+        }
+
+        @Override
+        public void flush() {
+            if (mMediaCodec != null) {
+                mMediaCodec.flush();
+            }
+        }
+
+        @Override
+        public void release() {
+            if (mMediaCodec != null) {
+                mMediaCodec.release();
+                mMediaCodec = null;
+            }
+        }
+    };
+    private volatile DecoderBackend mBackend = mMediaCodecBackend;
+    //解码队列的帧统计
+    private final DecoderStats mStats = new DecoderStats();
 
     private FileOutputStream outputStream = null;
 
@@ -49,41 +92,56 @@ public class VideoDataManager {
     }
 
     private VideoDataManager() {
-        mHThread.start();
-        tHandler = new Handler(mHThread.getLooper(), tCallback);
+        this("video_data_thread");
+    }
+
+    //每个投屏会话一个，解码线程的名字带上会话的标识
+    VideoDataManager(String threadName) {
+        mHThread = new HandlerThread(threadName);
+    }
+
+    //解码线程在第一次初始化解码时才创建，只接收音频时不占用线程
+    private synchronized Handler getHandler() {
+        if (tHandler == null) {
+            mHThread.start();
+            tHandler = new Handler(mHThread.getLooper(), tCallback);
+        }
+        return tHandler;
     }
 
     private Handler.Callback tCallback = new Handler.Callback() {
         @Override
         public boolean handleMessage(Message msg) {
             if (msg.what == MEDIA_INIT) {
-                //创建配置
-                MediaFormat mediaFormat = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, mWidth, mHeight);
-                //设置解码预期的帧速率【以帧/秒为单位的视频格式的帧速率的键】
-                //mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, 60);
-                //创建解码器 H264的Type为avc
-                try {
-                    mMediaCodec = MediaCodec.createDecoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
-                    //配置绑定mediaFormat和surface
-                    mMediaCodec.configure(mediaFormat, mSurface, null, 0);
-                    mMediaCodec.start();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                if (mBackend != mMediaCodecBackend) {
+                    return true;
+                }
+                WfdSessionConfig.VideoFormat videoFormat = mVideoFormat;
+                if (videoFormat != null) {
+                    createDecoder(videoFormat.width, videoFormat.height, null);
+                } else {
+                    createDecoder(mWidth, mHeight, null);
                 }
             } else if (msg.what == MEDIA_DECODE) {
                 Bundle bundle = msg.getData();
                 byte[] bytes = bundle.getByteArray("bytes");
                 long pts = bundle.getLong("pts");
                 long dts = bundle.getLong("dts");
+                long queued = bundle.getLong("queued");
                 try {
-                    decodeVideoData(pts, dts, bytes);
+                    mBackend.decode(pts, dts, bytes, queued);
+                    mStats.onDequeued(true);
                 } catch (Exception e) {
                     e.printStackTrace();
+                    mStats.onDequeued(false);
                 }
             } else if (msg.what == MEDIA_RELEASE) {
-                if (mMediaCodec != null) {
-                    mMediaCodec.release();
-                    mMediaCodec = null;
+                mBackend.release();
+            } else if (msg.what == MEDIA_FLUSH) {
+                try {
+                    mBackend.flush();
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
             }
 
@@ -91,25 +149,196 @@ public class VideoDataManager {
         }
     };
 
+    /**
+     * 创建解码器，重新协商了分辨率或者编码类型时先释放之前的解码器
+     *
+     * @param csd HEVC的VPS/SPS/PPS，没有时为null，由解码器从码流中获取
+     */
+    private void createDecoder(int width, int height, byte[] csd) {
+        if (mMediaCodec != null) {
+            mMediaCodec.release();
+            mMediaCodec = null;
+        }
+        String mimeType = mMimeType;
+        //创建配置
+        MediaFormat mediaFormat = MediaFormat.createVideoFormat(mimeType, width, height);
+        WfdSessionConfig.VideoFormat videoFormat = mVideoFormat;
+        if (videoFormat != null) {
+            //设置解码预期的帧速率【以帧/秒为单位的视频格式的帧速率的键】
+            mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, videoFormat.frameRate);
+            //默认的输入缓存按解码器自己的估算分配，高码率的IDR帧可能放不下
+            mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, videoFormat.getMaxFrameSize());
+        }
+        if (csd != null) {
+            mediaFormat.setByteBuffer("csd-0", ByteBuffer.wrap(csd));
+        }
+        mCodecWidth = width;
+        mCodecHeight = height;
+        //创建解码器 H264的Type为avc，H265为hevc
+        try {
+            mMediaCodec = MediaCodec.createDecoderByType(mimeType);
+            //配置绑定mediaFormat和surface
+            mMediaCodec.configure(mediaFormat, mSurface, null, 0);
+            mMediaCodec.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //提前检查HEVC解码器，查询MediaCodecList比较耗时，不要放在M3的回复中
+    static synchronized boolean isHevcDecoderSupported() {
+        if (sHevcDecoderState == 0) {
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_HEVC, 1920, 1080);
+            sHevcDecoderState = codecList.findDecoderForFormat(format) != null ? 1 : -1;
+            LogUtils.i(VideoDataManager.class.getSimpleName(), "hevc decoder supported: " + (sHevcDecoderState == 1));
+        }
+        return sHevcDecoderState == 1;
+    }
+
+    /**
+     * 选择解码后端，在会话开始、初始化解码之前调用
+     * 不解码时不需要surface，解码线程马上创建，收到的帧直接交给后端统计
+     *
+     * @param type {@link SinkSession#DECODER_BACKEND_MEDIA_CODEC}或者{@link SinkSession#DECODER_BACKEND_NULL}
+     */
+    public void setDecoderBackend(int type) {
+        if (type == DecoderBackend.TYPE_NULL) {
+            mBackend = new NullDecoderBackend("video");
+            getHandler();
+        } else {
+            mBackend = mMediaCodecBackend;
+        }
+        LogUtils.i(TAG, "decoder backend: " + type);
+    }
+
+    DecoderBackend getDecoderBackend() {
+        return mBackend;
+    }
+
+    //解码队列的帧统计，返回的是当前的副本
+    public DecoderStats getDecoderStats() {
+        return mStats.snapshot();
+    }
+
+    //清掉还没有解码的帧，计入丢帧
+    private void clearDecodeQueue(Handler handler, boolean allMessages) {
+        synchronized (mStats) {
+            if (allMessages) {
+                handler.removeCallbacksAndMessages(null);
+            } else {
+                handler.removeMessages(MEDIA_DECODE);
+            }
+            mStats.onQueueCleared();
+        }
+    }
+
     //初始化数据
     public void initDecode(Surface surface, int width, int height) {
         mSurface = surface;
         mWidth = width;
         mHeight = height;
-        tHandler.removeCallbacksAndMessages(null);
-        tHandler.sendEmptyMessage(MEDIA_INIT);
+        Handler handler = getHandler();
+        clearDecodeQueue(handler, true);
+        handler.sendEmptyMessage(MEDIA_INIT);
+    }
+
+    /**
+     * 设置M4中协商的视频格式，在第一个RTP包到达之前按这个格式创建解码器
+     * 解码器已经创建、分辨率又变了时重新创建
+     */
+    void setVideoFormat(WfdSessionConfig.VideoFormat videoFormat) {
+        WfdSessionConfig.VideoFormat oldFormat = mVideoFormat;
+        mVideoFormat = videoFormat;
+        if (videoFormat == null) {
+            return;
+        }
+        String oldMimeType = mMimeType;
+        mMimeType = videoFormat.mimeType;
+        if (mSurface == null) {
+            return;
+        }
+        if (oldFormat != null && oldFormat.width == videoFormat.width && oldFormat.height == videoFormat.height
+                && oldFormat.frameRate == videoFormat.frameRate && oldMimeType.equals(videoFormat.mimeType)) {
+            return;
+        }
+        LogUtils.i(TAG, "reconfigure decoder: " + videoFormat);
+        Handler handler = getHandler();
+        //之前格式的数据不再解码
+        clearDecodeQueue(handler, false);
+        handler.sendEmptyMessage(MEDIA_INIT);
+    }
+
+    /**
+     * PMT中视频流的类型，和当前解码器不一样时（比如没有经过R2协商直接发H.265）重新创建解码器
+     */
+    void setMimeType(String mimeType) {
+        if (mimeType == null || mimeType.equals(mMimeType)) {
+            return;
+        }
+        mMimeType = mimeType;
+        if (mSurface == null) {
+            return;
+        }
+        LogUtils.i(TAG, "video mime type changed: " + mimeType);
+        Handler handler = getHandler();
+        clearDecodeQueue(handler, false);
+        handler.sendEmptyMessage(MEDIA_INIT);
     }
 
     //停止解码
     public void stopDecode() {
         mSurface = null;
-        tHandler.removeCallbacksAndMessages(null);
+        if (tHandler == null) {
+            return;
+        }
+        clearDecodeQueue(tHandler, true);
         tHandler.sendEmptyMessage(MEDIA_RELEASE);
     }
 
+    //会话结束，释放解码器后退出解码线程，之后不能再使用
+    synchronized void quit() {
+        stopDecode();
+        if (tHandler != null) {
+            mHThread.quitSafely();
+        }
+    }
+
+    //Source端换了一路流，丢掉还没有解码的旧数据，清空解码器，不用重新创建
+    void flush() {
+        if (tHandler == null) {
+            return;
+        }
+        clearDecodeQueue(tHandler, false);
+        tHandler.sendEmptyMessage(MEDIA_FLUSH);
+    }
+
+    //设置Source端时钟
+    void setSourceClock(SourceClock sourceClock) {
+        mSourceClock = sourceClock;
+    }
+
+    @Override
+    public void onStreamInfo(StreamInfo stream) {
+        setMimeType(stream.mimeType);
+    }
+
+    @Override
+    public void onAccessUnit(StreamInfo stream, byte[] data, int offset, int length, long ptsUs, long dtsUs, int flags) {
+        if (offset != 0 || length != data.length) {
+            data = Arrays.copyOfRange(data, offset, offset + length);
+        }
+        processVideoData(ptsUs, dtsUs, data);
+    }
+
+    @Override
+    public void onFlush(StreamInfo stream) {
+        flush();
+    }
+
     //数据放到handler队列中
     void processVideoData(long pts, long dts, byte[] bytes) {
-        if (bytes == null || bytes.length == 0) {
+        if (bytes == null || bytes.length == 0 || tHandler == null) {
             return;
         }
 //        try {
@@ -122,8 +351,12 @@ public class VideoDataManager {
         Bundle bundle = message.getData();
         bundle.putLong("pts", pts);
         bundle.putLong("dts", dts);
+        bundle.putLong("queued", System.nanoTime());
         bundle.putByteArray("bytes", bytes);
-        tHandler.sendMessage(message);
+        synchronized (mStats) {
+            tHandler.sendMessage(message);
+            mStats.onQueued();
+        }
     }
 
     private MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
@@ -134,6 +367,17 @@ public class VideoDataManager {
         if (mMediaCodec == null) {
             return;
         }
+        if (MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mMimeType)) {
+            //IDR帧带着VPS/SPS/PPS，实际分辨率和协商的不一样时按参数集重新配置
+            HevcParameterSets parameterSets = HevcParameterSets.find(bytes);
+            if (parameterSets != null && (parameterSets.width != mCodecWidth || parameterSets.height != mCodecHeight)) {
+                LogUtils.i(TAG, "hevc size " + parameterSets.width + "x" + parameterSets.height);
+                createDecoder(parameterSets.width, parameterSets.height, parameterSets.csd);
+                if (mMediaCodec == null) {
+                    return;
+                }
+            }
+        }
         //从输入队列中获取数据索引，100ms超时(微妙为单位)
         int inIndex = mMediaCodec.dequeueInputBuffer(100 * 1000);
         if (inIndex >= 0) {
@@ -144,15 +388,46 @@ public class VideoDataManager {
             //开始为buffer填充数据
             byteBuffer.put(bytes);
             //将输入buffer放入队列
-            mMediaCodec.queueInputBuffer(inIndex, 0, bytes.length, 0, 0);
+            mMediaCodec.queueInputBuffer(inIndex, 0, bytes.length, pts < 0 ? 0 : pts, 0);
         }
 
         int outIndex = mMediaCodec.dequeueOutputBuffer(info, 100 * 1000);
         if (outIndex >= 0) {
-            //如果surface绑定了，则直接输入到surface渲染并释放
-            mMediaCodec.releaseOutputBuffer(outIndex, true);
+            long renderTimeNs = getRenderTimeNs(info.presentationTimeUs);
+            if (renderTimeNs > 0) {
+                //按照恢复出来的Source端时钟渲染，补偿两端时钟的漂移
+                mMediaCodec.releaseOutputBuffer(outIndex, renderTimeNs);
+            } else {
+                //如果surface绑定了，则直接输入到surface渲染并释放
+                mMediaCodec.releaseOutputBuffer(outIndex, true);
+            }
         }
 
     }
 
+    //最多提前安排100ms渲染，超过了说明时钟映射有问题，直接渲染
+    private static final long MAX_SCHEDULE_AHEAD_NS = 100 * 1000 * 1000L;
+
+    /**
+     * 根据Source端时钟计算渲染时间
+     *
+     * @return 需要立即渲染时返回-1
+     */
+    private long getRenderTimeNs(long ptsUs) {
+        SourceClock clock = mSourceClock;
+        if (clock == null || ptsUs <= 0) {
+            return -1;
+        }
+        long localUs = clock.toLocalTimeUs(ptsUs);
+        if (localUs < 0) {
+            return -1;
+        }
+        long renderTimeNs = localUs * 1000;
+        long now = System.nanoTime();
+        if (renderTimeNs <= now || renderTimeNs - now > MAX_SCHEDULE_AHEAD_NS) {
+            return -1;
+        }
+        return renderTimeNs;
+    }
+
 }
@@ -2,6 +2,7 @@ package com.autoai.wifi_sink.display;
 
 public class VideoResolutionConstant {
 
+    public final static int ResolutionNone = -1; //不接收视频，只作为音频输出设备，和未设置的0区分开
     public final static int Resolution1 = 1; //1080x720
     public final static int Resolution2 = 2; //1920x1080
 
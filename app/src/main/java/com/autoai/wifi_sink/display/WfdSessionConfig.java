@@ -0,0 +1,321 @@
+package com.autoai.wifi_sink.display;
+
+import android.media.MediaFormat;
+import android.text.TextUtils;
+
+import com.autoai.wifi_sink.LogUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * M4中Source端最终选择的会话参数
+ * <p>
+ * 所有参数的原始值都保存下来，常用的解析成具体的类型。投屏过程中Source端可能只发部分参数重新协商，
+ * 所以每次M4都是在原来的基础上更新。视频和音频的管理者根据这里的参数提前创建解码器、分配缓存，
+ * 不用等到第一个RTP包
+ */
+
+class WfdSessionConfig {
+
+    private static final String TAG = WfdSessionConfig.class.getSimpleName();
+
+    //所有参数的原始值
+    private final Map<String, String> parameters = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private String presentationUrl;
+    private VideoFormat videoFormat;
+    private AudioCodecConfig.AudioMode audioMode;
+    //Source端确认的RTP端口，0表示没有
+    private int clientRtpPort;
+    private boolean contentProtection;
+    private boolean uibcEnabled;
+    private boolean standbyResumeSupported;
+
+    /**
+     * 用M4中的参数更新配置
+     *
+     * @return 视频或者音频的格式是否有变化
+     */
+    synchronized boolean update(RtspMessage message) {
+        boolean formatChanged = false;
+        for (Map.Entry<String, String> entry : message.getParameters().entrySet()) {
+            String name = entry.getKey();
+            String value = entry.getValue();
+            parameters.put(name, value);
+            if ("wfd_presentation_URL".equalsIgnoreCase(name)) {
+                //wfd_presentation_URL: rtsp://192.168.49.1/wfd1.0/streamid=0 none
+                presentationUrl = value.split(" ")[0];
+            } else if ("wfd_video_formats".equalsIgnoreCase(name)) {
+                //Source端同时发了wfd2_video_formats时以R2的为准
+                if (!message.hasParameter("wfd2_video_formats")) {
+                    videoFormat = VideoFormat.parse(value);
+                    formatChanged = true;
+                }
+            } else if ("wfd2_video_formats".equalsIgnoreCase(name)) {
+                VideoFormat format = VideoFormat.parseR2(value);
+                if (format != null || videoFormat == null) {
+                    videoFormat = format;
+                }
+                formatChanged = true;
+            } else if ("wfd_audio_codecs".equalsIgnoreCase(name)) {
+                audioMode = AudioCodecConfig.parseM4Value(value);
+                formatChanged = true;
+            } else if ("wfd_client_rtp_ports".equalsIgnoreCase(name)) {
+                clientRtpPort = parseClientRtpPort(value);
+            } else if ("wfd_content_protection".equalsIgnoreCase(name)) {
+                contentProtection = !"none".equalsIgnoreCase(value);
+            } else if ("wfd_uibc_setting".equalsIgnoreCase(name)) {
+                uibcEnabled = "enable".equalsIgnoreCase(value);
+            } else if ("wfd_standby_resume_capability".equalsIgnoreCase(name)) {
+                standbyResumeSupported = "supported".equalsIgnoreCase(value);
+            }
+        }
+        LogUtils.i(TAG, "session config: " + this);
+        return formatChanged;
+    }
+
+    synchronized String getPresentationUrl() {
+        return presentationUrl;
+    }
+
+    //没有协商视频（只接收音频，或者Source端还没有发）时返回null
+    synchronized VideoFormat getVideoFormat() {
+        return videoFormat;
+    }
+
+    synchronized AudioCodecConfig.AudioMode getAudioMode() {
+        return audioMode;
+    }
+
+    synchronized int getClientRtpPort() {
+        return clientRtpPort;
+    }
+
+    synchronized boolean isContentProtection() {
+        return contentProtection;
+    }
+
+    synchronized boolean isUibcEnabled() {
+        return uibcEnabled;
+    }
+
+    synchronized boolean isStandbyResumeSupported() {
+        return standbyResumeSupported;
+    }
+
+    //参数的原始值，没有时返回null
+    synchronized String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    synchronized Map<String, String> getParameters() {
+        return Collections.unmodifiableMap(new TreeMap<>(parameters));
+    }
+
+    /**
+     * wfd_client_rtp_ports: RTP/AVP/UDP;unicast 19000 0 mode=play
+     */
+    private static int parseClientRtpPort(String value) {
+        String[] values = value.trim().split(" ");
+        if (values.length < 2) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(values[1]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WfdSessionConfig{url=" + presentationUrl + ", video=" + videoFormat + ", audio=" + audioMode
+                + ", rtpPort=" + clientRtpPort + ", hdcp=" + contentProtection + ", uibc=" + uibcEnabled + "}";
+    }
+
+    /**
+     * Source端选择的视频格式
+     * wfd_video_formats: 00 00 02 04 00000020 00000000 00000000 00 0000 0000 00 none none
+     * 依次是：native，preferred-display-mode-supported，profile，level，CEA，VESA，HH，latency，
+     * min-slice-size，slice-enc-params，frame-rate-control-support，max-hres，max-vres
+     * <p>
+     * wfd2_video_formats在preferred-display-mode-supported后面多了一个codec，01是H.264，02是H.265，
+     * 后面的profile、level等按codec解释
+     */
+    static class VideoFormat {
+
+        static final int CODEC_H264 = 0x01;
+        static final int CODEC_H265 = 0x02;
+
+        //{宽，高，帧率，是否逐行}，下标是位图中的bit：CEA用了bit0~16，VESA用了bit0~29，HH用了bit0~11
+        static final int[][] CEA_RESOLUTIONS = {
+                {640, 480, 60, 1}, {720, 480, 60, 1}, {720, 480, 60, 0}, {720, 576, 50, 1},
+                {720, 576, 50, 0}, {1280, 720, 30, 1}, {1280, 720, 60, 1}, {1920, 1080, 30, 1},
+                {1920, 1080, 60, 1}, {1920, 1080, 60, 0}, {1280, 720, 25, 1}, {1280, 720, 50, 1},
+                {1920, 1080, 25, 1}, {1920, 1080, 50, 1}, {1920, 1080, 50, 0}, {1280, 720, 24, 1},
+                {1920, 1080, 24, 1},
+        };
+        static final int[][] VESA_RESOLUTIONS = {
+                {800, 600, 30, 1}, {800, 600, 60, 1}, {1024, 768, 30, 1}, {1024, 768, 60, 1},
+                {1152, 864, 30, 1}, {1152, 864, 60, 1}, {1280, 768, 30, 1}, {1280, 768, 60, 1},
+                {1280, 800, 30, 1}, {1280, 800, 60, 1}, {1360, 768, 30, 1}, {1360, 768, 60, 1},
+                {1366, 768, 30, 1}, {1366, 768, 60, 1}, {1280, 1024, 30, 1}, {1280, 1024, 60, 1},
+                {1400, 1050, 30, 1}, {1400, 1050, 60, 1}, {1440, 900, 30, 1}, {1440, 900, 60, 1},
+                {1600, 900, 30, 1}, {1600, 900, 60, 1}, {1600, 1200, 30, 1}, {1600, 1200, 60, 1},
+                {1680, 1024, 30, 1}, {1680, 1024, 60, 1}, {1680, 1050, 30, 1}, {1680, 1050, 60, 1},
+                {1920, 1200, 30, 1}, {1920, 1200, 60, 1},
+        };
+        static final int[][] HH_RESOLUTIONS = {
+                {800, 480, 30, 1}, {800, 480, 60, 1}, {854, 480, 30, 1}, {854, 480, 60, 1},
+                {864, 480, 30, 1}, {864, 480, 60, 1}, {640, 360, 30, 1}, {640, 360, 60, 1},
+                {960, 540, 30, 1}, {960, 540, 60, 1}, {848, 480, 30, 1}, {848, 480, 60, 1},
+        };
+
+        //MediaFormat.MIMETYPE_VIDEO_AVC或者MIMETYPE_VIDEO_HEVC
+        final String mimeType;
+        //H.264的profile位图：bit0是CBP，bit1是CHP；H.265：bit0是Main
+        final int profile;
+        //H.264的level位图：bit0是3.1，bit1是3.2，bit2是4，bit3是4.1，bit4是4.2；H.265：bit0是3.1，bit1是4.1，bit2是5.1
+        final int level;
+        final int ceaMask;
+        final int vesaMask;
+        final int hhMask;
+        //解码延迟，单位5ms
+        final int latency;
+        final int maxSliceSize;
+        final int frameRateControl;
+
+        //根据位图得到的分辨率和帧率
+        final int width;
+        final int height;
+        final int frameRate;
+        final boolean progressive;
+
+        private VideoFormat(String mimeType, int profile, int level, int ceaMask, int vesaMask, int hhMask, int latency,
+                            int maxSliceSize, int frameRateControl, int[] resolution) {
+            this.mimeType = mimeType;
+            this.profile = profile;
+            this.level = level;
+            this.ceaMask = ceaMask;
+            this.vesaMask = vesaMask;
+            this.hhMask = hhMask;
+            this.latency = latency;
+            this.maxSliceSize = maxSliceSize;
+            this.frameRateControl = frameRateControl;
+            this.width = resolution[0];
+            this.height = resolution[1];
+            this.frameRate = resolution[2];
+            this.progressive = resolution[3] == 1;
+        }
+
+        /**
+         * @return none或者解析失败时返回null
+         */
+        static VideoFormat parse(String value) {
+            if (TextUtils.isEmpty(value) || "none".equalsIgnoreCase(value.trim())) {
+                return null;
+            }
+            //M4中只会有一组H.264参数
+            String[] values = value.trim().split(",")[0].trim().split(" +");
+            if (values.length < 11) {
+                LogUtils.w(TAG, "invalid wfd_video_formats: " + value);
+                return null;
+            }
+            return parse(MediaFormat.MIMETYPE_VIDEO_AVC, values, 2, value);
+        }
+
+        /**
+         * 解析wfd2_video_formats
+         *
+         * @return none、解析失败或者codec不认识时返回null
+         */
+        static VideoFormat parseR2(String value) {
+            if (TextUtils.isEmpty(value) || "none".equalsIgnoreCase(value.trim())) {
+                return null;
+            }
+            //M4中只会有一组参数
+            String[] values = value.trim().split(",")[0].trim().split(" +");
+            if (values.length < 12) {
+                LogUtils.w(TAG, "invalid wfd2_video_formats: " + value);
+                return null;
+            }
+            String mimeType;
+            try {
+                int codec = Integer.parseInt(values[2], 16);
+                if (codec == CODEC_H264) {
+                    mimeType = MediaFormat.MIMETYPE_VIDEO_AVC;
+                } else if (codec == CODEC_H265) {
+                    mimeType = MediaFormat.MIMETYPE_VIDEO_HEVC;
+                } else {
+                    LogUtils.w(TAG, "unknown video codec: " + value);
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                return null;
+            }
+            return parse(mimeType, values, 3, value);
+        }
+
+        //start是profile的下标
+        private static VideoFormat parse(String mimeType, String[] values, int start, String value) {
+            try {
+                int profile = Integer.parseInt(values[start], 16);
+                int level = Integer.parseInt(values[start + 1], 16);
+                int ceaMask = (int) Long.parseLong(values[start + 2], 16);
+                int vesaMask = (int) Long.parseLong(values[start + 3], 16);
+                int hhMask = (int) Long.parseLong(values[start + 4], 16);
+                int latency = Integer.parseInt(values[start + 5], 16);
+                int maxSliceSize = Integer.parseInt(values[start + 6], 16);
+                int frameRateControl = Integer.parseInt(values[start + 8], 16);
+                int[] resolution = findResolution(ceaMask, vesaMask, hhMask);
+                if (resolution == null) {
+                    LogUtils.w(TAG, "no resolution selected: " + value);
+                    return null;
+                }
+                return new VideoFormat(mimeType, profile, level, ceaMask, vesaMask, hhMask, latency,
+                        maxSliceSize, frameRateControl, resolution);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        //Source端在三个表中只会选择一个分辨率
+        private static int[] findResolution(int ceaMask, int vesaMask, int hhMask) {
+            int[] resolution = findResolution(CEA_RESOLUTIONS, ceaMask);
+            if (resolution == null) {
+                resolution = findResolution(VESA_RESOLUTIONS, vesaMask);
+            }
+            if (resolution == null) {
+                resolution = findResolution(HH_RESOLUTIONS, hhMask);
+            }
+            return resolution;
+        }
+
+        static int[] findResolution(int[][] table, int mask) {
+            for (int i = 0; i < table.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    return table[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 一帧压缩数据的最大长度，作为解码器输入缓存和PES组包缓存的大小
+         * IDR帧一般不会超过YUV420原始数据的一半
+         */
+        int getMaxFrameSize() {
+            return width * height * 3 / 4;
+        }
+
+        @Override
+        public String toString() {
+            return "VideoFormat{" + mimeType + " " + width + "x" + height + (progressive ? "p" : "i") + frameRate
+                    + ", profile=" + profile + ", level=" + level + ", latency=" + latency + "}";
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分辨率表和WFD规范中的位图一一对应：每个用到的bit都能找到分辨率，多出来的bit找不到
+ */
+public class WfdSessionConfigTest {
+
+    //WFD规范中CEA、VESA、HH位图用到的bit数
+    private static final int CEA_BITS = 17;
+    private static final int VESA_BITS = 30;
+    private static final int HH_BITS = 12;
+
+    @Test
+    public void tableLengthsMatchBitmaps() {
+        assertEquals(CEA_BITS, WfdSessionConfig.VideoFormat.CEA_RESOLUTIONS.length);
+        assertEquals(VESA_BITS, WfdSessionConfig.VideoFormat.VESA_RESOLUTIONS.length);
+        assertEquals(HH_BITS, WfdSessionConfig.VideoFormat.HH_RESOLUTIONS.length);
+    }
+
+    @Test
+    public void everyBitHasResolution() {
+        assertAllBits(WfdSessionConfig.VideoFormat.CEA_RESOLUTIONS, CEA_BITS);
+        assertAllBits(WfdSessionConfig.VideoFormat.VESA_RESOLUTIONS, VESA_BITS);
+        assertAllBits(WfdSessionConfig.VideoFormat.HH_RESOLUTIONS, HH_BITS);
+    }
+
+    @Test
+    public void lastVesaBit() {
+        assertArrayEquals(new int[]{1920, 1200, 60, 1},
+                WfdSessionConfig.VideoFormat.findResolution(WfdSessionConfig.VideoFormat.VESA_RESOLUTIONS, 1 << 29));
+        assertArrayEquals(new int[]{1920, 1200, 30, 1},
+                WfdSessionConfig.VideoFormat.findResolution(WfdSessionConfig.VideoFormat.VESA_RESOLUTIONS, 1 << 28));
+    }
+
+    private static void assertAllBits(int[][] table, int bits) {
+        for (int i = 0; i < bits; i++) {
+            int[] resolution = WfdSessionConfig.VideoFormat.findResolution(table, 1 << i);
+            assertNotNull("bit " + i, resolution);
+            assertEquals(4, resolution.length);
+        }
+        assertNull(WfdSessionConfig.VideoFormat.findResolution(table, 1 << bits));
+    }
+}
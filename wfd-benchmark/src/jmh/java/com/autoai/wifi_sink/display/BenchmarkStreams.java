@@ -0,0 +1,183 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 性能测试使用的RTP包，每路流固定{@link #PACKETS}个包，提前读到内存中
+ * <p>
+ * 系统属性wfd.stream.&lt;名字&gt;指定了录制的文件（pcap或者TS）时使用录制的流，
+ * 否则用{@link SyntheticTsInputStream}生成同样码率的流：720p30是8Mbps，1080p60是20Mbps
+ */
+
+final class BenchmarkStreams {
+
+    //每次调用处理的RTP包数量，测试结果按包计算
+    static final int PACKETS = 2048;
+
+    static final int TS_PACKET_SIZE = 188;
+    static final int RTP_HEADER_SIZE = 12;
+    private static final int TS_PACKETS_PER_RTP = 7;
+    private static final int NULL_PID = 0x1FFF;
+
+    private BenchmarkStreams() {
+    }
+
+    /**
+     * @param name 720p30或者1080p60
+     */
+    static byte[][] load(String name) throws IOException {
+        String path = System.getProperty("wfd.stream." + name, "");
+        if (!path.isEmpty()) {
+            return loadFile(path);
+        }
+        if ("720p30".equals(name)) {
+            return loadSynthetic(8000000, 30);
+        }
+        if ("1080p60".equals(name)) {
+            return loadSynthetic(20000000, 60);
+        }
+        throw new IllegalArgumentException("unknown stream " + name);
+    }
+
+    //文件中的包不够时从头再读，序列号重新编号，保证连续
+    private static byte[][] loadFile(String path) throws IOException {
+        byte[][] packets = new byte[PACKETS][];
+        byte[] buffer = new byte[1536];
+        int count = 0;
+        while (count < PACKETS) {
+            RtpCaptureReader reader = RtpCaptureReader.open(path, 0);
+            try {
+                int length;
+                int before = count;
+                while (count < PACKETS && (length = reader.next(buffer)) >= 0) {
+                    byte[] packet = new byte[length];
+                    System.arraycopy(buffer, 0, packet, 0, length);
+                    setSequence(packet, count);
+                    packets[count++] = packet;
+                }
+                if (count == before) {
+                    throw new IOException("no rtp packet in " + path);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return packets;
+    }
+
+    private static byte[][] loadSynthetic(int bitrate, int fps) throws IOException {
+        InputStream in = new SyntheticTsInputStream(bitrate, fps, fps, 1);
+        byte[][] packets = new byte[PACKETS][];
+        int payloadSize = TS_PACKET_SIZE * TS_PACKETS_PER_RTP;
+        for (int i = 0; i < PACKETS; i++) {
+            byte[] packet = new byte[RTP_HEADER_SIZE + payloadSize];
+            packet[0] = (byte) 0x80;
+            packet[1] = 33;
+            setSequence(packet, i);
+            //发送时间按码率计算，90kHz
+            long timestamp = (long) i * payloadSize * 8 * 90000 / bitrate;
+            packet[4] = (byte) (timestamp >> 24);
+            packet[5] = (byte) (timestamp >> 16);
+            packet[6] = (byte) (timestamp >> 8);
+            packet[7] = (byte) timestamp;
+            packet[8] = 0x12;
+            packet[9] = 0x34;
+            in.read(packet, RTP_HEADER_SIZE, payloadSize);
+            packets[i] = packet;
+        }
+        return packets;
+    }
+
+    private static void setSequence(byte[] packet, int seq) {
+        packet[2] = (byte) (seq >> 8);
+        packet[3] = (byte) seq;
+    }
+
+    /**
+     * 复制一份，除了keepPids中的PID，其他TS包都改成空包（PID 0x1FFF），包的数量和大小不变，
+     * 用来单独测量某一类数据的解析
+     */
+    static byte[][] keepPids(byte[][] packets, int... keepPids) {
+        byte[][] result = new byte[packets.length][];
+        for (int i = 0; i < packets.length; i++) {
+            byte[] packet = packets[i].clone();
+            for (int offset = payloadOffset(packet); offset + TS_PACKET_SIZE <= packet.length; offset += TS_PACKET_SIZE) {
+                int pid = ((packet[offset + 1] & 0x1F) << 8) | (packet[offset + 2] & 0xFF);
+                boolean keep = false;
+                for (int keepPid : keepPids) {
+                    keep |= pid == keepPid;
+                }
+                if (!keep) {
+                    packet[offset + 1] = (byte) ((packet[offset + 1] & 0xE0) | (NULL_PID >> 8));
+                    packet[offset + 2] = (byte) NULL_PID;
+                }
+            }
+            result[i] = packet;
+        }
+        return result;
+    }
+
+    /**
+     * 从流中找出PAT和PMT的TS包，组成每个RTP包都是PAT/PMT的流
+     */
+    static byte[][] psiOnly(byte[][] packets) {
+        byte[] pat = findTsPacket(packets, 0);
+        if (pat == null) {
+            throw new IllegalStateException("no PAT in stream");
+        }
+        //第一个节目的PMT PID，pointer_field之后8个字节的表头，再跳过program_number
+        int section = 5 + (pat[4] & 0xFF);
+        int pmtPid = ((pat[section + 10] & 0x1F) << 8) | (pat[section + 11] & 0xFF);
+        byte[] pmt = findTsPacket(packets, pmtPid);
+        if (pmt == null) {
+            throw new IllegalStateException("no PMT in stream");
+        }
+        byte[][] result = new byte[packets.length][];
+        int patCounter = 0;
+        int pmtCounter = 0;
+        for (int i = 0; i < packets.length; i++) {
+            byte[] packet = new byte[RTP_HEADER_SIZE + TS_PACKET_SIZE * TS_PACKETS_PER_RTP];
+            System.arraycopy(packets[i], 0, packet, 0, RTP_HEADER_SIZE);
+            packet[0] = (byte) 0x80;
+            for (int j = 0; j < TS_PACKETS_PER_RTP; j++) {
+                int offset = RTP_HEADER_SIZE + j * TS_PACKET_SIZE;
+                //PAT和PMT交替，连续计数器各自递增，不会被当成重复包
+                int counter = j % 2 == 0 ? patCounter++ : pmtCounter++;
+                System.arraycopy(j % 2 == 0 ? pat : pmt, 0, packet, offset, TS_PACKET_SIZE);
+                packet[offset + 3] = (byte) ((packet[offset + 3] & 0xF0) | (counter & 0x0F));
+            }
+            result[i] = packet;
+        }
+        return result;
+    }
+
+    //第一个指定PID、带有payload_unit_start的TS包，没有时返回null
+    private static byte[] findTsPacket(byte[][] packets, int pid) {
+        for (byte[] packet : packets) {
+            for (int offset = payloadOffset(packet); offset + TS_PACKET_SIZE <= packet.length; offset += TS_PACKET_SIZE) {
+                int packetPid = ((packet[offset + 1] & 0x1F) << 8) | (packet[offset + 2] & 0xFF);
+                if (packetPid == pid && (packet[offset + 1] & 0x40) != 0) {
+                    byte[] ts = new byte[TS_PACKET_SIZE];
+                    System.arraycopy(packet, offset, ts, 0, TS_PACKET_SIZE);
+                    return ts;
+                }
+            }
+        }
+        return null;
+    }
+
+    //没有CSRC和扩展头时是12
+    private static int payloadOffset(byte[] packet) {
+        return RTP_HEADER_SIZE + 4 * (packet[0] & 0x0F);
+    }
+
+    //所有包的字节数
+    static long totalBytes(byte[][] packets) {
+        long bytes = 0;
+        for (byte[] packet : packets) {
+            bytes += packet.length;
+        }
+        return bytes;
+    }
+}
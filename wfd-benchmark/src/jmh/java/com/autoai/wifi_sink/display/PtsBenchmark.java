@@ -0,0 +1,68 @@
+package com.autoai.wifi_sink.display;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PES头中PTS的读取，以及转换到时间轴上的微秒（处理33位回绕）
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PtsBenchmark {
+
+    private static final int COUNT = 1024;
+
+    //COUNT个5字节的PTS，30fps递增
+    private final byte[] encoded = new byte[COUNT * 5];
+    private MediaTimeline timeline;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        WfdLog.setLogger(null);
+        for (int i = 0; i < COUNT; i++) {
+            long pts = 90000 + i * 3000L;
+            int offset = i * 5;
+            encoded[offset] = (byte) (0x21 | ((pts >> 29) & 0x0E));
+            encoded[offset + 1] = (byte) (pts >> 22);
+            encoded[offset + 2] = (byte) (0x01 | ((pts >> 14) & 0xFE));
+            encoded[offset + 3] = (byte) (pts >> 7);
+            encoded[offset + 4] = (byte) (0x01 | ((pts << 1) & 0xFE));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetTimeline() {
+        timeline = new MediaTimeline();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long readTimestamp() {
+        long sum = 0;
+        for (int offset = 0; offset < encoded.length; offset += 5) {
+            sum += TsDemuxer.readTimestamp(encoded, offset);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long readTimestampToUs() {
+        long sum = 0;
+        for (int offset = 0; offset < encoded.length; offset += 5) {
+            sum += timeline.toTimeUs(TsDemuxer.readTimestamp(encoded, offset));
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,88 @@
+package com.autoai.wifi_sink.display;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RTSP消息的解析（分帧、头部和text/parameters的body）和生成，每次操作是一条消息
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RtspBenchmark {
+
+    //Source端的M4，投屏时最长的消息之一
+    private static final String M4 = "SET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0\r\n"
+            + "CSeq: 4\r\n"
+            + "Content-Type: text/parameters\r\n"
+            + "Content-Length: %d\r\n"
+            + "\r\n"
+            + "%s";
+    private static final String M4_BODY = "wfd_video_formats: 00 00 02 02 00000020 00000000 00000000 00 0000 0000 00 none none\r\n"
+            + "wfd_audio_codecs: AAC 00000001 00\r\n"
+            + "wfd_presentation_URL: rtsp://192.168.49.1/wfd1.0/streamid=0 none\r\n"
+            + "wfd_client_rtp_ports: RTP/AVP/UDP;unicast 19000 0 mode=play\r\n";
+    //M16心跳
+    private static final String M16 = "GET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0\r\n"
+            + "CSeq: 16\r\n"
+            + "Session: 1804289383\r\n"
+            + "\r\n";
+    private static final String M3_BODY = "wfd_video_formats: 30 00 02 02 00008c60 00000000 00000000 00 0000 0000 00 none none\r\n"
+            + "wfd_audio_codecs: AAC 00000001 00, LPCM 00000002 00\r\n"
+            + "wfd_client_rtp_ports: RTP/AVP/UDP;unicast 19000 0 mode=play\r\n";
+
+    private byte[] m4;
+    private byte[] m16;
+    private RtspMessageReader reader;
+    private RtspMessageWriter writer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        WfdLog.setLogger(null);
+        m4 = String.format(M4, M4_BODY.length(), M4_BODY).getBytes(StandardCharsets.US_ASCII);
+        m16 = M16.getBytes(StandardCharsets.US_ASCII);
+        reader = new RtspMessageReader();
+        writer = new RtspMessageWriter("9");
+    }
+
+    //M4的分帧、解析，再读出body中的参数
+    @Benchmark
+    public String parseM4() {
+        reader.feed(m4, 0, m4.length);
+        RtspMessage message = reader.next();
+        return message.getParameter("wfd_presentation_URL");
+    }
+
+    @Benchmark
+    public String parseM16() {
+        reader.feed(m16, 0, m16.length);
+        RtspMessage message = reader.next();
+        return message.getCSeq();
+    }
+
+    //M3的回复，带body
+    @Benchmark
+    public int buildM3Response() {
+        return writer.startResponse("3", true)
+                .endWithBody(M3_BODY)
+                .length();
+    }
+
+    @Benchmark
+    public int buildM7() {
+        return writer.startRequest("PLAY", "rtsp://192.168.49.1/wfd1.0/streamid=0", 7)
+                .header("Session", "1804289383")
+                .end()
+                .length();
+    }
+}
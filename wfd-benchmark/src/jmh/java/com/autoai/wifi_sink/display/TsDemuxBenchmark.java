@@ -0,0 +1,173 @@
+package com.autoai.wifi_sink.display;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RTP头、TS包、PAT/PMT、视频PES和音频PES组包的性能，每次调用处理{@link BenchmarkStreams#PACKETS}个RTP包
+ * <p>
+ * avgt的结果是每个RTP包的耗时（us/op，乘1000是ns/packet），thrpt中的bytes是每微秒处理的字节数，也就是MB/s。
+ * 除了demux，其他测试把不相关的TS包改成空包，包的数量和大小不变，只走要测量的解析分支
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TsDemuxBenchmark {
+
+    //WFD中视频和音频流的PID
+    private static final int VIDEO_PID = 0x1011;
+    private static final int AUDIO_PID = 0x1100;
+
+    @Param({"720p30", "1080p60"})
+    public String stream;
+
+    private byte[][] fullPackets;
+    private byte[][] nullPackets;
+    private byte[][] psiPackets;
+    private byte[][] videoPackets;
+    private byte[][] audioPackets;
+    private long packetBytes;
+
+    private TsDemuxer rtpDemuxer;
+    private TsDemuxer tsDemuxer;
+    private TsDemuxer psiDemuxer;
+    private TsDemuxer videoDemuxer;
+    private TsDemuxer audioDemuxer;
+    private TsDemuxer fullDemuxer;
+
+    //交给接收者的ES字节数，避免解析被优化掉
+    private long esBytes = 0;
+
+    private final ElementaryStreamConsumer consumer = new ElementaryStreamConsumer() {
+        @Override
+        public void onStreamInfo(StreamInfo stream) {
+        }
+
+        @Override
+        public void onAccessUnit(StreamInfo stream, byte[] data, int offset, int length, long ptsUs, long dtsUs, int flags) {
+            esBytes += length;
+        }
+
+        @Override
+        public void onFlush(StreamInfo stream) {
+        }
+    };
+
+    /**
+     * 处理的字节数，thrpt模式下是MB/s
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        WfdLog.setLogger(null);
+        fullPackets = BenchmarkStreams.load(stream);
+        nullPackets = BenchmarkStreams.keepPids(fullPackets);
+        psiPackets = BenchmarkStreams.psiOnly(fullPackets);
+        //PAT/PMT保留，否则不知道音视频的PID
+        videoPackets = BenchmarkStreams.keepPids(fullPackets, 0, 0x0100, VIDEO_PID);
+        audioPackets = BenchmarkStreams.keepPids(fullPackets, 0, 0x0100, AUDIO_PID);
+        packetBytes = BenchmarkStreams.totalBytes(fullPackets);
+
+        rtpDemuxer = newDemuxer();
+        tsDemuxer = newDemuxer();
+        psiDemuxer = newDemuxer();
+        videoDemuxer = newDemuxer();
+        audioDemuxer = newDemuxer();
+        fullDemuxer = newDemuxer();
+        //先完整处理一遍，PAT/PMT和组包缓存都准备好
+        feedAll(videoDemuxer, videoPackets);
+        feedAll(audioDemuxer, audioPackets);
+        feedAll(fullDemuxer, fullPackets);
+    }
+
+    private TsDemuxer newDemuxer() {
+        List<ElementaryStreamConsumer> consumers = Collections.singletonList(consumer);
+        return new TsDemuxer(false, consumers, consumers, new SourceClock(), new MediaTimeline(), new RtpTiming());
+    }
+
+    private long feedAll(TsDemuxer demuxer, byte[][] packets) {
+        for (byte[] packet : packets) {
+            demuxer.feed(packet, packet.length, System.nanoTime());
+        }
+        return esBytes;
+    }
+
+    //只解析RTP头
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkStreams.PACKETS)
+    public int parseRtp(Bytes counter) {
+        int valid = 0;
+        for (byte[] packet : fullPackets) {
+            if (rtpDemuxer.parseRTP(packet, packet.length, System.nanoTime())) {
+                valid++;
+            }
+        }
+        counter.bytes += packetBytes;
+        return valid;
+    }
+
+    //RTP头和TS包头，TS包都是空包
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkStreams.PACKETS)
+    public long parseTs(Bytes counter) {
+        counter.bytes += packetBytes;
+        return feedAll(tsDemuxer, nullPackets);
+    }
+
+    //每个TS包都是PAT或PMT
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkStreams.PACKETS)
+    public long patPmt(Bytes counter) {
+        counter.bytes += packetBytes;
+        return feedAll(psiDemuxer, psiPackets);
+    }
+
+    //只有视频PES
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkStreams.PACKETS)
+    public long videoPes(Bytes counter) {
+        counter.bytes += packetBytes;
+        return feedAll(videoDemuxer, videoPackets);
+    }
+
+    //只有音频PES
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkStreams.PACKETS)
+    public long audioPes(Bytes counter) {
+        counter.bytes += packetBytes;
+        return feedAll(audioDemuxer, audioPackets);
+    }
+
+    //完整的流，和投屏时一样
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkStreams.PACKETS)
+    public long demux(Bytes counter) {
+        counter.bytes += packetBytes;
+        return feedAll(fullDemuxer, fullPackets);
+    }
+}
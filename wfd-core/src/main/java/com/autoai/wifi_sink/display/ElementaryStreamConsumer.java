@@ -0,0 +1,94 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.WorkerThread;
+
+/**
+ * TS解析出来的ES数据（一帧视频或者一个音频PES）的接收者
+ * <p>
+ * 视频和音频的解码器是其中一种实现，录制、分析或者其他的渲染方式也可以注册进来，
+ * 每路流可以有多个接收者，按注册的顺序回调。所有回调都在解析TS的线程中执行，不能阻塞，
+ * 耗时的处理需要切换到自己的线程
+ */
+
+public interface ElementaryStreamConsumer {
+
+    //关键帧（IDR/IRAP），音频的每一帧都是
+    int FLAG_KEY_FRAME = 1;
+    //和上一帧不连续：Source端换了一路流之后的第一帧
+    int FLAG_DISCONTINUITY = 1 << 1;
+
+    /**
+     * PMT中出现了新的流，或者流的类型变了，在这路流的第一帧之前回调
+     */
+    @WorkerThread
+    void onStreamInfo(StreamInfo stream);
+
+    /**
+     * 一帧完整的ES数据
+     *
+     * @param data  每一帧都是新分配的，所有接收者共用，不能修改，可以直接保存引用
+     * @param ptsUs 展开后的PTS，没有时为-1
+     * @param dtsUs 展开后的DTS，没有时为-1
+     * @param flags {@link #FLAG_KEY_FRAME}、{@link #FLAG_DISCONTINUITY}的组合
+     */
+    @WorkerThread
+    void onAccessUnit(StreamInfo stream, byte[] data, int offset, int length, long ptsUs, long dtsUs, int flags);
+
+    /**
+     * Source端换了一路流，之前还没有处理的数据都可以丢掉
+     */
+    @WorkerThread
+    void onFlush(StreamInfo stream);
+
+    /**
+     * 一路ES流的信息，来自PMT
+     */
+    final class StreamInfo {
+
+        public static final int TRACK_VIDEO = 0;
+        public static final int TRACK_AUDIO = 1;
+
+        //WFD中用到的stream_type
+        public static final int STREAM_TYPE_H264 = 0x1B;
+        public static final int STREAM_TYPE_H265 = 0x24;
+        public static final int STREAM_TYPE_AAC = 0x0F;
+        public static final int STREAM_TYPE_LPCM = 0x83;
+
+        public final int track;
+        public final int pid;
+        public final int streamType;
+        //和MediaFormat中的MIME类型一致，LPCM是audio/raw
+        public final String mimeType;
+
+        StreamInfo(int track, int pid, int streamType) {
+            this.track = track;
+            this.pid = pid;
+            this.streamType = streamType;
+            this.mimeType = getMimeType(streamType);
+        }
+
+        public boolean isVideo() {
+            return track == TRACK_VIDEO;
+        }
+
+        private static String getMimeType(int streamType) {
+            switch (streamType) {
+                case STREAM_TYPE_H264:
+                    return "video/avc";
+                case STREAM_TYPE_H265:
+                    return "video/hevc";
+                case STREAM_TYPE_AAC:
+                    return "audio/mp4a-latm";
+                case STREAM_TYPE_LPCM:
+                    return "audio/raw";
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "StreamInfo{pid=" + pid + ", type=0x" + Integer.toHexString(streamType) + ", " + mimeType + "}";
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 从HEVC的一帧数据（Annex B格式）中取出VPS/SPS/PPS，并从SPS中解析出图像的宽高
+ * <p>
+ * 参数集都在IDR帧的最前面，遇到第一个slice就停止查找，所以对每一帧调用的开销很小。
+ * 取出的参数集带着起始码拼在一起，直接作为MediaCodec的csd-0
+ */
+
+class HevcParameterSets {
+
+    private static final int NAL_VPS = 32;
+    private static final int NAL_SPS = 33;
+    private static final int NAL_PPS = 34;
+    //小于32的是slice（VCL）
+    private static final int NAL_FIRST_NON_VCL = 32;
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    //VPS、SPS、PPS，带起始码
+    final byte[] csd;
+    //裁剪之后的宽高
+    final int width;
+    final int height;
+
+    private HevcParameterSets(byte[] csd, int width, int height) {
+        this.csd = csd;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return 这一帧没有完整的VPS/SPS/PPS，或者SPS解析失败时返回null
+     */
+    static HevcParameterSets find(byte[] data) {
+        int vps = -1, vpsEnd = -1, sps = -1, spsEnd = -1, pps = -1, ppsEnd = -1;
+        int nal = nextNal(data, 0);
+        while (nal >= 0 && nal + 2 <= data.length) {
+            //先看类型，遇到slice就停止，不再查找slice后面的起始码
+            int type = (data[nal] >> 1) & 0x3F;
+            if (type < NAL_FIRST_NON_VCL) {
+                break;
+            }
+            int next = nextNal(data, nal);
+            int end = next < 0 ? data.length : startCodeBegin(data, next);
+            if (type == NAL_VPS && vps < 0) {
+                vps = nal;
+                vpsEnd = end;
+            } else if (type == NAL_SPS && sps < 0) {
+                sps = nal;
+                spsEnd = end;
+            } else if (type == NAL_PPS && pps < 0) {
+                pps = nal;
+                ppsEnd = end;
+            }
+            nal = next;
+        }
+        if (vps < 0 || sps < 0 || pps < 0) {
+            return null;
+        }
+        int[] size = parseSpsSize(data, sps, spsEnd);
+        if (size == null) {
+            return null;
+        }
+        ByteArrayOutputStream csd = new ByteArrayOutputStream(vpsEnd - vps + spsEnd - sps + ppsEnd - pps + 12);
+        csd.write(START_CODE, 0, START_CODE.length);
+        csd.write(data, vps, vpsEnd - vps);
+        csd.write(START_CODE, 0, START_CODE.length);
+        csd.write(data, sps, spsEnd - sps);
+        csd.write(START_CODE, 0, START_CODE.length);
+        csd.write(data, pps, ppsEnd - pps);
+        return new HevcParameterSets(csd.toByteArray(), size[0], size[1]);
+    }
+
+    //从offset开始查找下一个起始码（00 00 01），返回NAL头的位置
+    private static int nextNal(byte[] data, int offset) {
+        for (int i = offset; i + 2 < data.length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    //NAL头前面起始码的开始位置，4字节起始码多出来的0不算在上一个NAL里
+    private static int startCodeBegin(byte[] data, int nal) {
+        int begin = nal - 3;
+        while (begin > 0 && data[begin - 1] == 0) {
+            begin--;
+        }
+        return begin;
+    }
+
+    /**
+     * 解析SPS中的pic_width_in_luma_samples、pic_height_in_luma_samples和裁剪窗口
+     */
+    private static int[] parseSpsSize(byte[] data, int start, int end) {
+        BitReader reader = new BitReader(data, start + 2, end);
+        try {
+            reader.skip(4);
+            int maxSubLayersMinus1 = reader.read(3);
+            reader.skip(1);
+            //profile_tier_level: general部分一共96位
+            reader.skip(96);
+            boolean[] profilePresent = new boolean[maxSubLayersMinus1];
+            boolean[] levelPresent = new boolean[maxSubLayersMinus1];
+            for (int i = 0; i < maxSubLayersMinus1; i++) {
+                profilePresent[i] = reader.read(1) == 1;
+                levelPresent[i] = reader.read(1) == 1;
+            }
+            if (maxSubLayersMinus1 > 0) {
+                reader.skip(2 * (8 - maxSubLayersMinus1));
+            }
+            for (int i = 0; i < maxSubLayersMinus1; i++) {
+                if (profilePresent[i]) {
+                    reader.skip(88);
+                }
+                if (levelPresent[i]) {
+                    reader.skip(8);
+                }
+            }
+            //sps_seq_parameter_set_id
+            reader.readUe();
+            int chromaFormatIdc = reader.readUe();
+            if (chromaFormatIdc == 3) {
+                //separate_colour_plane_flag
+                reader.skip(1);
+            }
+            int width = reader.readUe();
+            int height = reader.readUe();
+            if (reader.read(1) == 1) {
+                //conformance_window_flag，偏移的单位和色度采样有关
+                int subWidth = chromaFormatIdc == 1 || chromaFormatIdc == 2 ? 2 : 1;
+                int subHeight = chromaFormatIdc == 1 ? 2 : 1;
+                int left = reader.readUe();
+                int right = reader.readUe();
+                int top = reader.readUe();
+                int bottom = reader.readUe();
+                width -= subWidth * (left + right);
+                height -= subHeight * (top + bottom);
+            }
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+            return new int[]{width, height};
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按位读取RBSP，跳过防竞争字节（00 00 03中的03）
+     */
+    private static class BitReader {
+        private final byte[] data;
+        private final int end;
+        private int offset;
+        private int bit = 0;
+        private int zeros = 0;
+
+        BitReader(byte[] data, int offset, int end) {
+            this.data = data;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        int read(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | readBit();
+            }
+            return value;
+        }
+
+        void skip(int count) {
+            for (int i = 0; i < count; i++) {
+                readBit();
+            }
+        }
+
+        //无符号指数哥伦布码
+        int readUe() {
+            int leadingZeros = 0;
+            while (readBit() == 0) {
+                leadingZeros++;
+                if (leadingZeros > 31) {
+                    throw new IndexOutOfBoundsException("invalid exp-golomb code");
+                }
+            }
+            return (1 << leadingZeros) - 1 + read(leadingZeros);
+        }
+
+        private int readBit() {
+            if (bit == 0) {
+                if (zeros >= 2 && offset < end && data[offset] == 3) {
+                    offset++;
+                    zeros = 0;
+                }
+                if (offset >= end) {
+                    throw new IndexOutOfBoundsException("end of sps");
+                }
+                zeros = data[offset] == 0 ? zeros + 1 : 0;
+            }
+            int value = (data[offset] >> (7 - bit)) & 0x01;
+            bit++;
+            if (bit == 8) {
+                bit = 0;
+                offset++;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.autoai.wifi_sink.display;
+
+
+/**
+ * 媒体时间轴，把TS流中33位的PTS/DTS/PCR（90kHz）展开成单调递增的64位时间（微秒）
+ * <p>
+ * 33位的PTS大约26.5小时回绕一次；Source端重启编码、重新协商M4之后，时间戳也会跳变。
+ * 检测到回绕时继续累加，检测到跳变时重新锚定，保证输出给解码和播放的时间是连续的，不需要清空解码器
+ */
+
+class MediaTimeline {
+
+    private final String TAG = MediaTimeline.class.getSimpleName();
+
+    //33位时间戳的取值范围
+    private static final long TIMESTAMP_WRAP = 1L << 33;
+    //两个时间戳相差超过3秒，认为是跳变（音视频交织的时间差远小于这个值）
+    private static final long MAX_DELTA_TICKS = 3 * 90000L;
+    //重新锚定后，新时间戳相对上一个时间戳前进的步长，1ms
+    private static final long REANCHOR_STEP_TICKS = 90;
+
+    //上一个原始的33位时间戳
+    private long lastRawTicks = -1;
+    //上一个展开后的时间戳（90kHz）
+    private long lastTicks = 0;
+    //收到不连续标志，下一个时间戳需要重新锚定
+    private boolean discontinuityPending = false;
+    //重新锚定的次数
+    private volatile int discontinuityCount = 0;
+
+    private volatile OnDiscontinuityListener mListener;
+
+    void setOnDiscontinuityListener(OnDiscontinuityListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 适配域中的discontinuity_indicator，或者Source端重新协商了参数，
+     * 下一个时间戳不再和之前的连续
+     */
+    synchronized void markDiscontinuity() {
+        discontinuityPending = true;
+    }
+
+    /**
+     * 把原始的33位时间戳展开成时间轴上的时间
+     *
+     * @param rawTicks 原始的33位时间戳，90kHz，小于0表示没有时间戳
+     * @return 微秒，没有时间戳时返回-1
+     */
+    synchronized long toTimeUs(long rawTicks) {
+        if (rawTicks < 0) {
+            return -1;
+        }
+        rawTicks &= TIMESTAMP_WRAP - 1;
+        if (lastRawTicks < 0) {
+            lastRawTicks = rawTicks;
+            lastTicks = rawTicks;
+            discontinuityPending = false;
+            return ticksToUs(lastTicks);
+        }
+        //按33位取模求差值，回绕的情况也能得到正确的差值
+        long delta = (rawTicks - lastRawTicks) & (TIMESTAMP_WRAP - 1);
+        if (delta >= TIMESTAMP_WRAP / 2) {
+            delta -= TIMESTAMP_WRAP;
+        }
+        lastRawTicks = rawTicks;
+        if (discontinuityPending || Math.abs(delta) > MAX_DELTA_TICKS) {
+            //重新锚定：新的时间戳紧接着上一个时间戳
+            WfdLog.i(TAG, "timeline discontinuity, delta=" + delta + ", pending=" + discontinuityPending);
+            discontinuityPending = false;
+            discontinuityCount++;
+            lastTicks += REANCHOR_STEP_TICKS;
+            OnDiscontinuityListener listener = mListener;
+            if (listener != null) {
+                listener.onDiscontinuity();
+            }
+            return ticksToUs(lastTicks);
+        }
+        lastTicks += delta;
+        return ticksToUs(lastTicks);
+    }
+
+    //重新开始，比如重新建立了连接
+    synchronized void reset() {
+        lastRawTicks = -1;
+        lastTicks = 0;
+        discontinuityPending = false;
+    }
+
+    int getDiscontinuityCount() {
+        return discontinuityCount;
+    }
+
+    private static long ticksToUs(long ticks) {
+        return ticks * 100L / 9L;
+    }
+
+    interface OnDiscontinuityListener {
+        void onDiscontinuity();
+    }
+}
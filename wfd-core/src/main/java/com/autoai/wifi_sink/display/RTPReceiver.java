@@ -0,0 +1,695 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 接收RTP协议传递过来的数据，根据TS协议，把音视频的数据都解析出来
+ */
+
+class RTPReceiver {
+
+    private final String TAG = RTPReceiver.class.getSimpleName();
+
+    //绑定端口的最多尝试次数
+    private static final int MAX_BIND_ATTEMPTS = 10;
+
+    private volatile int mLocalRTPPort;
+    private volatile DatagramSocket socket;
+    //线程模式下RTCP端口只是占住，不读取
+    private volatile DatagramSocket rtcpSocket;
+    private volatile OnRTPExceptionListener mUdpDataListener;
+
+    //事件循环模式下使用，为null时使用线程模式
+    private final WfdEventLoop mEventLoop;
+    private DatagramChannel rtpChannel;
+    private DatagramChannel rtcpChannel;
+    //最后一次收到RTP包的时间
+    private volatile long lastReceiveTimeMs = 0;
+    //SETUP之后才开始检查超时，协商过程中Source端还没有发送数据
+    private volatile boolean isReceiveTimeoutArmed = false;
+
+    //根据PCR恢复的Source端时钟
+    private SourceClock sourceClock = new SourceClock();
+    //PTS/DTS/PCR的时间轴，处理33位回绕和跳变
+    private MediaTimeline timeline = new MediaTimeline();
+    //网络抖动和排队延迟
+    private final RtpTiming rtpTiming = new RtpTiming();
+    private final TsDemuxer demuxer;
+    //丢包恢复，UDP收到的包经过这里再交给demuxer
+    private final RtpLossRecovery lossRecovery;
+    //Source端的RTCP地址，发送NACK时使用
+    private volatile SocketAddress remoteRtcpAddress;
+
+    public RTPReceiver(boolean audioOnly, List<ElementaryStreamConsumer> videoConsumers,
+                       List<ElementaryStreamConsumer> audioConsumers, OnRTPExceptionListener udpDataListener) {
+        this(audioOnly, videoConsumers, audioConsumers, null, udpDataListener);
+    }
+
+    /**
+     * 解析出来的ES数据交给所属会话注册的接收者，多个会话同时投屏时互不影响
+     *
+     * @param videoConsumers 只接收音频时不使用，视频的TS包在包头就丢弃
+     * @param eventLoop      不为null时，RTP/RTCP的接收和TS的解析都在这个事件循环中完成，不再创建线程
+     */
+    public RTPReceiver(boolean audioOnly, List<ElementaryStreamConsumer> videoConsumers,
+                       List<ElementaryStreamConsumer> audioConsumers, WfdEventLoop eventLoop,
+                       OnRTPExceptionListener udpDataListener) {
+        mUdpDataListener = udpDataListener;
+        mEventLoop = eventLoop;
+        demuxer = new TsDemuxer(audioOnly, videoConsumers, audioConsumers, sourceClock, timeline, rtpTiming);
+        lossRecovery = new RtpLossRecovery(new RtpLossRecovery.Output() {
+            @Override
+            public void onPacket(byte[] data, int length, long arrivalNanos) {
+                demuxer.feed(data, length, arrivalNanos);
+            }
+        }, new RtpLossRecovery.FeedbackSender() {
+            @Override
+            public void sendRtcp(byte[] data, int length) {
+                sendRtcpPacket(data, length);
+            }
+        });
+        //换流只由TsDemuxer确认，丢包恢复跟着重新开始
+        demuxer.setOnStreamChangeListener(new TsDemuxer.OnStreamChangeListener() {
+            @Override
+            public void onStreamChanged(int ssrc, int seq) {
+                lossRecovery.onStreamChanged(ssrc, seq);
+            }
+        });
+        //时间轴跳变后，时钟重新锚定，解码器不需要清空
+        timeline.setOnDiscontinuityListener(new MediaTimeline.OnDiscontinuityListener() {
+            @Override
+            public void onDiscontinuity() {
+                sourceClock.reanchor();
+            }
+        });
+
+    }
+
+    //随机选一个偶数端口，RTCP使用下一个奇数端口
+    private int getPickRandomRTPPort() {
+        // Pick an even integer in range [2048, 65534)
+        return 2048 + 2 * (int) (Math.random() * ((65534 - 2048) / 2));
+    }
+
+    /**
+     * 在M3之前绑定一对RTP/RTCP端口（偶数/奇数），端口被占用时换一对重试，
+     * M3中告诉Source端的就是实际绑定的端口，绑定后马上开始接收，PLAY之前到达的数据也不会丢
+     * 在会话的线程中调用，事件循环模式下必须在循环线程中调用
+     *
+     * @return 多次尝试都没有绑定成功时返回false
+     */
+    @WorkerThread
+    boolean bind() {
+        if (socket != null || rtpChannel != null) {
+            return true;
+        }
+        for (int i = 0; i < MAX_BIND_ATTEMPTS; i++) {
+            int port = getPickRandomRTPPort();
+            boolean bound = mEventLoop != null ? bindChannels(port) : bindSockets(port);
+            if (bound) {
+                mLocalRTPPort = port;
+                WfdLog.i(TAG, "bind rtp port " + port + "-" + (port + 1));
+                lastReceiveTimeMs = System.currentTimeMillis();
+                if (mEventLoop != null) {
+                    mEventLoop.postDelayed(receiveTimeoutRunnable, 1000);
+                } else {
+                    //开始接收数据
+                    receiveUdpData();
+                }
+                return true;
+            }
+            WfdLog.w(TAG, "rtp port " + port + " in use, retry");
+        }
+        WfdLog.e(TAG, "bind rtp port failed");
+        return false;
+    }
+
+    @MainThread
+    @WorkerThread
+    int getLocalRTPPort() {
+        return mLocalRTPPort;
+    }
+
+    //Source端开始发送数据（SETUP之后），从现在开始检查接收超时
+    @MainThread
+    @WorkerThread
+    void armReceiveTimeout() {
+        lastReceiveTimeMs = System.currentTimeMillis();
+        isReceiveTimeoutArmed = true;
+    }
+
+    //Source端重新协商了参数，后面的时间戳可能和之前的不连续
+    @MainThread
+    @WorkerThread
+    void markDiscontinuity() {
+        timeline.markDiscontinuity();
+    }
+
+    //M4中协商了视频格式，提前按一帧的最大长度分配组包缓存
+    @MainThread
+    @WorkerThread
+    void setMaxVideoFrameSize(int maxFrameSize) {
+        demuxer.setMaxVideoFrameSize(maxFrameSize);
+    }
+
+    /**
+     * 丢包恢复的参数，在收到数据之前调用
+     *
+     * @param nackEnabled    是否通过RTCP NACK请求重传
+     * @param fecPayloadType FEC包的payload type，-1表示不使用FEC
+     * @param windowMs       缺的包最多等待的时间
+     */
+    @WorkerThread
+    void setLossRecovery(boolean nackEnabled, int fecPayloadType, long windowMs) {
+        lossRecovery.setNackEnabled(nackEnabled);
+        lossRecovery.setFecPayloadType(fecPayloadType);
+        lossRecovery.setWindowMs(windowMs);
+    }
+
+    RtpLossRecovery getLossRecovery() {
+        return lossRecovery;
+    }
+
+    RtpTiming getTiming() {
+        return rtpTiming;
+    }
+
+    //根据PCR恢复的Source端时钟，解码器按这个时钟安排渲染
+    SourceClock getSourceClock() {
+        return sourceClock;
+    }
+
+    long getReceivedPacketCount() {
+        return receivedPackets.get();
+    }
+
+    long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    TsDemuxer getDemuxer() {
+        return demuxer;
+    }
+
+    //M6的回复中Source端的RTCP端口，没有的话使用RTP包的源端口加1
+    @WorkerThread
+    void setRemoteRtcpAddress(String host, int port) {
+        remoteRtcpAddress = new InetSocketAddress(host, port);
+    }
+
+    //收到第一个RTP包时，如果还不知道Source端的RTCP地址，用RTP的源端口加1
+    private void onRemoteAddress(SocketAddress address) {
+        if (remoteRtcpAddress == null && address instanceof InetSocketAddress) {
+            InetSocketAddress rtpAddress = (InetSocketAddress) address;
+            remoteRtcpAddress = new InetSocketAddress(rtpAddress.getAddress(), rtpAddress.getPort() + 1);
+        }
+    }
+
+    //从本地的RTCP端口发送给Source端
+    private void sendRtcpPacket(byte[] data, int length) {
+        SocketAddress address = remoteRtcpAddress;
+        if (address == null) {
+            return;
+        }
+        try {
+            if (mEventLoop != null) {
+                if (rtcpChannel != null) {
+                    rtcpChannel.send(ByteBuffer.wrap(data, 0, length), address);
+                }
+            } else if (rtcpSocket != null) {
+                rtcpSocket.send(new DatagramPacket(data, 0, length, address));
+            }
+        } catch (IOException e) {
+            WfdLog.w(TAG, "send rtcp failed: " + e.getMessage());
+        }
+    }
+
+    //交织帧的复用缓存，只在事件循环线程中使用
+    private byte[] interleavedBuffer = new byte[1536];
+
+    /**
+     * RTP over TCP时，RTSP连接上收到的RTP包，和UDP收到的包一样经过丢包恢复交给TsDemuxer解析
+     * 线程模式下在RTSP的读线程中调用，放到队列里由解析线程处理；事件循环模式下在循环线程中直接解析
+     */
+    @WorkerThread
+    void onInterleavedPacket(byte[] data, int offset, int length) {
+        long arrivalNanos = System.nanoTime();
+        onPacketReceived(length);
+        if (mEventLoop != null) {
+            if (interleavedBuffer.length < length) {
+                interleavedBuffer = new byte[length];
+            }
+            System.arraycopy(data, offset, interleavedBuffer, 0, length);
+            lossRecovery.receive(interleavedBuffer, length, arrivalNanos);
+            scheduleRecoveryTimer();
+        } else {
+            LinkedBlockingQueue<ReceivedPacket> packets = queue;
+            if (packets != null) {
+                byte[] bytes = new byte[length];
+                System.arraycopy(data, offset, bytes, 0, length);
+                packets.offer(new ReceivedPacket(bytes, arrivalNanos));
+            }
+        }
+    }
+
+    /**
+     * 回放模式：从抓包文件中读出RTP包，在调用的线程中经过丢包恢复交给TsDemuxer解析，不绑定端口，
+     * 用来在实验室复现车机上的卡顿问题和测量解析的吞吐量，同一个文件每次回放的结果相同
+     *
+     * @param realtime 为true时按抓包时间的间隔送入，复现原来的到达节奏；为false时尽快送入。
+     *                 TS文件没有到达时间，总是尽快送入
+     * @return 送入的RTP包的数量
+     */
+    @WorkerThread
+    long replay(RtpCaptureReader reader, boolean realtime) throws IOException {
+        byte[] buffer = new byte[1536];
+        long count = 0;
+        //第一个包的抓包时间和送入时间，后面的包按相对时间送入
+        long firstCaptureUs = -1;
+        long startNanos = 0;
+        int length;
+        while ((length = reader.next(buffer)) >= 0) {
+            long captureUs = reader.getCaptureTimeUs();
+            if (realtime && captureUs >= 0) {
+                long now = System.nanoTime();
+                if (firstCaptureUs < 0 || captureUs < firstCaptureUs) {
+                    //抓包时间往回跳时重新对齐
+                    firstCaptureUs = captureUs;
+                    startNanos = now;
+                }
+                long waitNanos = startNanos + (captureUs - firstCaptureUs) * 1000 - now;
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+            }
+            onPacketReceived(length);
+            lossRecovery.receive(buffer, length, System.nanoTime());
+            runRecoveryTimerIfDue();
+            count++;
+        }
+        WfdLog.i(TAG, "replay finished, " + count + " packets, " + reader.getSkippedRecords() + " records skipped");
+        return count;
+    }
+
+    //丢包恢复的时钟，和System.currentTimeMillis()不同，不受系统时间修改的影响
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    //丢包恢复中等待的包到了放弃或者重发NACK的时间
+    private void runRecoveryTimerIfDue() {
+        long timerMs = lossRecovery.getNextTimerMs();
+        if (timerMs >= 0) {
+            long now = nowMs();
+            if (now >= timerMs) {
+                lossRecovery.onTimer(now);
+            }
+        }
+    }
+
+    //关闭端口，在会话的线程中调用
+    @WorkerThread
+    void close() {
+        if (mEventLoop != null) {
+            closeChannel();
+        } else {
+            closeSocket();
+        }
+    }
+
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * -----------------------------------协议连接以及解析---------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+
+    private synchronized void exceptionRTP() {
+        if (mUdpDataListener != null) {
+            mUdpDataListener.onIOException();
+        }
+    }
+
+    //是否已经超时没有收到数据
+    private volatile boolean isSilent = false;
+    //收到的RTP包的数量和字节数，包括重复和之后被丢弃的包；线程模式下UDP接收线程和RTSP读线程都会写
+    private final AtomicLong receivedPackets = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    //收到了一个RTP包，之前超时的话通知恢复
+    private void onPacketReceived(int length) {
+        receivedPackets.incrementAndGet();
+        receivedBytes.addAndGet(length);
+        long now = System.currentTimeMillis();
+        if (isSilent) {
+            isSilent = false;
+            long silenceMs = now - lastReceiveTimeMs;
+            WfdLog.i(TAG, "rtp resumed after " + silenceMs + "ms");
+            synchronized (this) {
+                if (mUdpDataListener != null) {
+                    mUdpDataListener.onReceiveResumed(silenceMs);
+                }
+            }
+        }
+        lastReceiveTimeMs = now;
+    }
+
+    //超时没有收到数据，只通知一次，恢复之前不再通知
+    private void onReceiveTimeout() {
+        if (isSilent || !isReceiveTimeoutArmed) {
+            return;
+        }
+        //RTP over TCP时UDP端口一直没有数据，以最后一次收到RTP包的时间为准
+        if (System.currentTimeMillis() - lastReceiveTimeMs < RECEIVE_TIMEOUT_MS) {
+            return;
+        }
+        isSilent = true;
+        long silenceMs = System.currentTimeMillis() - lastReceiveTimeMs;
+        WfdLog.w(TAG, "no rtp data for " + silenceMs + "ms");
+        synchronized (this) {
+            if (mUdpDataListener != null) {
+                mUdpDataListener.onReceiveTimeout(silenceMs);
+            }
+        }
+    }
+
+    //线程模式：绑定RTP和RTCP端口，有一个失败就都关闭
+    @WorkerThread
+    private boolean bindSockets(int port) {
+        DatagramSocket rtp = null;
+        try {
+            // 创建一个 UDP 套接字，并绑定到指定端口
+            rtp = new DatagramSocket(port);
+            rtp.setSoTimeout(RECEIVE_TIMEOUT_MS); // 设置超时时间
+            rtcpSocket = new DatagramSocket(port + 1);
+            socket = rtp;
+            return true;
+        } catch (IOException e) {
+            if (rtp != null) {
+                rtp.close();
+            }
+            return false;
+        }
+    }
+
+    //超过这个时间没有收到数据，认为连接断开了
+    private static final int RECEIVE_TIMEOUT_MS = 5 * 1000;
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * -----------------------------------事件循环模式-------------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    //定时检查是否长时间没有收到数据，代替线程模式中socket的超时
+    private final Runnable receiveTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (rtpChannel == null) {
+                return;
+            }
+            if (System.currentTimeMillis() - lastReceiveTimeMs > RECEIVE_TIMEOUT_MS) {
+                onReceiveTimeout();
+            }
+            mEventLoop.postDelayed(this, 1000);
+        }
+    };
+
+    //事件循环模式：绑定RTP和RTCP端口并注册，RTCP包读出来丢掉，避免接收缓存满了
+    @WorkerThread
+    private boolean bindChannels(int port) {
+        DatagramChannel rtp = null;
+        DatagramChannel rtcp = null;
+        try {
+            rtp = DatagramChannel.open();
+            rtp.configureBlocking(false);
+            rtp.socket().bind(new InetSocketAddress(port));
+            rtcp = DatagramChannel.open();
+            rtcp.configureBlocking(false);
+            rtcp.socket().bind(new InetSocketAddress(port + 1));
+            rtpChannel = rtp;
+            rtcpChannel = rtcp;
+            mEventLoop.register(rtpChannel, SelectionKey.OP_READ, rtpHandler);
+            mEventLoop.register(rtcpChannel, SelectionKey.OP_READ, rtcpHandler);
+            return true;
+        } catch (IOException e) {
+            closeQuietly(rtp);
+            closeQuietly(rtcp);
+            rtpChannel = null;
+            rtcpChannel = null;
+            return false;
+        }
+    }
+
+    private void closeQuietly(DatagramChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //复用的接收缓存，只在循环线程中使用
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(1536);//1.5k
+
+    private final WfdEventLoop.ChannelHandler rtpHandler = new WfdEventLoop.ChannelHandler() {
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            //一次把缓存中的包都读完
+            while (rtpChannel != null) {
+                receiveBuffer.clear();
+                SocketAddress address = rtpChannel.receive(receiveBuffer);
+                if (address == null) {
+                    break;
+                }
+                long arrivalNanos = System.nanoTime();
+                onPacketReceived(receiveBuffer.position());
+                onRemoteAddress(address);
+                lossRecovery.receive(receiveBuffer.array(), receiveBuffer.position(), arrivalNanos);
+            }
+            scheduleRecoveryTimer();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            exceptionRTP();
+        }
+    };
+
+    private final WfdEventLoop.ChannelHandler rtcpHandler = new WfdEventLoop.ChannelHandler() {
+        @Override
+        public void onReady(SelectionKey key) throws IOException {
+            while (rtcpChannel != null) {
+                receiveBuffer.clear();
+                if (rtcpChannel.receive(receiveBuffer) == null) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            //RTCP出错不影响投屏
+            WfdLog.w(TAG, "rtcp error: " + e.getMessage());
+        }
+    };
+
+    //已经安排的丢包恢复定时任务的时间，没有时为-1，只在循环线程中使用
+    private long recoveryTimerMs = -1;
+
+    private final Runnable recoveryTimerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            recoveryTimerMs = -1;
+            lossRecovery.onTimer(nowMs());
+            scheduleRecoveryTimer();
+        }
+    };
+
+    //后面没有包到达时，缺的包也要按时放弃，已经收到的包按时输出
+    private void scheduleRecoveryTimer() {
+        long timerMs = lossRecovery.getNextTimerMs();
+        if (timerMs < 0 || (recoveryTimerMs >= 0 && recoveryTimerMs <= timerMs)) {
+            return;
+        }
+        mEventLoop.removeCallbacks(recoveryTimerRunnable);
+        recoveryTimerMs = timerMs;
+        mEventLoop.postDelayed(recoveryTimerRunnable, Math.max(0, timerMs - nowMs()));
+    }
+
+    @WorkerThread
+    private void closeChannel() {
+        WfdLog.i(TAG, "closeChannel");
+        mLocalRTPPort = 0;
+        mUdpDataListener = null;
+        mEventLoop.removeCallbacks(receiveTimeoutRunnable);
+        mEventLoop.removeCallbacks(recoveryTimerRunnable);
+        recoveryTimerMs = -1;
+        try {
+            if (rtpChannel != null) {
+                rtpChannel.close();
+            }
+            if (rtcpChannel != null) {
+                rtcpChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            rtpChannel = null;
+            rtcpChannel = null;
+        }
+    }
+
+    @WorkerThread
+    private void receiveUdpData() {
+        LinkedBlockingQueue<ReceivedPacket> packets = new LinkedBlockingQueue<>();
+        queue = packets;
+        new ReceiveThread(packets).start();
+        new ParseTsThread(packets).start();
+    }
+
+    //接收线程交给解析线程的包，带着接收的时间，排队的时间不算网络抖动
+    private static class ReceivedPacket {
+        final byte[] data;
+        final long arrivalNanos;
+
+        ReceivedPacket(byte[] data, long arrivalNanos) {
+            this.data = data;
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+
+    //放到队列最后，解析线程取到之后退出
+    private static final ReceivedPacket STOP = new ReceivedPacket(new byte[0], 0);
+
+    //线程模式下接收线程交给解析线程的队列，每次绑定端口时新建，关闭时放入STOP
+    private volatile LinkedBlockingQueue<ReceivedPacket> queue;
+
+    private class ReceiveThread extends Thread {
+        private final LinkedBlockingQueue<ReceivedPacket> queue;
+
+        ReceiveThread(LinkedBlockingQueue<ReceivedPacket> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[1536];//1.5k
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                while (socket != null) {
+                    try {
+                        socket.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        //超时不退出，Source端恢复发送后继续接收
+                        onReceiveTimeout();
+                        continue;
+                    }
+                    long arrivalNanos = System.nanoTime();
+                    onPacketReceived(packet.getLength());
+                    onRemoteAddress(packet.getSocketAddress());
+                    byte[] bytes = new byte[packet.getLength()];
+                    System.arraycopy(packet.getData(), 0, bytes, 0, bytes.length);
+                    queue.offer(new ReceivedPacket(bytes, arrivalNanos));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                exceptionRTP();
+            }
+        }
+
+    }
+
+    private class ParseTsThread extends Thread {
+        private final LinkedBlockingQueue<ReceivedPacket> queue;
+
+        ParseTsThread(LinkedBlockingQueue<ReceivedPacket> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    //丢包恢复有在等待的包时，最多等到它的放弃或者重发时间
+                    long timerMs = lossRecovery.getNextTimerMs();
+                    ReceivedPacket packet = timerMs < 0 ? queue.take()
+                            : queue.poll(Math.max(0, timerMs - nowMs()), TimeUnit.MILLISECONDS);
+                    if (packet == STOP) {
+                        break;
+                    }
+                    if (packet != null) {
+                        lossRecovery.receive(packet.data, packet.data.length, packet.arrivalNanos);
+                    }
+                    runRecoveryTimerIfDue();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+    }
+
+    //关闭socket，清空所有数据
+    @WorkerThread
+    private void closeSocket() {
+        if (socket == null) {
+            return;
+        }
+        WfdLog.i(TAG, "closeSocket");
+        mLocalRTPPort = 0;
+        mUdpDataListener = null;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            if (rtcpSocket != null) {
+                rtcpSocket.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            socket = null;
+            rtcpSocket = null;
+            //队列中还没有解析的包不要了，解析线程取到STOP后退出
+            LinkedBlockingQueue<ReceivedPacket> packets = queue;
+            queue = null;
+            if (packets != null) {
+                packets.clear();
+                packets.offer(STOP);
+            }
+        }
+
+    }
+
+    interface OnRTPExceptionListener {
+        void onIOException();
+
+        //超过5秒没有收到RTP包，silenceMs是距离上一个包的时间
+        void onReceiveTimeout(long silenceMs);
+
+        //超时之后又收到了RTP包
+        void onReceiveResumed(long silenceMs);
+    }
+
+}
@@ -1,7 +1,5 @@
 package com.autoai.wifi_sink.display;
 
-import com.autoai.wifi_sink.LogUtils;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -35,25 +33,25 @@ public class RarpImpl {
         //读取文件
         ArrayList<String> lines = readFile(ARP_PATH);
         if (lines == null || lines.isEmpty()) {
-            LogUtils.w(TAG, "execRarp() readFile(" + ARP_PATH + ") returns 0");
+            WfdLog.w(TAG, "execRarp() readFile(" + ARP_PATH + ") returns 0");
             return null;
         }
         int i = 0;
         for (String line : lines) {
-            LogUtils.d(TAG, "execRarp() [" + (i++) + "]" + line);
+            WfdLog.d(TAG, "execRarp() [" + (i++) + "]" + line);
         }
 
         //解析成list集合
         ArrayList<ArpType> arps = parseArp(lines);
         if (arps == null || arps.isEmpty()) {
-            LogUtils.w(TAG, "execRarp() parseArp(" + lines + ") returns 0");
+            WfdLog.w(TAG, "execRarp() parseArp(" + lines + ") returns 0");
             return null;
         }
 
         //从解析的数据集合中查询值
         ArpType arp = searchArp(arps, netIf);
         if (arp == null) {
-            LogUtils.w(TAG, "execRarp() searchArp() " + netIf + " Not Found!");
+            WfdLog.w(TAG, "execRarp() searchArp() " + netIf + " Not Found!");
             return null;
         }
 
@@ -66,18 +64,18 @@ public class RarpImpl {
     public ArrayList<ArpType> getArpTable() {
         ArrayList<String> lines = readFile(ARP_PATH);
         if (lines == null || lines.isEmpty()) {
-            LogUtils.w(TAG, "getArpTable() readFile(" + ARP_PATH + ") returns 0");
+            WfdLog.w(TAG, "getArpTable() readFile(" + ARP_PATH + ") returns 0");
             return null;
         }
 
         int i = 0;
         for (String line : lines) {
-            LogUtils.d(TAG, "getArpTable() [" + (i++) + "]" + line);
+            WfdLog.d(TAG, "getArpTable() [" + (i++) + "]" + line);
         }
 
         ArrayList<ArpType> arps = parseArp(lines);
         if (arps == null || arps.isEmpty()) {
-            LogUtils.w(TAG, "getArpTable() parseArp(" + lines + ") returns 0");
+            WfdLog.w(TAG, "getArpTable() parseArp(" + lines + ") returns 0");
             return null;
         }
         return arps;
@@ -98,11 +96,11 @@ public class RarpImpl {
             br.close();
             return lines;
         } catch (FileNotFoundException e) {
-            LogUtils.e(TAG, "readFile() " + e);
+            WfdLog.e(TAG, "readFile() " + e);
         } catch (UnsupportedEncodingException e) {
-            LogUtils.e(TAG, "readFile() " + e);
+            WfdLog.e(TAG, "readFile() " + e);
         } catch (IOException e) {
-            LogUtils.e(TAG, "readFile() " + e);
+            WfdLog.e(TAG, "readFile() " + e);
         }
         return null;
     }
@@ -128,13 +126,13 @@ public class RarpImpl {
 
     private ArpType parseArpLine(String line) {
         if (line == null) {
-            LogUtils.e(TAG, "parseArpLine() line is null!");
+            WfdLog.e(TAG, "parseArpLine() line is null!");
             return null;
         }
 
         String[] seps = line.split(" +"); //
         if (seps == null || seps.length == 0) {
-            LogUtils.e(TAG, "parseArpLine() split error!" + line + "]");
+            WfdLog.e(TAG, "parseArpLine() split error!" + line + "]");
             return null;
         }
 
@@ -142,17 +140,17 @@ public class RarpImpl {
         // arp行
         if (len == 6) {
             ArpType arp = new ArpType(seps[0], seps[1], seps[2], seps[3], seps[4], seps[5]);
-            LogUtils.d(TAG, "parseArpLine() created arp[" + arp.toString() + "]");
+            WfdLog.d(TAG, "parseArpLine() created arp[" + arp.toString() + "]");
             return arp;
         } else {
             if (seps.length == 9 && seps[0].equals("IP") && seps[8].equals("Device")) {
-                LogUtils.i(TAG, "parseArpLine() this is header line. don't create arp[" + line + "]");
+                WfdLog.i(TAG, "parseArpLine() this is header line. don't create arp[" + line + "]");
             } else {
                 StringBuffer buf = new StringBuffer();
                 for (int i = 0; i < seps.length; i++) {
                     buf.append(String.format("[%02d](%s)", i, seps[i]));
                 }
-                LogUtils.e(TAG, "parseArpLine() Unknown Line! Seps[" + buf.toString() + "]");
+                WfdLog.e(TAG, "parseArpLine() Unknown Line! Seps[" + buf.toString() + "]");
             }
             return null;
         }
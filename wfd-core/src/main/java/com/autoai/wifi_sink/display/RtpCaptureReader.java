@@ -0,0 +1,301 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * 从抓包文件中逐个读出RTP包，用于{@link RTPReceiver#replay(RtpCaptureReader, boolean)}回放
+ * <p>
+ * 支持两种文件：
+ * 1、pcap（tcpdump -w抓的包，Wireshark中要另存为pcap格式，不支持pcapng），链路层支持以太网（含VLAN）、
+ * Linux cooked（SLL/SLL2）、loopback和Raw IP，取出IPv4/IPv6的UDP负载，可以按目的端口过滤；
+ * 2、录制的TS文件（手机投屏时保存的ts），按7个TS包一个RTP包重新封装，没有到达时间
+ */
+
+class RtpCaptureReader implements Closeable {
+
+    private final String TAG = RtpCaptureReader.class.getSimpleName();
+
+    static final int FORMAT_PCAP = 1;
+    static final int FORMAT_TS = 2;
+
+    private static final int PCAP_MAGIC_US = 0xA1B2C3D4;
+    private static final int PCAP_MAGIC_NS = 0xA1B23C4D;
+
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+    private static final int LINKTYPE_IPV6 = 229;
+    private static final int LINKTYPE_LINUX_SLL2 = 276;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_IPV6 = 0x86DD;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int IP_PROTOCOL_UDP = 17;
+
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int TS_PACKETS_PER_RTP = 7;
+    private static final int RTP_HEADER_SIZE = 12;
+
+    private final DataInputStream in;
+    private final int format;
+    //只读取发往这个UDP端口的包，0表示不过滤，按RTP的版本号判断
+    private final int udpPort;
+
+    //pcap文件头中的信息
+    private boolean swapped;
+    private boolean nanosecond;
+    private int linkType;
+    //一条记录的数据，按snaplen分配
+    private byte[] record = new byte[65536];
+
+    //最后读出的包的抓包时间，TS文件没有时间
+    private long captureTimeUs = -1;
+    //TS文件重新封装时使用的序列号
+    private int tsSeq = 0;
+    //不是UDP或者被过滤掉的记录数
+    private long skippedRecords = 0;
+
+    private RtpCaptureReader(DataInputStream in, int format, int udpPort) {
+        this.in = in;
+        this.format = format;
+        this.udpPort = udpPort;
+    }
+
+    /**
+     * 根据文件头判断是pcap还是TS
+     *
+     * @param udpPort pcap中RTP包的目的端口，0表示不过滤，TS文件不使用
+     */
+    static RtpCaptureReader open(String path, int udpPort) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 256 * 1024));
+        try {
+            in.mark(4);
+            int magic = in.readInt();
+            in.reset();
+            int format;
+            if (magic == PCAP_MAGIC_US || magic == PCAP_MAGIC_NS
+                    || Integer.reverseBytes(magic) == PCAP_MAGIC_US || Integer.reverseBytes(magic) == PCAP_MAGIC_NS) {
+                format = FORMAT_PCAP;
+            } else if ((magic >>> 24) == 0x47) {
+                format = FORMAT_TS;
+            } else {
+                throw new IOException("unknown capture format, magic: " + Integer.toHexString(magic));
+            }
+            RtpCaptureReader reader = new RtpCaptureReader(in, format, udpPort);
+            if (format == FORMAT_PCAP) {
+                reader.readPcapHeader();
+            }
+            return reader;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    int getFormat() {
+        return format;
+    }
+
+    //最后读出的包的抓包时间，微秒，TS文件返回-1
+    long getCaptureTimeUs() {
+        return captureTimeUs;
+    }
+
+    long getSkippedRecords() {
+        return skippedRecords;
+    }
+
+    /**
+     * 读出下一个RTP包
+     *
+     * @param buffer 至少1500字节，pcap中更大的包会被丢弃
+     * @return RTP包的长度，文件结束时返回-1
+     */
+    int next(byte[] buffer) throws IOException {
+        return format == FORMAT_PCAP ? nextPcap(buffer) : nextTs(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * ---------------------------------------------pcap--------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private void readPcapHeader() throws IOException {
+        int magic = in.readInt();
+        swapped = magic != PCAP_MAGIC_US && magic != PCAP_MAGIC_NS;
+        nanosecond = (swapped ? Integer.reverseBytes(magic) : magic) == PCAP_MAGIC_NS;
+        //版本号、时区、精度
+        in.skipBytes(12);
+        int snapLength = readPcapInt();
+        linkType = readPcapInt() & 0x0FFFFFFF;
+        if (snapLength > record.length) {
+            record = new byte[Math.min(snapLength, 256 * 1024)];
+        }
+        WfdLog.i(TAG, "pcap link type " + linkType + ", snaplen " + snapLength + (nanosecond ? ", ns" : ""));
+    }
+
+    private int readPcapInt() throws IOException {
+        int value = in.readInt();
+        return swapped ? Integer.reverseBytes(value) : value;
+    }
+
+    private int nextPcap(byte[] buffer) throws IOException {
+        while (true) {
+            long seconds;
+            try {
+                seconds = readPcapInt() & 0xFFFFFFFFL;
+            } catch (EOFException e) {
+                return -1;
+            }
+            long fraction = readPcapInt() & 0xFFFFFFFFL;
+            int capturedLength = readPcapInt();
+            //原始长度
+            readPcapInt();
+            if (capturedLength < 0 || capturedLength > record.length) {
+                throw new IOException("bad pcap record length " + capturedLength);
+            }
+            in.readFully(record, 0, capturedLength);
+            int length = extractUdpPayload(capturedLength, buffer);
+            if (length < 0) {
+                skippedRecords++;
+                continue;
+            }
+            captureTimeUs = seconds * 1000000 + (nanosecond ? fraction / 1000 : fraction);
+            return length;
+        }
+    }
+
+    //取出链路层里的UDP负载，不是需要的RTP包时返回-1
+    private int extractUdpPayload(int length, byte[] buffer) {
+        int offset;
+        int protocol;
+        switch (linkType) {
+            case LINKTYPE_ETHERNET:
+                if (length < 14) {
+                    return -1;
+                }
+                offset = 14;
+                protocol = readShort(record, 12);
+                while (protocol == ETHERTYPE_VLAN && offset + 4 <= length) {
+                    protocol = readShort(record, offset + 2);
+                    offset += 4;
+                }
+                break;
+            case LINKTYPE_LINUX_SLL:
+                offset = 16;
+                protocol = length >= 16 ? readShort(record, 14) : 0;
+                break;
+            case LINKTYPE_LINUX_SLL2:
+                offset = 20;
+                protocol = length >= 20 ? readShort(record, 0) : 0;
+                break;
+            case LINKTYPE_NULL:
+                //协议族是抓包机器的字节序，IPv4是2，IPv6在不同系统上是24、28、30
+                offset = 4;
+                protocol = 0;
+                if (length >= 4) {
+                    int family = record[0] != 0 ? record[0] & 0xFF : record[3] & 0xFF;
+                    protocol = family == 2 ? ETHERTYPE_IPV4 : ETHERTYPE_IPV6;
+                }
+                break;
+            case LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+            case LINKTYPE_IPV6:
+                offset = 0;
+                protocol = length > 0 && (record[0] & 0xF0) == 0x60 ? ETHERTYPE_IPV6 : ETHERTYPE_IPV4;
+                break;
+            default:
+                return -1;
+        }
+
+        int udpOffset;
+        if (protocol == ETHERTYPE_IPV4) {
+            if (offset + 20 > length || (record[offset] & 0xF0) != 0x40) {
+                return -1;
+            }
+            int headerLength = (record[offset] & 0x0F) * 4;
+            //分片的包不处理，RTP包一般不会超过MTU
+            int fragment = readShort(record, offset + 6);
+            if ((fragment & 0x3FFF) != 0 || (record[offset + 9] & 0xFF) != IP_PROTOCOL_UDP) {
+                return -1;
+            }
+            udpOffset = offset + headerLength;
+        } else if (protocol == ETHERTYPE_IPV6) {
+            //不处理扩展头
+            if (offset + 40 > length || (record[offset + 6] & 0xFF) != IP_PROTOCOL_UDP) {
+                return -1;
+            }
+            udpOffset = offset + 40;
+        } else {
+            return -1;
+        }
+        if (udpOffset + 8 > length) {
+            return -1;
+        }
+        int dstPort = readShort(record, udpOffset + 2);
+        if (udpPort > 0 && dstPort != udpPort) {
+            return -1;
+        }
+        int payloadLength = Math.min(readShort(record, udpOffset + 4) - 8, length - udpOffset - 8);
+        if (payloadLength < RTP_HEADER_SIZE || payloadLength > buffer.length) {
+            return -1;
+        }
+        int payloadOffset = udpOffset + 8;
+        //RTP版本号是2，payload type 72~76是RTCP
+        int pt = record[payloadOffset + 1] & 0x7F;
+        if (((record[payloadOffset] >> 6) & 0x03) != 2 || (pt >= 72 && pt <= 76)) {
+            return -1;
+        }
+        System.arraycopy(record, payloadOffset, buffer, 0, payloadLength);
+        return payloadLength;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * ----------------------------------------------TS---------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    //7个TS包加上RTP头（PT=33），文件结尾不足一个TS包的数据丢弃
+    private int nextTs(byte[] buffer) throws IOException {
+        int length = 0;
+        int payloadSize = TS_PACKET_SIZE * TS_PACKETS_PER_RTP;
+        while (length < payloadSize) {
+            int count = in.read(buffer, RTP_HEADER_SIZE + length, payloadSize - length);
+            if (count < 0) {
+                break;
+            }
+            length += count;
+        }
+        length -= length % TS_PACKET_SIZE;
+        if (length == 0) {
+            return -1;
+        }
+        buffer[0] = (byte) 0x80;
+        buffer[1] = 33;
+        buffer[2] = (byte) (tsSeq >> 8);
+        buffer[3] = (byte) tsSeq;
+        for (int i = 4; i < RTP_HEADER_SIZE; i++) {
+            buffer[i] = 0;
+        }
+        tsSeq = (tsSeq + 1) & 0xFFFF;
+        return RTP_HEADER_SIZE + length;
+    }
+}
@@ -0,0 +1,630 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * RTP丢包恢复，放在TsDemuxer前面
+ * <p>
+ * 按序列号缓存一个窗口内的RTP包，发现缺包时：
+ * 1、开启NACK时，通过RTCP的Generic NACK（RFC 4585，PT=205，FMT=1）请求Source端重传，重传的包和原来的一样；
+ * 2、设置了FEC的payload type时，用XOR校验包（RFC 5109）恢复，一组中只缺一个包就能恢复。
+ * 缺的包等待超过恢复窗口还没有恢复就放弃，后面的包按顺序交给TsDemuxer。
+ * 都没有开启时直接透传，不增加延迟
+ * <p>
+ * 后面没有新包到达时也要按时放弃和重发NACK，调用者按{@link #getNextTimerMs()}定时调用{@link #onTimer(long)}。
+ * 只在一个线程中调用：线程模式下是解析线程，事件循环模式下是循环线程
+ */
+
+class RtpLossRecovery {
+
+    private final String TAG = RtpLossRecovery.class.getSimpleName();
+
+    //按顺序输出的RTP包
+    interface Output {
+        //arrivalNanos是这个包从网络上收到的时间，FEC恢复的包是恢复时用到的最后一个包的到达时间
+        void onPacket(byte[] data, int length, long arrivalNanos);
+    }
+
+    //发送RTCP反馈
+    interface FeedbackSender {
+        void sendRtcp(byte[] data, int length);
+    }
+
+    //缓存的包数，必须是2的幂
+    private static final int WINDOW_SIZE = 256;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    //序列号跳变超过这个值认为Source端重新开始了，不按丢包统计
+    private static final int MAX_DROPOUT = 3000;
+    //默认等待恢复的时间
+    private static final long DEFAULT_WINDOW_MS = 100;
+    //最多保留的FEC包
+    private static final int MAX_FEC_PACKETS = 32;
+    //一个缺的包最多发送几次NACK，重传的包也可能丢
+    private static final int MAX_NACK_ATTEMPTS = 3;
+    //重发NACK的最小间隔，恢复窗口很小时也不要太频繁
+    private static final long MIN_NACK_RETRY_INTERVAL_MS = 20;
+
+    private static final int RTCP_PT_RR = 201;
+    private static final int RTCP_PT_RTPFB = 205;
+    private static final int RTCP_FMT_NACK = 1;
+
+    private final Output output;
+    private final FeedbackSender feedbackSender;
+
+    private volatile boolean nackEnabled = false;
+    //FEC包的payload type，-1表示不使用FEC
+    private volatile int fecPayloadType = -1;
+    private volatile long windowMs = DEFAULT_WINDOW_MS;
+
+    //窗口内的包，下标是序列号的低位
+    private final byte[][] packets = new byte[WINDOW_SIZE][];
+    private final int[] lengths = new int[WINDOW_SIZE];
+    //每个位置上保存的序列号，-1表示没有
+    private final int[] sequences = new int[WINDOW_SIZE];
+    //收到的时间，System.nanoTime()
+    private final long[] arrivalNanos = new long[WINDOW_SIZE];
+    //发现缺包的时间
+    private final long[] missingTimeMs = new long[WINDOW_SIZE];
+    //缺的包已经发送NACK的次数和最后一次发送的时间，到达时只有请求过的才算重传恢复
+    private final int[] nackCounts = new int[WINDOW_SIZE];
+    private final long[] nackTimeMs = new long[WINDOW_SIZE];
+    //下一次需要调用onTimer的时间，没有在等待的包时为-1
+    private volatile long nextTimerMs = -1;
+
+    private boolean started = false;
+    //下一个要输出的序列号
+    private int expectedSeq;
+    //收到的最大序列号
+    private int highestSeq;
+    private int mediaSsrc;
+    //发送RTCP时使用的SSRC
+    private final int localSsrc = (int) (Math.random() * Integer.MAX_VALUE);
+
+    private final List<FecPacket> fecPackets = new ArrayList<>();
+    private final List<Integer> nackList = new ArrayList<>();
+    private final byte[] rtcpBuffer = new byte[1200];
+
+    //请求重传之后到达的包数
+    private volatile long recoveredByNack = 0;
+    //FEC恢复的包数
+    private volatile long recoveredByFec = 0;
+    //没有恢复的包数
+    private volatile long unrecovered = 0;
+    private volatile long nackPackets = 0;
+    //重复的或者放弃之后才到达的包
+    private volatile long duplicates = 0;
+
+    RtpLossRecovery(Output output, FeedbackSender feedbackSender) {
+        this.output = output;
+        this.feedbackSender = feedbackSender;
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            sequences[i] = -1;
+        }
+    }
+
+    void setNackEnabled(boolean nackEnabled) {
+        this.nackEnabled = nackEnabled;
+    }
+
+    void setFecPayloadType(int fecPayloadType) {
+        this.fecPayloadType = fecPayloadType;
+    }
+
+    void setWindowMs(long windowMs) {
+        this.windowMs = Math.max(0, windowMs);
+    }
+
+    long getRecoveredCount() {
+        return recoveredByNack + recoveredByFec;
+    }
+
+    long getRecoveredByNack() {
+        return recoveredByNack;
+    }
+
+    long getRecoveredByFec() {
+        return recoveredByFec;
+    }
+
+    long getUnrecoveredCount() {
+        return unrecovered;
+    }
+
+    long getNackPacketCount() {
+        return nackPackets;
+    }
+
+    long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * 下一次需要调用{@link #onTimer(long)}的时间，毫秒，和receive的arrivalNanos是同一个时钟
+     *
+     * @return 没有在等待的包时返回-1
+     */
+    long getNextTimerMs() {
+        return nextTimerMs;
+    }
+
+    /**
+     * 收到一个RTP包
+     *
+     * @param data         调用返回后可以复用
+     * @param arrivalNanos 从网络上收到这个包的时间，System.nanoTime()，和包一起交给TsDemuxer，也用来计算等待的时长
+     */
+    @WorkerThread
+    void receive(byte[] data, int length, long arrivalNanos) {
+        long nowMs = arrivalNanos / 1000000;
+        if (length < 12 || ((data[0] >> 6) & 0x03) != 2) {
+            output.onPacket(data, length, arrivalNanos);
+            return;
+        }
+        int pt = data[1] & 0x7F;
+        int fecPt = fecPayloadType;
+        if (fecPt >= 0 && pt == fecPt) {
+            onFecPacket(data, length, arrivalNanos);
+            drain(nowMs);
+            updateNextTimer();
+            return;
+        }
+        if (!nackEnabled && fecPt < 0 && !started) {
+            //没有开启恢复，直接透传
+            output.onPacket(data, length, arrivalNanos);
+            return;
+        }
+        int seq = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        long now = nowMs;
+        int ssrc = readInt(data, 8);
+        if (!started) {
+            start(seq);
+            mediaSsrc = ssrc;
+        } else if (ssrc != mediaSsrc) {
+            //可能是错误或者晚到的包，也可能是Source端换了流：不进入窗口，交给TsDemuxer确认，
+            //确认换流时通过onStreamChanged重新开始
+            output.onPacket(data, length, arrivalNanos);
+            return;
+        }
+
+        int diff = seqDiff(seq, expectedSeq);
+        if (diff < 0) {
+            if (diff < -MAX_DROPOUT) {
+                restart(seq);
+            } else {
+                //已经输出过，或者已经放弃了
+                duplicates++;
+                return;
+            }
+        } else if (diff > MAX_DROPOUT) {
+            restart(seq);
+        } else if (diff >= WINDOW_SIZE) {
+            //超出窗口，放弃前面还没有恢复的包
+            skipTo((seq - WINDOW_SIZE + 1) & 0xFFFF);
+        }
+
+        int slot = seq & WINDOW_MASK;
+        if (sequences[slot] == seq) {
+            duplicates++;
+            return;
+        }
+        if (fecPt < 0 && seq == expectedSeq && seqDiff(highestSeq, expectedSeq) < 0) {
+            //没有缺包时直接输出，不用FEC时也不需要保存
+            sequences[slot] = seq;
+            highestSeq = seq;
+            expectedSeq = (seq + 1) & 0xFFFF;
+            output.onPacket(data, length, arrivalNanos);
+            return;
+        }
+        boolean isGap = seqDiff(seq, highestSeq) <= 0;
+        if (isGap && nackCounts[slot] > 0) {
+            //之前缺的包，请求过重传，不区分是重传回来的还是乱序晚到的
+            recoveredByNack++;
+        }
+        store(seq, data, length, arrivalNanos);
+        if (!isGap) {
+            //highestSeq和seq之间的都是缺的包
+            for (int s = (highestSeq + 1) & 0xFFFF; s != seq; s = (s + 1) & 0xFFFF) {
+                int missingSlot = s & WINDOW_MASK;
+                sequences[missingSlot] = -1;
+                missingTimeMs[missingSlot] = now;
+                nackCounts[missingSlot] = 0;
+                nackList.add(s);
+            }
+            highestSeq = seq;
+            requestRetransmission(now);
+        }
+        if (!fecPackets.isEmpty()) {
+            recoverByFec(arrivalNanos);
+        }
+        drain(now);
+        updateNextTimer();
+    }
+
+    /**
+     * 定时处理：缺的包超过恢复窗口就放弃，把后面已经收到的包输出；
+     * 还在等待的包距离上一次NACK超过重发间隔时再请求一次，每个包最多{@link #MAX_NACK_ATTEMPTS}次
+     */
+    @WorkerThread
+    void onTimer(long nowMs) {
+        drain(nowMs);
+        if (started && nackEnabled) {
+            long retryIntervalMs = getNackRetryIntervalMs();
+            for (int s = expectedSeq; seqDiff(s, highestSeq) <= 0; s = (s + 1) & 0xFFFF) {
+                int slot = s & WINDOW_MASK;
+                if (sequences[slot] != s && nackCounts[slot] < MAX_NACK_ATTEMPTS
+                        && nowMs - nackTimeMs[slot] >= retryIntervalMs) {
+                    nackList.add(s);
+                }
+            }
+            requestRetransmission(nowMs);
+        }
+        updateNextTimer();
+    }
+
+    //把nackList中的包通过NACK请求重传
+    private void requestRetransmission(long now) {
+        if (nackList.isEmpty()) {
+            return;
+        }
+        if (sendNack(nackList)) {
+            for (int i = 0; i < nackList.size(); i++) {
+                int slot = nackList.get(i) & WINDOW_MASK;
+                nackCounts[slot]++;
+                nackTimeMs[slot] = now;
+            }
+        }
+        nackList.clear();
+    }
+
+    //在恢复窗口内均匀地发送几次NACK
+    private long getNackRetryIntervalMs() {
+        return Math.max(MIN_NACK_RETRY_INTERVAL_MS, windowMs / MAX_NACK_ATTEMPTS);
+    }
+
+    //最早的放弃时间和重发NACK的时间
+    private void updateNextTimer() {
+        if (!started || seqDiff(highestSeq, expectedSeq) < 0) {
+            nextTimerMs = -1;
+            return;
+        }
+        //drain之后expectedSeq一定是还在等待的包
+        long next = missingTimeMs[expectedSeq & WINDOW_MASK] + windowMs;
+        if (nackEnabled) {
+            long retryIntervalMs = getNackRetryIntervalMs();
+            for (int s = expectedSeq; seqDiff(s, highestSeq) <= 0; s = (s + 1) & 0xFFFF) {
+                int slot = s & WINDOW_MASK;
+                if (sequences[slot] != s && nackCounts[slot] > 0 && nackCounts[slot] < MAX_NACK_ATTEMPTS) {
+                    next = Math.min(next, nackTimeMs[slot] + retryIntervalMs);
+                }
+            }
+        }
+        nextTimerMs = next;
+    }
+
+    /**
+     * TsDemuxer确认Source端换了流（新SSRC连续收到了足够的包）时调用，seq是确认时的包，已经交给了TsDemuxer。
+     * 旧流缓存的包和缺的包都不要了，TsDemuxer也会丢弃旧SSRC的包，从下一个包开始按新流恢复
+     */
+    @WorkerThread
+    void onStreamChanged(int ssrc, int seq) {
+        if (!started || ssrc == mediaSsrc) {
+            return;
+        }
+        WfdLog.w(TAG, "rtp stream changed, restart at " + seq);
+        reset();
+        start((seq + 1) & 0xFFFF);
+        mediaSsrc = ssrc;
+    }
+
+    //Source端重新开始时调用，丢掉缓存的包
+    @WorkerThread
+    void reset() {
+        started = false;
+        nextTimerMs = -1;
+        fecPackets.clear();
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            sequences[i] = -1;
+        }
+    }
+
+    private void start(int seq) {
+        started = true;
+        expectedSeq = seq;
+        highestSeq = (seq - 1) & 0xFFFF;
+    }
+
+    //序列号跳变，把缓存中已经收到的包按顺序输出，从seq重新开始
+    private void restart(int seq) {
+        WfdLog.w(TAG, "rtp stream restart " + expectedSeq + " -> " + seq);
+        while (seqDiff(highestSeq, expectedSeq) >= 0) {
+            int slot = expectedSeq & WINDOW_MASK;
+            if (sequences[slot] == expectedSeq) {
+                output.onPacket(packets[slot], lengths[slot], arrivalNanos[slot]);
+            }
+            expectedSeq = (expectedSeq + 1) & 0xFFFF;
+        }
+        reset();
+        start(seq);
+    }
+
+    //输出到target之前的包，缺的包算作没有恢复
+    private void skipTo(int target) {
+        while (seqDiff(target, expectedSeq) > 0) {
+            if (seqDiff(highestSeq, expectedSeq) < 0) {
+                unrecovered += seqDiff(target, expectedSeq);
+                expectedSeq = target;
+                highestSeq = (target - 1) & 0xFFFF;
+                return;
+            }
+            outputOrSkip(expectedSeq & WINDOW_MASK);
+        }
+    }
+
+    //按顺序输出已经收到的包，缺的包等待超时后放弃
+    private void drain(long now) {
+        while (started && seqDiff(highestSeq, expectedSeq) >= 0) {
+            int slot = expectedSeq & WINDOW_MASK;
+            if (sequences[slot] != expectedSeq && now - missingTimeMs[slot] < windowMs) {
+                break;
+            }
+            outputOrSkip(slot);
+        }
+    }
+
+    private void outputOrSkip(int slot) {
+        if (sequences[slot] == expectedSeq) {
+            output.onPacket(packets[slot], lengths[slot], arrivalNanos[slot]);
+        } else {
+            unrecovered++;
+        }
+        expectedSeq = (expectedSeq + 1) & 0xFFFF;
+    }
+
+    //保存到窗口中，输出之后也保留，FEC恢复时需要用到
+    private void store(int seq, byte[] data, int length, long arrival) {
+        int slot = seq & WINDOW_MASK;
+        if (packets[slot] == null || packets[slot].length < length) {
+            packets[slot] = new byte[Math.max(length, 1500)];
+        }
+        System.arraycopy(data, 0, packets[slot], 0, length);
+        lengths[slot] = length;
+        arrivalNanos[slot] = arrival;
+        sequences[slot] = seq;
+        nackCounts[slot] = 0;
+    }
+
+    private boolean isReceived(int seq) {
+        return sequences[seq & WINDOW_MASK] == seq;
+    }
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * -----------------------------------------NACK------------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * 发送一个RR加上Generic NACK，每个FCI是一个序列号（PID）和后面16个序列号的位图（BLP）
+     *
+     * @return 没有开启NACK时返回false
+     */
+    private boolean sendNack(List<Integer> missing) {
+        if (!nackEnabled || feedbackSender == null) {
+            return false;
+        }
+        int offset = 0;
+        //空的RR，RTCP复合包要以SR或RR开始
+        rtcpBuffer[offset++] = (byte) 0x80;
+        rtcpBuffer[offset++] = (byte) RTCP_PT_RR;
+        rtcpBuffer[offset++] = 0;
+        rtcpBuffer[offset++] = 1;
+        offset = writeInt(rtcpBuffer, offset, localSsrc);
+
+        int nackStart = offset;
+        rtcpBuffer[offset++] = (byte) (0x80 | RTCP_FMT_NACK);
+        rtcpBuffer[offset++] = (byte) RTCP_PT_RTPFB;
+        //长度最后再写
+        offset += 2;
+        offset = writeInt(rtcpBuffer, offset, localSsrc);
+        offset = writeInt(rtcpBuffer, offset, mediaSsrc);
+        int index = 0;
+        while (index < missing.size() && offset + 4 <= rtcpBuffer.length) {
+            int pid = missing.get(index++);
+            int blp = 0;
+            while (index < missing.size()) {
+                int distance = seqDiff(missing.get(index), pid);
+                if (distance < 1 || distance > 16) {
+                    break;
+                }
+                blp |= 1 << (distance - 1);
+                index++;
+            }
+            rtcpBuffer[offset++] = (byte) (pid >> 8);
+            rtcpBuffer[offset++] = (byte) pid;
+            rtcpBuffer[offset++] = (byte) (blp >> 8);
+            rtcpBuffer[offset++] = (byte) blp;
+        }
+        int words = (offset - nackStart) / 4 - 1;
+        rtcpBuffer[nackStart + 2] = (byte) (words >> 8);
+        rtcpBuffer[nackStart + 3] = (byte) words;
+        nackPackets++;
+        feedbackSender.sendRtcp(rtcpBuffer, offset);
+        return true;
+    }
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * ------------------------------------------FEC------------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    /**
+     * FEC包（RFC 5109）的RTP负载：
+     * FEC头（10字节）：E L P X CC | M PT recovery | SN base | TS recovery | length recovery
+     * ULP level 0头：protection length（2字节） | mask（L=0时2字节，L=1时6字节）
+     * 然后是被保护的包负载的异或
+     */
+    private void onFecPacket(byte[] data, int length, long arrival) {
+        int headerLength = 12 + 4 * (data[0] & 0x0F);
+        if ((data[0] & 0x10) != 0) {
+            //X=1，跳过头部扩展：profile（16位）、长度（16位，单位是4个字节）和扩展数据
+            if (length < headerLength + 4) {
+                return;
+            }
+            headerLength += 4 + 4 * (((data[headerLength + 2] & 0xFF) << 8) | (data[headerLength + 3] & 0xFF));
+        }
+        if (length < headerLength + 14) {
+            return;
+        }
+        boolean longMask = (data[headerLength] & 0x40) != 0;
+        int levelHeaderLength = longMask ? 8 : 4;
+        int payloadOffset = headerLength + 10 + levelHeaderLength;
+        if (length < payloadOffset) {
+            return;
+        }
+        FecPacket fec = new FecPacket();
+        fec.data = new byte[length - headerLength];
+        System.arraycopy(data, headerLength, fec.data, 0, fec.data.length);
+        fec.snBase = ((data[headerLength + 2] & 0xFF) << 8) | (data[headerLength + 3] & 0xFF);
+        fec.protectionLength = ((data[headerLength + 10] & 0xFF) << 8) | (data[headerLength + 11] & 0xFF);
+        long mask = 0;
+        for (int i = 0; i < (longMask ? 6 : 2); i++) {
+            mask = (mask << 8) | (data[headerLength + 12 + i] & 0xFF);
+        }
+        //mask的最高位对应SN base
+        int bits = longMask ? 48 : 16;
+        for (int i = 0; i < bits; i++) {
+            if ((mask & (1L << (bits - 1 - i))) != 0) {
+                fec.protectedSeqs.add((fec.snBase + i) & 0xFFFF);
+            }
+        }
+        fec.payloadOffset = 10 + levelHeaderLength;
+        if (fec.protectedSeqs.isEmpty() || fec.payloadOffset + fec.protectionLength > fec.data.length) {
+            return;
+        }
+        if (fecPackets.size() >= MAX_FEC_PACKETS) {
+            fecPackets.remove(0);
+        }
+        fecPackets.add(fec);
+        recoverByFec(arrival);
+    }
+
+    //每个FEC包保护的一组中只缺一个包时恢复出来
+    private void recoverByFec(long arrival) {
+        if (!started) {
+            return;
+        }
+        boolean recovered = true;
+        while (recovered) {
+            recovered = false;
+            Iterator<FecPacket> iterator = fecPackets.iterator();
+            while (iterator.hasNext()) {
+                FecPacket fec = iterator.next();
+                int lastSeq = fec.protectedSeqs.get(fec.protectedSeqs.size() - 1);
+                if (seqDiff(lastSeq, expectedSeq) < 0) {
+                    //保护的包都已经输出或者放弃了
+                    iterator.remove();
+                    continue;
+                }
+                int missingSeq = -1;
+                int missingCount = 0;
+                for (int seq : fec.protectedSeqs) {
+                    if (!isReceived(seq)) {
+                        missingSeq = seq;
+                        missingCount++;
+                    }
+                }
+                if (missingCount == 0) {
+                    iterator.remove();
+                } else if (missingCount == 1 && seqDiff(missingSeq, expectedSeq) >= 0
+                        && seqDiff(missingSeq, highestSeq) <= 0) {
+                    iterator.remove();
+                    if (recover(fec, missingSeq, arrival)) {
+                        recoveredByFec++;
+                        recovered = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean recover(FecPacket fec, int missingSeq, long arrival) {
+        byte[] fecData = fec.data;
+        int bits0 = fecData[0] & 0x3F;
+        int bits1 = fecData[1] & 0xFF;
+        int timestamp = readInt(fecData, 4);
+        int recoveredLength = ((fecData[8] & 0xFF) << 8) | (fecData[9] & 0xFF);
+        int ssrc = mediaSsrc;
+        byte[] payload = new byte[fec.protectionLength];
+        System.arraycopy(fecData, fec.payloadOffset, payload, 0, fec.protectionLength);
+        for (int seq : fec.protectedSeqs) {
+            if (seq == missingSeq) {
+                continue;
+            }
+            int slot = seq & WINDOW_MASK;
+            byte[] packet = packets[slot];
+            int packetLength = lengths[slot];
+            bits0 ^= packet[0] & 0x3F;
+            bits1 ^= packet[1] & 0xFF;
+            timestamp ^= readInt(packet, 4);
+            recoveredLength ^= packetLength - 12;
+            ssrc = readInt(packet, 8);
+            int count = Math.min(fec.protectionLength, packetLength - 12);
+            for (int i = 0; i < count; i++) {
+                payload[i] ^= packet[12 + i];
+            }
+        }
+        if (recoveredLength > fec.protectionLength) {
+            //level 0只保护了前面一部分，恢复不完整
+            return false;
+        }
+        byte[] packet = new byte[12 + recoveredLength];
+        packet[0] = (byte) (0x80 | bits0);
+        packet[1] = (byte) bits1;
+        packet[2] = (byte) (missingSeq >> 8);
+        packet[3] = (byte) missingSeq;
+        writeInt(packet, 4, timestamp);
+        writeInt(packet, 8, ssrc);
+        System.arraycopy(payload, 0, packet, 12, recoveredLength);
+        store(missingSeq, packet, packet.length, arrival);
+        return true;
+    }
+
+    private static class FecPacket {
+        //去掉RTP头之后的数据
+        byte[] data;
+        int snBase;
+        int protectionLength;
+        //异或数据在data中的位置
+        int payloadOffset;
+        final List<Integer> protectedSeqs = new ArrayList<>();
+    }
+
+    //16位序列号的差，考虑回绕
+    private static int seqDiff(int a, int b) {
+        return (short) (a - b);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static int writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+        return offset + 4;
+    }
+
+    @Override
+    public String toString() {
+        return "recovered(nack=" + recoveredByNack + ", fec=" + recoveredByFec + "), unrecovered=" + unrecovered
+                + ", nack=" + nackPackets + ", duplicate=" + duplicates;
+    }
+}
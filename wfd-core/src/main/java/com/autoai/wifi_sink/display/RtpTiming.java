@@ -0,0 +1,169 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.WorkerThread;
+
+/**
+ * 根据RTP包的时间估算网络的抖动和排队延迟
+ * <p>
+ * 默认按RFC 3550用RTP时间戳和到达时间计算到达间隔抖动。Source端发送了头部扩展时，用扩展中的发送时间更准确：
+ * 1、abs-send-time：3个字节，6.18定点数的秒，64秒回绕，可以直接算单向延迟的变化，也就是排队延迟；
+ * 2、transmission time offset（RFC 5450）：3个字节的有符号数，RTP时间戳加上它是实际的发送时间。
+ * 没有SDP协商扩展的ID，需要和Source端约定后通过{@link #setAbsSendTimeId(int)}等设置，0表示不使用
+ * <p>
+ * 只在解析RTP的线程中更新，结果可以在任意线程读取
+ */
+
+class RtpTiming {
+
+    //RTP时间戳的时钟频率
+    private static final int RTP_CLOCK_RATE = 90000;
+    //abs-send-time的回绕周期，2^24个单位，64秒
+    private static final long ABS_SEND_TIME_WRAP = 1 << 24;
+    //排队延迟的基准取最近两个窗口内单向延迟的最小值
+    private static final long BASE_WINDOW_US = 5 * 1000 * 1000L;
+
+    private volatile int absSendTimeId = 0;
+    private volatile int transmissionOffsetId = 0;
+
+    //当前包的扩展中取出的值，每个包处理完后清除
+    private boolean hasAbsSendTime = false;
+    private long absSendTime;
+    private boolean hasTransmissionOffset = false;
+    private int transmissionOffset;
+
+    //RFC 3550抖动：上一个包的(到达时间 - 发送时间)，单位是RTP时钟
+    private boolean hasLastTransit = false;
+    private long lastTransit;
+    private double jitter = 0;
+
+    //abs-send-time展开后的发送时间，微秒
+    private long lastAbsSendTime = -1;
+    private long sendTimeUs = 0;
+    //按abs-send-time计算的抖动和单向延迟
+    private boolean hasLastSendTransit = false;
+    private long lastSendTransitUs;
+    private double sendTimeJitterUs = 0;
+    private long windowStartUs = -1;
+    private long windowMinTransitUs = Long.MAX_VALUE;
+    private long previousWindowMinTransitUs = Long.MAX_VALUE;
+
+    private volatile double jitterMs = 0;
+    private volatile double sendTimeJitterMs = -1;
+    private volatile long queuingDelayMs = -1;
+
+    void setAbsSendTimeId(int id) {
+        absSendTimeId = id;
+    }
+
+    void setTransmissionOffsetId(int id) {
+        transmissionOffsetId = id;
+    }
+
+    /**
+     * RTP头部扩展中的一个元素，在{@link #onPacket(int, long)}之前调用
+     */
+    @WorkerThread
+    void onExtension(int id, byte[] data, int offset, int length) {
+        if (id == 0 || length != 3) {
+            return;
+        }
+        int value = ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+        if (id == absSendTimeId) {
+            hasAbsSendTime = true;
+            absSendTime = value;
+        } else if (id == transmissionOffsetId) {
+            hasTransmissionOffset = true;
+            //24位有符号数
+            transmissionOffset = (value << 8) >> 8;
+        }
+    }
+
+    /**
+     * 一个RTP包解析完成
+     *
+     * @param rtpTimestamp RTP头部的时间戳
+     * @param arrivalNanos 到达时间，System.nanoTime()
+     */
+    @WorkerThread
+    void onPacket(int rtpTimestamp, long arrivalNanos) {
+        long sendTime = rtpTimestamp & 0xFFFFFFFFL;
+        if (hasTransmissionOffset) {
+            sendTime += transmissionOffset;
+        }
+        long arrival = arrivalNanos / 1000 * RTP_CLOCK_RATE / 1000000;
+        long transit = arrival - sendTime;
+        if (hasLastTransit) {
+            //RTP时间戳32位回绕时差值会很大，按32位取差
+            long d = Math.abs((int) (transit - lastTransit));
+            jitter += (d - jitter) / 16;
+            jitterMs = jitter * 1000 / RTP_CLOCK_RATE;
+        }
+        lastTransit = transit;
+        hasLastTransit = true;
+
+        if (hasAbsSendTime) {
+            onAbsSendTime(absSendTime, arrivalNanos / 1000);
+        }
+        hasAbsSendTime = false;
+        hasTransmissionOffset = false;
+    }
+
+    private void onAbsSendTime(long value, long arrivalUs) {
+        if (lastAbsSendTime >= 0) {
+            long delta = (value - lastAbsSendTime) & (ABS_SEND_TIME_WRAP - 1);
+            //乱序的包，回退一点
+            if (delta > ABS_SEND_TIME_WRAP / 2) {
+                delta -= ABS_SEND_TIME_WRAP;
+            }
+            sendTimeUs += delta * 1000000 / (1 << 18);
+        }
+        lastAbsSendTime = value;
+
+        long transitUs = arrivalUs - sendTimeUs;
+        if (hasLastSendTransit) {
+            long d = Math.abs(transitUs - lastSendTransitUs);
+            sendTimeJitterUs += (d - sendTimeJitterUs) / 16;
+            sendTimeJitterMs = sendTimeJitterUs / 1000;
+        }
+        lastSendTransitUs = transitUs;
+        hasLastSendTransit = true;
+
+        if (windowStartUs < 0 || arrivalUs - windowStartUs >= BASE_WINDOW_US) {
+            previousWindowMinTransitUs = windowMinTransitUs;
+            windowMinTransitUs = Long.MAX_VALUE;
+            windowStartUs = arrivalUs;
+        }
+        windowMinTransitUs = Math.min(windowMinTransitUs, transitUs);
+        long baseTransitUs = Math.min(windowMinTransitUs, previousWindowMinTransitUs);
+        queuingDelayMs = (transitUs - baseTransitUs) / 1000;
+    }
+
+    //RFC 3550的到达间隔抖动，毫秒
+    double getJitterMs() {
+        return jitterMs;
+    }
+
+    //按abs-send-time计算的抖动，没有abs-send-time时返回-1
+    double getSendTimeJitterMs() {
+        return sendTimeJitterMs;
+    }
+
+    //当前包相对最近最小单向延迟多出来的时间，也就是网络中的排队延迟，没有abs-send-time时返回-1
+    long getQueuingDelayMs() {
+        return queuingDelayMs;
+    }
+
+    //Source端重新开始时调用
+    @WorkerThread
+    void reset() {
+        hasLastTransit = false;
+        jitter = 0;
+        lastAbsSendTime = -1;
+        sendTimeUs = 0;
+        hasLastSendTransit = false;
+        sendTimeJitterUs = 0;
+        windowStartUs = -1;
+        windowMinTransitUs = Long.MAX_VALUE;
+        previousWindowMinTransitUs = Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,182 @@
+package com.autoai.wifi_sink.display;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一条完整的RTSP消息（请求或者响应），头部只解析一次，按名字查找时不区分大小写
+ * 请求：SET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0
+ * 响应：RTSP/1.0 200 OK
+ */
+
+class RtspMessage {
+
+    private static final String RTSP_VERSION = "RTSP/1.0";
+
+    //第一行
+    private final String startLine;
+    //请求的方法，响应时为null
+    private final String method;
+    //请求的地址，响应时为null
+    private final String uri;
+    //响应的状态码，请求时为0
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private String body = "";
+    //body中text/parameters格式的参数，用到时才解析
+    private Map<String, String> parameters;
+
+    private RtspMessage(String startLine, String method, String uri, int statusCode, Map<String, String> headers) {
+        this.startLine = startLine;
+        this.method = method;
+        this.uri = uri;
+        this.statusCode = statusCode;
+        this.headers = headers;
+    }
+
+    /**
+     * 解析头部，body由{@link RtspMessageReader}根据Content-Length收全之后再设置
+     *
+     * @param head 从第一行到空行之前的文本，不包括最后的\r\n\r\n
+     * @return 第一行不是RTSP格式时返回null
+     */
+    static RtspMessage parse(String head) {
+        String[] lines = head.split("\r\n");
+        if (lines.length == 0) {
+            return null;
+        }
+        String startLine = lines[0];
+        String method = null;
+        String uri = null;
+        int statusCode = 0;
+        if (startLine.startsWith(RTSP_VERSION)) {
+            //RTSP/1.0 200 OK
+            String[] values = startLine.split(" ");
+            if (values.length < 2) {
+                return null;
+            }
+            try {
+                statusCode = Integer.parseInt(values[1]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            //GET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0
+            String[] values = startLine.split(" ");
+            if (values.length < 3 || !RTSP_VERSION.equals(values[2])) {
+                return null;
+            }
+            method = values[0];
+            uri = values[1];
+        }
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            int index = lines[i].indexOf(':');
+            if (index <= 0) {
+                continue;
+            }
+            headers.put(lines[i].substring(0, index).trim(), lines[i].substring(index + 1).trim());
+        }
+        return new RtspMessage(startLine, method, uri, statusCode, headers);
+    }
+
+    boolean isRequest() {
+        return method != null;
+    }
+
+    boolean isResponse() {
+        return method == null;
+    }
+
+    //是否是指定方法的请求
+    boolean isRequest(String method) {
+        return method.equals(this.method);
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getUri() {
+        return uri;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    //CSeq的值，没有时返回"0"
+    String getCSeq() {
+        String cseq = headers.get("CSeq");
+        return cseq == null ? "0" : cseq;
+    }
+
+    //Content-Length的值，没有时为0
+    int getContentLength() {
+        String value = headers.get("Content-Length");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    String getBody() {
+        return body;
+    }
+
+    void setBody(String body) {
+        this.body = body == null ? "" : body;
+        parameters = null;
+    }
+
+    /**
+     * body中的参数，格式为每行一个 name: value
+     * wfd_presentation_URL: rtsp://192.168.49.1/wfd1.0/streamid=0 none
+     */
+    synchronized Map<String, String> getParameters() {
+        if (parameters == null) {
+            parameters = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String[] lines = body.split("\r\n");
+            for (String line : lines) {
+                int index = line.indexOf(':');
+                if (index <= 0) {
+                    //GET_PARAMETER中只有参数名
+                    if (!line.trim().isEmpty()) {
+                        parameters.put(line.trim(), "");
+                    }
+                    continue;
+                }
+                parameters.put(line.substring(0, index).trim(), line.substring(index + 1).trim());
+            }
+        }
+        return parameters;
+    }
+
+    String getParameter(String name) {
+        return getParameters().get(name);
+    }
+
+    boolean hasParameter(String name) {
+        return getParameters().containsKey(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(startLine).append("\r\n");
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        sb.append("\r\n");
+        sb.append(body);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package com.autoai.wifi_sink.display;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * RTSP消息的分帧：TCP是字节流，一次read可能读到多条消息（比如M2的回复和M3的请求在一起），
+ * 也可能只读到半条消息。这里把读到的数据先缓存起来，按照头部结束的空行和Content-Length切出完整的消息
+ * <p>
+ * RTP over TCP时，RTSP连接上还会有'$'开头的交织数据帧：'$'、通道号、两个字节的长度、RTP/RTCP包，
+ * 这些帧不作为消息返回，通过{@link OnInterleavedFrameListener}交出去
+ */
+
+class RtspMessageReader {
+
+    private final String TAG = RtspMessageReader.class.getSimpleName();
+
+    //单条消息的最大长度，超过了说明数据有问题，一个交织帧最长64K加4个字节的帧头
+    private static final int MAX_MESSAGE_SIZE = 128 * 1024;
+
+    /**
+     * 收到一个交织的数据帧，在调用{@link #next()}的线程中回调
+     */
+    interface OnInterleavedFrameListener {
+        /**
+         * @param channel SETUP中interleaved指定的通道号，一般0是RTP，1是RTCP
+         * @param data    回调返回后会被覆盖，需要保存的话要复制出来
+         */
+        void onInterleavedFrame(int channel, byte[] data, int offset, int length);
+    }
+
+    private OnInterleavedFrameListener interleavedFrameListener;
+
+    private byte[] buffer = new byte[4 * 1024];
+    //缓存中有效数据的长度
+    private int length = 0;
+
+    void setOnInterleavedFrameListener(OnInterleavedFrameListener listener) {
+        interleavedFrameListener = listener;
+    }
+
+    /**
+     * 放入从socket读到的数据
+     */
+    void feed(byte[] data, int offset, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (length + count > buffer.length) {
+            int newSize = Math.max(buffer.length * 2, length + count);
+            if (newSize > MAX_MESSAGE_SIZE) {
+                WfdLog.e(TAG, "rtsp message too large, drop " + length + " bytes");
+                reset();
+                newSize = Math.max(buffer.length, count);
+            }
+            byte[] newBuffer = new byte[newSize];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+        System.arraycopy(data, offset, buffer, length, count);
+        length += count;
+    }
+
+    //头部已经解析好，body还没有收全的消息
+    private RtspMessage pendingMessage = null;
+    //pendingMessage头部的长度，包括最后的\r\n\r\n
+    private int pendingHeadLength = 0;
+
+    /**
+     * 取出下一条完整的消息
+     *
+     * @return 数据还不完整时返回null
+     */
+    RtspMessage next() {
+        while (true) {
+            if (pendingMessage == null) {
+                skipLineBreaks();
+                if (length > 0 && buffer[0] == '$') {
+                    if (!nextInterleavedFrame()) {
+                        //交织帧还没有收全
+                        return null;
+                    }
+                    continue;
+                }
+                int headEnd = indexOfHeadEnd();
+                if (headEnd < 0) {
+                    return null;
+                }
+                String head = new String(buffer, 0, headEnd, StandardCharsets.US_ASCII);
+                RtspMessage message = RtspMessage.parse(head);
+                if (message == null) {
+                    WfdLog.w(TAG, "drop invalid rtsp message: " + head);
+                    consume(headEnd + 4);
+                    continue;
+                }
+                pendingMessage = message;
+                pendingHeadLength = headEnd + 4;
+            }
+            int contentLength = pendingMessage.getContentLength();
+            if (length < pendingHeadLength + contentLength) {
+                //body还没有收全
+                return null;
+            }
+            RtspMessage message = pendingMessage;
+            message.setBody(new String(buffer, pendingHeadLength, contentLength, StandardCharsets.UTF_8));
+            consume(pendingHeadLength + contentLength);
+            pendingMessage = null;
+            pendingHeadLength = 0;
+            return message;
+        }
+    }
+
+    //清空缓存
+    void reset() {
+        length = 0;
+        pendingMessage = null;
+        pendingHeadLength = 0;
+    }
+
+    //处理缓存开头的交织帧，返回false表示还没有收全
+    private boolean nextInterleavedFrame() {
+        if (length < 4) {
+            return false;
+        }
+        int channel = buffer[1] & 0xFF;
+        int frameLength = ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF);
+        if (length < 4 + frameLength) {
+            return false;
+        }
+        if (interleavedFrameListener != null) {
+            interleavedFrameListener.onInterleavedFrame(channel, buffer, 4, frameLength);
+        }
+        consume(4 + frameLength);
+        return true;
+    }
+
+    //跳过消息之间多余的\r\n
+    private void skipLineBreaks() {
+        int start = 0;
+        while (start + 1 < length && buffer[start] == '\r' && buffer[start + 1] == '\n') {
+            start += 2;
+        }
+        if (start > 0) {
+            consume(start);
+        }
+    }
+
+    //查找头部结束的位置（\r\n\r\n）
+    private int indexOfHeadEnd() {
+        for (int i = 0; i + 3 < length; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //丢弃缓存前面count个字节
+    private void consume(int count) {
+        System.arraycopy(buffer, count, buffer, 0, length - count);
+        length -= count;
+    }
+}
@@ -0,0 +1,273 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * 生成RTSP消息，直接写到一块复用的字节缓存里
+ * <p>
+ * User-Agent等不变的头部只编码一次，Date每秒最多格式化一次，所有文本按US-ASCII编码。
+ * M16心跳的回复也走这里，Source端对心跳回复的时间要求比较严格，回复慢了会直接断开连接
+ * 不是线程安全的，调用者需要在同一个锁内完成一条消息的生成和发送
+ */
+
+class RtspMessageWriter {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEADER_SEPARATOR = {':', ' '};
+    private static final byte[] RTSP_VERSION = " RTSP/1.0\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESPONSE_OK = "RTSP/1.0 200 OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATE = "Date: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CSEQ = "CSeq: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_TYPE = "Content-Type: text/parameters\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] userAgent;
+
+    private byte[] buffer = new byte[1024];
+    private int length = 0;
+    //包装buffer，写到channel时使用，buffer扩容后重新创建
+    private ByteBuffer byteBuffer;
+    //写到channel时没写完的数据，等channel可写时继续发送，没有时为null
+    private ByteBuffer pending;
+
+    //RFC 1123格式的时间，比如：Thu, 31 Oct 2024 09:41:46 GMT
+    private final SimpleDateFormat dateFormat;
+    //上一次格式化的时间（秒）和结果
+    private long dateSecond = -1;
+    private final byte[] dateBytes = new byte[29];
+    private int dateLength = 0;
+
+    /**
+     * @param platformVersion User-Agent中的系统版本，比如Android的Build.VERSION.RELEASE
+     */
+    RtspMessageWriter(String platformVersion) {
+        userAgent = ("User-Agent: stagefright/1.2 (Linux;Android " + platformVersion + ")\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    }
+
+    /**
+     * 开始一个请求：方法、地址、User-Agent、Date、CSeq
+     */
+    RtspMessageWriter startRequest(String method, String uri, int cseq) {
+        length = 0;
+        writeAscii(method);
+        writeByte(' ');
+        writeAscii(uri);
+        writeBytes(RTSP_VERSION);
+        writeBytes(userAgent);
+        writeDate();
+        writeCSeq(cseq);
+        return this;
+    }
+
+    /**
+     * 开始一个200 OK的响应
+     *
+     * @param withCommonHeaders 是否带上User-Agent和Date
+     */
+    RtspMessageWriter startResponse(String cseq, boolean withCommonHeaders) {
+        length = 0;
+        writeBytes(RESPONSE_OK);
+        if (withCommonHeaders) {
+            writeBytes(userAgent);
+            writeDate();
+        }
+        writeBytes(CSEQ);
+        writeAscii(cseq);
+        writeBytes(CRLF);
+        return this;
+    }
+
+    RtspMessageWriter header(String name, String value) {
+        writeAscii(name);
+        writeBytes(HEADER_SEPARATOR);
+        writeAscii(value);
+        writeBytes(CRLF);
+        return this;
+    }
+
+    RtspMessageWriter header(String name, int value) {
+        writeAscii(name);
+        writeBytes(HEADER_SEPARATOR);
+        writeInt(value);
+        writeBytes(CRLF);
+        return this;
+    }
+
+    //结束头部，没有body
+    RtspMessageWriter end() {
+        writeBytes(CRLF);
+        return this;
+    }
+
+    //写入text/parameters格式的body，Content-Length按字节数计算
+    RtspMessageWriter endWithBody(CharSequence body) {
+        writeBytes(CONTENT_TYPE);
+        writeBytes(CONTENT_LENGTH);
+        writeInt(body.length());
+        writeBytes(CRLF);
+        writeBytes(CRLF);
+        writeAscii(body);
+        return this;
+    }
+
+    //把生成的消息写到socket
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+        out.flush();
+    }
+
+    /**
+     * 写到非阻塞的channel，RTSP消息很小，一般一次就能写完
+     * 发送缓存满了写不完时，剩下的数据保存下来，不在这里等待：事件循环线程还要处理其他会话的数据，
+     * 调用者需要关注OP_WRITE，channel可写时调用{@link #flushPending(WritableByteChannel)}
+     *
+     * @return 全部写完时返回true
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException {
+        if (byteBuffer == null) {
+            byteBuffer = ByteBuffer.wrap(buffer);
+        }
+        byteBuffer.clear();
+        byteBuffer.limit(length);
+        if (pending == null) {
+            channel.write(byteBuffer);
+            if (!byteBuffer.hasRemaining()) {
+                return true;
+            }
+        }
+        //前面还有没写完的消息时排在后面，保证顺序
+        appendPending(byteBuffer);
+        return false;
+    }
+
+    /**
+     * 继续发送之前没写完的数据
+     *
+     * @return 全部写完（或者没有要写的数据）时返回true
+     */
+    boolean flushPending(WritableByteChannel channel) throws IOException {
+        if (pending == null) {
+            return true;
+        }
+        channel.write(pending);
+        if (pending.hasRemaining()) {
+            return false;
+        }
+        pending = null;
+        return true;
+    }
+
+    boolean hasPending() {
+        return pending != null;
+    }
+
+    //连接关闭时丢掉没写完的数据
+    void clearPending() {
+        pending = null;
+    }
+
+    private void appendPending(ByteBuffer data) {
+        int pendingLength = pending == null ? 0 : pending.remaining();
+        ByteBuffer merged = ByteBuffer.allocate(pendingLength + data.remaining());
+        if (pending != null) {
+            merged.put(pending);
+        }
+        merged.put(data);
+        merged.flip();
+        pending = merged;
+    }
+
+    int length() {
+        return length;
+    }
+
+    //只在打印日志时使用
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private void writeDate() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != dateSecond) {
+            dateSecond = second;
+            String date = dateFormat.format(new Date(second * 1000));
+            dateLength = Math.min(date.length(), dateBytes.length);
+            for (int i = 0; i < dateLength; i++) {
+                dateBytes[i] = (byte) date.charAt(i);
+            }
+        }
+        writeBytes(DATE);
+        ensureCapacity(dateLength);
+        System.arraycopy(dateBytes, 0, buffer, length, dateLength);
+        length += dateLength;
+        writeBytes(CRLF);
+    }
+
+    private void writeCSeq(int cseq) {
+        writeBytes(CSEQ);
+        writeInt(cseq);
+        writeBytes(CRLF);
+    }
+
+    private void writeInt(int value) {
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        ensureCapacity(10);
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        //倒序
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte temp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = temp;
+        }
+    }
+
+    //非ASCII字符写成'?'
+    private void writeAscii(CharSequence text) {
+        int count = text.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            buffer[length++] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count <= buffer.length) {
+            return;
+        }
+        byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + count)];
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+        buffer = newBuffer;
+        byteBuffer = null;
+    }
+}
@@ -0,0 +1,185 @@
+package com.autoai.wifi_sink.display;
+
+
+/**
+ * 根据TS流中的PCR恢复Source端的时钟，估算Source端与Sink端两个时钟之间的漂移
+ * <p>
+ * 每个统计窗口内取(本地时间 - PCR时间)的最小值，过滤掉网络抖动带来的延迟，
+ * 再对最近若干个窗口的最小值做线性拟合，斜率就是两个时钟的漂移速率。
+ * PCR和PTS都先经过{@link MediaTimeline}展开，这里只处理单调的64位时间
+ */
+
+class SourceClock {
+
+    private final String TAG = SourceClock.class.getSimpleName();
+
+    //统计窗口时长，2秒
+    private static final long WINDOW_US = 2 * 1000 * 1000L;
+    //最多保留的窗口数量，约2分钟
+    private static final int MAX_POINTS = 60;
+    //至少需要的窗口数量，才认为时钟已锁定
+    private static final int MIN_POINTS = 5;
+    //漂移的最大值，超过这个值认为是估算错误
+    private static final double MAX_DRIFT = 500e-6;
+    //两个PCR之间的跳变超过这个值，认为是不连续
+    private static final long MAX_PCR_GAP_US = 5 * 1000 * 1000L;
+
+    //锚点：第一个PCR对应的本地时间和source时间
+    private long localAnchorUs = -1;
+    private long sourceAnchorUs = -1;
+    //上一个PCR的时间
+    private long lastSourceUs = -1;
+
+    //当前窗口
+    private long windowStartUs = -1;
+    private long windowMinOffsetUs = Long.MAX_VALUE;
+
+    //窗口最小值，环形数组
+    private final long[] pointTimeUs = new long[MAX_POINTS];
+    private final long[] pointOffsetUs = new long[MAX_POINTS];
+    private int pointCount = 0;
+    private int pointIndex = 0;
+
+    //斜率：本地时间每走1微秒，(本地 - source)的偏移变化量
+    private volatile double drift = 0;
+    private volatile boolean locked = false;
+    //当前锚点下第一个窗口的最小偏移，用来把source时间映射到本地时间
+    private volatile long baseOffsetUs = 0;
+    private volatile boolean anchored = false;
+
+    /**
+     * 收到一个PCR
+     *
+     * @param sourceUs     PCR在时间轴上的时间，微秒
+     * @param arrivalNanos 到达时间，System.nanoTime()
+     */
+    synchronized void onPcr(long sourceUs, long arrivalNanos) {
+        long localUs = arrivalNanos / 1000;
+        if (lastSourceUs >= 0) {
+            long deltaUs = sourceUs - lastSourceUs;
+            if (deltaUs < 0 || deltaUs > MAX_PCR_GAP_US) {
+                WfdLog.i(TAG, "pcr jump " + deltaUs + "us, reanchor clock");
+                reanchor();
+            }
+        }
+        lastSourceUs = sourceUs;
+        if (localAnchorUs < 0) {
+            localAnchorUs = localUs;
+            sourceAnchorUs = sourceUs;
+            windowStartUs = localUs;
+            return;
+        }
+
+        long localElapsedUs = localUs - localAnchorUs;
+        long offsetUs = localElapsedUs - (sourceUs - sourceAnchorUs);
+        if (offsetUs < windowMinOffsetUs) {
+            windowMinOffsetUs = offsetUs;
+        }
+        if (localUs - windowStartUs >= WINDOW_US) {
+            addPoint(localElapsedUs, windowMinOffsetUs);
+            windowStartUs = localUs;
+            windowMinOffsetUs = Long.MAX_VALUE;
+        }
+    }
+
+    //添加一个窗口的最小偏移，重新拟合斜率
+    private void addPoint(long timeUs, long offsetUs) {
+        if (pointCount == 0) {
+            baseOffsetUs = offsetUs;
+            anchored = true;
+        }
+        pointTimeUs[pointIndex] = timeUs;
+        pointOffsetUs[pointIndex] = offsetUs;
+        pointIndex = (pointIndex + 1) % MAX_POINTS;
+        if (pointCount < MAX_POINTS) {
+            pointCount++;
+        }
+        if (pointCount < MIN_POINTS) {
+            return;
+        }
+        //最小二乘法求斜率
+        double meanT = 0;
+        double meanO = 0;
+        for (int i = 0; i < pointCount; i++) {
+            meanT += pointTimeUs[i];
+            meanO += pointOffsetUs[i];
+        }
+        meanT /= pointCount;
+        meanO /= pointCount;
+        double num = 0;
+        double den = 0;
+        for (int i = 0; i < pointCount; i++) {
+            double dt = pointTimeUs[i] - meanT;
+            num += dt * (pointOffsetUs[i] - meanO);
+            den += dt * dt;
+        }
+        if (den <= 0) {
+            return;
+        }
+        double slope = num / den;
+        if (Math.abs(slope) > MAX_DRIFT) {
+            WfdLog.i(TAG, "drift out of range: " + (slope * 1e6) + "ppm");
+            return;
+        }
+        drift = slope;
+        locked = true;
+    }
+
+    /**
+     * 时间轴不连续时重新锚定。两端晶振的漂移不会因为时间戳跳变而改变，
+     * 所以保留已经估算出来的漂移，只重新计算时间的对应关系
+     */
+    synchronized void reanchor() {
+        localAnchorUs = -1;
+        sourceAnchorUs = -1;
+        lastSourceUs = -1;
+        windowStartUs = -1;
+        windowMinOffsetUs = Long.MAX_VALUE;
+        pointCount = 0;
+        pointIndex = 0;
+        baseOffsetUs = 0;
+        anchored = false;
+    }
+
+    //换了一个节目或者重新连接，全部重新估算
+    synchronized void reset() {
+        reanchor();
+        drift = 0;
+        locked = false;
+    }
+
+    //时钟是否已锁定，锁定之前不做任何补偿
+    boolean isLocked() {
+        return locked;
+    }
+
+    //漂移，单位ppm，正数表示Sink端时钟比Source端快
+    double getDriftPpm() {
+        return drift * 1e6;
+    }
+
+    /**
+     * Source端时钟与Sink端时钟的速率比，用来调整音频的播放采样率
+     * 比如Source端快了，Sink端需要播放得快一点，否则缓存会越积越多
+     */
+    double getRateRatio() {
+        if (!locked) {
+            return 1.0;
+        }
+        return 1.0 - drift;
+    }
+
+    /**
+     * 把时间轴上的时间（微秒）映射成本地System.nanoTime()对应的时间（微秒）
+     *
+     * @return 没有锁定时返回-1
+     */
+    synchronized long toLocalTimeUs(long sourceUs) {
+        if (!locked || !anchored) {
+            return -1;
+        }
+        long sourceElapsed = sourceUs - sourceAnchorUs;
+        long localElapsed = (long) ((sourceElapsed + baseOffsetUs) / (1.0 - drift));
+        return localAnchorUs + localElapsed;
+    }
+}
@@ -0,0 +1,927 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.WorkerThread;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * 解析RTP包，根据TS协议把音视频的PES数据组装出来，交给媒体管理者
+ * 不关心数据是从哪个线程、哪种socket收到的，同一时间只能在一个线程中调用
+ */
+
+class TsDemuxer {
+
+    private final String TAG = TsDemuxer.class.getSimpleName();
+
+    //视频和音频ES数据的接收者，解码器是其中之一，可以在其他线程中增删
+    private final List<ElementaryStreamConsumer> videoConsumers;
+    private final List<ElementaryStreamConsumer> audioConsumers;
+    //PMT中当前的视频流和音频流，还没有收到时为null
+    private ElementaryStreamConsumer.StreamInfo videoStream;
+    private ElementaryStreamConsumer.StreamInfo audioStream;
+    //换流之后的第一帧带上FLAG_DISCONTINUITY
+    private boolean videoDiscontinuity = false;
+    private boolean audioDiscontinuity = false;
+    private final SourceClock sourceClock;
+    private final MediaTimeline timeline;
+    //网络抖动和延迟的统计
+    private final RtpTiming rtpTiming;
+    //只接收音频，视频的TS包在包头就丢弃
+    private final boolean mAudioOnly;
+
+    /**
+     * @param videoConsumers 只接收音频时不使用
+     */
+    TsDemuxer(boolean audioOnly, List<ElementaryStreamConsumer> videoConsumers, List<ElementaryStreamConsumer> audioConsumers,
+              SourceClock sourceClock, MediaTimeline timeline, RtpTiming rtpTiming) {
+        mAudioOnly = audioOnly;
+        this.videoConsumers = videoConsumers;
+        this.audioConsumers = audioConsumers;
+        this.sourceClock = sourceClock;
+        this.timeline = timeline;
+        this.rtpTiming = rtpTiming;
+    }
+
+    /**
+     * 处理一个RTP包
+     *
+     * @param buffer       RTP包的数据，调用返回后可以复用
+     * @param length       RTP包的长度
+     * @param arrivalNanos 从网络上收到这个包的时间，System.nanoTime()，在接收的地方记录，不包括Sink端自己排队和恢复的时间
+     */
+    @WorkerThread
+    void feed(byte[] buffer, int length, long arrivalNanos) {
+        //解析RTP协议
+        if (parseRTP(buffer, length, arrivalNanos)) {
+            //解析TS包数据
+            parseTS(buffer, rtpPayloadOffset, rtpPayloadLength);
+        }
+    }
+
+    //一帧视频的最大长度，可以在任意线程调用，下一个PES包开始时生效
+    void setMaxVideoFrameSize(int size) {
+        pendingVideoBufferSize = size;
+    }
+
+    //当前RTP包中TS数据的位置
+    private int rtpPayloadOffset = 0;
+    private int rtpPayloadLength = 0;
+    //上一个RTP包的序列号，不连续时丢掉跨包的半个TS包
+    private int lastRtpSeq = -1;
+    //TS包的同步字节
+    private static final int TS_SYNC_BYTE = 0x47;
+    //TS包标准长度值
+    private int tsPackageLen = 188;
+    //单个TS包数据
+    private byte[] tsPackageBuffer = new byte[tsPackageLen];
+    //上一个RTP包末尾不完整的TS包，在tsPackageBuffer中已经有的长度
+    private int partialLength = 0;
+
+    //RTP负载是MPEG-2 TS（RFC 3551），WFD只使用这一种
+    private static final int RTP_PAYLOAD_TYPE_MP2T = 33;
+    //新的SSRC连续收到这么多个序列号连续的包，才认为Source端换了流
+    private static final int SSRC_SWITCH_PACKETS = 8;
+
+    //当前流的SSRC，收到第一个RTP包时确定
+    private int streamSsrc;
+    private boolean hasStreamSsrc = false;
+    //切换之前的SSRC，切换之后晚到的旧包直接丢弃
+    private int previousSsrc;
+    private boolean hasPreviousSsrc = false;
+    //正在确认的新SSRC、已经连续收到的包数和最后一个包的序列号
+    private int candidateSsrc;
+    private int candidateCount = 0;
+    private int candidateSeq;
+    //SSRC变化（Source端重新开始编码）的次数
+    private volatile long streamChanges = 0;
+    //payload type不是MP2T丢弃的RTP包数
+    private volatile long unexpectedPayloadTypes = 0;
+    //SSRC不是当前流丢弃的RTP包数，包括确认新SSRC期间的包
+    private volatile long foreignSsrcPackets = 0;
+    //确认换流之后通知前面的丢包恢复，两边使用同一个确认结果
+    private OnStreamChangeListener streamChangeListener;
+
+    //重新同步的次数
+    private volatile long resyncCount = 0;
+    //同步过程中丢弃的字节数
+    private volatile long discardedBytes = 0;
+    //transport_error_indicator为1丢弃的TS包数
+    private volatile long errorPackets = 0;
+
+    private int pmt_pid = -1;
+    private int pcr_pid = -1;
+    private int video_pid = -1;
+    private int audio_pid = -1;
+    //音频流的类型，15是AAC，0x83是LPCM
+    private int audio_stream_type = -1;
+    //视频流的类型，27是H.264，0x24是H.265
+    private int video_stream_type = -1;
+    private long videoPts = -1;
+    private long videoDts = -1;
+    private long audioPts = -1;
+    private int video_es_data_length = 0;
+
+    private ByteArrayOutputStream videoBuffer = new ByteArrayOutputStream();
+    //M4中协商了分辨率后，在下一个PES包开始时按一帧的最大长度重新分配videoBuffer，避免组包时反复扩容
+    private volatile int pendingVideoBufferSize = 0;
+
+    private ByteArrayOutputStream audioBuffer = new ByteArrayOutputStream();
+
+    //解析RTP协议的头部信息,占12个字节，性能测试中单独调用
+    @WorkerThread
+    boolean parseRTP(byte[] buffer, int readSizes, long arrivalNanos) {
+        //不是RTP协议
+        if (readSizes < 12) {
+            return false;
+        }
+        //RTP协议版本号
+        int version = (buffer[0] >> 6) & 0x03;
+        //RTP协议版本不是2的话，continue
+        if (version != 2) {
+            WfdLog.i(TAG, "RTP version not 2, continue;");
+            return false;
+        }
+        //填充标志，占1位，如果P=1，则在该报文的尾部填充一个或多个额外的八位组，它们不是有效载荷的一部分。
+        int padding = (buffer[0] >> 5) & 0x01;
+        if (padding == 1) {
+            int paddingLength = buffer[readSizes - 1] & 0xFF;
+            if (paddingLength + 12 > readSizes) {
+                return false;
+            }
+            readSizes -= paddingLength;
+        }
+        //扩展标志，占1位，如果X=1，则在RTP报头后跟有一个扩展报头
+        int extension = (buffer[0] >> 4) & 0x01;
+        //CSRC计数器，占4位，指示CSRC 标识符的个数,每个CSRC标识符占32位，可以有0～15个。
+        int cc = buffer[0] & 0x0F;
+        int payloadOffset = 12 + 4 * cc;
+        if (readSizes < payloadOffset) {
+            return false;
+        }
+        if (extension == 1) {
+            //扩展头：profile（16位）、长度（16位，单位是4个字节），后面是扩展数据，TS数据在扩展之后
+            if (readSizes < payloadOffset + 4) {
+                return false;
+            }
+            int profile = ((buffer[payloadOffset] & 0xFF) << 8) | (buffer[payloadOffset + 1] & 0xFF);
+            int extensionLength = (((buffer[payloadOffset + 2] & 0xFF) << 8) | (buffer[payloadOffset + 3] & 0xFF)) * 4;
+            int extensionStart = payloadOffset + 4;
+            payloadOffset = extensionStart + extensionLength;
+            if (readSizes < payloadOffset) {
+                return false;
+            }
+            parseHeaderExtension(profile, buffer, extensionStart, extensionLength);
+        }
+        //标记，占1位，不同的有效载荷有不同的含义，对于视频，标记一帧的结束；对于音频，标记会话的开始。
+        int mark = buffer[1] >> 7 & 0x1;
+        //有效荷载类型，占7位，用于说明RTP报文中有效载荷的类型
+        int pt = buffer[1] & 0x7F;
+        //序列号：占16位，用于标识发送者所发送的RTP报文的序列号，每发送一个报文，序列号增1。这个字段当下层的承载协议用UDP的时候，网络状况不好的时候可以用来检查丢包。同时出现网络抖动的情况可以用来对数据进行重新排序
+        int sn = ((buffer[2] << 8) & 0xFFFF) | (buffer[3] & 0xFF);
+        // 时戳(Timestamp)：占32位，必须使用90 kHz 时钟频率。时戳反映了该RTP报文的第一个八位组的采样时刻。接收者使用时戳来计算延迟和延迟抖动，并进行同步控制。
+        int time = ((buffer[4] & 0xFF) << 24) | ((buffer[5] & 0xFF) << 16) | ((buffer[6] & 0xFF) << 8) | (buffer[7] & 0xFF);
+        //同步信源(SSRC)标识符：占32位，用于标识同步信源。该标识符是随机选择的，参加同一视频会议的两个同步信源不能有相同的SSRC。
+        int ssrc = ((buffer[8] & 0xFF) << 24) | ((buffer[9] & 0xFF) << 16) | ((buffer[10] & 0xFF) << 8) | (buffer[11] & 0xFF);
+        //WfdLog.i(TAG, "version=" + version + ", padding=" + padding + ", extension=" + extension + ", cc=" + cc);
+        //WfdLog.i(TAG, "mark=" + mark + ", pt=" + pt + ", sn=" + sn + ", time=" + time + ", ssrc=" + ssrc);
+        if (pt != RTP_PAYLOAD_TYPE_MP2T) {
+            //不是TS数据
+            unexpectedPayloadTypes++;
+            return false;
+        }
+        if (!hasStreamSsrc) {
+            streamSsrc = ssrc;
+            hasStreamSsrc = true;
+        } else if (ssrc != streamSsrc && !confirmStreamChange(ssrc, sn)) {
+            foreignSsrcPackets++;
+            return false;
+        } else if (ssrc == streamSsrc) {
+            //当前流的包打断了新SSRC的连续性
+            candidateCount = 0;
+        }
+        rtpTiming.onPacket(time, arrivalNanos);
+
+        //TS数据直接在buffer中解析，不再复制
+        rtpPayloadOffset = payloadOffset;
+        rtpPayloadLength = readSizes - payloadOffset;
+        if (lastRtpSeq >= 0 && sn != ((lastRtpSeq + 1) & 0xFFFF) && partialLength > 0) {
+            //中间丢了包，上一个包末尾的半个TS包接不上了
+            discardedBytes += partialLength;
+            partialLength = 0;
+        }
+        lastRtpSeq = sn;
+
+        return true;
+    }
+
+    /**
+     * 解析头部扩展中的元素（RFC 8285），交给rtpTiming
+     * one-byte格式（profile为0xBEDE）：ID（4位）、长度减1（4位）、数据，ID为0是填充，15表示结束
+     * two-byte格式（profile为0x100X）：ID（8位）、长度（8位）、数据，ID为0是填充
+     * 其他profile不认识，直接跳过
+     */
+    private void parseHeaderExtension(int profile, byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        if (profile == 0xBEDE) {
+            while (offset < end) {
+                int id = (buffer[offset] >> 4) & 0x0F;
+                if (id == 0) {
+                    offset++;
+                    continue;
+                }
+                if (id == 15) {
+                    break;
+                }
+                int elementLength = (buffer[offset] & 0x0F) + 1;
+                offset++;
+                if (offset + elementLength > end) {
+                    break;
+                }
+                rtpTiming.onExtension(id, buffer, offset, elementLength);
+                offset += elementLength;
+            }
+        } else if ((profile & 0xFFF0) == 0x1000) {
+            while (offset < end) {
+                int id = buffer[offset] & 0xFF;
+                if (id == 0) {
+                    offset++;
+                    continue;
+                }
+                if (offset + 2 > end) {
+                    break;
+                }
+                int elementLength = buffer[offset + 1] & 0xFF;
+                offset += 2;
+                if (offset + elementLength > end) {
+                    break;
+                }
+                rtpTiming.onExtension(id, buffer, offset, elementLength);
+                offset += elementLength;
+            }
+        }
+    }
+
+    long getStreamChangeCount() {
+        return streamChanges;
+    }
+
+    long getUnexpectedPayloadTypeCount() {
+        return unexpectedPayloadTypes;
+    }
+
+    long getForeignSsrcCount() {
+        return foreignSsrcPackets;
+    }
+
+    void setOnStreamChangeListener(OnStreamChangeListener listener) {
+        streamChangeListener = listener;
+    }
+
+    /**
+     * 收到不是当前流SSRC的包，判断Source端是否真的换了流
+     * 单个错误或者晚到的包不切换：新SSRC要连续收到{@link #SSRC_SWITCH_PACKETS}个序列号连续的包才切换，
+     * 确认期间的包丢弃，新流开头会重复发送PAT/PMT和关键帧；切换之后还带着旧SSRC的包直接丢弃
+     *
+     * @return true表示已经切换到新的流，这个包按新流解析
+     */
+    private boolean confirmStreamChange(int ssrc, int sn) {
+        if (hasPreviousSsrc && ssrc == previousSsrc) {
+            return false;
+        }
+        if (candidateCount > 0 && ssrc == candidateSsrc && sn == ((candidateSeq + 1) & 0xFFFF)) {
+            candidateCount++;
+        } else {
+            candidateSsrc = ssrc;
+            candidateCount = 1;
+        }
+        candidateSeq = sn;
+        if (candidateCount < SSRC_SWITCH_PACKETS) {
+            return false;
+        }
+        candidateCount = 0;
+        onStreamChanged(ssrc);
+        if (streamChangeListener != null) {
+            streamChangeListener.onStreamChanged(ssrc, sn);
+        }
+        return true;
+    }
+
+    /**
+     * SSRC变了，说明Source端重新开始编码（很多手机横竖屏切换、切换应用时都会这样），
+     * 序列号、时间戳和PAT/PMT都重新开始，旧流的状态全部清掉，解码器只清空一次，不重新创建
+     */
+    private void onStreamChanged(int ssrc) {
+        streamChanges++;
+        WfdLog.w(TAG, "rtp stream changed, ssrc: " + Integer.toHexString(streamSsrc) + " -> "
+                + Integer.toHexString(ssrc) + ", count: " + streamChanges);
+        previousSsrc = streamSsrc;
+        hasPreviousSsrc = true;
+        streamSsrc = ssrc;
+
+        pmt_pid = -1;
+        pcr_pid = -1;
+        video_pid = -1;
+        audio_pid = -1;
+        audio_stream_type = -1;
+        video_stream_type = -1;
+        videoPts = -1;
+        videoDts = -1;
+        audioPts = -1;
+        video_es_data_length = -1;
+        videoBuffer.reset();
+        audioBuffer.reset();
+        partialLength = 0;
+        lastRtpSeq = -1;
+
+        //时间戳重新开始，时间轴保持连续，时钟重新锚定
+        timeline.markDiscontinuity();
+        rtpTiming.reset();
+        if (videoStream != null) {
+            for (int i = 0; i < videoConsumers.size(); i++) {
+                videoConsumers.get(i).onFlush(videoStream);
+            }
+        }
+        if (audioStream != null) {
+            for (int i = 0; i < audioConsumers.size(); i++) {
+                audioConsumers.get(i).onFlush(audioStream);
+            }
+        }
+        videoDiscontinuity = true;
+        audioDiscontinuity = true;
+        //新的流重新从PMT中通知
+        videoStream = null;
+        audioStream = null;
+    }
+
+    long getResyncCount() {
+        return resyncCount;
+    }
+
+    long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    long getErrorPackets() {
+        return errorPackets;
+    }
+
+    /**
+     * 解析MPEG-2 TS 数据
+     * 有的Source端的RTP负载不是188的整数倍（有填充，或者TS包被拆到两个RTP包中），这里按同步字节0x47切分：
+     * 不在同步字节上时向后查找，并且要求188字节之后也是0x47才认为重新同步了；
+     * 末尾不完整的TS包保存下来，和下一个RTP包开头的数据拼起来
+     */
+    @WorkerThread
+    private void parseTS(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        if (partialLength > 0) {
+            int need = tsPackageLen - partialLength;
+            if (length < need) {
+                System.arraycopy(buffer, offset, tsPackageBuffer, partialLength, length);
+                partialLength += length;
+                return;
+            }
+            //拼起来之后下一个字节也要是同步字节，否则说明拼错了
+            if (offset + need == end || (buffer[offset + need] & 0xFF) == TS_SYNC_BYTE) {
+                System.arraycopy(buffer, offset, tsPackageBuffer, partialLength, need);
+                offset += need;
+                parseTsPackage();
+            } else {
+                discardedBytes += partialLength;
+            }
+            partialLength = 0;
+        }
+        while (offset < end) {
+            if ((buffer[offset] & 0xFF) != TS_SYNC_BYTE || !isSyncConfirmed(buffer, offset, end)) {
+                int next = findSync(buffer, offset + 1, end);
+                resyncCount++;
+                discardedBytes += next - offset;
+                if (resyncCount == 1 || resyncCount % 100 == 0) {
+                    WfdLog.w(TAG, "ts resync, count: " + resyncCount + ", discarded bytes: " + discardedBytes);
+                }
+                offset = next;
+                continue;
+            }
+            if (end - offset < tsPackageLen) {
+                //不完整的TS包，等下一个RTP包
+                partialLength = end - offset;
+                System.arraycopy(buffer, offset, tsPackageBuffer, 0, partialLength);
+                return;
+            }
+            //分割成一个个TS数据包
+            System.arraycopy(buffer, offset, tsPackageBuffer, 0, tsPackageLen);
+            offset += tsPackageLen;
+            parseTsPackage();
+        }
+    }
+
+    /**
+     * offset上的同步字节是否可信：188字节之后也是同步字节，或者后面已经放不下一个完整的TS包。
+     * 后面不到188字节时可能是RTP包末尾的填充，也可能是拆到下一个RTP包的半个TS包，都不能用来否定这个包
+     */
+    private boolean isSyncConfirmed(byte[] buffer, int offset, int end) {
+        int next = offset + tsPackageLen;
+        return end - next < tsPackageLen || (buffer[next] & 0xFF) == TS_SYNC_BYTE;
+    }
+
+    //从offset开始查找下一个可信的同步字节，没有时返回end
+    private int findSync(byte[] buffer, int offset, int end) {
+        for (int i = offset; i < end; i++) {
+            if ((buffer[i] & 0xFF) == TS_SYNC_BYTE && isSyncConfirmed(buffer, i, end)) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    //解析tsPackageBuffer中的一个TS包
+    @WorkerThread
+    private void parseTsPackage() {
+        //开始解析TS包数据，头部数据占4个字节
+        //传输错误指示位(1b)（Transport Error Indicator）,值为1时，表示在相关的传送包中至少有一个不可纠正的错误位
+        int tei = (tsPackageBuffer[1] >> 7) & 0x1;
+        if (tei == 1) {
+            //数据有错误，PID等字段也不可信，整个包丢掉
+            errorPackets++;
+            return;
+        }
+        //Payload单元开始指示位(1b)（Payload Unit Start Indicator）该字段用来表示有效Payload中带有PES包或PSI数据，也代表一个完整的音视频数据帧的开始
+        int pusi = (tsPackageBuffer[1] >> 6) & 0x1;
+        //传输优先级(1b)（Transport Priority）,值为1时，表示此包在相同PID的分组中具有更高的优先级
+        int tp = (tsPackageBuffer[1] >> 5) & 0x1;
+        //分组ID(13b)（PID）,用于识别TS分组的ID，音视频流分别对应不同的PID
+        int pid = ((tsPackageBuffer[1] & 0x1F) << 8) | (tsPackageBuffer[2] & 0xFF);
+        //传输加扰控制(2b)（Transport Scrambling control）,值为0时表示Payload未加密，Miracast中一般为0
+        int tsc = (tsPackageBuffer[3] >> 6) & 0x3;
+        //适配域存在标志(2b)（adaptation_field_control）,表示在包头后面是否有适配域或Payload，其中1代表仅有载荷，2代表仅有适配域，3代表适配域和载荷都存在
+        int afc = (tsPackageBuffer[3] >> 4) & 0x3;
+        //连续性计数器(4b)（Continuity counter）,对于具有相同PID值的Payload而言，从0~15连续循环，用来检测是否有丢失的TS包
+        int conc = tsPackageBuffer[3] & 0xF;
+        //WfdLog.i(TAG, "pid=" + pid + ", pusi=" + pusi + ", afc=" + afc + ", conc=" + conc);
+
+        //------------------------------头部的4个字节的数据解析完成-------------------------------
+
+        //只接收音频时，视频的TS包不组装PES，PCR在视频PID上时只解析适配域
+        if (mAudioOnly && pid == video_pid) {
+            if (pid == pcr_pid && (afc == 2 || afc == 3)) {
+                parseAdaptationField(pid, tsPackageBuffer);
+            }
+            return;
+        }
+
+        //解析适配域
+        int skipByte = 4;
+        if (afc == 2 || afc == 3) {
+            skipByte += parseAdaptationField(pid, tsPackageBuffer);
+        }
+        //WfdLog.i(TAG, "skipByte=" + skipByte);
+        //适配域长度加上TS头，如果超过188，不再解析
+        if (skipByte >= tsPackageLen) {
+            return;
+        }
+
+        if (pid == 0) {
+            parseProgramAssociationTable(pusi, skipByte, tsPackageBuffer);
+        } else {
+            if (pid == pmt_pid) {
+                //解析PMT
+                parseProgramMapTable(pusi, skipByte, tsPackageBuffer);
+            } else if (pid == video_pid) {
+                //视频的PES数据
+                parseVideoPES(conc, pusi, skipByte, tsPackageBuffer);
+            } else if (pid == audio_pid) {
+                //音频的PES数据
+                parseAudioPES(conc, pusi, skipByte, tsPackageBuffer);
+            }
+        }
+        //WfdLog.i(TAG, "------------------------------------------------------------------");
+    }
+
+    @WorkerThread
+    private int parseAdaptationField(int pid, byte[] tsBuffer) {
+        int skipByte = 0;
+        //跳过头部的4个字节，读取弟5个字节
+        int adaptation_field_length = tsBuffer[4] & 0xFF;
+        //WfdLog.i(TAG, "adaptation_field_length=" + adaptation_field_length);
+        if (adaptation_field_length > 0) {
+            skipByte = adaptation_field_length + 1;
+            //(1)不连续指示位
+            int discontinuity_indicator = (tsBuffer[5] >> 7) & 0x1;
+            //(1)PCR标志位，1表示适配域中有PCR字段
+            int PCR_flag = (tsBuffer[5] >> 4) & 0x1;
+            if (discontinuity_indicator == 1 && pid == pcr_pid) {
+                //系统时间基不连续，下一个时间戳需要重新锚定
+                timeline.markDiscontinuity();
+            }
+            //PCR占6个字节，适配域长度至少要7个字节
+            if (PCR_flag == 1 && pid == pcr_pid && adaptation_field_length >= 7) {
+                //(33)program_clock_reference_base，90kHz
+                long pcrBase = ((long) (tsBuffer[6] & 0xFF) << 25) | ((tsBuffer[7] & 0xFF) << 17) | ((tsBuffer[8] & 0xFF) << 9) | ((tsBuffer[9] & 0xFF) << 1) | ((tsBuffer[10] >> 7) & 0x1);
+                //(6)reserved
+                //(9)program_clock_reference_extension，27MHz
+                int pcrExt = ((tsBuffer[10] & 0x1) << 8) | (tsBuffer[11] & 0xFF);
+                //extension部分只有27MHz的精度差异，按90kHz计算已经足够
+                sourceClock.onPcr(timeline.toTimeUs(pcrBase), System.nanoTime());
+            }
+        }
+        return skipByte;
+    }
+
+    @WorkerThread
+    private void parseProgramAssociationTable(int pusi, int skipByte, byte[] tsBuffer) {
+        //WfdLog.i(TAG,"pat parse");
+        //TS数据中的PAT表，第5个字节是调整字节，其的数值为后面调整字段的长度length。因此有效载荷开始的位置应再偏移1+[length]个字节
+        if (pusi == 1) {
+            int adjustLen = tsBuffer[skipByte] & 0xFF;
+            skipByte = skipByte + (1 + adjustLen);
+        }
+        int patStartIndex = skipByte;
+        //(8)固定为0x00，标志该表是PAT表。
+        int tableId = tsBuffer[patStartIndex] & 0xFF;
+        //(1)段语法标志位，固定为1
+        int section_syntax_indicator = (tsBuffer[patStartIndex + 1] >> 7) & 0x1;
+        //（1）这个位置是个0
+        //（2）reserved
+        //(12)表示这个字节后面有用的字节数，包括CRC32。节目套数：（section length-9）/4
+        int section_length = ((tsBuffer[patStartIndex + 1] & 0xF) << 8) | (tsBuffer[patStartIndex + 2] & 0xFF);
+        //WfdLog.i(TAG, "tableId=" + tableId + ", section_syntax_indicator=" + section_syntax_indicator + ", section_length=" + section_length);
+
+//            //（16）transport_stream_id：16位字段，表示该TS流的ID，区别于同一个网络中其它多路复用流。
+//            int transport_stream_id = ((tsBuffer[skipByte + 3] & 0xFF) << 8) | (tsBuffer[skipByte + 4] & 0xFF);
+//            //（2）reserved
+//            //（5）version_number：表示PAT的版本号。
+//            int version_number = (tsBuffer[skipByte + 5] >> 1) & 0x1F;
+//            //（1）current_next_indicator：表示发送的PAT表是当前有效还是下一个PAT有效。
+//            int current_next_indicator = tsBuffer[skipByte + 5] & 0x1;
+//            //（8）section_number：表示分段的号码。PAT可能分为多段传输，第一段为0，以后每个分段加1，最多可能有256个分段。
+//            int section_number = tsBuffer[skipByte + 6] & 0xFF;
+//            //（8）last_section_number：表示PAT最后一个分段的号码。
+//            int last_section_number = tsBuffer[skipByte + 7] & 0xFF;
+
+        int program_number = ((tsBuffer[patStartIndex + 8] & 0xFF) << 8) | (tsBuffer[patStartIndex + 9] & 0xFF);
+        //（3）reserved
+        //（13）网络信息表（NIT）的PID,节目号为0时对应ID为network_PID。
+        int network_PID = -1;
+        //（13）节目映射表（PMT）的PID号，节目号为大于等于1时，对应的ID为program_map_PID。一个PAT中可以有多个program_map_PID。
+        if (program_number == 0) {
+            network_PID = ((tsBuffer[patStartIndex + 10] & 0x1F) << 8) | (tsBuffer[patStartIndex + 11] & 0xFF);
+        } else {
+            pmt_pid = ((tsBuffer[patStartIndex + 10] & 0x1F) << 8) | (tsBuffer[patStartIndex + 11] & 0xFF);
+        }
+        //CRC_32：32位字段，CRC32校验码Cyclic RedundancyCheck。
+        int CRC_32 = ((tsBuffer[patStartIndex + 12] & 0xFF) << 24) | ((tsBuffer[patStartIndex + 13] & 0xFF) << 16) | ((tsBuffer[patStartIndex + 14] & 0xFF) << 8) | (tsBuffer[patStartIndex + 15] & 0xFF);
+        //WfdLog.i(TAG, "program_number=" + program_number + ", network_PID=" + network_PID + ", program_map_PID=" + pmt_pid + ", CRC_32=" + CRC_32);
+    }
+
+    @WorkerThread
+    private void parseProgramMapTable(int pusi, int skipByte, byte[] tsBuffer) {
+        //WfdLog.i(TAG,"pmt parse");
+        //获取video跟audio的pid之前，先恢复默认值
+        video_pid = -1;
+        audio_pid = -1;
+        audio_stream_type = -1;
+        //TS数据中的PMT表，第5个字节是调整字节，其的数值为后面调整字段的长度length。因此有效载荷开始的位置应再偏移1+[length]个字节
+        if (pusi == 1) {
+            int adjustLen = tsBuffer[skipByte] & 0xFF;
+            skipByte = skipByte + (1 + adjustLen);
+        }
+        int pmtStartIndex = skipByte;
+        //（8）固定为0x02，标志该表是PMT 表。
+        int tableId = tsBuffer[pmtStartIndex] & 0xFF;
+        //（1）段语法标志位，固定为1
+        int section_syntax_indicator = (tsBuffer[pmtStartIndex + 1] >> 7) & 0x1;
+        //（1）这个位置是个0
+        //（2）reserved
+        //（12）表示这个字节后面有用的字节数，包括CRC32。节目套数：（section length-9）/4
+        int section_length = ((tsBuffer[pmtStartIndex + 1] & 0xF) << 8) | (tsBuffer[pmtStartIndex + 2] & 0xFF);
+        //WfdLog.i(TAG, "tableId=" + tableId + ", section_syntax_indicator=" + section_syntax_indicator + ", section_length=" + section_length);
+
+        //（16）它指出该节目对应于可应用的Program map PID
+        int program_number = ((tsBuffer[pmtStartIndex + 3] & 0xFF) << 8) | (tsBuffer[pmtStartIndex + 4] & 0xFF);
+        //（2）reserved
+        //（5）version_number：指出PMT 的版本号。
+        int version_number = (tsBuffer[pmtStartIndex + 5] >> 1) & 0x1F;
+        //（1）current_next_indicator：当该位置’1’时，当前传送的Program map section可用；当该位置’0’时，指示当前传送的Program map section不可用，下一个TS流的Programmap section 有效。
+        int current_next_indicator = tsBuffer[pmtStartIndex + 5] & 0x1;
+        //（8）section_number：总是置为0x00（因为PMT表里表示一个service的信息，一个section 的长度足够）。
+        int section_number = tsBuffer[pmtStartIndex + 6] & 0xFF;
+        //（8）last_section_number：该域的值总是0x00 。
+        int last_section_number = tsBuffer[pmtStartIndex + 7] & 0xFF;
+        //（3）reserved
+        //（13）节目中包含有效PCR字段的传送流中PID
+        int PCR_PID = ((tsBuffer[pmtStartIndex + 8] & 0x1F) << 8) | (tsBuffer[pmtStartIndex + 9] & 0xFF);
+        if (PCR_PID != pcr_pid) {
+            pcr_pid = PCR_PID;
+            sourceClock.reset();
+        }
+        //（4）reserved
+        //（12）前两位为00。该域指出跟随其后对节目信息的描述的byte 数。
+        int program_info_length = ((tsBuffer[pmtStartIndex + 10] & 0xF) << 8) | (tsBuffer[pmtStartIndex + 11] & 0xFF);
+
+        int infoBytesRemaining = section_length - 9 - program_info_length - 4;
+        //WfdLog.i(TAG, "program_info_length=" + program_info_length + ", infoBytesRemaining=" + infoBytesRemaining);
+
+        int index = 0;
+        int es_info_length = 0;
+        int videoStreamType = -1;
+        while (infoBytesRemaining >= 5) {
+            //（8）Stream type：8bit域，指示特定PID的节目元素包的类型。该处PID由elementary PID 指定
+            int stream_type = tsBuffer[pmtStartIndex + 12 + (index * 5) + es_info_length] & 0xFF;
+            //（3）reserved
+            //（13）
+            int elementary_PID = ((tsBuffer[pmtStartIndex + 13 + (index * 5) + es_info_length] & 0x1F) << 8) | (tsBuffer[pmtStartIndex + 14 + (index * 5) + es_info_length] & 0xFF);
+            //（4）reserved
+            //（12）,前2位没用，取后10位的值
+            es_info_length = ((tsBuffer[pmtStartIndex + 15 + (index * 5) + es_info_length] & 0x3) << 8) | (tsBuffer[pmtStartIndex + 16 + (index * 5) + es_info_length] & 0xFF);
+            //WfdLog.i(TAG, "stream_type=" + stream_type + ", elementary_PID=" + elementary_PID + ", ES_info_length=" + es_info_length);
+            infoBytesRemaining -= 5 + es_info_length;
+            index++;
+
+            if (stream_type == 15 || stream_type == 0x83) {
+                //15是AAC（ADTS），0x83是WFD定义的LPCM私有流
+                audio_pid = elementary_PID;
+                audio_stream_type = stream_type;
+            } else if (stream_type == 27 || stream_type == 0x24) {
+                //27是H.264，0x24是H.265
+                video_pid = elementary_PID;
+                videoStreamType = stream_type;
+            }
+
+        }
+        if (videoStreamType != -1 && videoStreamType != video_stream_type) {
+            video_stream_type = videoStreamType;
+        }
+        //流的PID或者类型变了才通知，PMT每隔一段时间就会重复发送
+        if (!mAudioOnly && video_pid != -1 && (videoStream == null || videoStream.pid != video_pid
+                || videoStream.streamType != video_stream_type)) {
+            videoStream = new ElementaryStreamConsumer.StreamInfo(
+                    ElementaryStreamConsumer.StreamInfo.TRACK_VIDEO, video_pid, video_stream_type);
+            WfdLog.i(TAG, "video stream: " + videoStream);
+            for (int i = 0; i < videoConsumers.size(); i++) {
+                videoConsumers.get(i).onStreamInfo(videoStream);
+            }
+        }
+        if (audio_pid != -1 && (audioStream == null || audioStream.pid != audio_pid
+                || audioStream.streamType != audio_stream_type)) {
+            audioStream = new ElementaryStreamConsumer.StreamInfo(
+                    ElementaryStreamConsumer.StreamInfo.TRACK_AUDIO, audio_pid, audio_stream_type);
+            WfdLog.i(TAG, "audio stream: " + audioStream);
+            for (int i = 0; i < audioConsumers.size(); i++) {
+                audioConsumers.get(i).onStreamInfo(audioStream);
+            }
+        }
+
+        //（32）
+        //int CRC_32 = ((tsBuffer[skipByte + 17] & 0xFF) << 24) | ((tsBuffer[skipByte + 18] & 0xFF) << 16) | ((tsBuffer[skipByte + 19] & 0xFF) << 8) | (tsBuffer[skipByte + 20] & 0xFF);
+
+    }
+
+    @WorkerThread
+    private void parseVideoPES(int conc, int pusi, int skipByte, byte[] tsBuffer) {
+        if (pusi == 1) {
+            //新的PES包的开始，把之前从PES包解析出来的ES数据，交给媒体管理者
+            if (video_es_data_length == videoBuffer.size()) {
+                deliverVideo(videoBuffer.toByteArray());
+            }
+            //清空视频缓存
+            int bufferSize = pendingVideoBufferSize;
+            if (bufferSize > 0) {
+                pendingVideoBufferSize = 0;
+                videoBuffer = new ByteArrayOutputStream(bufferSize);
+            } else {
+                videoBuffer.reset();
+            }
+            videoPts = -1;
+            videoDts = -1;
+            video_es_data_length = -1;
+
+            //(24)
+            int packet_start_code_prefix = ((tsBuffer[skipByte] & 0xFF) << 16) | ((tsBuffer[skipByte + 1] & 0xFF) << 8) | (tsBuffer[skipByte + 2] & 0xFF);
+            //(8)
+            int stream_id = tsBuffer[skipByte + 3] & 0xFF;
+            //(16)表示 PES 包中在该字段后的数据字节数
+            int pes_packet_length = ((tsBuffer[skipByte + 4] & 0xFF) << 8) | (tsBuffer[skipByte + 5] & 0xFF);
+            //WfdLog.i(TAG, "video packet_start_code_prefix=" + packet_start_code_prefix + ", stream_id=" + stream_id + ", pes_packet_length=" + pes_packet_length);
+
+            if (stream_id != 0xbc  // program_stream_map
+                    && stream_id != 0xbe  // padding_stream
+                    && stream_id != 0xbf  // private_stream_2
+                    && stream_id != 0xf0  // ECM
+                    && stream_id != 0xf1  // EMM
+                    && stream_id != 0xff  // program_stream_directory
+                    && stream_id != 0xf2  // DSMCC
+                    && stream_id != 0xf8) {  // H.222.1 type E
+
+                //(2) 固定值：2
+                //(2) 加密模式：0是不加密，1是加密
+                int PES_scrambling_control = (tsBuffer[skipByte + 6] >> 4) & 0x3;
+                //(1) 优先级，1表示优先级较高
+                int PES_priority = (tsBuffer[skipByte + 6] >> 3) & 0x1;
+                //(1) 1表示ES数据紧跟着PES头文件，0表示不一定
+                int data_alignment_indicator = (tsBuffer[skipByte + 6] >> 3) & 0x1;
+                //(1) 1表示PES的有效负载是有版权的
+                int copyright = (tsBuffer[skipByte + 6] >> 1) & 0x1;
+                //(1) 1表示负载是原始数据，0表示负载时备份
+                int original_or_copy = tsBuffer[skipByte + 6] & 0x1;
+
+                //(2) 0表示无PTS/DTS, 1表示被禁止，2表示PES包头文件有PTS，3表示有PTS/DTS
+                int PTS_DTS_flags = (tsBuffer[skipByte + 7] >> 6) & 0x3;
+                //（1）1表示有ESCR字段，0表示没有
+                int ESCR_flag = (tsBuffer[skipByte + 7] >> 5) & 0x1;
+                //(1) 1表示有ES_rate字段
+                int ES_rate_flag = (tsBuffer[skipByte + 7] >> 4) & 0x1;
+                //(1) 1表示有此字段
+                int DSM_trick_mode_flag = (tsBuffer[skipByte + 7] >> 3) & 0x1;
+                //(1) 1表示有此字段
+                int additional_copy_info_flag = (tsBuffer[skipByte + 7] >> 2) & 0x1;
+                //(1) 1表示有此字段
+                int PES_CRC_flag = (tsBuffer[skipByte + 7] >> 1) & 0x1;
+                //(1) 1表示有此字段
+                int PES_extension_flag = (tsBuffer[skipByte + 7]) & 0x1;
+
+                //(8) 该字段后属于PES包 头文件部分的字节数
+                int PES_header_data_length = (tsBuffer[skipByte + 8]) & 0xFF;
+                //计算ES的数据长度
+                video_es_data_length = pes_packet_length - 3 - PES_header_data_length;
+                //WfdLog.i(TAG, "video es_data_length=" + video_es_data_length + ", PES_header_data_length=" + PES_header_data_length);
+
+                //PTS开始解析的位置
+                skipByte = skipByte + 9;
+                //2表示PES包头文件有PTS，3表示有PTS/DTS
+                if (PTS_DTS_flags == 2) {
+                    videoPts = timeline.toTimeUs(readTimestamp(tsBuffer, skipByte));
+                    //WfdLog.i(TAG, "video pts=" + videoPts + " - " + (videoPts / 1000 / 1000));
+                } else if (PTS_DTS_flags == 3) {
+                    videoPts = timeline.toTimeUs(readTimestamp(tsBuffer, skipByte));
+                    videoDts = timeline.toTimeUs(readTimestamp(tsBuffer, skipByte + 5));
+                    //WfdLog.i(TAG, "video pts=" + videoPts + ", dts=" + videoDts);
+                }
+
+                skipByte = skipByte + PES_header_data_length;
+            }
+        }
+
+        //把ES数据放到缓存中
+        videoBuffer.write(tsBuffer, skipByte, tsPackageLen - skipByte);
+        //WfdLog.i(TAG, "video write " + (tsPackageLen - skipByte) + ", videoBuffer length: " + videoBuffer.size());
+    }
+
+    //一帧视频交给所有接收者
+    @WorkerThread
+    private void deliverVideo(byte[] data) {
+        ElementaryStreamConsumer.StreamInfo stream = videoStream;
+        if (stream == null || data.length == 0) {
+            return;
+        }
+        int flags = 0;
+        if (isKeyFrame(data, stream.streamType == ElementaryStreamConsumer.StreamInfo.STREAM_TYPE_H265)) {
+            flags |= ElementaryStreamConsumer.FLAG_KEY_FRAME;
+        }
+        if (videoDiscontinuity) {
+            videoDiscontinuity = false;
+            flags |= ElementaryStreamConsumer.FLAG_DISCONTINUITY;
+        }
+        for (int i = 0; i < videoConsumers.size(); i++) {
+            videoConsumers.get(i).onAccessUnit(stream, data, 0, data.length, videoPts, videoDts, flags);
+        }
+    }
+
+    //一个音频PES交给所有接收者，音频没有DTS
+    @WorkerThread
+    private void deliverAudio(byte[] data) {
+        int flags = ElementaryStreamConsumer.FLAG_KEY_FRAME;
+        if (audioDiscontinuity) {
+            audioDiscontinuity = false;
+            flags |= ElementaryStreamConsumer.FLAG_DISCONTINUITY;
+        }
+        for (int i = 0; i < audioConsumers.size(); i++) {
+            audioConsumers.get(i).onAccessUnit(audioStream, data, 0, data.length, audioPts, audioPts, flags);
+        }
+    }
+
+    /**
+     * 一帧中是否有IDR（H.264）或者IRAP（H.265）的slice，遇到第一个slice就停止查找
+     */
+    private static boolean isKeyFrame(byte[] data, boolean hevc) {
+        for (int i = 0; i + 3 < data.length; i++) {
+            if (data[i] != 0 || data[i + 1] != 0 || data[i + 2] != 1) {
+                continue;
+            }
+            int header = data[i + 3] & 0xFF;
+            if (hevc) {
+                int type = (header >> 1) & 0x3F;
+                if (type < 32) {
+                    return type >= 16 && type <= 21;
+                }
+            } else {
+                int type = header & 0x1F;
+                if (type >= 1 && type <= 5) {
+                    return type == 5;
+                }
+            }
+            i += 3;
+        }
+        return false;
+    }
+
+    @WorkerThread
+    private void parseAudioPES(int conc, int pusi, int skipByte, byte[] tsBuffer) {
+        if (pusi == 1) {
+            //新的PES包的开始，把之前从PES包解析出来的ES数据，交给媒体管理者
+            if (audioBuffer.size() > 0 && audioStream != null) {
+                deliverAudio(audioBuffer.toByteArray());
+            }
+            //清空视频缓存
+            audioBuffer.reset();
+            audioPts = -1;
+
+            //(24)
+            int packet_start_code_prefix = ((tsBuffer[skipByte] & 0xFF) << 16) | ((tsBuffer[skipByte + 1] & 0xFF) << 8) | (tsBuffer[skipByte + 2] & 0xFF);
+            //(8)
+            int stream_id = tsBuffer[skipByte + 3] & 0xFF;
+            //(16)表示 PES 包中在该字段后的数据字节数
+            int pes_packet_length = ((tsBuffer[skipByte + 4] & 0xFF) << 8) | (tsBuffer[skipByte + 5] & 0xFF);
+            //WfdLog.i(TAG, "audio packet_start_code_prefix=" + packet_start_code_prefix + ", stream_id=" + stream_id + ", pes_packet_length=" + pes_packet_length);
+
+            if (stream_id != 0xbc  // program_stream_map
+                    && stream_id != 0xbe  // padding_stream
+                    && stream_id != 0xbf  // private_stream_2
+                    && stream_id != 0xf0  // ECM
+                    && stream_id != 0xf1  // EMM
+                    && stream_id != 0xff  // program_stream_directory
+                    && stream_id != 0xf2  // DSMCC
+                    && stream_id != 0xf8) {  // H.222.1 type E
+
+                //(2) 固定值：2
+                //(2) 加密模式：0是不加密，1是加密
+                int PES_scrambling_control = (tsBuffer[skipByte + 6] >> 4) & 0x3;
+                //(1) 优先级，1表示优先级较高
+                int PES_priority = (tsBuffer[skipByte + 6] >> 3) & 0x1;
+                //(1) 1表示ES数据紧跟着PES头文件，0表示不一定
+                int data_alignment_indicator = (tsBuffer[skipByte + 6] >> 3) & 0x1;
+                //(1) 1表示PES的有效负载是有版权的
+                int copyright = (tsBuffer[skipByte + 6] >> 1) & 0x1;
+                //(1) 1表示负载是原始数据，0表示负载时备份
+                int original_or_copy = tsBuffer[skipByte + 6] & 0x1;
+
+                //(2) 0表示无PTS/DTS, 1表示被禁止，2表示PES包头文件有PTS，3表示有PTS/DTS
+                int PTS_DTS_flags = (tsBuffer[skipByte + 7] >> 6) & 0x3;
+                //（1）1表示有ESCR字段，0表示没有
+                int ESCR_flag = (tsBuffer[skipByte + 7] >> 5) & 0x1;
+                //(1) 1表示有ES_rate字段
+                int ES_rate_flag = (tsBuffer[skipByte + 7] >> 4) & 0x1;
+                //(1) 1表示有此字段
+                int DSM_trick_mode_flag = (tsBuffer[skipByte + 7] >> 3) & 0x1;
+                //(1) 1表示有此字段
+                int additional_copy_info_flag = (tsBuffer[skipByte + 7] >> 2) & 0x1;
+                //(1) 1表示有此字段
+                int PES_CRC_flag = (tsBuffer[skipByte + 7] >> 1) & 0x1;
+                //(1) 1表示有此字段
+                int PES_extension_flag = (tsBuffer[skipByte + 7]) & 0x1;
+
+                //(8) 该字段后属于PES包 头文件部分的字节数
+                int PES_header_data_length = (tsBuffer[skipByte + 8]) & 0xFF;
+                //计算ES的数据长度
+                int es_data_length = pes_packet_length - 3 - PES_header_data_length;
+                //WfdLog.i(TAG, "audio es_data_length=" + es_data_length + ", PES_header_data_length=" + PES_header_data_length);
+
+                //PTS开始解析的位置
+                skipByte = skipByte + 9;
+                //2表示PES包头文件有PTS，3表示有PTS/DTS，音频只用到PTS
+                if (PTS_DTS_flags == 2 || PTS_DTS_flags == 3) {
+                    audioPts = timeline.toTimeUs(readTimestamp(tsBuffer, skipByte));
+                    //WfdLog.i(TAG, "audio pts=" + audioPts + " - " + (audioPts / 1000 / 1000));
+                }
+
+                skipByte = skipByte + PES_header_data_length;
+            }
+        }
+        //把ES数据放到缓存中
+        audioBuffer.write(tsBuffer, skipByte, tsPackageLen - skipByte);
+        //WfdLog.i(TAG, "audio write " + (tsPackageLen - skipByte) + ", audioBuffer length: " + audioBuffer.size());
+    }
+
+    /**
+     * 读取PES头中的PTS或DTS，占5个字节
+     * unsigned reserved_1           : 4;  // 保留位，PTS为 0010 或 0011，DTS为 0001
+     * unsigned PTS_32_30            : 3;  // PTS
+     * unsigned marker_1             : 1;  // 保留位，固定为 1
+     * unsigned PTS_29_15            : 15; // PTS
+     * unsigned marker_2             : 1;  // 保留位，固定为 1
+     * unsigned PTS_14_0             : 15; // PTS
+     * unsigned marker_3             : 1;  // 保留位，固定为 1
+     *
+     * @return 原始的33位时间戳，90kHz
+     */
+    static long readTimestamp(byte[] tsBuffer, int offset) {
+        return ((long) ((tsBuffer[offset] >> 1) & 0x7) << 30)
+                | ((((tsBuffer[offset + 1] & 0xFF) << 7) | ((tsBuffer[offset + 2] >> 1) & 0x7F)) << 15)
+                | (((tsBuffer[offset + 3] & 0xFF) << 7) | ((tsBuffer[offset + 4] >> 1) & 0x7F));
+    }
+
+    //确认Source端换了流，seq是确认时这个包的序列号
+    interface OnStreamChangeListener {
+        void onStreamChanged(int ssrc, int seq);
+    }
+}
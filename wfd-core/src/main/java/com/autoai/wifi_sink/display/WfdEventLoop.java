@@ -0,0 +1,258 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 单线程的事件循环：一个Selector同时处理RTSP的TCP连接和RTP/RTCP的UDP端口，
+ * 并提供定时任务（握手超时、心跳检测等），一个投屏会话只需要这一个线程收发数据
+ * <p>
+ * 注册的channel和定时任务都只在循环线程中访问，其他线程通过{@link #post(Runnable)}切换过来
+ */
+
+class WfdEventLoop implements WfdScheduler {
+
+    private final String TAG = WfdEventLoop.class.getSimpleName();
+
+    /**
+     * channel可读、可写或者连接完成时回调，都在循环线程中执行
+     */
+    interface ChannelHandler {
+        void onReady(SelectionKey key) throws IOException;
+
+        //onReady抛出异常后回调，这时channel已经从Selector中移除
+        void onError(Exception e);
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private volatile boolean running = false;
+
+    //其他线程提交的任务
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    //定时任务，按执行时间排序
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long timerSequence = 0;
+
+    WfdEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(name) {
+            @Override
+            public void run() {
+                loop();
+            }
+        };
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    //退出循环，所有注册的channel都会被关闭
+    void quit() {
+        running = false;
+        selector.wakeup();
+    }
+
+    //当前是否在循环线程中
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    //在循环线程中执行
+    @Override
+    public void post(Runnable runnable) {
+        pendingTasks.offer(runnable);
+        selector.wakeup();
+    }
+
+    //延迟delayMs毫秒后在循环线程中执行
+    @Override
+    public void postDelayed(final Runnable runnable, final long delayMs) {
+        final long when = nowMs() + delayMs;
+        if (inLoop()) {
+            addTimer(runnable, when);
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                addTimer(runnable, when);
+            }
+        });
+    }
+
+    //取消还没有执行的定时任务
+    @Override
+    public void removeCallbacks(final Runnable runnable) {
+        if (inLoop()) {
+            removeTimer(runnable);
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                removeTimer(runnable);
+            }
+        });
+    }
+
+    /**
+     * 注册channel，只能在循环线程中调用
+     *
+     * @param channel 必须已经设置为非阻塞
+     * @param ops     SelectionKey.OP_READ等
+     */
+    SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws ClosedChannelException {
+        if (!inLoop()) {
+            throw new IllegalStateException("register must be called in the event loop thread");
+        }
+        return channel.register(selector, ops, handler);
+    }
+
+    private void loop() {
+        WfdLog.i(TAG, "event loop start");
+        try {
+            while (running) {
+                try {
+                    long timeout = nextTimerDelay();
+                    if (timeout < 0) {
+                        selector.select();
+                    } else if (timeout == 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(timeout);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    break;
+                }
+                processSelectedKeys();
+                runPendingTasks();
+                runTimers();
+            }
+        } finally {
+            //循环因为任何原因退出，都要关闭channel
+            running = false;
+            closeSelector();
+            WfdLog.i(TAG, "event loop quit");
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            ChannelHandler handler = (ChannelHandler) key.attachment();
+            if (!key.isValid() || handler == null) {
+                continue;
+            }
+            try {
+                handler.onReady(key);
+            } catch (Exception e) {
+                e.printStackTrace();
+                key.cancel();
+                handler.onError(e);
+            }
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            runSafely(task);
+        }
+    }
+
+    private void runTimers() {
+        long now = nowMs();
+        while (!timers.isEmpty() && timers.peek().when <= now) {
+            runSafely(timers.poll().runnable);
+        }
+    }
+
+    //一个任务出错不能让循环线程退出，共用这个循环的其他会话还要继续收发数据
+    private void runSafely(Runnable runnable) {
+        try {
+            runnable.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            WfdLog.e(TAG, "event loop task failed: " + e);
+        }
+    }
+
+    //距离下一个定时任务的时间，没有定时任务时返回-1
+    private long nextTimerDelay() {
+        if (!pendingTasks.isEmpty()) {
+            return 0;
+        }
+        Timer timer = timers.peek();
+        if (timer == null) {
+            return -1;
+        }
+        return Math.max(0, timer.when - nowMs());
+    }
+
+    private void addTimer(Runnable runnable, long when) {
+        timers.add(new Timer(runnable, when, timerSequence++));
+    }
+
+    private void removeTimer(Runnable runnable) {
+        Iterator<Timer> iterator = timers.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().runnable == runnable) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void closeSelector() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        timers.clear();
+        pendingTasks.clear();
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static class Timer implements Comparable<Timer> {
+        final Runnable runnable;
+        final long when;
+        //执行时间相同时按添加的顺序执行
+        final long sequence;
+
+        Timer(Runnable runnable, long when, long sequence) {
+            this.runnable = runnable;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.autoai.wifi_sink.display;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WFD能力协商（M1~M7）的状态机
+ * <p>
+ * Source端发来的请求按方法和参数识别是第几个消息，Sink端发出的请求按CSeq匹配回复，
+ * 所以Source端的请求先到、回复后到也能正确处理。每个消息到达的时间都会记录下来，
+ * 协商完成后输出每一步的耗时，用来分析有些手机投屏启动慢的原因
+ */
+
+class WfdHandshake {
+
+    private final String TAG = WfdHandshake.class.getSimpleName();
+
+    //消息编号
+    static final int M1 = 1;
+    static final int M2 = 2;
+    static final int M3 = 3;
+    static final int M4 = 4;
+    static final int M5 = 5;
+    static final int M6 = 6;
+    static final int M7 = 7;
+    static final int M8 = 8;
+    static final int M16 = 16;
+
+    //协商状态
+    static final int STATE_IDLE = 0;
+    //等待Source端的OPTIONS（M1）
+    static final int STATE_WAIT_M1 = 1;
+    //等待Source端的GET_PARAMETER（M3）
+    static final int STATE_WAIT_M3 = 2;
+    //等待Source端的SET_PARAMETER（M4）
+    static final int STATE_WAIT_M4 = 3;
+    //等待Source端的SET_PARAMETER wfd_trigger_method: SETUP（M5）
+    static final int STATE_WAIT_M5 = 4;
+    //等待SETUP（M6）的回复
+    static final int STATE_WAIT_M6 = 5;
+    //等待PLAY（M7）的回复
+    static final int STATE_WAIT_M7 = 6;
+    //协商完成，正在投屏
+    static final int STATE_PLAYING = 7;
+    //正在断开
+    static final int STATE_TEARDOWN = 8;
+
+    //每一步默认的超时时间
+    private static final long DEFAULT_STEP_TIMEOUT_MS = 6 * 1000;
+
+    private int state = STATE_IDLE;
+    //Sink端请求的CSeq
+    private int sinkCSeq = 0;
+    //已经发出、还没有收到回复的请求，CSeq -> 消息编号
+    private final Map<Integer, Integer> pendingRequests = new HashMap<>();
+
+    //开始连接的时间
+    private long startTimeMs = 0;
+    //每个消息完成的时间，下标是消息编号
+    private final long[] messageTimeMs = new long[M16 + 1];
+
+    private long stepTimeoutMs = DEFAULT_STEP_TIMEOUT_MS;
+
+    //开始协商，TCP连接建立之前调用
+    synchronized void start() {
+        state = STATE_WAIT_M1;
+        sinkCSeq = 0;
+        pendingRequests.clear();
+        startTimeMs = System.nanoTime() / 1000000;
+        for (int i = 0; i < messageTimeMs.length; i++) {
+            messageTimeMs[i] = 0;
+        }
+    }
+
+    synchronized void reset() {
+        state = STATE_IDLE;
+        pendingRequests.clear();
+    }
+
+    synchronized int getState() {
+        return state;
+    }
+
+    synchronized void setState(int state) {
+        WfdLog.i(TAG, "handshake state " + this.state + " -> " + state);
+        this.state = state;
+    }
+
+    //协商是否已经完成
+    synchronized boolean isPlaying() {
+        return state == STATE_PLAYING;
+    }
+
+    void setStepTimeoutMs(long stepTimeoutMs) {
+        this.stepTimeoutMs = stepTimeoutMs;
+    }
+
+    long getStepTimeoutMs() {
+        return stepTimeoutMs;
+    }
+
+    /**
+     * Sink端要发送一个请求，分配CSeq并记录下来，收到回复时用来匹配
+     *
+     * @param m 消息编号，比如M2
+     * @return 这个请求的CSeq
+     */
+    synchronized int newRequest(int m) {
+        sinkCSeq++;
+        pendingRequests.put(sinkCSeq, m);
+        return sinkCSeq;
+    }
+
+    /**
+     * 收到一个回复，根据CSeq找到对应的请求
+     *
+     * @return 请求的消息编号，没有匹配的请求时返回0
+     */
+    synchronized int onResponse(String cseq) {
+        int value;
+        try {
+            value = Integer.parseInt(cseq.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        Integer m = pendingRequests.remove(value);
+        if (m == null) {
+            return 0;
+        }
+        mark(m);
+        return m;
+    }
+
+    //记录消息完成的时间
+    synchronized void mark(int m) {
+        if (m <= 0 || m >= messageTimeMs.length) {
+            return;
+        }
+        if (messageTimeMs[m] == 0 || m == M16) {
+            messageTimeMs[m] = System.nanoTime() / 1000000;
+        }
+    }
+
+    /**
+     * 从开始连接到某个消息完成的时间
+     *
+     * @return 消息还没有完成时返回-1
+     */
+    synchronized long getElapsedMs(int m) {
+        if (m <= 0 || m >= messageTimeMs.length || messageTimeMs[m] == 0) {
+            return -1;
+        }
+        return messageTimeMs[m] - startTimeMs;
+    }
+
+    /**
+     * 每一步的耗时，比如：M1=120ms(+120) M2=180ms(+60) ... total=1500ms
+     */
+    synchronized String getTimingSummary() {
+        StringBuilder sb = new StringBuilder();
+        long last = 0;
+        long total = 0;
+        for (int m = M1; m <= M7; m++) {
+            long elapsed = getElapsedMs(m);
+            if (elapsed < 0) {
+                sb.append("M").append(m).append("=none ");
+                continue;
+            }
+            sb.append("M").append(m).append("=").append(elapsed).append("ms(+").append(elapsed - last).append(") ");
+            last = elapsed;
+            total = Math.max(total, elapsed);
+        }
+        sb.append("total=").append(total).append("ms");
+        return sb.toString();
+    }
+}
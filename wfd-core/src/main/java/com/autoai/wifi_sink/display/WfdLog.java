@@ -0,0 +1,56 @@
+package com.autoai.wifi_sink.display;
+
+/**
+ * wfd-core中的日志，不依赖android.util.Log
+ * <p>
+ * 默认输出到标准输出，在PC上跑测试和性能分析时直接能看到；app中通过{@link #setLogger(Logger)}转到LogUtils
+ */
+
+public class WfdLog {
+
+    public static final int INFO = 0;
+    public static final int DEBUG = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+
+    public interface Logger {
+        void log(int priority, String tag, String msg);
+    }
+
+    private static final String[] PRIORITY_NAMES = {"I", "D", "W", "E"};
+
+    private static volatile Logger sLogger = new Logger() {
+        @Override
+        public void log(int priority, String tag, String msg) {
+            System.out.println(PRIORITY_NAMES[priority] + "/" + tag + ": " + msg);
+        }
+    };
+
+    //为null时不输出日志
+    public static void setLogger(Logger logger) {
+        sLogger = logger;
+    }
+
+    public static void i(String tag, Object msg) {
+        log(INFO, tag, msg);
+    }
+
+    public static void d(String tag, Object msg) {
+        log(DEBUG, tag, msg);
+    }
+
+    public static void w(String tag, Object msg) {
+        log(WARN, tag, msg);
+    }
+
+    public static void e(String tag, Object msg) {
+        log(ERROR, tag, msg);
+    }
+
+    private static void log(int priority, String tag, Object msg) {
+        Logger logger = sLogger;
+        if (logger != null) {
+            logger.log(priority, tag, String.valueOf(msg));
+        }
+    }
+}
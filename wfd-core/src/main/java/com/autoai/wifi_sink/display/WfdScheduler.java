@@ -0,0 +1,19 @@
+package com.autoai.wifi_sink.display;
+
+/**
+ * 会话线程上的任务和定时任务，{@link WfdSinkSession}只通过这个接口切换线程
+ * <p>
+ * 事件循环模式下由{@link WfdEventLoop}实现；app的线程模式下用Handler实现，测试中可以手动推进时间
+ */
+
+interface WfdScheduler {
+
+    //在会话线程中执行
+    void post(Runnable runnable);
+
+    //延迟delayMs毫秒后在会话线程中执行
+    void postDelayed(Runnable runnable, long delayMs);
+
+    //取消还没有执行的任务
+    void removeCallbacks(Runnable runnable);
+}
@@ -0,0 +1,1241 @@
+package com.autoai.wifi_sink.display;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sink端的一个RTSP会话：M1~M8和M16的协商、RTSP的TCP连接、RTP的接收、心跳检测和中断恢复
+ * <p>
+ * 不依赖Android，可以在PC上运行和测试：线程切换和定时任务通过{@link WfdScheduler}，
+ * M3中的解码能力和M4中的参数由{@link Callback}处理。
+ * 线程模式下RTSP连接在读线程中阻塞读取，定时任务在scheduler的线程中执行；
+ * 事件循环模式下连接、RTP/RTCP端口和定时任务都在一个{@link WfdEventLoop}中
+ */
+
+class WfdSinkSession {
+
+    private final String TAG = WfdSinkSession.class.getSimpleName();
+
+    //连接状态
+    static final int STATE_IDLE = 0;
+    static final int STATE_CONNECTING = 1;
+    static final int STATE_CONNECT_SUCCESS = 2;
+    static final int STATE_CONNECT_FAILED = 3;
+    static final int STATE_DISCONNECTED = 4;
+    //连接暂时中断，正在恢复，解码器和surface保持不变
+    static final int STATE_RECOVERING = 5;
+
+    //RTP的传输方式
+    static final int RTP_TRANSPORT_UDP = 0;
+    //RTP交织在RTSP的TCP连接上传输，延迟稍大但不丢包，Source端不支持时自动改用UDP
+    static final int RTP_TRANSPORT_TCP = 1;
+
+    /**
+     * 和解码器相关的部分，app中由RtspSink实现
+     */
+    interface Callback {
+        /**
+         * 绑定RTP端口之前调用，在会话线程中执行
+         * 把Source端时钟交给解码器，准备M3中要声明的能力（比如测量音频解码延迟）
+         */
+        void onPrepare(RTPReceiver receiver);
+
+        //M3中的音视频能力（wfd_video_formats、wfd2_video_formats、wfd_audio_codecs），每行以\r\n结尾
+        void appendCapabilities(RtspMessage request, StringBuilder body);
+
+        /**
+         * M4，Source端设置的参数，在第一个RTP包到达之前配置好解码器和缓存，投屏过程中也可能重新协商
+         *
+         * @param receiver 可能为null
+         * @return 音视频格式是否变了
+         */
+        boolean onSessionConfig(RtspMessage request, RTPReceiver receiver);
+
+        //连接状态变化，在会话线程中调用
+        void onStateChanged(int state);
+
+        //quit之后连接已经关闭，会话的线程可以退出了
+        void onQuit();
+    }
+
+    /**
+     * RTSP的TCP连接，线程模式下是阻塞的Socket加读线程，事件循环模式下是注册在循环中的SocketChannel
+     * 收到的消息交给{@link #handleMessage(RtspMessage)}，意外断开时调用{@link #connectionLost(int)}
+     */
+    interface Connection {
+        //建立连接并开始读取，在会话线程中调用，失败时通过connectionLost通知
+        void open(String address, int port);
+
+        //发送writer中生成好的消息，调用时持有writer的锁
+        void send(RtspMessageWriter writer) throws IOException;
+
+        void close();
+    }
+
+    private final WfdScheduler mScheduler;
+    private final Callback mCallback;
+    //ES数据的接收者，解码器默认在第一个，录制、分析等可以再注册
+    private final List<ElementaryStreamConsumer> mVideoConsumers = new CopyOnWriteArrayList<>();
+    private final List<ElementaryStreamConsumer> mAudioConsumers = new CopyOnWriteArrayList<>();
+    //多个会话共用的事件循环，为null时每个会话自己创建
+    private final WfdEventLoop mSharedEventLoop;
+    //会话已经释放，连接关闭后通知Callback.onQuit
+    private volatile boolean mQuitting = false;
+
+    private volatile RTPReceiver rtpReceiver;
+    private volatile String mAddress;
+    private volatile int mPort;
+    private volatile boolean mAudioOnly = false;
+    private volatile String rtspUrl;
+    private volatile String rtspSession;
+    //M1~M7的协商状态
+    private final WfdHandshake mHandshake = new WfdHandshake();
+    //生成发送给Source端的消息
+    private final RtspMessageWriter mMessageWriter;
+    private volatile Connection mConnection;
+    private volatile int mState = STATE_IDLE;
+
+    //事件循环模式：RTSP的TCP连接和RTP/RTCP的UDP端口都在一个线程中非阻塞处理
+    private volatile boolean mEventLoopMode = false;
+    private volatile WfdEventLoop mEventLoop;
+
+    //Source端默认每60秒发一次心跳（M16），M6的回复中Session的timeout可以修改
+    private static final long DEFAULT_KEEP_ALIVE_TIMEOUT_MS = 60 * 1000;
+    //超过心跳间隔加上这个余量都没有收到Source端的请求，认为连接已经断开
+    private static final long KEEP_ALIVE_GRACE_MS = 5 * 1000;
+    private volatile long mKeepAliveTimeoutMs = DEFAULT_KEEP_ALIVE_TIMEOUT_MS;
+
+    //连接中断后尝试恢复的时间窗口，0表示不恢复，直接断开
+    private volatile long mRecoveryWindowMs = 0;
+    //中断的原因：RTP超时没有数据，RTSP连接还在
+    private static final int RECOVER_RTP = 1;
+    //中断的原因：RTSP连接断开
+    private static final int RECOVER_RTSP = 2;
+    //正在恢复的原因，0表示没有在恢复
+    private volatile int mRecoverReason = 0;
+    //这次中断开始的时间
+    private volatile long mOutageStartMs = 0;
+    //上一次中断的时长
+    private volatile long mLastOutageMs = 0;
+    private volatile int mRecoveryCount = 0;
+    //RTP超时没有数据的次数
+    private volatile int mReceiveTimeoutCount = 0;
+
+    //优先使用的RTP传输方式
+    private volatile int mRtpTransport = RTP_TRANSPORT_UDP;
+    //当前会话中Source端拒绝了TCP，之后都使用UDP
+    private volatile boolean mTcpRefused = false;
+    //当前会话的RTP是否在RTSP连接上交织传输
+    private volatile boolean mRtpOverTcp = false;
+
+    //丢包恢复：是否发送NACK，FEC包的payload type（-1表示不用），缺包最多等待的时间
+    private volatile boolean mNackEnabled = false;
+    private volatile int mFecPayloadType = -1;
+    private volatile long mLossRecoveryWindowMs = 100;
+    //和Source端约定的RTP头部扩展ID，0表示没有
+    private volatile int mAbsSendTimeExtensionId = 0;
+    private volatile int mTransmissionOffsetExtensionId = 0;
+
+    /**
+     * @param scheduler       线程模式下的会话线程
+     * @param sharedEventLoop 不为null时使用事件循环模式，并且和其他会话共用这个循环，会话结束时不退出
+     * @param platformVersion 放在User-Agent中的系统版本
+     */
+    WfdSinkSession(WfdScheduler scheduler, WfdEventLoop sharedEventLoop, String platformVersion, Callback callback) {
+        mScheduler = scheduler;
+        mSharedEventLoop = sharedEventLoop;
+        mMessageWriter = new RtspMessageWriter(platformVersion);
+        mCallback = callback;
+    }
+
+    /**
+     * 连接Source端并开始协商
+     *
+     * @param audioOnly 只接收音频，视频的TS包在包头就丢弃
+     */
+    @MainThread
+    @WorkerThread
+    void connect(String address, int port, boolean audioOnly) {
+        WfdLog.d(TAG, "connect " + address + ", " + port);
+        mAddress = address;
+        mPort = port;
+        mAudioOnly = audioOnly;
+        if (mSharedEventLoop != null) {
+            mEventLoop = mSharedEventLoop;
+        } else if (mEventLoopMode) {
+            try {
+                mEventLoop = new WfdEventLoop("wfdEventLoop");
+            } catch (IOException e) {
+                e.printStackTrace();
+                setState(STATE_CONNECT_FAILED);
+                return;
+            }
+            mEventLoop.start();
+        }
+        runOnSessionThread(new Runnable() {
+            @Override
+            public void run() {
+                if (prepareSession()) {
+                    openConnection();
+                }
+            }
+        });
+    }
+
+    @MainThread
+    @WorkerThread
+    void addElementaryStreamConsumer(int track, ElementaryStreamConsumer consumer) {
+        List<ElementaryStreamConsumer> consumers =
+                track == ElementaryStreamConsumer.StreamInfo.TRACK_VIDEO ? mVideoConsumers : mAudioConsumers;
+        if (!consumers.contains(consumer)) {
+            consumers.add(consumer);
+        }
+    }
+
+    @MainThread
+    @WorkerThread
+    void removeElementaryStreamConsumer(ElementaryStreamConsumer consumer) {
+        mVideoConsumers.remove(consumer);
+        mAudioConsumers.remove(consumer);
+    }
+
+    //是否使用事件循环模式，在connect之前调用
+    void setEventLoopMode(boolean eventLoopMode) {
+        mEventLoopMode = eventLoopMode;
+    }
+
+    //连接中断后的恢复窗口，在connect之前调用，0表示不恢复
+    void setRecoveryWindow(long windowMs) {
+        mRecoveryWindowMs = Math.max(0, windowMs);
+    }
+
+    //RTP_TRANSPORT_UDP或者RTP_TRANSPORT_TCP，在connect之前调用
+    void setRtpTransport(int transport) {
+        mRtpTransport = transport;
+    }
+
+    //UDP传输时的丢包恢复，在connect之前调用
+    void setLossRecovery(boolean nackEnabled, int fecPayloadType, long windowMs) {
+        mNackEnabled = nackEnabled;
+        mFecPayloadType = fecPayloadType;
+        mLossRecoveryWindowMs = windowMs;
+    }
+
+    //Source端RTP头部扩展的ID，在connect之前调用，0表示没有这个扩展
+    void setRtpExtensionIds(int absSendTimeId, int transmissionOffsetId) {
+        mAbsSendTimeExtensionId = absSendTimeId;
+        mTransmissionOffsetExtensionId = transmissionOffsetId;
+    }
+
+    //协商每一步的超时时间，在connect之前调用
+    void setHandshakeTimeout(long timeoutMs) {
+        mHandshake.setStepTimeoutMs(timeoutMs);
+    }
+
+    int getState() {
+        return mState;
+    }
+
+    boolean isPlaying() {
+        return mHandshake.isPlaying();
+    }
+
+    //当前会话的RTP接收，没有连接时为null
+    RTPReceiver getRtpReceiver() {
+        return rtpReceiver;
+    }
+
+    boolean isRtpOverTcp() {
+        return mRtpOverTcp;
+    }
+
+    long getLastOutageMs() {
+        return mLastOutageMs;
+    }
+
+    int getRecoveryCount() {
+        return mRecoveryCount;
+    }
+
+    int getReceiveTimeoutCount() {
+        return mReceiveTimeoutCount;
+    }
+
+    String getHandshakeTimingSummary() {
+        return mHandshake.getTimingSummary();
+    }
+
+    //发送TEARDOWN（M8），收到回复或者超时后断开
+    @MainThread
+    @WorkerThread
+    void closeRtspSession() {
+        WfdLog.d(TAG, "closeRtspSession");
+        if (mState != STATE_CONNECT_SUCCESS) {
+            return;
+        }
+        runOnSessionThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    requestM8();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    closeSocket(STATE_DISCONNECTED);
+                }
+            }
+        });
+    }
+
+    //断开连接，status是通知的状态
+    @MainThread
+    @WorkerThread
+    void close(final int status) {
+        runOnSessionThread(new Runnable() {
+            @Override
+            public void run() {
+                closeSocket(status);
+            }
+        });
+    }
+
+    /**
+     * 会话释放时调用：已经连接的先发送TEARDOWN，连接关闭后回调{@link Callback#onQuit()}，之后不能再使用
+     */
+    void quit() {
+        mQuitting = true;
+        int state = mState;
+        if (state == STATE_CONNECT_SUCCESS) {
+            closeRtspSession();
+        } else if (state == STATE_CONNECTING || state == STATE_RECOVERING) {
+            close(STATE_DISCONNECTED);
+        } else {
+            mCallback.onQuit();
+        }
+    }
+
+    private void setState(int state) {
+        if (mState == state) {
+            return;
+        }
+        mState = state;
+        mCallback.onStateChanged(state);
+    }
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * -----------------------------------协议连接以及解析---------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private static final int CONNECT_TIMEOUT_MS = 3 * 1000;
+
+    //开始一个投屏会话，返回false表示参数不对
+    @WorkerThread
+    private boolean prepareSession() {
+        if (mAddress == null || mAddress.isEmpty() || mPort == 0) {
+            close(STATE_CONNECT_FAILED);
+            return false;
+        }
+        mTcpRefused = false;
+        mRtpOverTcp = false;
+        rtpReceiver = new RTPReceiver(mAudioOnly, mVideoConsumers, mAudioConsumers, mEventLoop, new RTPReceiver.OnRTPExceptionListener() {
+            @Override
+            public void onIOException() {
+                close(STATE_DISCONNECTED);
+            }
+
+            @Override
+            public void onReceiveTimeout(final long silenceMs) {
+                mReceiveTimeoutCount++;
+                runOnSessionThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRtpSilence(silenceMs);
+                    }
+                });
+            }
+
+            @Override
+            public void onReceiveResumed(long silenceMs) {
+                runOnSessionThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRtpResumed();
+                    }
+                });
+            }
+        });
+
+        rtpReceiver.setLossRecovery(mNackEnabled, mFecPayloadType, mLossRecoveryWindowMs);
+        rtpReceiver.getTiming().setAbsSendTimeId(mAbsSendTimeExtensionId);
+        rtpReceiver.getTiming().setTransmissionOffsetId(mTransmissionOffsetExtensionId);
+        //M3之前绑定RTP/RTCP端口，绑定后就开始接收，Source端时钟要先交给解码器
+        mCallback.onPrepare(rtpReceiver);
+        if (!rtpReceiver.bind()) {
+            rtpReceiver = null;
+            close(STATE_CONNECT_FAILED);
+            return false;
+        }
+
+        //设置连接中的状态
+        setState(STATE_CONNECTING);
+        mKeepAliveTimeoutMs = DEFAULT_KEEP_ALIVE_TIMEOUT_MS;
+        return true;
+    }
+
+    //建立RTSP的TCP连接并开始协商，恢复连接时只调用这一步，RTPReceiver保持不变
+    @WorkerThread
+    private void openConnection() {
+        mHandshake.start();
+        scheduleHandshakeTimeout();
+        Connection connection = createConnection();
+        mConnection = connection;
+        connection.open(mAddress, mPort);
+    }
+
+    //测试中替换成不联网的连接
+    @WorkerThread
+    Connection createConnection() {
+        WfdEventLoop eventLoop = mEventLoop;
+        return eventLoop != null ? new ChannelConnection(eventLoop) : new SocketConnection();
+    }
+
+    @WorkerThread
+    private void resetData() {
+        WfdLog.d(TAG, "resetData");
+        mAddress = "";
+        mPort = 0;
+        rtspUrl = "";
+        rtspSession = "";
+        mHandshake.reset();
+        removeTimer(handshakeTimeoutRunnable);
+        removeTimer(keepAliveTimeoutRunnable);
+        removeTimer(reconnectRunnable);
+        removeTimer(recoveryTimeoutRunnable);
+        removeTimer(teardownTimeoutRunnable);
+        mRecoverReason = 0;
+        setState(STATE_IDLE);
+        if (rtpReceiver != null) {
+            rtpReceiver.close();
+            rtpReceiver = null;
+        }
+    }
+
+    @WorkerThread
+    private void closeSocket(int status) {
+        WfdLog.i(TAG, "closeSocket WifiDisplaySink");
+        closeConnection();
+        setState(status);
+        //重置数据
+        resetData();
+        //事件循环模式下，会话结束后线程退出，共用的循环还有其他会话在用
+        if (mEventLoop != null) {
+            if (mEventLoop != mSharedEventLoop) {
+                mEventLoop.quit();
+            }
+            mEventLoop = null;
+        }
+        if (mQuitting) {
+            mCallback.onQuit();
+        }
+    }
+
+    //只关闭RTSP的TCP连接
+    @WorkerThread
+    private void closeConnection() {
+        Connection connection = mConnection;
+        mConnection = null;
+        if (connection != null) {
+            connection.close();
+        }
+        synchronized (mMessageWriter) {
+            mMessageWriter.clearPending();
+        }
+    }
+
+    //RTSP连接上交织的RTP包交给rtpReceiver，RTCP包不处理
+    private final RtspMessageReader.OnInterleavedFrameListener interleavedFrameListener = new RtspMessageReader.OnInterleavedFrameListener() {
+        @Override
+        public void onInterleavedFrame(int channel, byte[] data, int offset, int length) {
+            RTPReceiver receiver = rtpReceiver;
+            if (channel == INTERLEAVED_RTP_CHANNEL && receiver != null) {
+                receiver.onInterleavedPacket(data, offset, length);
+            }
+        }
+    };
+
+    //线程模式：阻塞的Socket，在读线程中读取和处理消息
+    private class SocketConnection implements Connection {
+        private volatile Socket socket;
+        private volatile BufferedInputStream input;
+        private volatile BufferedOutputStream output;
+
+        @Override
+        public void open(String address, int port) {
+            try {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT_MS);
+                //创建IO流
+                input = new BufferedInputStream(socket.getInputStream());
+                output = new BufferedOutputStream(socket.getOutputStream());
+                //读取数据
+                new Thread(readRunnable).start();
+            } catch (Exception e) {
+                e.printStackTrace();
+                onConnectionLost(STATE_CONNECT_FAILED);
+            }
+        }
+
+        @Override
+        public void send(RtspMessageWriter writer) throws IOException {
+            writer.writeTo(output);
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try {
+                if (output != null) {
+                    output.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private final Runnable readRunnable = new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffered = new byte[2 * 1024];
+                RtspMessageReader messageReader = new RtspMessageReader();
+                messageReader.setOnInterleavedFrameListener(interleavedFrameListener);
+                int closeStatus = KEEP_CONNECTION;
+                try {
+                    while (closeStatus == KEEP_CONNECTION) {
+                        int count = input.read(buffered, 0, buffered.length);
+                        if (count < 0) {
+                            //Source端关闭了连接
+                            break;
+                        }
+                        //一次读到的数据可能包含多条消息，也可能不是一条完整的消息
+                        messageReader.feed(buffered, 0, count);
+                        RtspMessage message;
+                        while (closeStatus == KEEP_CONNECTION && (message = messageReader.next()) != null) {
+                            WfdLog.d(TAG, message);
+                            closeStatus = handleMessage(message);
+                        }
+                    }
+                    if (closeStatus != KEEP_CONNECTION) {
+                        //Sink端或者Source端要断开连接
+                        WfdSinkSession.this.close(closeStatus);
+                    } else if (SocketConnection.this == mConnection) {
+                        //Source端关闭了连接
+                        connectionLost(STATE_DISCONNECTED);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    //恢复连接后会有新的连接，超时等原因已经主动关闭了连接时，不再重复关闭
+                    if (SocketConnection.this == mConnection) {
+                        connectionLost(STATE_CONNECT_FAILED);
+                    }
+                }
+            }
+        };
+    }
+
+    //事件循环模式：非阻塞的SocketChannel，连接、读写都在循环线程中
+    private class ChannelConnection implements Connection {
+        private final WfdEventLoop eventLoop;
+        private final RtspMessageReader messageReader = new RtspMessageReader();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(2 * 1024);
+        private SocketChannel channel;
+        //channel在事件循环中注册的key，只在循环线程中使用
+        private SelectionKey channelKey;
+
+        ChannelConnection(WfdEventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+            messageReader.setOnInterleavedFrameListener(interleavedFrameListener);
+        }
+
+        @Override
+        public void open(String address, int port) {
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(new InetSocketAddress(address, port))) {
+                    channelKey = eventLoop.register(channel, SelectionKey.OP_READ, channelHandler);
+                } else {
+                    channelKey = eventLoop.register(channel, SelectionKey.OP_CONNECT, channelHandler);
+                    postTimer(connectTimeoutRunnable, CONNECT_TIMEOUT_MS);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                onConnectionLost(STATE_CONNECT_FAILED);
+            }
+        }
+
+        @Override
+        public void send(RtspMessageWriter writer) throws IOException {
+            SelectionKey key = channelKey;
+            if (!writer.writeTo(channel) && key != null && key.isValid()) {
+                //发送缓存满了，等channel可写时在channelHandler中继续发送
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        @Override
+        public void close() {
+            removeTimer(connectTimeoutRunnable);
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                channelKey = null;
+            }
+        }
+
+        private final Runnable connectTimeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (ChannelConnection.this == mConnection && !channel.isConnected()) {
+                    WfdLog.e(TAG, "connect timeout");
+                    onConnectionLost(STATE_CONNECT_FAILED);
+                }
+            }
+        };
+
+        private final WfdEventLoop.ChannelHandler channelHandler = new WfdEventLoop.ChannelHandler() {
+            @Override
+            public void onReady(SelectionKey key) throws IOException {
+                if (key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        removeTimer(connectTimeoutRunnable);
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    return;
+                }
+                if (key.isWritable()) {
+                    synchronized (mMessageWriter) {
+                        if (mMessageWriter.flushPending(channel)) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                }
+                if (!key.isReadable()) {
+                    return;
+                }
+                readBuffer.clear();
+                int count = channel.read(readBuffer);
+                if (count < 0) {
+                    //Source端关闭了连接
+                    onConnectionLost(STATE_DISCONNECTED);
+                    return;
+                }
+                messageReader.feed(readBuffer.array(), 0, count);
+                RtspMessage message;
+                while ((message = messageReader.next()) != null) {
+                    WfdLog.d(TAG, message);
+                    int closeStatus;
+                    try {
+                        closeStatus = handleMessage(message);
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                    if (closeStatus != KEEP_CONNECTION) {
+                        closeSocket(closeStatus);
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                onConnectionLost(STATE_CONNECT_FAILED);
+            }
+        };
+    }
+
+    //会话线程，事件循环模式下是循环线程，否则是scheduler的线程
+    private WfdScheduler getSessionScheduler() {
+        WfdEventLoop eventLoop = mEventLoop;
+        return eventLoop != null ? eventLoop : mScheduler;
+    }
+
+    private void postTimer(Runnable runnable, long delayMs) {
+        getSessionScheduler().postDelayed(runnable, delayMs);
+    }
+
+    private void removeTimer(Runnable runnable) {
+        getSessionScheduler().removeCallbacks(runnable);
+    }
+
+    //切换到会话的线程中执行
+    private void runOnSessionThread(Runnable runnable) {
+        getSessionScheduler().post(runnable);
+    }
+
+    //中断时长使用的时钟，不受系统时间修改的影响
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * -----------------------------------中断恢复---------------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    //重新连接的间隔
+    private static final long RECONNECT_INTERVAL_MS = 300;
+
+    //RTSP连接意外断开，可以在其他线程中调用
+    void connectionLost(final int status) {
+        runOnSessionThread(new Runnable() {
+            @Override
+            public void run() {
+                onConnectionLost(status);
+            }
+        });
+    }
+
+    /**
+     * RTSP连接意外断开（读取出错、Source端关闭、心跳超时、协商超时）
+     * 已经投屏或者正在恢复时，在恢复窗口内重新连接，否则断开
+     */
+    @WorkerThread
+    private void onConnectionLost(int status) {
+        boolean canRecover = mRecoveryWindowMs > 0
+                && mHandshake.getState() != WfdHandshake.STATE_TEARDOWN
+                && (mHandshake.isPlaying() || mRecoverReason != 0);
+        if (!canRecover) {
+            closeSocket(status);
+            return;
+        }
+        if (mRecoverReason != RECOVER_RTSP) {
+            WfdLog.w(TAG, "rtsp connection lost, recovering in " + mRecoveryWindowMs + "ms");
+            startRecovery(RECOVER_RTSP, nowMs());
+            //Source端重新协商后重新编码，时间戳会跳变
+            if (rtpReceiver != null) {
+                rtpReceiver.markDiscontinuity();
+            }
+        }
+        //只关闭TCP连接，RTPReceiver和解码器保持不变
+        closeConnection();
+        mHandshake.reset();
+        removeTimer(handshakeTimeoutRunnable);
+        removeTimer(keepAliveTimeoutRunnable);
+        removeTimer(reconnectRunnable);
+        postTimer(reconnectRunnable, RECONNECT_INTERVAL_MS);
+    }
+
+    //RTP超过5秒没有数据
+    @WorkerThread
+    private void onRtpSilence(long silenceMs) {
+        if (mRecoveryWindowMs <= 0) {
+            //不恢复，和之前一样断开连接
+            closeSocket(STATE_DISCONNECTED);
+            return;
+        }
+        if (!mHandshake.isPlaying() || mRecoverReason != 0) {
+            return;
+        }
+        //RTSP连接还在，请求Source端重新发送
+        WfdLog.w(TAG, "rtp silence " + silenceMs + "ms while rtsp alive, send PLAY again");
+        startRecovery(RECOVER_RTP, nowMs() - silenceMs);
+        try {
+            requestM7();
+        } catch (Exception e) {
+            e.printStackTrace();
+            onConnectionLost(STATE_CONNECT_FAILED);
+        }
+    }
+
+    //RTP恢复接收
+    @WorkerThread
+    private void onRtpResumed() {
+        //RTSP断开时要等重新协商完成
+        if (mRecoverReason == RECOVER_RTP) {
+            finishRecovery();
+        }
+    }
+
+    private void startRecovery(int reason, long outageStartMs) {
+        if (mRecoverReason == 0) {
+            mOutageStartMs = outageStartMs;
+            setState(STATE_RECOVERING);
+            postTimer(recoveryTimeoutRunnable, mRecoveryWindowMs);
+        }
+        mRecoverReason = reason;
+    }
+
+    //恢复成功，报告中断的时长
+    @WorkerThread
+    private void finishRecovery() {
+        if (mRecoverReason == 0) {
+            return;
+        }
+        mLastOutageMs = nowMs() - mOutageStartMs;
+        mRecoveryCount++;
+        WfdLog.i(TAG, "recovered from " + (mRecoverReason == RECOVER_RTP ? "rtp silence" : "rtsp loss")
+                + ", outage: " + mLastOutageMs + "ms");
+        mRecoverReason = 0;
+        removeTimer(recoveryTimeoutRunnable);
+        setState(STATE_CONNECT_SUCCESS);
+    }
+
+    private final Runnable reconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mRecoverReason != RECOVER_RTSP) {
+                return;
+            }
+            WfdLog.i(TAG, "reconnect rtsp");
+            openConnection();
+        }
+    };
+
+    private final Runnable recoveryTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mRecoverReason == 0) {
+                return;
+            }
+            WfdLog.e(TAG, "recovery failed in " + mRecoveryWindowMs + "ms");
+            closeSocket(STATE_DISCONNECTED);
+        }
+    };
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * -----------------------------------M1~M16---------------------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    //handleMessage的返回值，表示继续读取数据，其他值是断开连接时通知的状态
+    static final int KEEP_CONNECTION = -1;
+    //发送M8之后等待Source端回复的时间，超时后直接断开
+    private static final long TEARDOWN_TIMEOUT_MS = 2 * 1000;
+
+    /**
+     * 处理一条完整的消息
+     * Source端的请求按方法和参数区分是哪个消息，Sink端请求的回复按CSeq匹配，和到达的顺序无关
+     *
+     * @return {@link #KEEP_CONNECTION}表示继续读取数据，否则是断开连接时的状态，由调用者关闭连接
+     */
+    @WorkerThread
+    int handleMessage(RtspMessage message) throws Exception {
+        if (message.isResponse()) {
+            return handleResponse(message);
+        }
+        if (mHandshake.isPlaying()) {
+            //收到Source端的请求，说明连接还在
+            scheduleKeepAliveTimeout();
+        }
+        String cseq = message.getCSeq();
+        if (message.isRequest("OPTIONS")) {
+            //M1，Source端询问支持的方法，回复后Sink端发送M2
+            mHandshake.mark(WfdHandshake.M1);
+            responseM1(cseq);
+            requestM2();
+            moveHandshakeState(WfdHandshake.STATE_WAIT_M1, WfdHandshake.STATE_WAIT_M3);
+            return KEEP_CONNECTION;
+        }
+        if (message.isRequest("GET_PARAMETER")) {
+            if (message.getBody().trim().isEmpty()) {
+                //M16，心跳包
+                mHandshake.mark(WfdHandshake.M16);
+                responseM16(cseq);
+            } else {
+                //M3，Source端查询Sink端的能力
+                mHandshake.mark(WfdHandshake.M3);
+                responseM3(cseq, message);
+                moveHandshakeState(WfdHandshake.STATE_WAIT_M3, WfdHandshake.STATE_WAIT_M4);
+            }
+            return KEEP_CONNECTION;
+        }
+        if (message.isRequest("SET_PARAMETER")) {
+            String triggerMethod = message.getParameter("wfd_trigger_method");
+            if (triggerMethod != null) {
+                return handleTrigger(triggerMethod, cseq);
+            }
+            //M4，Source端设置最终的参数，投屏过程中也可能重新协商
+            String url = message.getParameter("wfd_presentation_URL");
+            if (url != null) {
+                //wfd_presentation_URL: rtsp://192.168.49.1/wfd1.0/streamid=0 none
+                rtspUrl = url.split(" ")[0];
+            }
+            boolean formatChanged = mCallback.onSessionConfig(message, rtpReceiver);
+            if (mHandshake.isPlaying() && formatChanged) {
+                //重新编码后时间戳会跳变
+                if (rtpReceiver != null) {
+                    rtpReceiver.markDiscontinuity();
+                }
+            }
+            mHandshake.mark(WfdHandshake.M4);
+            responseM4(cseq);
+            moveHandshakeState(WfdHandshake.STATE_WAIT_M4, WfdHandshake.STATE_WAIT_M5);
+            return KEEP_CONNECTION;
+        }
+        WfdLog.w(TAG, "unhandled rtsp request: " + message.getMethod());
+        return KEEP_CONNECTION;
+    }
+
+    //M5，Source端触发Sink端的动作
+    @WorkerThread
+    private int handleTrigger(String triggerMethod, String cseq) throws Exception {
+        responseM5(cseq);
+        if ("TEARDOWN".equals(triggerMethod)) {
+            //Source端要断开连接，Sink端发送M8，收到回复或者超时后断开
+            try {
+                requestM8();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return STATE_DISCONNECTED;
+            }
+            return KEEP_CONNECTION;
+        }
+        if ("SETUP".equals(triggerMethod)) {
+            mHandshake.mark(WfdHandshake.M5);
+            //Sink端发送第六个消息
+            requestM6();
+            moveHandshakeState(WfdHandshake.STATE_WAIT_M5, WfdHandshake.STATE_WAIT_M6);
+            //有的Source端不等M4的回复就发M5
+            moveHandshakeState(WfdHandshake.STATE_WAIT_M4, WfdHandshake.STATE_WAIT_M6);
+        }
+        return KEEP_CONNECTION;
+    }
+
+    //Sink端请求的回复
+    @WorkerThread
+    private int handleResponse(RtspMessage message) throws Exception {
+        int m = mHandshake.onResponse(message.getCSeq());
+        if (m == 0) {
+            WfdLog.w(TAG, "unmatched rtsp response, CSeq: " + message.getCSeq());
+            return KEEP_CONNECTION;
+        }
+        if (m == WfdHandshake.M6 && message.getStatusCode() != 200 && isRequestingTcp()) {
+            //Source端不支持RTP over TCP（一般是461 Unsupported Transport），改用UDP重新SETUP
+            WfdLog.w(TAG, "rtp over tcp refused, status: " + message.getStatusCode() + ", fallback to udp");
+            mTcpRefused = true;
+            requestM6();
+            scheduleHandshakeTimeout();
+            return KEEP_CONNECTION;
+        }
+        if (message.getStatusCode() != 200) {
+            WfdLog.e(TAG, "M" + m + " failed, status: " + message.getStatusCode());
+            //投屏过程中重新发送的PLAY失败不影响连接
+            if ((m == WfdHandshake.M6 || m == WfdHandshake.M7) && !mHandshake.isPlaying()) {
+                return STATE_CONNECT_FAILED;
+            }
+        }
+        switch (m) {
+            case WfdHandshake.M6:
+                //第六个消息中，获取Session值
+                String session = message.getHeader("Session");
+                if (session != null) {
+                    rtspSession = session.split(";")[0];
+                    mKeepAliveTimeoutMs = parseSessionTimeout(session);
+                }
+                //Source端可能没有拒绝，而是在回复中换成了UDP，这时按M4中的端口发送
+                String transport = message.getHeader("Transport");
+                mRtpOverTcp = isRequestingTcp() && transport != null && transport.contains("RTP/AVP/TCP");
+                WfdLog.i(TAG, "rtp transport: " + (mRtpOverTcp ? "tcp" : "udp") + ", " + transport);
+                int rtcpPort = parseServerRtcpPort(transport);
+                if (!mRtpOverTcp && rtcpPort > 0) {
+                    rtpReceiver.setRemoteRtcpAddress(mAddress, rtcpPort);
+                }
+                //Sink端发送第七个消息
+                requestM7();
+                moveHandshakeState(WfdHandshake.STATE_WAIT_M6, WfdHandshake.STATE_WAIT_M7);
+                break;
+            case WfdHandshake.M7:
+                if (moveHandshakeState(WfdHandshake.STATE_WAIT_M7, WfdHandshake.STATE_PLAYING)) {
+                    WfdLog.i(TAG, "handshake finished: " + mHandshake.getTimingSummary());
+                    if (mRecoverReason == RECOVER_RTSP) {
+                        finishRecovery();
+                    } else {
+                        setState(STATE_CONNECT_SUCCESS);
+                    }
+                    scheduleKeepAliveTimeout();
+                }
+                break;
+            case WfdHandshake.M8:
+                //Sink端要断开连接
+                removeTimer(teardownTimeoutRunnable);
+                return STATE_DISCONNECTED;
+        }
+        return KEEP_CONNECTION;
+    }
+
+    /**
+     * 当前状态是from时切换到to，并重新开始这一步的超时计时
+     *
+     * @return 状态是否切换了
+     */
+    private boolean moveHandshakeState(int from, int to) {
+        if (mHandshake.getState() != from) {
+            return false;
+        }
+        mHandshake.setState(to);
+        scheduleHandshakeTimeout();
+        return true;
+    }
+
+    //开始超时计时时的协商状态，超时的时候状态没有变化说明这一步超时了
+    private volatile int mTimeoutState = WfdHandshake.STATE_IDLE;
+
+    private final Runnable handshakeTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mHandshake.getState() == mTimeoutState && !mHandshake.isPlaying()) {
+                WfdLog.e(TAG, "handshake timeout, state: " + mTimeoutState + ", " + mHandshake.getTimingSummary());
+                onConnectionLost(STATE_CONNECT_FAILED);
+            }
+        }
+    };
+
+    private void scheduleHandshakeTimeout() {
+        removeTimer(handshakeTimeoutRunnable);
+        if (mHandshake.isPlaying()) {
+            return;
+        }
+        mTimeoutState = mHandshake.getState();
+        postTimer(handshakeTimeoutRunnable, mHandshake.getStepTimeoutMs());
+    }
+
+    private final Runnable keepAliveTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            WfdLog.e(TAG, "no keepalive from source for " + (mKeepAliveTimeoutMs + KEEP_ALIVE_GRACE_MS) + "ms");
+            onConnectionLost(STATE_DISCONNECTED);
+        }
+    };
+
+    private void scheduleKeepAliveTimeout() {
+        removeTimer(keepAliveTimeoutRunnable);
+        postTimer(keepAliveTimeoutRunnable, mKeepAliveTimeoutMs + KEEP_ALIVE_GRACE_MS);
+    }
+
+    /**
+     * 解析Session中的timeout，单位是秒
+     * Session: 1804289383;timeout=30
+     */
+    static long parseSessionTimeout(String session) {
+        for (String value : session.split(";")) {
+            value = value.trim();
+            if (value.startsWith("timeout=")) {
+                try {
+                    return Long.parseLong(value.substring("timeout=".length()).trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return DEFAULT_KEEP_ALIVE_TIMEOUT_MS;
+    }
+
+    /**
+     * 解析Transport中Source端的RTCP端口
+     * Transport: RTP/AVP/UDP;unicast;client_port=19000-19001;server_port=5000-5001
+     *
+     * @return 没有时返回0
+     */
+    static int parseServerRtcpPort(String transport) {
+        if (transport == null) {
+            return 0;
+        }
+        for (String value : transport.split(";")) {
+            value = value.trim();
+            if (value.startsWith("server_port=")) {
+                String[] ports = value.substring("server_port=".length()).split("-");
+                try {
+                    return ports.length > 1 ? Integer.parseInt(ports[1].trim()) : Integer.parseInt(ports[0].trim()) + 1;
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return 0;
+    }
+
+    //发送writer中生成好的消息，调用时需要持有mMessageWriter的锁
+    private void send(String name) throws IOException {
+        WfdLog.i(TAG, "-------------------sink data--------------------" + name);
+        WfdLog.d(TAG, mMessageWriter);
+        Connection connection = mConnection;
+        if (connection == null) {
+            throw new IOException("rtsp connection closed");
+        }
+        connection.send(mMessageWriter);
+    }
+
+    @WorkerThread
+    //M1，响应数据
+    private void responseM1(String cseq) throws Exception {
+        synchronized (mMessageWriter) {
+            mMessageWriter.startResponse(cseq, true)
+                    .header("Public", "org.wfa.wfd1.0, GET_PARAMETER, SET_PARAMETER")
+                    .end();
+            send("responseM1");
+        }
+    }
+
+    @WorkerThread
+    //M2，向source端发送数据
+    private void requestM2() throws Exception {
+        int cseq = mHandshake.newRequest(WfdHandshake.M2);
+        synchronized (mMessageWriter) {
+            mMessageWriter.startRequest("OPTIONS", "*", cseq)
+                    .header("Require", "org.wfa.wfd1.0")
+                    .end();
+            send("requestM2");
+        }
+    }
+
+    @WorkerThread
+    //M3，响应数据
+    private void responseM3(String cseq, RtspMessage request) throws Exception {
+        StringBuilder bodyBuilder = new StringBuilder();
+        //音视频格式和解码器有关
+        mCallback.appendCapabilities(request, bodyBuilder);
+        //和M6的SETUP使用同一个传输方式，Source端按这里的声明准备RTP over TCP
+        bodyBuilder.append("wfd_client_rtp_ports: ").append(isRequestingTcp() ? "RTP/AVP/TCP" : "RTP/AVP/UDP")
+                .append(";unicast ").append(rtpReceiver.getLocalRTPPort()).append(" 0 mode=play\r\n");
+
+        synchronized (mMessageWriter) {
+            mMessageWriter.startResponse(cseq, true)
+                    .endWithBody(bodyBuilder);
+            send("responseM3");
+        }
+    }
+
+    @WorkerThread
+    //M4，响应数据
+    private void responseM4(String cseq) throws Exception {
+        synchronized (mMessageWriter) {
+            mMessageWriter.startResponse(cseq, true)
+                    .end();
+            send("responseM4");
+        }
+    }
+
+    @WorkerThread
+    //M5，响应数据
+    private void responseM5(String cseq) throws Exception {
+        synchronized (mMessageWriter) {
+            mMessageWriter.startResponse(cseq, false)
+                    .end();
+            send("responseM5");
+        }
+    }
+
+    //RTP over TCP时交织帧的通道号，RTCP使用下一个
+    private static final int INTERLEAVED_RTP_CHANNEL = 0;
+
+    //M6是否请求RTP over TCP
+    private boolean isRequestingTcp() {
+        return mRtpTransport == RTP_TRANSPORT_TCP && !mTcpRefused;
+    }
+
+    @WorkerThread
+    //M6，向source端发送数据
+    private void requestM6() throws Exception {
+        int cseq = mHandshake.newRequest(WfdHandshake.M6);
+        //端口在M3之前已经绑定并开始接收，从这里开始检查接收超时
+        rtpReceiver.armReceiveTimeout();
+
+        //发送M6消息给Source端
+        String transport;
+        if (isRequestingTcp()) {
+            transport = "RTP/AVP/TCP;unicast;interleaved=" + INTERLEAVED_RTP_CHANNEL + "-" + (INTERLEAVED_RTP_CHANNEL + 1);
+        } else {
+            int rtpPort = rtpReceiver.getLocalRTPPort();
+            transport = "RTP/AVP/UDP;unicast;client_port=" + rtpPort + "-" + (rtpPort + 1);
+        }
+        synchronized (mMessageWriter) {
+            mMessageWriter.startRequest("SETUP", rtspUrl, cseq)
+                    .header("Transport", transport)
+                    .end();
+            send("requestM6");
+        }
+    }
+
+    @WorkerThread
+    //M7，向source端发送数据
+    private void requestM7() throws Exception {
+        int cseq = mHandshake.newRequest(WfdHandshake.M7);
+        synchronized (mMessageWriter) {
+            //荣耀手机如果最后一个结尾没有\r\n，会出现M7指令延迟25秒回复的情况
+            mMessageWriter.startRequest("PLAY", rtspUrl, cseq)
+                    .header("Session", rtspSession)
+                    .end();
+            send("requestM7");
+        }
+    }
+
+    @WorkerThread
+    //M8指令，断开投屏连接
+    private void requestM8() throws Exception {
+        //主动断开，之后连接断开时不再恢复
+        mHandshake.setState(WfdHandshake.STATE_TEARDOWN);
+        int cseq = mHandshake.newRequest(WfdHandshake.M8);
+        synchronized (mMessageWriter) {
+            mMessageWriter.startRequest("TEARDOWN", rtspUrl, cseq)
+                    .header("Session", rtspSession)
+                    .end();
+            send("requestM8");
+        }
+        removeTimer(teardownTimeoutRunnable);
+        postTimer(teardownTimeoutRunnable, TEARDOWN_TIMEOUT_MS);
+    }
+
+    //Source端没有回复M8，直接断开
+    private final Runnable teardownTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mHandshake.getState() == WfdHandshake.STATE_TEARDOWN) {
+                WfdLog.w(TAG, "no response to M8 in " + TEARDOWN_TIMEOUT_MS + "ms");
+                closeSocket(STATE_DISCONNECTED);
+            }
+        }
+    };
+
+    @WorkerThread
+    //心跳回复，Source端等待回复的时间很短，这里不能有耗时操作
+    private void responseM16(String cseq) throws Exception {
+        synchronized (mMessageWriter) {
+            mMessageWriter.startResponse(cseq, true)
+                    .end();
+            send("responseM16");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 从HEVC的IDR帧中取出VPS/SPS/PPS，解析SPS中的宽高
+ */
+public class HevcParameterSetsTest {
+
+    private static final byte[] START_CODE_4 = {0, 0, 0, 1};
+    private static final byte[] START_CODE_3 = {0, 0, 1};
+
+    private static final byte[] VPS = {0x40, 0x01, 0x0C, 0x01, (byte) 0xFF, (byte) 0xFF};
+    private static final byte[] PPS = {0x44, 0x01, (byte) 0xC1, 0x72, (byte) 0xB4, 0x62, 0x40};
+    //IDR_N_LP（19）和TRAIL_R（1）的slice
+    private static final byte[] IDR_SLICE = {0x26, 0x01, (byte) 0xAF, 0x12, 0x34};
+    private static final byte[] TRAIL_SLICE = {0x02, 0x01, (byte) 0xD0, 0x56, 0x78};
+
+    @Test
+    public void idrFrame() {
+        byte[] sps = sps(0, 1920, 1088, 0, 4);
+        byte[] frame = concat(START_CODE_4, VPS, START_CODE_4, sps, START_CODE_3, PPS, START_CODE_3, IDR_SLICE);
+        HevcParameterSets sets = HevcParameterSets.find(frame);
+        assertNotNull(sets);
+        //裁剪窗口的单位是2行（4:2:0）
+        assertEquals(1920, sets.width);
+        assertEquals(1080, sets.height);
+        assertArrayEquals(concat(START_CODE_4, VPS, START_CODE_4, sps, START_CODE_4, PPS), sets.csd);
+    }
+
+    @Test
+    public void subLayersAndCropping() {
+        byte[] sps = sps(1, 1280, 736, 8, 16);
+        byte[] frame = concat(START_CODE_4, VPS, START_CODE_4, sps, START_CODE_4, PPS, START_CODE_4, IDR_SLICE);
+        HevcParameterSets sets = HevcParameterSets.find(frame);
+        assertNotNull(sets);
+        assertEquals(1280 - 2 * 8, sets.width);
+        assertEquals(736 - 2 * 16, sets.height);
+    }
+
+    @Test
+    public void frameWithoutParameterSets() {
+        assertNull(HevcParameterSets.find(concat(START_CODE_4, TRAIL_SLICE)));
+    }
+
+    @Test
+    public void parameterSetsAfterSliceAreIgnored() {
+        byte[] sps = sps(0, 1920, 1088, 0, 4);
+        byte[] frame = concat(START_CODE_4, VPS, START_CODE_4, TRAIL_SLICE, START_CODE_4, sps, START_CODE_4, PPS);
+        assertNull(HevcParameterSets.find(frame));
+    }
+
+    @Test
+    public void missingPps() {
+        byte[] sps = sps(0, 1920, 1088, 0, 4);
+        assertNull(HevcParameterSets.find(concat(START_CODE_4, VPS, START_CODE_4, sps, START_CODE_4, IDR_SLICE)));
+    }
+
+    @Test
+    public void truncatedSps() {
+        byte[] sps = sps(0, 1920, 1088, 0, 4);
+        byte[] truncated = new byte[8];
+        System.arraycopy(sps, 0, truncated, 0, truncated.length);
+        byte[] frame = concat(START_CODE_4, VPS, START_CODE_4, truncated, START_CODE_4, PPS, START_CODE_4, IDR_SLICE);
+        assertNull(HevcParameterSets.find(frame));
+    }
+
+    /**
+     * 生成SPS的NAL，profile_tier_level中大部分是0，会产生需要防竞争字节的00 00 0x
+     */
+    private static byte[] sps(int maxSubLayersMinus1, int width, int height, int cropX, int cropY) {
+        BitWriter writer = new BitWriter();
+        //sps_video_parameter_set_id、sps_max_sub_layers_minus1、sps_temporal_id_nesting_flag
+        writer.write(0, 4);
+        writer.write(maxSubLayersMinus1, 3);
+        writer.write(1, 1);
+        //general_profile_space、tier、profile_idc（Main）
+        writer.write(0, 2);
+        writer.write(0, 1);
+        writer.write(1, 5);
+        //兼容标志和约束标志全是0
+        writer.write(0, 32);
+        writer.write(0, 48);
+        //general_level_idc
+        writer.write(93, 8);
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            //sub_layer_profile_present_flag、sub_layer_level_present_flag
+            writer.write(0, 2);
+        }
+        if (maxSubLayersMinus1 > 0) {
+            writer.write(0, 2 * (8 - maxSubLayersMinus1));
+        }
+        //sps_seq_parameter_set_id、chroma_format_idc（4:2:0）
+        writer.writeUe(0);
+        writer.writeUe(1);
+        writer.writeUe(width);
+        writer.writeUe(height);
+        boolean crop = cropX > 0 || cropY > 0;
+        writer.write(crop ? 1 : 0, 1);
+        if (crop) {
+            writer.writeUe(cropX / 2);
+            writer.writeUe(cropX - cropX / 2);
+            writer.writeUe(cropY / 2);
+            writer.writeUe(cropY - cropY / 2);
+        }
+        //后面的字段不解析，写一些数据和rbsp_stop_one_bit
+        writer.writeUe(0);
+        writer.write(1, 1);
+        return writer.toNal(new byte[]{0x42, 0x01});
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    //按位写RBSP，转换成NAL时插入防竞争字节
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current = 0;
+        private int bits = 0;
+
+        void write(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                current = (current << 1) | (int) ((value >> i) & 1);
+                bits++;
+                if (bits == 8) {
+                    out.write(current);
+                    current = 0;
+                    bits = 0;
+                }
+            }
+        }
+
+        void writeUe(int value) {
+            int code = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(code);
+            write(0, length - 1);
+            write(code, length);
+        }
+
+        byte[] toNal(byte[] header) {
+            if (bits > 0) {
+                write(0, 8 - bits);
+            }
+            byte[] rbsp = out.toByteArray();
+            ByteArrayOutputStream nal = new ByteArrayOutputStream();
+            nal.write(header, 0, header.length);
+            int zeros = 0;
+            for (byte b : rbsp) {
+                if (zeros >= 2 && (b & 0xFF) <= 3) {
+                    nal.write(3);
+                    zeros = 0;
+                }
+                nal.write(b);
+                zeros = b == 0 ? zeros + 1 : 0;
+            }
+            return nal.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 33位时间戳的展开：回绕之后继续递增，跳变和不连续标志之后重新锚定
+ */
+public class MediaTimelineTest {
+
+    private static final long WRAP = 1L << 33;
+    //一帧的间隔，30fps
+    private static final long FRAME_TICKS = 3000;
+
+    @Test
+    public void noTimestamp() {
+        MediaTimeline timeline = new MediaTimeline();
+        assertEquals(-1, timeline.toTimeUs(-1));
+    }
+
+    @Test
+    public void continuousTimestamps() {
+        MediaTimeline timeline = new MediaTimeline();
+        assertEquals(1000000, timeline.toTimeUs(90000));
+        assertEquals(1000000 + 33333, timeline.toTimeUs(90000 + FRAME_TICKS));
+        //B帧的PTS可以比上一个小
+        assertEquals(1000000, timeline.toTimeUs(90000));
+        assertEquals(0, timeline.getDiscontinuityCount());
+    }
+
+    @Test
+    public void wrapKeepsIncreasing() {
+        MediaTimeline timeline = new MediaTimeline();
+        long start = WRAP - 2 * FRAME_TICKS;
+        long lastUs = timeline.toTimeUs(start);
+        for (int i = 1; i <= 5; i++) {
+            long us = timeline.toTimeUs((start + i * FRAME_TICKS) & (WRAP - 1));
+            assertTrue("timestamp " + i + " goes back", us > lastUs);
+            assertEquals((start + i * FRAME_TICKS) * 100 / 9, us);
+            lastUs = us;
+        }
+        assertEquals(0, timeline.getDiscontinuityCount());
+    }
+
+    @Test
+    public void bitsAbove33AreIgnored() {
+        MediaTimeline timeline = new MediaTimeline();
+        assertEquals(timeline.toTimeUs(90000), new MediaTimeline().toTimeUs(WRAP + 90000));
+    }
+
+    @Test
+    public void jumpReanchors() {
+        MediaTimeline timeline = new MediaTimeline();
+        long us = timeline.toTimeUs(900000);
+        //Source端重新开始编码，时间戳回到很小的值
+        long afterJump = timeline.toTimeUs(1000);
+        assertEquals(1, timeline.getDiscontinuityCount());
+        assertEquals(us + 1000, afterJump);
+        //之后按新的时间戳连续
+        assertEquals(afterJump + 33333, timeline.toTimeUs(1000 + FRAME_TICKS));
+        assertEquals(1, timeline.getDiscontinuityCount());
+    }
+
+    @Test
+    public void markedDiscontinuityReanchorsSmallDelta() {
+        MediaTimeline timeline = new MediaTimeline();
+        final int[] notified = {0};
+        timeline.setOnDiscontinuityListener(new MediaTimeline.OnDiscontinuityListener() {
+            @Override
+            public void onDiscontinuity() {
+                notified[0]++;
+            }
+        });
+        long us = timeline.toTimeUs(90000);
+        timeline.markDiscontinuity();
+        //差值在3秒以内，有不连续标志时也要重新锚定
+        assertEquals(us + 1000, timeline.toTimeUs(90000 + 10 * FRAME_TICKS));
+        assertEquals(1, notified[0]);
+        assertEquals(1, timeline.getDiscontinuityCount());
+    }
+
+    @Test
+    public void resetStartsFromRawTimestamp() {
+        MediaTimeline timeline = new MediaTimeline();
+        timeline.toTimeUs(900000);
+        timeline.reset();
+        assertEquals(1000000, timeline.toTimeUs(90000));
+        assertEquals(0, timeline.getDiscontinuityCount());
+    }
+}
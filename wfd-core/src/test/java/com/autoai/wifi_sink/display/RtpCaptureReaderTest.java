@@ -0,0 +1,296 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 抓包文件的解析：pcap的字节序和时间精度、各种链路层、IPv4/IPv6、端口过滤，以及TS文件的重新封装
+ */
+public class RtpCaptureReaderTest {
+
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+
+    private static final int RTP_PORT = 19000;
+
+    private final List<File> files = new ArrayList<>();
+
+    @After
+    public void deleteFiles() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void ethernetLittleEndianMicroseconds() throws IOException {
+        PcapWriter pcap = new PcapWriter(true, false, LINKTYPE_ETHERNET);
+        pcap.record(10, 500, ethernet(0x0800, false, ipv4(17, udp(RTP_PORT, rtp(33, 1)))));
+        //VLAN中的包
+        pcap.record(10, 1500, ethernet(0x0800, true, ipv4(17, udp(RTP_PORT, rtp(33, 2)))));
+        //RTCP（PT 200）、TCP、ARP都跳过
+        pcap.record(10, 2000, ethernet(0x0800, false, ipv4(17, udp(RTP_PORT + 1, rtcp()))));
+        pcap.record(10, 2500, ethernet(0x0800, false, ipv4(6, udp(RTP_PORT, rtp(33, 3)))));
+        pcap.record(10, 3000, ethernet(0x0806, false, new byte[28]));
+        pcap.record(11, 0, ethernet(0x86DD, false, ipv6(udp(RTP_PORT, rtp(33, 4)))));
+        String path = pcap.save();
+
+        RtpCaptureReader reader = RtpCaptureReader.open(path, 0);
+        try {
+            assertEquals(RtpCaptureReader.FORMAT_PCAP, reader.getFormat());
+            byte[] buffer = new byte[1500];
+            assertRtp(reader, buffer, 1);
+            assertEquals(10000500, reader.getCaptureTimeUs());
+            assertRtp(reader, buffer, 2);
+            assertEquals(10001500, reader.getCaptureTimeUs());
+            assertRtp(reader, buffer, 4);
+            assertEquals(11000000, reader.getCaptureTimeUs());
+            assertEquals(-1, reader.next(buffer));
+            assertEquals(3, reader.getSkippedRecords());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void linuxCookedBigEndianNanoseconds() throws IOException {
+        PcapWriter pcap = new PcapWriter(false, true, LINKTYPE_LINUX_SLL);
+        pcap.record(1, 2000000, sll(0x0800, ipv4(17, udp(RTP_PORT, rtp(33, 7)))));
+        String path = pcap.save();
+
+        RtpCaptureReader reader = RtpCaptureReader.open(path, 0);
+        try {
+            byte[] buffer = new byte[1500];
+            assertRtp(reader, buffer, 7);
+            assertEquals(1002000, reader.getCaptureTimeUs());
+            assertEquals(-1, reader.next(buffer));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void portFilter() throws IOException {
+        PcapWriter pcap = new PcapWriter(true, false, LINKTYPE_RAW);
+        pcap.record(1, 0, ipv4(17, udp(5000, rtp(33, 1))));
+        pcap.record(1, 10, ipv4(17, udp(RTP_PORT, rtp(33, 2))));
+        pcap.record(1, 20, ipv6(udp(5000, rtp(33, 3))));
+        String path = pcap.save();
+
+        RtpCaptureReader reader = RtpCaptureReader.open(path, RTP_PORT);
+        try {
+            byte[] buffer = new byte[1500];
+            assertRtp(reader, buffer, 2);
+            assertEquals(-1, reader.next(buffer));
+            assertEquals(2, reader.getSkippedRecords());
+        } finally {
+            reader.close();
+        }
+
+        reader = RtpCaptureReader.open(path, 0);
+        try {
+            byte[] buffer = new byte[1500];
+            assertRtp(reader, buffer, 1);
+            assertRtp(reader, buffer, 2);
+            assertRtp(reader, buffer, 3);
+            assertEquals(-1, reader.next(buffer));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void tsFile() throws IOException {
+        //10个TS包，最后还有半个
+        byte[] ts = new byte[10 * 188 + 50];
+        for (int i = 0; i < 11; i++) {
+            ts[i * 188] = 0x47;
+            ts[i * 188 + 1] = (byte) i;
+        }
+        String path = save(ts, ".ts");
+
+        RtpCaptureReader reader = RtpCaptureReader.open(path, 0);
+        try {
+            assertEquals(RtpCaptureReader.FORMAT_TS, reader.getFormat());
+            byte[] buffer = new byte[1500];
+            assertEquals(12 + 7 * 188, reader.next(buffer));
+            assertEquals((byte) 0x80, buffer[0]);
+            assertEquals(33, buffer[1]);
+            assertEquals(0, buffer[3]);
+            assertEquals(0x47, buffer[12]);
+            assertEquals(12 + 3 * 188, reader.next(buffer));
+            assertEquals(1, buffer[3]);
+            //第一个TS包是文件中的第8个，文件末尾的半个TS包丢弃
+            assertEquals(7, buffer[13]);
+            assertEquals(-1, reader.getCaptureTimeUs());
+            assertEquals(-1, reader.next(buffer));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void unknownFormat() throws IOException {
+        String path = save(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, ".bin");
+        try {
+            RtpCaptureReader.open(path, 0).close();
+            fail("unknown format opened");
+        } catch (IOException e) {
+            //期望的异常
+        }
+    }
+
+    private static void assertRtp(RtpCaptureReader reader, byte[] buffer, int seq) throws IOException {
+        assertEquals(12 + 188, reader.next(buffer));
+        assertEquals(33, buffer[1] & 0x7F);
+        assertEquals(seq, ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF));
+    }
+
+    private String save(byte[] data, String suffix) throws IOException {
+        File file = File.createTempFile("capture", suffix);
+        files.add(file);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file.getPath();
+    }
+
+    private static byte[] rtp(int pt, int seq) {
+        byte[] packet = new byte[12 + 188];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) pt;
+        packet[2] = (byte) (seq >> 8);
+        packet[3] = (byte) seq;
+        packet[12] = 0x47;
+        return packet;
+    }
+
+    //RTCP的RR，第二个字节是200，按RTP解析时PT是72
+    private static byte[] rtcp() {
+        byte[] packet = new byte[32];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) 200;
+        packet[3] = 7;
+        return packet;
+    }
+
+    private static byte[] udp(int dstPort, byte[] payload) {
+        byte[] packet = new byte[8 + payload.length];
+        writeShort(packet, 0, 40000);
+        writeShort(packet, 2, dstPort);
+        writeShort(packet, 4, packet.length);
+        System.arraycopy(payload, 0, packet, 8, payload.length);
+        return packet;
+    }
+
+    private static byte[] ipv4(int protocol, byte[] payload) {
+        byte[] packet = new byte[20 + payload.length];
+        packet[0] = 0x45;
+        writeShort(packet, 2, packet.length);
+        //Don't Fragment
+        packet[6] = 0x40;
+        packet[8] = 64;
+        packet[9] = (byte) protocol;
+        System.arraycopy(payload, 0, packet, 20, payload.length);
+        return packet;
+    }
+
+    private static byte[] ipv6(byte[] payload) {
+        byte[] packet = new byte[40 + payload.length];
+        packet[0] = 0x60;
+        writeShort(packet, 4, payload.length);
+        packet[6] = 17;
+        packet[7] = 64;
+        System.arraycopy(payload, 0, packet, 40, payload.length);
+        return packet;
+    }
+
+    private static byte[] ethernet(int etherType, boolean vlan, byte[] payload) {
+        int header = vlan ? 18 : 14;
+        byte[] frame = new byte[header + payload.length];
+        if (vlan) {
+            writeShort(frame, 12, 0x8100);
+            writeShort(frame, 14, 100);
+            writeShort(frame, 16, etherType);
+        } else {
+            writeShort(frame, 12, etherType);
+        }
+        System.arraycopy(payload, 0, frame, header, payload.length);
+        return frame;
+    }
+
+    private static byte[] sll(int protocol, byte[] payload) {
+        byte[] frame = new byte[16 + payload.length];
+        writeShort(frame, 14, protocol);
+        System.arraycopy(payload, 0, frame, 16, payload.length);
+        return frame;
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    //生成pcap文件，littleEndian模拟x86上抓的包
+    private class PcapWriter {
+        private final boolean littleEndian;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        PcapWriter(boolean littleEndian, boolean nanosecond, int linkType) {
+            this.littleEndian = littleEndian;
+            writeInt(nanosecond ? 0xA1B23C4D : 0xA1B2C3D4);
+            //版本2.4
+            writeShort(2);
+            writeShort(4);
+            writeInt(0);
+            writeInt(0);
+            writeInt(65535);
+            writeInt(linkType);
+        }
+
+        void record(int seconds, int fraction, byte[] data) {
+            writeInt(seconds);
+            writeInt(fraction);
+            writeInt(data.length);
+            writeInt(data.length);
+            out.write(data, 0, data.length);
+        }
+
+        String save() throws IOException {
+            return RtpCaptureReaderTest.this.save(out.toByteArray(), ".pcap");
+        }
+
+        private void writeInt(int value) {
+            if (littleEndian) {
+                value = Integer.reverseBytes(value);
+            }
+            out.write(value >> 24);
+            out.write(value >> 16);
+            out.write(value >> 8);
+            out.write(value);
+        }
+
+        private void writeShort(int value) {
+            if (littleEndian) {
+                out.write(value);
+                out.write(value >> 8);
+            } else {
+                out.write(value >> 8);
+                out.write(value);
+            }
+        }
+    }
+}
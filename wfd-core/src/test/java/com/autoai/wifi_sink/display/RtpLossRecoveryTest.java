@@ -0,0 +1,326 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 丢包恢复：乱序和重传、NACK的FCI编码、按时放弃和有限次数的重发、FEC恢复、超出窗口时的跳过
+ */
+public class RtpLossRecoveryTest {
+
+    private static final int SSRC = 0x12345678;
+    private static final int OTHER_SSRC = 0x2468ACE0;
+    //receive的到达时间是纳秒
+    private static final long MS = 1000000;
+    private static final int FEC_PT = 127;
+    //RtpLossRecovery中的窗口大小
+    private static final int WINDOW_SIZE = 256;
+
+    private final List<Integer> output = new ArrayList<>();
+    private final List<byte[]> outputPackets = new ArrayList<>();
+    private final List<Long> outputArrivals = new ArrayList<>();
+    private final List<byte[]> feedback = new ArrayList<>();
+    private RtpLossRecovery recovery;
+
+    @Before
+    public void setUp() {
+        recovery = new RtpLossRecovery(new RtpLossRecovery.Output() {
+            @Override
+            public void onPacket(byte[] data, int length, long arrivalNanos) {
+                byte[] packet = new byte[length];
+                System.arraycopy(data, 0, packet, 0, length);
+                outputPackets.add(packet);
+                outputArrivals.add(arrivalNanos);
+                output.add(((data[2] & 0xFF) << 8) | (data[3] & 0xFF));
+            }
+        }, new RtpLossRecovery.FeedbackSender() {
+            @Override
+            public void sendRtcp(byte[] data, int length) {
+                byte[] packet = new byte[length];
+                System.arraycopy(data, 0, packet, 0, length);
+                feedback.add(packet);
+            }
+        });
+    }
+
+    @Test
+    public void reorderedPacketIsRequestedAndRecovered() {
+        recovery.setNackEnabled(true);
+        recovery.setWindowMs(100);
+        receive(0, 0);
+        receive(2, 1);
+        assertEquals(list(0), output);
+        assertEquals(1, feedback.size());
+        assertArrayEquals(new int[]{1, 0}, nackItems(feedback.get(0)).get(0));
+
+        receive(1, 5);
+        assertEquals(list(0, 1, 2), output);
+        //缓存过的包带着自己的到达时间，不是输出的时间
+        assertEquals(5 * MS, (long) outputArrivals.get(1));
+        assertEquals(MS, (long) outputArrivals.get(2));
+        assertEquals(1, recovery.getRecoveredByNack());
+        assertEquals(0, recovery.getUnrecoveredCount());
+        assertEquals(-1, recovery.getNextTimerMs());
+    }
+
+    @Test
+    public void nackBitmask() {
+        recovery.setNackEnabled(true);
+        receive(0, 0);
+        //缺1~20：PID 1带上后面16个，PID 18带上19、20
+        receive(21, 0);
+        assertEquals(1, feedback.size());
+        byte[] rtcp = feedback.get(0);
+        //复合包以空的RR开始
+        assertEquals((byte) 0x80, rtcp[0]);
+        assertEquals((byte) 201, rtcp[1]);
+        assertEquals((byte) 0x81, rtcp[8]);
+        assertEquals((byte) 205, rtcp[9]);
+        //长度是32位字数减1：头部、两个SSRC、两个FCI
+        assertEquals(4, ((rtcp[10] & 0xFF) << 8) | (rtcp[11] & 0xFF));
+        assertEquals(SSRC, readInt(rtcp, 16));
+        List<int[]> items = nackItems(rtcp);
+        assertEquals(2, items.size());
+        assertArrayEquals(new int[]{1, 0xFFFF}, items.get(0));
+        assertArrayEquals(new int[]{18, 0x0003}, items.get(1));
+    }
+
+    @Test
+    public void missingPacketGivenUpOnTimer() {
+        recovery.setNackEnabled(true);
+        recovery.setWindowMs(100);
+        receive(0, 0);
+        receive(2, 10);
+        assertEquals(list(0), output);
+
+        //后面没有包到达，定时器到了也要放弃缺的包，输出已经收到的包
+        recovery.onTimer(109);
+        assertEquals(list(0), output);
+        recovery.onTimer(110);
+        assertEquals(list(0, 2), output);
+        assertEquals(1, recovery.getUnrecoveredCount());
+        assertEquals(-1, recovery.getNextTimerMs());
+    }
+
+    @Test
+    public void nackRetriedUntilLimit() {
+        recovery.setNackEnabled(true);
+        recovery.setWindowMs(300);
+        receive(0, 0);
+        receive(2, 0);
+        long timerMs;
+        while ((timerMs = recovery.getNextTimerMs()) >= 0) {
+            recovery.onTimer(timerMs);
+        }
+        //第一次加上两次重发，之后只等待放弃
+        assertEquals(3, recovery.getNackPacketCount());
+        for (byte[] rtcp : feedback) {
+            assertArrayEquals(new int[]{1, 0}, nackItems(rtcp).get(0));
+        }
+        assertEquals(list(0, 2), output);
+        assertEquals(1, recovery.getUnrecoveredCount());
+        assertEquals(0, recovery.getRecoveredByNack());
+    }
+
+    @Test
+    public void fecRecoversSinglePacket() {
+        checkFecRecovery(false);
+    }
+
+    @Test
+    public void fecWithHeaderExtension() {
+        checkFecRecovery(true);
+    }
+
+    private void checkFecRecovery(boolean extension) {
+        recovery.setFecPayloadType(FEC_PT);
+        byte[][] media = new byte[4][];
+        for (int i = 0; i < media.length; i++) {
+            media[i] = rtp(10 + i, 3000 * i, SSRC, payload(100 + 30 * i, i));
+        }
+        recovery.receive(media[0], media[0].length, 0);
+        recovery.receive(media[1], media[1].length, 0);
+        recovery.receive(media[3], media[3].length, 0);
+        assertEquals(list(10, 11), output);
+
+        byte[] fec = fec(media, 10, extension);
+        recovery.receive(fec, fec.length, MS);
+        assertEquals(list(10, 11, 12, 13), output);
+        assertEquals(1, recovery.getRecoveredByFec());
+        assertEquals(0, recovery.getUnrecoveredCount());
+        assertArrayEquals(media[2], outputPackets.get(2));
+    }
+
+    @Test
+    public void windowOverflowSkipsOldPackets() {
+        recovery.setNackEnabled(true);
+        recovery.setWindowMs(100);
+        receive(0, 0);
+        //超出窗口，最前面的包直接放弃
+        int seq = WINDOW_SIZE + 44;
+        receive(seq, 1);
+        assertEquals(list(0), output);
+        assertEquals(44, recovery.getUnrecoveredCount());
+
+        //放弃之后才到达的包不再输出
+        receive(10, 2);
+        assertEquals(1, recovery.getDuplicateCount());
+
+        recovery.onTimer(101);
+        assertEquals(list(0, seq), output);
+        assertEquals(seq - 1, recovery.getUnrecoveredCount());
+    }
+
+    @Test
+    public void strayForeignSsrcPacketDoesNotRestart() {
+        recovery.setNackEnabled(true);
+        recovery.setWindowMs(100);
+        receive(0, 0);
+        receive(2, 1);
+        //一个其他SSRC的包直接交给TsDemuxer确认，不影响窗口
+        byte[] stray = rtp(40000, 0, OTHER_SSRC, payload(188, 1));
+        recovery.receive(stray, stray.length, 2 * MS);
+        assertEquals(list(0, 40000), output);
+
+        receive(1, 3);
+        assertEquals(list(0, 40000, 1, 2), output);
+        assertEquals(1, feedback.size());
+        assertEquals(1, recovery.getRecoveredByNack());
+        assertEquals(0, recovery.getUnrecoveredCount());
+        assertEquals(SSRC, readInt(feedback.get(0), 16));
+    }
+
+    @Test
+    public void confirmedStreamChangeRestarts() {
+        recovery.setNackEnabled(true);
+        recovery.setWindowMs(100);
+        receive(0, 0);
+        receive(2, 1);
+        assertTrue(recovery.getNextTimerMs() >= 0);
+
+        //TsDemuxer确认换流，旧流缺的包不再等待
+        recovery.onStreamChanged(OTHER_SSRC, 500);
+        assertEquals(-1, recovery.getNextTimerMs());
+        byte[] packet = rtp(501, 0, OTHER_SSRC, payload(188, 2));
+        recovery.receive(packet, packet.length, 2 * MS);
+        packet = rtp(503, 0, OTHER_SSRC, payload(188, 3));
+        recovery.receive(packet, packet.length, 3 * MS);
+        assertEquals(list(0, 501), output);
+        //新流缺的包用新的SSRC请求
+        assertEquals(2, feedback.size());
+        assertEquals(OTHER_SSRC, readInt(feedback.get(1), 16));
+        assertArrayEquals(new int[]{502, 0}, nackItems(feedback.get(1)).get(0));
+    }
+
+    private void receive(int seq, long nowMs) {
+        byte[] packet = rtp(seq, seq * 3000, SSRC, payload(188, seq));
+        recovery.receive(packet, packet.length, nowMs * MS);
+    }
+
+    private static List<Integer> list(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    //NACK中的FCI，每一项是{PID, BLP}
+    private static List<int[]> nackItems(byte[] rtcp) {
+        List<int[]> items = new ArrayList<>();
+        for (int offset = 20; offset + 4 <= rtcp.length; offset += 4) {
+            items.add(new int[]{((rtcp[offset] & 0xFF) << 8) | (rtcp[offset + 1] & 0xFF),
+                    ((rtcp[offset + 2] & 0xFF) << 8) | (rtcp[offset + 3] & 0xFF)});
+        }
+        return items;
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (i * 7 + seed);
+        }
+        return payload;
+    }
+
+    private static byte[] rtp(int seq, int timestamp, int ssrc, byte[] payload) {
+        byte[] packet = new byte[12 + payload.length];
+        packet[0] = (byte) 0x80;
+        packet[1] = 33;
+        packet[2] = (byte) (seq >> 8);
+        packet[3] = (byte) seq;
+        writeInt(packet, 4, timestamp);
+        writeInt(packet, 8, ssrc);
+        System.arraycopy(payload, 0, packet, 12, payload.length);
+        return packet;
+    }
+
+    /**
+     * RFC 5109的FEC包，保护从snBase开始的所有包，ULP level 0保护整个负载
+     *
+     * @param extension FEC包的RTP头是否带头部扩展
+     */
+    private static byte[] fec(byte[][] media, int snBase, boolean extension) {
+        int protectionLength = 0;
+        for (byte[] packet : media) {
+            protectionLength = Math.max(protectionLength, packet.length - 12);
+        }
+        int headerLength = 12 + (extension ? 8 : 0);
+        byte[] fec = new byte[headerLength + 10 + 4 + protectionLength];
+        fec[0] = (byte) (extension ? 0x90 : 0x80);
+        fec[1] = (byte) FEC_PT;
+        fec[3] = 99;
+        writeInt(fec, 8, SSRC);
+        if (extension) {
+            //one-byte格式，一个字的扩展数据
+            fec[12] = (byte) 0xBE;
+            fec[13] = (byte) 0xDE;
+            fec[15] = 1;
+            fec[16] = 0x22;
+        }
+        int bits0 = 0;
+        int bits1 = 0;
+        int timestamp = 0;
+        int length = 0;
+        for (byte[] packet : media) {
+            bits0 ^= packet[0] & 0x3F;
+            bits1 ^= packet[1] & 0xFF;
+            timestamp ^= readInt(packet, 4);
+            length ^= packet.length - 12;
+            for (int i = 12; i < packet.length; i++) {
+                fec[headerLength + 14 + i - 12] ^= packet[i];
+            }
+        }
+        fec[headerLength] = (byte) bits0;
+        fec[headerLength + 1] = (byte) bits1;
+        fec[headerLength + 2] = (byte) (snBase >> 8);
+        fec[headerLength + 3] = (byte) snBase;
+        writeInt(fec, headerLength + 4, timestamp);
+        fec[headerLength + 8] = (byte) (length >> 8);
+        fec[headerLength + 9] = (byte) length;
+        fec[headerLength + 10] = (byte) (protectionLength >> 8);
+        fec[headerLength + 11] = (byte) protectionLength;
+        //mask的最高位是SN base
+        int mask = (0xFFFF << (16 - media.length)) & 0xFFFF;
+        fec[headerLength + 12] = (byte) (mask >> 8);
+        fec[headerLength + 13] = (byte) mask;
+        return fec;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
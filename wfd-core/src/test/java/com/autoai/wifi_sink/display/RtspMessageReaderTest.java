@@ -0,0 +1,148 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RTSP消息的分帧：一次读到半条消息、多条消息，以及夹在消息之间的交织帧
+ */
+public class RtspMessageReaderTest {
+
+    private static final String M1 = "OPTIONS * RTSP/1.0\r\n"
+            + "CSeq: 1\r\n"
+            + "Require: org.wfa.wfd1.0\r\n"
+            + "\r\n";
+
+    private static final String M3_BODY = "wfd_video_formats\r\nwfd_audio_codecs\r\n";
+    private static final String M3 = "GET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0\r\n"
+            + "CSeq: 2\r\n"
+            + "Content-Type: text/parameters\r\n"
+            + "Content-Length: " + M3_BODY.length() + "\r\n"
+            + "\r\n"
+            + M3_BODY;
+
+    private static final String M2_RESPONSE = "RTSP/1.0 200 OK\r\n"
+            + "CSeq: 1\r\n"
+            + "Public: org.wfa.wfd1.0, SETUP, TEARDOWN, PLAY, PAUSE, GET_PARAMETER, SET_PARAMETER\r\n"
+            + "\r\n";
+
+    @Test
+    public void messageSplitIntoSingleBytes() {
+        RtspMessageReader reader = new RtspMessageReader();
+        byte[] data = bytes(M1);
+        for (int i = 0; i < data.length - 1; i++) {
+            reader.feed(data, i, 1);
+            assertNull(reader.next());
+        }
+        reader.feed(data, data.length - 1, 1);
+        RtspMessage message = reader.next();
+        assertNotNull(message);
+        assertTrue(message.isRequest("OPTIONS"));
+        assertEquals("1", message.getCSeq());
+        assertEquals("org.wfa.wfd1.0", message.getHeader("require"));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void bodySplitAcrossReads() {
+        RtspMessageReader reader = new RtspMessageReader();
+        byte[] data = bytes(M3);
+        int headLength = M3.length() - M3_BODY.length();
+        reader.feed(data, 0, headLength + 5);
+        assertNull(reader.next());
+        reader.feed(data, headLength + 5, data.length - headLength - 5);
+        RtspMessage message = reader.next();
+        assertNotNull(message);
+        assertTrue(message.isRequest("GET_PARAMETER"));
+        assertEquals(M3_BODY, message.getBody());
+        assertTrue(message.hasParameter("wfd_video_formats"));
+    }
+
+    @Test
+    public void mergedMessagesInOneRead() {
+        RtspMessageReader reader = new RtspMessageReader();
+        //M2的回复和M3的请求在同一次read中，中间还有多余的空行
+        byte[] data = bytes(M2_RESPONSE + "\r\n" + M3 + M1);
+        reader.feed(data, 0, data.length);
+
+        RtspMessage response = reader.next();
+        assertNotNull(response);
+        assertTrue(response.isResponse());
+        assertEquals(200, response.getStatusCode());
+
+        RtspMessage request = reader.next();
+        assertNotNull(request);
+        assertEquals("GET_PARAMETER", request.getMethod());
+        assertEquals(M3_BODY, request.getBody());
+
+        RtspMessage options = reader.next();
+        assertNotNull(options);
+        assertEquals("OPTIONS", options.getMethod());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void interleavedFrameSplitBetweenMessages() {
+        RtspMessageReader reader = new RtspMessageReader();
+        final List<byte[]> frames = new ArrayList<>();
+        final List<Integer> channels = new ArrayList<>();
+        reader.setOnInterleavedFrameListener(new RtspMessageReader.OnInterleavedFrameListener() {
+            @Override
+            public void onInterleavedFrame(int channel, byte[] data, int offset, int length) {
+                byte[] frame = new byte[length];
+                System.arraycopy(data, offset, frame, 0, length);
+                frames.add(frame);
+                channels.add(channel);
+            }
+        });
+        byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        byte[] frame = new byte[4 + payload.length];
+        frame[0] = '$';
+        frame[1] = 0;
+        frame[2] = (byte) (payload.length >> 8);
+        frame[3] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 4, payload.length);
+
+        //帧头只收到一半
+        reader.feed(frame, 0, 2);
+        assertNull(reader.next());
+        reader.feed(frame, 2, 100);
+        assertNull(reader.next());
+        assertTrue(frames.isEmpty());
+        //帧的剩余部分和一条消息一起到达
+        byte[] m1 = bytes(M1);
+        byte[] rest = new byte[frame.length - 102 + m1.length];
+        System.arraycopy(frame, 102, rest, 0, frame.length - 102);
+        System.arraycopy(m1, 0, rest, frame.length - 102, m1.length);
+        reader.feed(rest, 0, rest.length);
+
+        RtspMessage message = reader.next();
+        assertNotNull(message);
+        assertEquals("OPTIONS", message.getMethod());
+        assertEquals(1, frames.size());
+        assertEquals(Integer.valueOf(0), channels.get(0));
+        assertArrayEquals(payload, frames.get(0));
+    }
+
+    @Test
+    public void invalidMessageIsDropped() {
+        RtspMessageReader reader = new RtspMessageReader();
+        byte[] data = bytes("HELLO WORLD\r\n\r\n" + M1);
+        reader.feed(data, 0, data.length);
+        RtspMessage message = reader.next();
+        assertNotNull(message);
+        assertEquals("OPTIONS", message.getMethod());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,366 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RTP和TS的解析：PES组帧、同步字节丢失后的重新同步、跨RTP包的TS包、payload type和SSRC的检查
+ */
+public class TsDemuxerTest {
+
+    private static final int PMT_PID = 0x100;
+    private static final int VIDEO_PID = 0x1011;
+    private static final int AUDIO_PID = 0x1100;
+    private static final int SSRC_A = 0x11111111;
+    private static final int SSRC_B = 0x22222222;
+    //TsDemuxer中确认新SSRC需要的包数
+    private static final int SSRC_SWITCH_PACKETS = 8;
+
+    private RecordingConsumer video;
+    private TsDemuxer demuxer;
+    //每个PID的连续计数器
+    private final int[] counters = new int[0x2000];
+
+    @Before
+    public void setUp() {
+        video = new RecordingConsumer();
+        List<ElementaryStreamConsumer> videoConsumers = Collections.<ElementaryStreamConsumer>singletonList(video);
+        List<ElementaryStreamConsumer> audioConsumers = Collections.<ElementaryStreamConsumer>singletonList(new RecordingConsumer());
+        demuxer = new TsDemuxer(false, videoConsumers, audioConsumers, new SourceClock(), new MediaTimeline(), new RtpTiming());
+    }
+
+    @Test
+    public void videoFramesAreAssembled() {
+        byte[] frame1 = es(true, 1000);
+        byte[] frame2 = es(false, 300);
+        feed(rtp(0, SSRC_A, 33, concat(pat(), pmt())));
+        feed(rtp(1, SSRC_A, 33, concat(videoPes(frame1, 90000))));
+        feed(rtp(2, SSRC_A, 33, concat(videoPes(frame2, 93000))));
+        feed(rtp(3, SSRC_A, 33, concat(videoPes(es(false, 100), 96000))));
+
+        assertEquals(1, video.streams.size());
+        assertEquals("video/avc", video.streams.get(0).mimeType);
+        assertEquals(2, video.frames.size());
+        assertArrayEquals(frame1, video.frames.get(0));
+        assertEquals(1000000, (long) video.pts.get(0));
+        assertTrue((video.flags.get(0) & ElementaryStreamConsumer.FLAG_KEY_FRAME) != 0);
+        assertArrayEquals(frame2, video.frames.get(1));
+        assertEquals(1000000 + 33333, (long) video.pts.get(1));
+        assertEquals(0, video.flags.get(1) & ElementaryStreamConsumer.FLAG_KEY_FRAME);
+        assertEquals(0, demuxer.getResyncCount());
+    }
+
+    @Test
+    public void resyncAfterGarbage() {
+        byte[] frame = es(true, 500);
+        byte[] garbage = new byte[50];
+        feed(rtp(0, SSRC_A, 33, concat(garbage, pat(), pmt())));
+        feed(rtp(1, SSRC_A, 33, concat(videoPes(frame, 90000))));
+        feed(rtp(2, SSRC_A, 33, concat(videoPes(es(false, 100), 93000))));
+
+        assertEquals(1, demuxer.getResyncCount());
+        assertEquals(50, demuxer.getDiscardedBytes());
+        assertEquals(1, video.frames.size());
+        assertArrayEquals(frame, video.frames.get(0));
+    }
+
+    @Test
+    public void resyncAfterCorruptSyncByte() {
+        byte[] broken = pmt();
+        //第一个TS包的同步字节坏了，整个包被跳过，从下一个包重新同步
+        broken[0] = 0x00;
+        feed(rtp(0, SSRC_A, 33, concat(broken, pat(), pmt())));
+        assertEquals(1, demuxer.getResyncCount());
+        assertEquals(188, demuxer.getDiscardedBytes());
+        assertEquals(1, video.streams.size());
+    }
+
+    @Test
+    public void trailingPaddingKeepsLastPacket() {
+        byte[] frame = es(true, 150);
+        //RTP负载末尾有不到一个TS包的填充，最后一个TS包后面不是同步字节
+        byte[] padding = new byte[100];
+        feed(rtp(0, SSRC_A, 33, concat(pat(), pmt(), videoPes(frame, 90000), padding)));
+        feed(rtp(1, SSRC_A, 33, concat(videoPes(es(false, 100), 93000), padding)));
+
+        assertEquals(1, video.frames.size());
+        assertArrayEquals(frame, video.frames.get(0));
+        //只丢掉填充
+        assertEquals(2 * padding.length, demuxer.getDiscardedBytes());
+    }
+
+    @Test
+    public void tsPacketSplitAcrossRtpPackets() {
+        byte[] frame = es(true, 150);
+        byte[] pes = concat(videoPes(frame, 90000));
+        assertEquals(188, pes.length);
+        feed(rtp(0, SSRC_A, 33, concat(pat(), pmt(), slice(pes, 0, 100))));
+        feed(rtp(1, SSRC_A, 33, concat(slice(pes, 100, 88), videoPes(es(false, 100), 93000))));
+
+        assertEquals(0, demuxer.getResyncCount());
+        assertEquals(0, demuxer.getDiscardedBytes());
+        assertEquals(1, video.frames.size());
+        assertArrayEquals(frame, video.frames.get(0));
+    }
+
+    @Test
+    public void partialTsPacketDroppedOnSequenceGap() {
+        byte[] pes = concat(videoPes(es(true, 150), 90000));
+        feed(rtp(0, SSRC_A, 33, concat(pat(), pmt(), slice(pes, 0, 100))));
+        //序列号1丢了，后半个TS包接不上
+        feed(rtp(2, SSRC_A, 33, concat(slice(pes, 100, 88), videoPes(es(false, 100), 93000))));
+
+        assertEquals(188, demuxer.getDiscardedBytes());
+        assertEquals(1, demuxer.getResyncCount());
+        assertTrue(video.frames.isEmpty());
+    }
+
+    @Test
+    public void transportErrorPacketDropped() {
+        byte[] pat = pat();
+        pat[1] |= (byte) 0x80;
+        feed(rtp(0, SSRC_A, 33, concat(pat, pmt())));
+        assertEquals(1, demuxer.getErrorPackets());
+        //没有PAT，不知道PMT的PID
+        assertTrue(video.streams.isEmpty());
+    }
+
+    @Test
+    public void nonMp2tPayloadTypeDropped() {
+        //第一个包不是MP2T，也不能把它的payload type当成这路流的
+        assertFalse(demuxer.parseRTP(rtp(0, SSRC_A, 96, concat(pat())), 12 + 188, System.nanoTime()));
+        assertTrue(demuxer.parseRTP(rtp(1, SSRC_A, 33, concat(pat())), 12 + 188, System.nanoTime()));
+        assertFalse(demuxer.parseRTP(rtp(2, SSRC_A, 127, concat(pat())), 12 + 188, System.nanoTime()));
+        assertEquals(2, demuxer.getUnexpectedPayloadTypeCount());
+    }
+
+    @Test
+    public void strayPacketDoesNotSwitchStream() {
+        feed(rtp(0, SSRC_A, 33, concat(pat(), pmt())));
+        feed(rtp(1, SSRC_A, 33, concat(videoPes(es(true, 300), 90000))));
+        //一个其他SSRC的包
+        feed(rtp(500, SSRC_B, 33, concat(pat(), pmt())));
+        feed(rtp(2, SSRC_A, 33, concat(videoPes(es(false, 300), 93000))));
+        feed(rtp(3, SSRC_A, 33, concat(videoPes(es(false, 300), 96000))));
+
+        assertEquals(0, demuxer.getStreamChangeCount());
+        assertEquals(1, demuxer.getForeignSsrcCount());
+        assertEquals(0, video.flushes);
+        assertEquals(2, video.frames.size());
+        for (int flags : video.flags) {
+            assertEquals(0, flags & ElementaryStreamConsumer.FLAG_DISCONTINUITY);
+        }
+    }
+
+    @Test
+    public void nonContinuousNewSsrcDoesNotSwitch() {
+        feed(rtp(0, SSRC_A, 33, concat(pat(), pmt())));
+        for (int i = 0; i < SSRC_SWITCH_PACKETS * 2; i++) {
+            //序列号不连续
+            feed(rtp(1000 + i * 2, SSRC_B, 33, concat(pat(), pmt())));
+        }
+        assertEquals(0, demuxer.getStreamChangeCount());
+        assertEquals(SSRC_SWITCH_PACKETS * 2, demuxer.getForeignSsrcCount());
+    }
+
+    @Test
+    public void continuousNewSsrcSwitchesOnce() {
+        feed(rtp(0, SSRC_A, 33, concat(pat(), pmt())));
+        feed(rtp(1, SSRC_A, 33, concat(videoPes(es(true, 300), 90000))));
+        feed(rtp(2, SSRC_A, 33, concat(videoPes(es(false, 300), 93000))));
+        assertEquals(1, video.frames.size());
+        final List<int[]> changes = new ArrayList<>();
+        demuxer.setOnStreamChangeListener(new TsDemuxer.OnStreamChangeListener() {
+            @Override
+            public void onStreamChanged(int ssrc, int seq) {
+                changes.add(new int[]{ssrc, seq});
+            }
+        });
+
+        //新的流，序列号和时间戳重新开始，序列号跨过回绕
+        int seq = 0xFFFC;
+        for (int i = 0; i < SSRC_SWITCH_PACKETS; i++) {
+            feed(rtp(seq, SSRC_B, 33, concat(pat(), pmt(), videoPes(es(i == 0, 100), 1000 + i * 3000))));
+            seq = (seq + 1) & 0xFFFF;
+        }
+        assertEquals(1, demuxer.getStreamChangeCount());
+        assertEquals(SSRC_SWITCH_PACKETS - 1, demuxer.getForeignSsrcCount());
+        assertEquals(1, video.flushes);
+        //确认时的包是新流的最后一个
+        assertEquals(1, changes.size());
+        assertArrayEquals(new int[]{SSRC_B, (seq - 1) & 0xFFFF}, changes.get(0));
+
+        //切换之后晚到的旧包直接丢弃，不会切回去
+        feed(rtp(3, SSRC_A, 33, concat(videoPes(es(false, 300), 96000))));
+        assertEquals(1, demuxer.getStreamChangeCount());
+        assertEquals(SSRC_SWITCH_PACKETS, demuxer.getForeignSsrcCount());
+        assertEquals(1, video.flushes);
+
+        feed(rtp(seq, SSRC_B, 33, concat(videoPes(es(false, 100), 1000 + 9 * 3000))));
+        assertEquals(2, video.frames.size());
+        assertTrue((video.flags.get(1) & ElementaryStreamConsumer.FLAG_DISCONTINUITY) != 0);
+    }
+
+    private void feed(byte[] packet) {
+        demuxer.feed(packet, packet.length, System.nanoTime());
+    }
+
+    /**
+     * ---------------------------------------------------------------------------------------------
+     * ------------------------------------------生成测试数据-----------------------------------------
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private static byte[] rtp(int seq, int ssrc, int pt, byte[] payload) {
+        byte[] packet = new byte[12 + payload.length];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) pt;
+        packet[2] = (byte) (seq >> 8);
+        packet[3] = (byte) seq;
+        packet[8] = (byte) (ssrc >> 24);
+        packet[9] = (byte) (ssrc >> 16);
+        packet[10] = (byte) (ssrc >> 8);
+        packet[11] = (byte) ssrc;
+        System.arraycopy(payload, 0, packet, 12, payload.length);
+        return packet;
+    }
+
+    private byte[] pat() {
+        byte[] section = {
+                0x00, (byte) 0xB0, 13, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                0x00, 0x01, (byte) (0xE0 | (PMT_PID >> 8)), (byte) PMT_PID,
+                0, 0, 0, 0};
+        return psi(0, section);
+    }
+
+    private byte[] pmt() {
+        byte[] section = {
+                0x02, (byte) 0xB0, 9 + 10 + 4, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00,
+                0x1B, (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00,
+                0x0F, (byte) (0xE0 | (AUDIO_PID >> 8)), (byte) AUDIO_PID, (byte) 0xF0, 0x00,
+                0, 0, 0, 0};
+        return psi(PMT_PID, section);
+    }
+
+    //pointer_field为0，后面是表，剩下的填0xFF
+    private byte[] psi(int pid, byte[] section) {
+        byte[] payload = new byte[184];
+        Arrays.fill(payload, (byte) 0xFF);
+        payload[0] = 0;
+        System.arraycopy(section, 0, payload, 1, section.length);
+        return ts(pid, true, payload, 0, payload.length);
+    }
+
+    /**
+     * 一帧视频的PES，带PTS，按184字节切成TS包，最后一个包用适配域填充
+     */
+    private byte[][] videoPes(byte[] es, long pts) {
+        byte[] header = {
+                0x00, 0x00, 0x01, (byte) 0xE0,
+                (byte) ((3 + 5 + es.length) >> 8), (byte) (3 + 5 + es.length),
+                (byte) 0x80, (byte) 0x80, 0x05,
+                (byte) (0x21 | ((pts >> 29) & 0x0E)), (byte) (pts >> 22),
+                (byte) (((pts >> 14) & 0xFE) | 1), (byte) (pts >> 7), (byte) (((pts << 1) & 0xFE) | 1)};
+        byte[] pes = concat(header, es);
+        List<byte[]> packets = new ArrayList<>();
+        for (int offset = 0; offset < pes.length; offset += 184) {
+            int count = Math.min(184, pes.length - offset);
+            //适配域长度为0时TsDemuxer按没有适配域处理，避开这种长度
+            assertTrue(count != 183);
+            packets.add(ts(VIDEO_PID, offset == 0, pes, offset, count));
+        }
+        return packets.toArray(new byte[packets.size()][]);
+    }
+
+    private byte[] ts(int pid, boolean pusi, byte[] payload, int offset, int count) {
+        byte[] packet = new byte[188];
+        packet[0] = 0x47;
+        packet[1] = (byte) ((pusi ? 0x40 : 0) | (pid >> 8));
+        packet[2] = (byte) pid;
+        int counter = counters[pid];
+        counters[pid] = (counter + 1) & 0x0F;
+        int start = 4;
+        if (count < 184) {
+            packet[3] = (byte) (0x30 | counter);
+            int adaptationLength = 183 - count;
+            packet[4] = (byte) adaptationLength;
+            packet[5] = 0;
+            for (int i = 6; i < 5 + adaptationLength; i++) {
+                packet[i] = (byte) 0xFF;
+            }
+            start = 5 + adaptationLength;
+        } else {
+            packet[3] = (byte) (0x10 | counter);
+        }
+        System.arraycopy(payload, offset, packet, start, count);
+        return packet;
+    }
+
+    //H.264的一帧，IDR或者普通slice，后面的数据中没有0x47和起始码
+    private static byte[] es(boolean idr, int length) {
+        byte[] es = new byte[length];
+        es[3] = 1;
+        es[4] = (byte) (idr ? 0x65 : 0x41);
+        for (int i = 5; i < length; i++) {
+            es[i] = (byte) (i % 31 + 1);
+        }
+        return es;
+    }
+
+    private static byte[] slice(byte[] data, int offset, int count) {
+        byte[] result = new byte[count];
+        System.arraycopy(data, offset, result, 0, count);
+        return result;
+    }
+
+    private static byte[] concat(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            if (part instanceof byte[][]) {
+                for (byte[] packet : (byte[][]) part) {
+                    out.write(packet, 0, packet.length);
+                }
+            } else {
+                byte[] bytes = (byte[]) part;
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static class RecordingConsumer implements ElementaryStreamConsumer {
+        final List<StreamInfo> streams = new ArrayList<>();
+        final List<byte[]> frames = new ArrayList<>();
+        final List<Long> pts = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+        int flushes = 0;
+
+        @Override
+        public void onStreamInfo(StreamInfo stream) {
+            streams.add(stream);
+        }
+
+        @Override
+        public void onAccessUnit(StreamInfo stream, byte[] data, int offset, int length, long ptsUs, long dtsUs, int flags) {
+            byte[] frame = new byte[length];
+            System.arraycopy(data, offset, frame, 0, length);
+            frames.add(frame);
+            pts.add(ptsUs);
+            this.flags.add(flags);
+        }
+
+        @Override
+        public void onFlush(StreamInfo stream) {
+            flushes++;
+        }
+    }
+}
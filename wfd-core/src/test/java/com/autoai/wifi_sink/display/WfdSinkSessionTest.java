@@ -0,0 +1,332 @@
+package com.autoai.wifi_sink.display;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 会话的状态机：M1~M8的顺序、M3和M6中的传输方式、TCP被拒绝后改用UDP、协商超时、Source端触发的TEARDOWN
+ * 连接和定时任务都是假的，时间手动推进
+ */
+public class WfdSinkSessionTest {
+
+    private static final String URL = "rtsp://192.168.49.1/wfd1.0/streamid=0";
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final FakeConnection connection = new FakeConnection();
+    private final List<Integer> states = new ArrayList<>();
+    private final List<String> sessionConfigs = new ArrayList<>();
+    private boolean quit = false;
+    private WfdSinkSession session;
+
+    @Before
+    public void setUp() {
+        session = new WfdSinkSession(scheduler, null, "test", new WfdSinkSession.Callback() {
+            @Override
+            public void onPrepare(RTPReceiver receiver) {
+            }
+
+            @Override
+            public void appendCapabilities(RtspMessage request, StringBuilder body) {
+                body.append("wfd_audio_codecs: AAC 00000001 00\r\n");
+            }
+
+            @Override
+            public boolean onSessionConfig(RtspMessage request, RTPReceiver receiver) {
+                sessionConfigs.add(request.getParameter("wfd_audio_codecs"));
+                return true;
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+                states.add(state);
+            }
+
+            @Override
+            public void onQuit() {
+                quit = true;
+            }
+        }) {
+            @Override
+            Connection createConnection() {
+                return connection;
+            }
+        };
+        session.setHandshakeTimeout(1000);
+    }
+
+    @After
+    public void tearDown() {
+        session.close(WfdSinkSession.STATE_DISCONNECTED);
+        scheduler.runDue();
+    }
+
+    @Test
+    public void fullHandshake() throws Exception {
+        connect();
+        assertEquals(list(WfdSinkSession.STATE_CONNECTING), states);
+        assertEquals(1, connection.opened);
+
+        receive("OPTIONS * RTSP/1.0\r\nCSeq: 1\r\nRequire: org.wfa.wfd1.0\r\n\r\n");
+        assertEquals(2, connection.sent.size());
+        assertTrue(connection.sent.get(0).startsWith("RTSP/1.0 200 OK"));
+        assertTrue(connection.sent.get(0).contains("Public: org.wfa.wfd1.0, GET_PARAMETER, SET_PARAMETER"));
+        String m2 = connection.sent.get(1);
+        assertTrue(m2.startsWith("OPTIONS * RTSP/1.0"));
+        receive("RTSP/1.0 200 OK\r\nCSeq: " + cseq(m2) + "\r\n\r\n");
+
+        receiveM3();
+        String m3 = last();
+        int rtpPort = session.getRtpReceiver().getLocalRTPPort();
+        assertTrue(m3.contains("wfd_audio_codecs: AAC 00000001 00\r\n"));
+        assertTrue(m3.contains("wfd_client_rtp_ports: RTP/AVP/UDP;unicast " + rtpPort + " 0 mode=play\r\n"));
+
+        receiveM4();
+        assertEquals(list("AAC 00000001 00"), sessionConfigs);
+        assertTrue(last().startsWith("RTSP/1.0 200 OK"));
+
+        receiveSetup();
+        String m6 = last();
+        assertTrue(m6.startsWith("SETUP " + URL + " RTSP/1.0"));
+        assertTrue(m6.contains("Transport: RTP/AVP/UDP;unicast;client_port=" + rtpPort + "-" + (rtpPort + 1)));
+        receive("RTSP/1.0 200 OK\r\nCSeq: " + cseq(m6) + "\r\nSession: 6B8B4567;timeout=30\r\n"
+                + "Transport: RTP/AVP/UDP;unicast;client_port=" + rtpPort + ";server_port=5000-5001\r\n\r\n");
+
+        String m7 = last();
+        assertTrue(m7.startsWith("PLAY " + URL + " RTSP/1.0"));
+        assertTrue(m7.contains("Session: 6B8B4567\r\n"));
+        assertFalse(session.isPlaying());
+        receive("RTSP/1.0 200 OK\r\nCSeq: " + cseq(m7) + "\r\n\r\n");
+        assertTrue(session.isPlaying());
+        assertFalse(session.isRtpOverTcp());
+        assertEquals(list(WfdSinkSession.STATE_CONNECTING, WfdSinkSession.STATE_CONNECT_SUCCESS), states);
+
+        //投屏后不再有协商超时
+        scheduler.advance(5000);
+        assertEquals(WfdSinkSession.STATE_CONNECT_SUCCESS, session.getState());
+
+        //M16
+        int sent = connection.sent.size();
+        receive("GET_PARAMETER " + URL + " RTSP/1.0\r\nCSeq: 5\r\nSession: 6B8B4567\r\n\r\n");
+        assertEquals(sent + 1, connection.sent.size());
+        assertTrue(last().contains("CSeq: 5\r\n"));
+    }
+
+    @Test
+    public void handshakeTimeoutFails() throws Exception {
+        connect();
+        receive("OPTIONS * RTSP/1.0\r\nCSeq: 1\r\n\r\n");
+        //Source端一直不发M3
+        scheduler.advance(999);
+        assertEquals(WfdSinkSession.STATE_CONNECTING, session.getState());
+        scheduler.advance(1);
+        assertEquals(list(WfdSinkSession.STATE_CONNECTING, WfdSinkSession.STATE_CONNECT_FAILED,
+                WfdSinkSession.STATE_IDLE), states);
+        assertEquals(1, connection.closed);
+        assertNull(session.getRtpReceiver());
+    }
+
+    @Test
+    public void tcpRefusedFallsBackToUdp() throws Exception {
+        session.setRtpTransport(WfdSinkSession.RTP_TRANSPORT_TCP);
+        connect();
+        receive("OPTIONS * RTSP/1.0\r\nCSeq: 1\r\n\r\n");
+        receiveM3();
+        assertTrue(last().contains("wfd_client_rtp_ports: RTP/AVP/TCP;unicast "));
+        receiveM4();
+        receiveSetup();
+        String m6 = last();
+        assertTrue(m6.contains("Transport: RTP/AVP/TCP;unicast;interleaved=0-1"));
+
+        receive("RTSP/1.0 461 Unsupported Transport\r\nCSeq: " + cseq(m6) + "\r\n\r\n");
+        String retry = last();
+        assertTrue(retry.startsWith("SETUP " + URL));
+        assertTrue(retry.contains("Transport: RTP/AVP/UDP;unicast;client_port="));
+        receive("RTSP/1.0 200 OK\r\nCSeq: " + cseq(retry) + "\r\nSession: 1\r\n\r\n");
+        receive("RTSP/1.0 200 OK\r\nCSeq: " + cseq(last()) + "\r\n\r\n");
+        assertTrue(session.isPlaying());
+        assertFalse(session.isRtpOverTcp());
+    }
+
+    @Test
+    public void teardownTriggerSendsM8() throws Exception {
+        play();
+        receiveWithBody("SET_PARAMETER " + URL + " RTSP/1.0\r\nCSeq: 6\r\n", "wfd_trigger_method: TEARDOWN\r\n");
+        String m8 = last();
+        assertTrue(m8.startsWith("TEARDOWN " + URL + " RTSP/1.0"));
+        assertTrue(m8.contains("Session: 1\r\n"));
+        assertEquals(WfdSinkSession.STATE_DISCONNECTED,
+                session.handleMessage(parse("RTSP/1.0 200 OK\r\nCSeq: " + cseq(m8) + "\r\n\r\n")));
+    }
+
+    @Test
+    public void quitAfterTeardownTimeout() throws Exception {
+        play();
+        session.quit();
+        scheduler.runDue();
+        assertTrue(last().startsWith("TEARDOWN "));
+        assertFalse(quit);
+        //Source端没有回复M8
+        scheduler.advance(2000);
+        assertTrue(quit);
+        assertEquals(WfdSinkSession.STATE_IDLE, session.getState());
+        assertEquals(1, connection.closed);
+    }
+
+    @Test
+    public void parseTransportAndSession() {
+        assertEquals(5001, WfdSinkSession.parseServerRtcpPort("RTP/AVP/UDP;unicast;client_port=19000-19001;server_port=5000-5001"));
+        assertEquals(5001, WfdSinkSession.parseServerRtcpPort("RTP/AVP/UDP;unicast;server_port=5000"));
+        assertEquals(0, WfdSinkSession.parseServerRtcpPort("RTP/AVP/UDP;unicast;client_port=19000"));
+        assertEquals(30000, WfdSinkSession.parseSessionTimeout("6B8B4567;timeout=30"));
+        assertEquals(60000, WfdSinkSession.parseSessionTimeout("6B8B4567"));
+    }
+
+    private void connect() {
+        session.connect("127.0.0.1", 7236, true);
+        scheduler.runDue();
+    }
+
+    private void play() throws Exception {
+        connect();
+        receive("OPTIONS * RTSP/1.0\r\nCSeq: 1\r\n\r\n");
+        receiveM3();
+        receiveM4();
+        receiveSetup();
+        receive("RTSP/1.0 200 OK\r\nCSeq: " + cseq(last()) + "\r\nSession: 1\r\n\r\n");
+        receive("RTSP/1.0 200 OK\r\nCSeq: " + cseq(last()) + "\r\n\r\n");
+        assertTrue(session.isPlaying());
+    }
+
+    private void receiveM3() throws Exception {
+        receiveWithBody("GET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0\r\nCSeq: 2\r\n",
+                "wfd_audio_codecs\r\nwfd_client_rtp_ports\r\n");
+    }
+
+    private void receiveM4() throws Exception {
+        receiveWithBody("SET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0\r\nCSeq: 3\r\n",
+                "wfd_audio_codecs: AAC 00000001 00\r\nwfd_presentation_URL: " + URL + " none\r\n");
+    }
+
+    private void receiveSetup() throws Exception {
+        receiveWithBody("SET_PARAMETER rtsp://localhost/wfd1.0 RTSP/1.0\r\nCSeq: 4\r\n",
+                "wfd_trigger_method: SETUP\r\n");
+    }
+
+    private void receiveWithBody(String head, String body) throws Exception {
+        receive(head + "Content-Type: text/parameters\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+    }
+
+    private void receive(String text) throws Exception {
+        assertEquals(WfdSinkSession.KEEP_CONNECTION, session.handleMessage(parse(text)));
+    }
+
+    private static RtspMessage parse(String text) {
+        RtspMessageReader reader = new RtspMessageReader();
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        reader.feed(data, 0, data.length);
+        RtspMessage message = reader.next();
+        assertNotNull(message);
+        return message;
+    }
+
+    private String last() {
+        return connection.sent.get(connection.sent.size() - 1);
+    }
+
+    private static String cseq(String message) {
+        int start = message.indexOf("CSeq: ") + "CSeq: ".length();
+        return message.substring(start, message.indexOf("\r\n", start));
+    }
+
+    @SafeVarargs
+    private static <T> List<T> list(T... values) {
+        List<T> list = new ArrayList<>();
+        for (T value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    //记录发出去的消息
+    private static class FakeConnection implements WfdSinkSession.Connection {
+        final List<String> sent = new ArrayList<>();
+        int opened = 0;
+        int closed = 0;
+
+        @Override
+        public void open(String address, int port) {
+            opened++;
+        }
+
+        @Override
+        public void send(RtspMessageWriter writer) {
+            sent.add(writer.toString());
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    //手动推进时间，任务在调用runDue或者advance的线程中执行
+    private static class ManualScheduler implements WfdScheduler {
+        private final List<Runnable> runnables = new ArrayList<>();
+        private final List<Long> dueTimes = new ArrayList<>();
+        private long nowMs = 0;
+
+        @Override
+        public synchronized void post(Runnable runnable) {
+            postDelayed(runnable, 0);
+        }
+
+        @Override
+        public synchronized void postDelayed(Runnable runnable, long delayMs) {
+            runnables.add(runnable);
+            dueTimes.add(nowMs + delayMs);
+        }
+
+        @Override
+        public synchronized void removeCallbacks(Runnable runnable) {
+            for (int i = runnables.size() - 1; i >= 0; i--) {
+                if (runnables.get(i) == runnable) {
+                    runnables.remove(i);
+                    dueTimes.remove(i);
+                }
+            }
+        }
+
+        void advance(long ms) {
+            synchronized (this) {
+                nowMs += ms;
+            }
+            runDue();
+        }
+
+        void runDue() {
+            while (true) {
+                Runnable next = null;
+                synchronized (this) {
+                    for (int i = 0; i < runnables.size(); i++) {
+                        if (dueTimes.get(i) <= nowMs) {
+                            next = runnables.remove(i);
+                            dueTimes.remove(i);
+                            break;
+                        }
+                    }
+                }
+                if (next == null) {
+                    return;
+                }
+                next.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.autoai.wifi_sink.display;
+
+/**
+ * 只统计不解码的ES接收者，在TS解析线程中回调
+ */
+class CountingConsumer implements ElementaryStreamConsumer {
+
+    private volatile long accessUnits = 0;
+    private volatile long keyFrames = 0;
+    private volatile long discontinuities = 0;
+    private volatile long bytes = 0;
+    private volatile long flushes = 0;
+    private volatile String mimeType;
+
+    @Override
+    public void onStreamInfo(StreamInfo stream) {
+        mimeType = stream.mimeType;
+    }
+
+    @Override
+    public void onAccessUnit(StreamInfo stream, byte[] data, int offset, int length, long ptsUs, long dtsUs, int flags) {
+        accessUnits++;
+        bytes += length;
+        if ((flags & FLAG_KEY_FRAME) != 0) {
+            keyFrames++;
+        }
+        if ((flags & FLAG_DISCONTINUITY) != 0) {
+            discontinuities++;
+        }
+    }
+
+    @Override
+    public void onFlush(StreamInfo stream) {
+        flushes++;
+    }
+
+    long getAccessUnits() {
+        return accessUnits;
+    }
+
+    long getKeyFrames() {
+        return keyFrames;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return mimeType + ": frames=" + accessUnits + ", key=" + keyFrames + ", " + bytes / 1024 + "KB"
+                + ", discontinuities=" + discontinuities + ", flushes=" + flushes;
+    }
+}
@@ -0,0 +1,343 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * 在本机回环地址上模拟WFD的Source端（手机），用来在PC上做端到端的压力测试
+ * <p>
+ * 按照协议顺序发送M1、M3、M4、M5（SETUP），回复Sink端的M2、M6、M7，PLAY之后开始通过{@link RtpStreamer}
+ * 发送TS流，并定时发送M16心跳；{@link #stop()}时触发Sink端TEARDOWN，回复M8后断开。只支持RTP over UDP
+ */
+
+class LoopbackSource {
+
+    private final String TAG = LoopbackSource.class.getSimpleName();
+
+    private static final String PRESENTATION_URL = "rtsp://127.0.0.1/wfd1.0/streamid=0";
+    private static final String SESSION_ID = "1804289383";
+    //M6的回复中告诉Sink端的超时时间，秒
+    private static final int SESSION_TIMEOUT_S = 30;
+
+    private final RtpStreamer streamer;
+    private final long keepAliveIntervalMs;
+    private final RtspMessageWriter writer = new RtspMessageWriter("loopback");
+    private final RtspMessageReader reader = new RtspMessageReader();
+    //Source端每个请求的CSeq和完成时间，M2、M6、M7是Sink端的请求，收到时记录
+    private final WfdHandshake handshake = new WfdHandshake();
+    //心跳等定时任务
+    private final WfdEventLoop eventLoop;
+
+    private ServerSocket serverSocket;
+    private volatile Socket socket;
+    private volatile OutputStream out;
+    private volatile int sinkRtpPort = 0;
+    private volatile boolean playing = false;
+    private volatile boolean closed = false;
+    private volatile int keepAliveCount = 0;
+
+    /**
+     * @param keepAliveIntervalMs M16心跳的间隔
+     */
+    LoopbackSource(RtpStreamer streamer, long keepAliveIntervalMs) throws IOException {
+        this.streamer = streamer;
+        this.keepAliveIntervalMs = keepAliveIntervalMs;
+        eventLoop = new WfdEventLoop("loopbackSource");
+    }
+
+    /**
+     * 开始监听，Sink端连接后发送M1
+     *
+     * @return RTSP端口
+     */
+    int start() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        eventLoop.start();
+        new Thread(acceptRunnable, "loopbackSourceRtsp").start();
+        WfdLog.i(TAG, "listen on " + serverSocket.getLocalSocketAddress());
+        return serverSocket.getLocalPort();
+    }
+
+    //PLAY之后才为true，TEARDOWN之后为false
+    boolean isPlaying() {
+        return playing;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    WfdHandshake getHandshake() {
+        return handshake;
+    }
+
+    int getKeepAliveCount() {
+        return keepAliveCount;
+    }
+
+    RtpStreamer getStreamer() {
+        return streamer;
+    }
+
+    //触发Sink端发送TEARDOWN，连接还没有建立时直接关闭
+    void stop() {
+        if (playing) {
+            try {
+                int cseq = handshake.newRequest(WfdHandshake.M5);
+                synchronized (writer) {
+                    writer.startRequest("SET_PARAMETER", PRESENTATION_URL, cseq)
+                            .endWithBody("wfd_trigger_method: TEARDOWN\r\n");
+                    send("triggerTeardown");
+                }
+                return;
+            } catch (IOException e) {
+                WfdLog.e(TAG, "send teardown trigger failed: " + e.getMessage());
+            }
+        }
+        close();
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        playing = false;
+        streamer.stop();
+        eventLoop.removeCallbacks(keepAliveRunnable);
+        eventLoop.quit();
+        closeQuietly(socket);
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final Runnable acceptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                out = socket.getOutputStream();
+                handshake.start();
+                requestM1();
+                InputStream in = socket.getInputStream();
+                byte[] buffer = new byte[4096];
+                int count;
+                while (!closed && (count = in.read(buffer)) > 0) {
+                    reader.feed(buffer, 0, count);
+                    RtspMessage message;
+                    while ((message = reader.next()) != null) {
+                        if (!handleMessage(message)) {
+                            close();
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    WfdLog.e(TAG, "rtsp connection error: " + e.getMessage());
+                }
+            }
+            close();
+        }
+    };
+
+    /**
+     * @return false表示会话结束
+     */
+    private boolean handleMessage(RtspMessage message) throws IOException {
+        if (message.isResponse()) {
+            return handleResponse(message);
+        }
+        String cseq = message.getCSeq();
+        if (message.isRequest("OPTIONS")) {
+            //M2
+            responseOk(cseq, "Public", "org.wfa.wfd1.0, SETUP, TEARDOWN, PLAY, PAUSE, GET_PARAMETER, SET_PARAMETER");
+            handshake.mark(WfdHandshake.M2);
+            return true;
+        }
+        if (message.isRequest("SETUP")) {
+            //M6，只支持UDP
+            String transport = message.getHeader("Transport");
+            int rtpPort = streamer.getRtpPort();
+            synchronized (writer) {
+                writer.startResponse(cseq, true)
+                        .header("Session", SESSION_ID + ";timeout=" + SESSION_TIMEOUT_S)
+                        .header("Transport", transport + ";server_port=" + rtpPort + "-" + (rtpPort + 1))
+                        .end();
+                send("responseM6");
+            }
+            handshake.mark(WfdHandshake.M6);
+            return true;
+        }
+        if (message.isRequest("PLAY")) {
+            //M7
+            responseOk(cseq, "Session", SESSION_ID);
+            handshake.mark(WfdHandshake.M7);
+            playing = true;
+            streamer.start(socket.getInetAddress(), sinkRtpPort);
+            eventLoop.postDelayed(keepAliveRunnable, keepAliveIntervalMs);
+            WfdLog.i(TAG, "handshake finished: " + handshake.getTimingSummary());
+            return true;
+        }
+        if (message.isRequest("TEARDOWN")) {
+            //M8
+            responseOk(cseq, "Session", SESSION_ID);
+            handshake.mark(WfdHandshake.M8);
+            return false;
+        }
+        WfdLog.w(TAG, "unhandled rtsp request: " + message.getMethod());
+        return true;
+    }
+
+    private boolean handleResponse(RtspMessage message) throws IOException {
+        int m = handshake.onResponse(message.getCSeq());
+        if (message.getStatusCode() != 200) {
+            WfdLog.e(TAG, "M" + m + " failed, status: " + message.getStatusCode());
+            return false;
+        }
+        switch (m) {
+            case WfdHandshake.M1:
+                requestM3();
+                break;
+            case WfdHandshake.M3:
+                sinkRtpPort = parseClientRtpPort(message.getParameter("wfd_client_rtp_ports"));
+                if (sinkRtpPort <= 0) {
+                    WfdLog.e(TAG, "no client rtp port in M3 response");
+                    return false;
+                }
+                requestM4();
+                break;
+            case WfdHandshake.M4:
+                requestM5();
+                break;
+            case WfdHandshake.M16:
+                keepAliveCount++;
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * wfd_client_rtp_ports: RTP/AVP/UDP;unicast 19000 0 mode=play
+     *
+     * @return 解析失败时返回0
+     */
+    private static int parseClientRtpPort(String value) {
+        if (value == null) {
+            return 0;
+        }
+        String[] values = value.trim().split("\\s+");
+        if (values.length < 2) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(values[1]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void requestM1() throws IOException {
+        int cseq = handshake.newRequest(WfdHandshake.M1);
+        synchronized (writer) {
+            writer.startRequest("OPTIONS", "*", cseq)
+                    .header("Require", "org.wfa.wfd1.0")
+                    .end();
+            send("requestM1");
+        }
+    }
+
+    private void requestM3() throws IOException {
+        int cseq = handshake.newRequest(WfdHandshake.M3);
+        synchronized (writer) {
+            writer.startRequest("GET_PARAMETER", "rtsp://localhost/wfd1.0", cseq)
+                    .endWithBody("wfd_video_formats\r\nwfd_audio_codecs\r\nwfd_client_rtp_ports\r\n");
+            send("requestM3");
+        }
+    }
+
+    //1280x720p30（CEA 0x20）的H.264，AAC 48kHz双声道
+    private void requestM4() throws IOException {
+        int cseq = handshake.newRequest(WfdHandshake.M4);
+        String body = "wfd_video_formats: 00 00 02 02 00000020 00000000 00000000 00 0000 0000 00 none none\r\n"
+                + "wfd_audio_codecs: AAC 00000001 00\r\n"
+                + "wfd_presentation_URL: " + PRESENTATION_URL + " none\r\n"
+                + "wfd_client_rtp_ports: RTP/AVP/UDP;unicast " + sinkRtpPort + " 0 mode=play\r\n";
+        synchronized (writer) {
+            writer.startRequest("SET_PARAMETER", "rtsp://localhost/wfd1.0", cseq)
+                    .endWithBody(body);
+            send("requestM4");
+        }
+    }
+
+    private void requestM5() throws IOException {
+        int cseq = handshake.newRequest(WfdHandshake.M5);
+        synchronized (writer) {
+            writer.startRequest("SET_PARAMETER", "rtsp://localhost/wfd1.0", cseq)
+                    .endWithBody("wfd_trigger_method: SETUP\r\n");
+            send("requestM5");
+        }
+    }
+
+    private final Runnable keepAliveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!playing) {
+                return;
+            }
+            int cseq = handshake.newRequest(WfdHandshake.M16);
+            try {
+                synchronized (writer) {
+                    writer.startRequest("GET_PARAMETER", "rtsp://localhost/wfd1.0", cseq)
+                            .end();
+                    send("requestM16");
+                }
+            } catch (IOException e) {
+                WfdLog.e(TAG, "send keepalive failed: " + e.getMessage());
+                return;
+            }
+            eventLoop.postDelayed(this, keepAliveIntervalMs);
+        }
+    };
+
+    private void responseOk(String cseq, String name, String value) throws IOException {
+        synchronized (writer) {
+            writer.startResponse(cseq, true)
+                    .header(name, value)
+                    .end();
+            send("response " + cseq);
+        }
+    }
+
+    //调用前要持有writer的锁
+    private void send(String what) throws IOException {
+        OutputStream stream = out;
+        if (stream == null) {
+            throw new IOException("not connected");
+        }
+        writer.writeTo(stream);
+        WfdLog.d(TAG, what);
+    }
+}
@@ -0,0 +1,196 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 端到端的回环压力测试：本机启动一个模拟的Source端和一个Sink端，完成RTSP协商后按设定的码率发送TS流，
+ * 结束时打印Sink端的吞吐量、丢包恢复、TS解析的统计和两端的握手耗时
+ * <p>
+ * Sink端就是app中使用的{@link WfdSinkSession}，只是解析出来的音视频帧交给{@link CountingConsumer}计数，不解码
+ * <p>
+ * 参数都是--name=value的形式：
+ * <pre>
+ * --ts=file.ts       要发送的TS文件，循环发送，不设置时使用生成的720p30 H.264+AAC流
+ * --bitrate=8000000  发送码率，bit/s
+ * --duration=10      发送时长，秒
+ * --loss=0.01        丢包率
+ * --reorder=0.01     乱序率
+ * --duplicate=0.001  重复率
+ * --jitter=5         最大抖动，毫秒
+ * --nack=true        Sink端是否通过NACK请求重传
+ * --window=100       丢包恢复最多等待的时间，毫秒
+ * --keepalive=2000   M16心跳的间隔，毫秒
+ * --seed=1           损伤模拟的随机数种子
+ * --eventloop=false  Sink端是否使用事件循环模式
+ * </pre>
+ */
+
+public class LoopbackTest {
+
+    private static final String TAG = LoopbackTest.class.getSimpleName();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        final String tsFile = options.get("ts");
+        final int bitrate = Integer.parseInt(option(options, "bitrate", "8000000"));
+        long durationMs = Long.parseLong(option(options, "duration", "10")) * 1000;
+        final long seed = Long.parseLong(option(options, "seed", "1"));
+        NetworkImpairment impairment = new NetworkImpairment(
+                Double.parseDouble(option(options, "loss", "0")),
+                Double.parseDouble(option(options, "reorder", "0")),
+                Double.parseDouble(option(options, "duplicate", "0")),
+                Long.parseLong(option(options, "jitter", "0")),
+                seed);
+        boolean nackEnabled = Boolean.parseBoolean(option(options, "nack", "true"));
+        long windowMs = Long.parseLong(option(options, "window", "100"));
+        long keepAliveMs = Long.parseLong(option(options, "keepalive", "2000"));
+        boolean eventLoopMode = Boolean.parseBoolean(option(options, "eventloop", "false"));
+
+        RtpStreamer.TsSource tsSource = new RtpStreamer.TsSource() {
+            @Override
+            public InputStream open() throws IOException {
+                if (tsFile != null) {
+                    return new BufferedInputStream(new FileInputStream(new File(tsFile)), 64 * 1024);
+                }
+                //生成的流码率比发送码率略低，留出音频和TS包头的空间
+                return new SyntheticTsInputStream(bitrate * 9 / 10, 30, 30, seed);
+            }
+        };
+        RtpStreamer streamer = new RtpStreamer(tsSource, bitrate, impairment);
+        streamer.bind();
+        LoopbackSource source = new LoopbackSource(streamer, keepAliveMs);
+        int port = source.start();
+        //线程模式下的会话线程，事件循环模式下会话自己创建循环
+        WfdEventLoop sinkThread = new WfdEventLoop("loopbackSink");
+        sinkThread.start();
+        CountingConsumer videoConsumer = new CountingConsumer();
+        CountingConsumer audioConsumer = new CountingConsumer();
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        WfdSinkSession sink = new WfdSinkSession(sinkThread, null, "loopback", new WfdSinkSession.Callback() {
+            @Override
+            public void onPrepare(RTPReceiver receiver) {
+            }
+
+            @Override
+            public void appendCapabilities(RtspMessage request, StringBuilder body) {
+                body.append("wfd_video_formats: 30 00 02 02 00008c60 00000000 00000000 00 0000 0000 00 none none\r\n");
+                body.append("wfd_audio_codecs: AAC 00000001 00\r\n");
+            }
+
+            @Override
+            public boolean onSessionConfig(RtspMessage request, RTPReceiver receiver) {
+                return false;
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+                WfdLog.i(TAG, "sink state: " + state);
+                if (state == WfdSinkSession.STATE_IDLE) {
+                    closed.set(true);
+                }
+            }
+
+            @Override
+            public void onQuit() {
+            }
+        });
+        sink.addElementaryStreamConsumer(ElementaryStreamConsumer.StreamInfo.TRACK_VIDEO, videoConsumer);
+        sink.addElementaryStreamConsumer(ElementaryStreamConsumer.StreamInfo.TRACK_AUDIO, audioConsumer);
+        sink.setLossRecovery(nackEnabled, -1, windowMs);
+        sink.setEventLoopMode(eventLoopMode);
+        sink.connect("127.0.0.1", port, false);
+
+        if (!waitFor(sink, closed, true, 10000)) {
+            WfdLog.e(TAG, "handshake not finished in 10s: " + sink.getHandshakeTimingSummary());
+            source.close();
+            sink.close(WfdSinkSession.STATE_DISCONNECTED);
+            System.exit(1);
+            return;
+        }
+        //会话结束后getRtpReceiver返回null，统计要从这里取
+        RTPReceiver receiver = sink.getRtpReceiver();
+        long playNanos = System.nanoTime();
+        long playReceivedBytes = receiver.getReceivedBytes();
+        String sinkHandshake = sink.getHandshakeTimingSummary();
+        Thread.sleep(durationMs);
+        long endNanos = System.nanoTime();
+        long throughputBps = (receiver.getReceivedBytes() - playReceivedBytes) * 8 * 1000000000L / (endNanos - playNanos);
+        source.stop();
+        //等待Sink端发送TEARDOWN
+        if (!waitFor(sink, closed, false, 3000)) {
+            sink.close(WfdSinkSession.STATE_DISCONNECTED);
+        }
+        source.close();
+        sinkThread.quit();
+
+        RtpLossRecovery recovery = receiver.getLossRecovery();
+        TsDemuxer demuxer = receiver.getDemuxer();
+        StringBuilder report = new StringBuilder();
+        report.append("\n==== loopback test: ").append(tsFile != null ? tsFile : "synthetic").append(", ")
+                .append(bitrate / 1000).append("kbps, ").append(durationMs / 1000).append("s, ")
+                .append(impairment).append(", nack=").append(nackEnabled)
+                .append(", eventloop=").append(eventLoopMode).append(" ====\n");
+        report.append("source: ").append(streamer).append(", keepalive=").append(source.getKeepAliveCount()).append("\n");
+        report.append("sink rtp: packets=").append(receiver.getReceivedPacketCount())
+                .append(", bytes=").append(receiver.getReceivedBytes() / 1024).append("KB")
+                .append(", throughput=").append(String.format("%.2f", throughputBps / 1000000.0)).append("Mbps")
+                .append(", timeouts=").append(sink.getReceiveTimeoutCount()).append("\n");
+        report.append("sink video: ").append(videoConsumer).append("\n");
+        report.append("sink audio: ").append(audioConsumer).append("\n");
+        report.append("recovery: recovered=").append(recovery.getRecoveredCount())
+                .append(" (nack=").append(recovery.getRecoveredByNack())
+                .append(", fec=").append(recovery.getRecoveredByFec())
+                .append("), unrecovered=").append(recovery.getUnrecoveredCount())
+                .append(", nackSent=").append(recovery.getNackPacketCount())
+                .append(", duplicates=").append(recovery.getDuplicateCount()).append("\n");
+        report.append("ts: resync=").append(demuxer.getResyncCount())
+                .append(", discarded=").append(demuxer.getDiscardedBytes())
+                .append(", errorPackets=").append(demuxer.getErrorPackets())
+                .append(", streamChanges=").append(demuxer.getStreamChangeCount()).append("\n");
+        report.append("source handshake: ").append(source.getHandshake().getTimingSummary()).append("\n");
+        report.append("sink handshake: ").append(sinkHandshake).append("\n");
+        System.out.println(report);
+        System.exit(0);
+    }
+
+    //等待Sink端进入（playing为true）或者结束（false）播放状态
+    private static boolean waitFor(WfdSinkSession sink, AtomicBoolean closed, boolean playing, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            if (playing ? sink.isPlaying() : closed.get()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, index), arg.substring(index + 1));
+            }
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
@@ -0,0 +1,61 @@
+package com.autoai.wifi_sink.display;
+
+import java.util.Random;
+
+/**
+ * 模拟Wi-Fi网络的损伤：丢包、乱序、抖动和重复包
+ * <p>
+ * 用固定的随机数种子，同样的参数每次产生同样的损伤序列，测试结果可以互相比较
+ */
+
+class NetworkImpairment {
+
+    //丢包率，0~1
+    final double lossRate;
+    //乱序率：被选中的包推迟两个发送间隔，排到后面的包之后
+    final double reorderRate;
+    //重复率：被选中的包发送两次
+    final double duplicateRate;
+    //每个包额外的随机延迟，0~jitterMs毫秒均匀分布
+    final long jitterMs;
+
+    private final Random random;
+
+    NetworkImpairment(double lossRate, double reorderRate, double duplicateRate, long jitterMs, long seed) {
+        this.lossRate = lossRate;
+        this.reorderRate = reorderRate;
+        this.duplicateRate = duplicateRate;
+        this.jitterMs = jitterMs;
+        this.random = new Random(seed);
+    }
+
+    static NetworkImpairment none() {
+        return new NetworkImpairment(0, 0, 0, 0, 0);
+    }
+
+    boolean shouldDrop() {
+        return lossRate > 0 && random.nextDouble() < lossRate;
+    }
+
+    boolean shouldReorder() {
+        return reorderRate > 0 && random.nextDouble() < reorderRate;
+    }
+
+    boolean shouldDuplicate() {
+        return duplicateRate > 0 && random.nextDouble() < duplicateRate;
+    }
+
+    //这个包的额外延迟，纳秒
+    long nextJitterNanos() {
+        if (jitterMs <= 0) {
+            return 0;
+        }
+        return (long) (random.nextDouble() * jitterMs * 1000000);
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkImpairment{loss=" + lossRate + ", reorder=" + reorderRate + ", duplicate=" + duplicateRate
+                + ", jitter=" + jitterMs + "ms}";
+    }
+}
@@ -0,0 +1,90 @@
+package com.autoai.wifi_sink.display;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 回放抓包文件：把pcap或者TS文件中的RTP包送入{@link RTPReceiver}的解析流程，打印解析的吞吐量和统计
+ * <p>
+ * 参数都是--name=value的形式：
+ * <pre>
+ * --file=capture.pcap  pcap或者TS文件
+ * --port=19000         只回放发往这个UDP端口的包，默认不过滤
+ * --realtime=true      按抓包时间的间隔送入，默认尽快送入
+ * --loops=1            回放的次数，测量吞吐量时可以多回放几次
+ * </pre>
+ */
+
+public class ReplayTest {
+
+    private static final String TAG = ReplayTest.class.getSimpleName();
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        int port = 0;
+        boolean realtime = false;
+        int loops = 1;
+        for (String arg : args) {
+            if (arg.startsWith("--file=")) {
+                file = arg.substring("--file=".length());
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--realtime")) {
+                realtime = !arg.endsWith("=false");
+            } else if (arg.startsWith("--loops=")) {
+                loops = Integer.parseInt(arg.substring("--loops=".length()));
+            }
+        }
+        if (file == null) {
+            System.out.println("usage: ReplayTest --file=capture.pcap|stream.ts [--port=N] [--realtime] [--loops=N]");
+            System.exit(1);
+            return;
+        }
+
+        CountingConsumer videoConsumer = new CountingConsumer();
+        CountingConsumer audioConsumer = new CountingConsumer();
+        List<ElementaryStreamConsumer> videoConsumers = Collections.<ElementaryStreamConsumer>singletonList(videoConsumer);
+        List<ElementaryStreamConsumer> audioConsumers = Collections.<ElementaryStreamConsumer>singletonList(audioConsumer);
+        RTPReceiver receiver = new RTPReceiver(false, videoConsumers, audioConsumers, null);
+
+        long packets = 0;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < loops; i++) {
+            RtpCaptureReader reader = RtpCaptureReader.open(file, port);
+            try {
+                if (realtime && reader.getFormat() == RtpCaptureReader.FORMAT_TS) {
+                    WfdLog.w(TAG, "ts file has no arrival time, replay as fast as possible");
+                }
+                packets += receiver.replay(reader, realtime);
+            } finally {
+                reader.close();
+            }
+        }
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+
+        long bytes = receiver.getReceivedBytes();
+        TsDemuxer demuxer = receiver.getDemuxer();
+        RtpTiming timing = receiver.getTiming();
+        StringBuilder report = new StringBuilder();
+        report.append("\n==== replay: ").append(file).append(realtime ? ", realtime" : ", fast")
+                .append(", loops=").append(loops).append(" ====\n");
+        report.append("rtp: packets=").append(packets).append(", bytes=").append(bytes / 1024).append("KB")
+                .append(", elapsed=").append(elapsedNanos / 1000000).append("ms")
+                .append(", ").append(packets * 1000000000L / elapsedNanos).append(" packets/s")
+                .append(", ").append(String.format("%.1f", bytes * 1000.0 / elapsedNanos)).append("MB/s")
+                .append(", ").append(elapsedNanos / Math.max(1, packets)).append("ns/packet\n");
+        report.append("video: ").append(videoConsumer).append("\n");
+        report.append("audio: ").append(audioConsumer).append("\n");
+        report.append("ts: resync=").append(demuxer.getResyncCount())
+                .append(", discarded=").append(demuxer.getDiscardedBytes())
+                .append(", errorPackets=").append(demuxer.getErrorPackets())
+                .append(", streamChanges=").append(demuxer.getStreamChangeCount())
+                .append(", unexpectedPayloadType=").append(demuxer.getUnexpectedPayloadTypeCount())
+                .append(", foreignSsrc=").append(demuxer.getForeignSsrcCount()).append("\n");
+        if (realtime) {
+            report.append("timing: jitter=").append(String.format("%.2f", timing.getJitterMs())).append("ms")
+                    .append(", queuingDelay=").append(timing.getQueuingDelayMs()).append("ms\n");
+        }
+        System.out.println(report);
+    }
+}
@@ -0,0 +1,396 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Source端的RTP发送：把TS流按7个TS包一个RTP包（PT=33）发给Sink端，按设定的码率匀速发送，
+ * 发送前经过{@link NetworkImpairment}模拟丢包、乱序、抖动和重复
+ * <p>
+ * 最近发出的包保留在历史中，RTCP端口收到Sink端的Generic NACK时重传，重传的包不再经过损伤模拟
+ */
+
+class RtpStreamer {
+
+    private final String TAG = RtpStreamer.class.getSimpleName();
+
+    /**
+     * TS数据的来源，读到结尾时重新打开，循环发送
+     */
+    interface TsSource {
+        InputStream open() throws IOException;
+    }
+
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int TS_PACKETS_PER_RTP = 7;
+    private static final int RTP_HEADER_SIZE = 12;
+    private static final int RTP_PAYLOAD_TYPE_MP2T = 33;
+    private static final int RTCP_PT_RTPFB = 205;
+    private static final int RTCP_FMT_NACK = 1;
+    //保留最近发出的包，用来重传，必须是2的幂
+    private static final int HISTORY_SIZE = 1024;
+
+    private final TsSource tsSource;
+    private final int bitrate;
+    private final NetworkImpairment impairment;
+    private final int ssrc = 0x57464453;
+
+    private DatagramSocket rtpSocket;
+    private DatagramSocket rtcpSocket;
+    private volatile InetSocketAddress sinkAddress;
+    private volatile boolean running = false;
+    private Thread sendThread;
+    private Thread rtcpThread;
+
+    //发送线程和NACK线程都会访问
+    private final byte[][] history = new byte[HISTORY_SIZE][];
+    private final int[] historySeq = new int[HISTORY_SIZE];
+
+    private volatile long sentPackets = 0;
+    private volatile long sentBytes = 0;
+    private volatile long droppedPackets = 0;
+    private volatile long duplicatedPackets = 0;
+    private volatile long reorderedPackets = 0;
+    private volatile long nackPackets = 0;
+    private volatile long retransmittedPackets = 0;
+
+    /**
+     * @param bitrate 发送码率，bit/s，按RTP负载计算
+     */
+    RtpStreamer(TsSource tsSource, int bitrate, NetworkImpairment impairment) {
+        this.tsSource = tsSource;
+        this.bitrate = bitrate;
+        this.impairment = impairment;
+    }
+
+    /**
+     * 绑定一对本地端口（RTP/RTCP），M6的回复中告诉Sink端
+     *
+     * @return RTP端口，RTCP端口是下一个
+     */
+    int bind() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            int port = 20000 + 2 * (int) (Math.random() * 10000);
+            try {
+                rtpSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            } catch (SocketException e) {
+                continue;
+            }
+            try {
+                rtcpSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + 1));
+            } catch (SocketException e) {
+                rtpSocket.close();
+                rtpSocket = null;
+                continue;
+            }
+            rtpSocket.setSendBufferSize(1024 * 1024);
+            return port;
+        }
+        throw new IOException("bind rtp port failed");
+    }
+
+    int getRtpPort() {
+        return rtpSocket == null ? 0 : rtpSocket.getLocalPort();
+    }
+
+    //PLAY之后开始发送
+    synchronized void start(InetAddress sinkHost, int sinkRtpPort) {
+        if (running || rtpSocket == null) {
+            return;
+        }
+        sinkAddress = new InetSocketAddress(sinkHost, sinkRtpPort);
+        running = true;
+        sendThread = new Thread(sendRunnable, "rtpSend");
+        sendThread.start();
+        rtcpThread = new Thread(rtcpRunnable, "rtcpReceive");
+        rtcpThread.start();
+        WfdLog.i(TAG, "start streaming to " + sinkAddress + " at " + bitrate / 1000 + "kbps, " + impairment);
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (rtpSocket != null) {
+            rtpSocket.close();
+        }
+        if (rtcpSocket != null) {
+            rtcpSocket.close();
+        }
+        joinQuietly(sendThread);
+        joinQuietly(rtcpThread);
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getSentPackets() {
+        return sentPackets;
+    }
+
+    long getSentBytes() {
+        return sentBytes;
+    }
+
+    long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    long getDuplicatedPackets() {
+        return duplicatedPackets;
+    }
+
+    long getReorderedPackets() {
+        return reorderedPackets;
+    }
+
+    long getNackPackets() {
+        return nackPackets;
+    }
+
+    long getRetransmittedPackets() {
+        return retransmittedPackets;
+    }
+
+    @Override
+    public String toString() {
+        return "sent=" + sentPackets + " (" + sentBytes / 1024 + "KB), dropped=" + droppedPackets
+                + ", duplicated=" + duplicatedPackets + ", reordered=" + reorderedPackets
+                + ", nack=" + nackPackets + ", retransmitted=" + retransmittedPackets;
+    }
+
+    //等待发送的包，按发送时间排序，时间相同时按加入的顺序
+    private static class ScheduledPacket implements Comparable<ScheduledPacket> {
+        final byte[] data;
+        final long dueNanos;
+        final long order;
+
+        ScheduledPacket(byte[] data, long dueNanos, long order) {
+            this.data = data;
+            this.dueNanos = dueNanos;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(ScheduledPacket other) {
+            if (dueNanos != other.dueNanos) {
+                return dueNanos < other.dueNanos ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private final Runnable sendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int payloadSize = TS_PACKET_SIZE * TS_PACKETS_PER_RTP;
+            long intervalNanos = (long) payloadSize * 8 * 1000000000L / bitrate;
+            PriorityQueue<ScheduledPacket> queue = new PriorityQueue<>();
+            byte[] payload = new byte[payloadSize];
+            InputStream in = null;
+            int seq = 0;
+            long order = 0;
+            long startNanos = System.nanoTime();
+            long nextNanos = startNanos;
+            try {
+                while (running) {
+                    long now = System.nanoTime();
+                    if (now >= nextNanos) {
+                        if (in == null) {
+                            in = tsSource.open();
+                        }
+                        int length = readTsPackets(in, payload);
+                        if (length == 0) {
+                            //读到结尾，从头开始
+                            in.close();
+                            in = null;
+                            continue;
+                        }
+                        //RTP时间戳用发送时间，90kHz
+                        long timestamp = (nextNanos - startNanos) * 9 / 100000;
+                        byte[] packet = buildRtpPacket(seq, timestamp, payload, length);
+                        remember(seq, packet);
+                        seq = (seq + 1) & 0xFFFF;
+                        order = schedule(queue, packet, nextNanos, intervalNanos, order);
+                        nextNanos += intervalNanos;
+                    }
+                    now = System.nanoTime();
+                    while (!queue.isEmpty() && queue.peek().dueNanos <= now) {
+                        send(queue.poll().data);
+                    }
+                    long wakeNanos = nextNanos;
+                    if (!queue.isEmpty()) {
+                        wakeNanos = Math.min(wakeNanos, queue.peek().dueNanos);
+                    }
+                    long waitNanos = wakeNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    WfdLog.e(TAG, "send failed: " + e.getMessage());
+                }
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * 按损伤参数决定这个包什么时候发送、发送几次
+     *
+     * @return 下一个包的顺序号
+     */
+    private long schedule(PriorityQueue<ScheduledPacket> queue, byte[] packet, long dueNanos,
+                          long intervalNanos, long order) {
+        if (impairment.shouldDrop()) {
+            droppedPackets++;
+            return order;
+        }
+        long due = dueNanos + impairment.nextJitterNanos();
+        if (impairment.shouldReorder()) {
+            //推迟两个发送间隔，排到后面的包之后
+            reorderedPackets++;
+            due += 2 * intervalNanos;
+        }
+        queue.add(new ScheduledPacket(packet, due, order++));
+        if (impairment.shouldDuplicate()) {
+            duplicatedPackets++;
+            queue.add(new ScheduledPacket(packet, due, order++));
+        }
+        return order;
+    }
+
+    //读满一个RTP包的TS数据，结尾不足时只返回完整的TS包
+    private static int readTsPackets(InputStream in, byte[] payload) throws IOException {
+        int length = 0;
+        while (length < payload.length) {
+            int count = in.read(payload, length, payload.length - length);
+            if (count < 0) {
+                break;
+            }
+            length += count;
+        }
+        return length - length % TS_PACKET_SIZE;
+    }
+
+    private byte[] buildRtpPacket(int seq, long timestamp, byte[] payload, int length) {
+        byte[] packet = new byte[RTP_HEADER_SIZE + length];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) RTP_PAYLOAD_TYPE_MP2T;
+        packet[2] = (byte) (seq >> 8);
+        packet[3] = (byte) seq;
+        packet[4] = (byte) (timestamp >> 24);
+        packet[5] = (byte) (timestamp >> 16);
+        packet[6] = (byte) (timestamp >> 8);
+        packet[7] = (byte) timestamp;
+        packet[8] = (byte) (ssrc >> 24);
+        packet[9] = (byte) (ssrc >> 16);
+        packet[10] = (byte) (ssrc >> 8);
+        packet[11] = (byte) ssrc;
+        System.arraycopy(payload, 0, packet, RTP_HEADER_SIZE, length);
+        return packet;
+    }
+
+    private void send(byte[] packet) throws IOException {
+        rtpSocket.send(new DatagramPacket(packet, packet.length, sinkAddress));
+        sentPackets++;
+        sentBytes += packet.length;
+    }
+
+    private void remember(int seq, byte[] packet) {
+        synchronized (history) {
+            int index = seq & (HISTORY_SIZE - 1);
+            history[index] = packet;
+            historySeq[index] = seq;
+        }
+    }
+
+    //历史中没有时返回null
+    private byte[] lookup(int seq) {
+        synchronized (history) {
+            int index = seq & (HISTORY_SIZE - 1);
+            if (history[index] == null || historySeq[index] != seq) {
+                return null;
+            }
+            return history[index];
+        }
+    }
+
+    private final Runnable rtcpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            byte[] buffer = new byte[1500];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (running) {
+                try {
+                    rtcpSocket.receive(packet);
+                    handleRtcp(buffer, packet.getLength());
+                } catch (IOException e) {
+                    if (running) {
+                        WfdLog.e(TAG, "receive rtcp failed: " + e.getMessage());
+                    }
+                    return;
+                }
+            }
+        }
+    };
+
+    /**
+     * 解析RTCP复合包，只处理Generic NACK：每个FCI是一个序列号（PID）和后面16个序列号的位图（BLP）
+     */
+    private void handleRtcp(byte[] data, int length) throws IOException {
+        int offset = 0;
+        while (offset + 4 <= length) {
+            int fmt = data[offset] & 0x1F;
+            int pt = data[offset + 1] & 0xFF;
+            int end = offset + (((data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF)) + 1) * 4;
+            if (end > length) {
+                return;
+            }
+            if (pt == RTCP_PT_RTPFB && fmt == RTCP_FMT_NACK) {
+                nackPackets++;
+                for (int fci = offset + 12; fci + 4 <= end; fci += 4) {
+                    int pid = (data[fci] & 0xFF) << 8 | (data[fci + 1] & 0xFF);
+                    int blp = (data[fci + 2] & 0xFF) << 8 | (data[fci + 3] & 0xFF);
+                    retransmit(pid);
+                    for (int bit = 0; bit < 16; bit++) {
+                        if ((blp & (1 << bit)) != 0) {
+                            retransmit((pid + bit + 1) & 0xFFFF);
+                        }
+                    }
+                }
+            }
+            offset = end;
+        }
+    }
+
+    private void retransmit(int seq) throws IOException {
+        byte[] packet = lookup(seq);
+        if (packet == null) {
+            return;
+        }
+        rtpSocket.send(new DatagramPacket(packet, packet.length, sinkAddress));
+        retransmittedPackets++;
+    }
+}
@@ -0,0 +1,254 @@
+package com.autoai.wifi_sink.display;
+
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * 生成一路无限长的WFD风格TS流，没有录制的TS文件时使用
+ * <p>
+ * 和手机投屏的流结构一致：PAT/PMT每100ms一次，H.264视频（PID 0x1011，每帧一个PES，PCR在视频PID上）
+ * 和AAC音频（PID 0x1100，每个视频帧后面一个PES）。视频帧的内容是随机数据，前面有AUD、
+ * IDR帧还有SPS/PPS，只用来测试传输和解析，不能解码
+ */
+
+class SyntheticTsInputStream extends InputStream {
+
+    static final int TS_PACKET_SIZE = 188;
+
+    static final int PMT_PID = 0x0100;
+    static final int VIDEO_PID = 0x1011;
+    static final int AUDIO_PID = 0x1100;
+
+    //PES包的长度字段只有16位，帧再大就需要拆成长度为0的PES，这里不生成
+    private static final int MAX_FRAME_SIZE = 65535 - 13;
+    //AAC一帧的大小，128kbps左右
+    private static final int AUDIO_FRAME_SIZE = 360;
+    //PTS的起始值和PCR比PTS提前的时间，90kHz
+    private static final long PTS_BASE = 90000;
+    private static final long PCR_DELAY = 9000;
+
+    private final int fps;
+    private final int gop;
+    private final int frameSize;
+    private final Random random;
+
+    private final int[] continuityCounters = new int[0x2000];
+    private long frameIndex = 0;
+
+    //已经生成、还没有读走的TS包
+    private byte[] buffer = new byte[64 * 1024];
+    private int readPosition = 0;
+    private int writePosition = 0;
+
+    /**
+     * @param bitrate 视频的平均码率，bit/s，决定每一帧的大小
+     * @param gop     每隔多少帧一个IDR帧，IDR帧是普通帧的4倍大
+     */
+    SyntheticTsInputStream(int bitrate, int fps, int gop, long seed) {
+        this.fps = fps;
+        this.gop = gop;
+        this.frameSize = Math.max(256, bitrate / 8 / fps);
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public int read() {
+        byte[] one = new byte[1];
+        read(one, 0, 1);
+        return one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int count = 0;
+        while (count < len) {
+            if (readPosition == writePosition) {
+                readPosition = 0;
+                writePosition = 0;
+                generateFrame();
+            }
+            int n = Math.min(len - count, writePosition - readPosition);
+            System.arraycopy(buffer, readPosition, b, off + count, n);
+            readPosition += n;
+            count += n;
+        }
+        return count;
+    }
+
+    //生成一帧视频和一帧音频，需要的话前面加上PAT/PMT
+    private void generateFrame() {
+        long pts = PTS_BASE + frameIndex * 90000 / fps;
+        if (frameIndex % Math.max(1, fps / 10) == 0) {
+            writeSection(0, buildPat());
+            writeSection(PMT_PID, buildPmt());
+        }
+        boolean idr = frameIndex % gop == 0;
+        writePes(VIDEO_PID, 0xE0, buildVideoFrame(idr), pts, pts - PCR_DELAY);
+        writePes(AUDIO_PID, 0xC0, randomBytes(AUDIO_FRAME_SIZE), pts, -1);
+        frameIndex++;
+    }
+
+    private byte[] buildVideoFrame(boolean idr) {
+        int size = Math.min(MAX_FRAME_SIZE, idr ? frameSize * 4 : frameSize);
+        byte[] frame = randomBytes(size);
+        int offset = 0;
+        //AUD
+        offset = writeNal(frame, offset, new byte[]{0x09, (byte) 0xF0});
+        if (idr) {
+            //SPS、PPS，内容不重要
+            offset = writeNal(frame, offset, new byte[]{0x67, 0x64, 0x00, 0x1F, (byte) 0xAC});
+            offset = writeNal(frame, offset, new byte[]{0x68, (byte) 0xEE, 0x3C, (byte) 0x80});
+        }
+        writeNal(frame, offset, new byte[]{(byte) (idr ? 0x65 : 0x41)});
+        return frame;
+    }
+
+    private static int writeNal(byte[] frame, int offset, byte[] nal) {
+        frame[offset] = 0;
+        frame[offset + 1] = 0;
+        frame[offset + 2] = 0;
+        frame[offset + 3] = 1;
+        System.arraycopy(nal, 0, frame, offset + 4, nal.length);
+        return offset + 4 + nal.length;
+    }
+
+    //不含0的随机数据，不会出现起始码
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        for (int i = 0; i < size; i++) {
+            if (bytes[i] == 0) {
+                bytes[i] = 1;
+            }
+        }
+        return bytes;
+    }
+
+    private static byte[] buildPat() {
+        return withCrc(new byte[]{
+                0x00, (byte) 0xB0, 0x0D, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                0x00, 0x01, (byte) (0xE0 | (PMT_PID >> 8)), (byte) PMT_PID,
+                0, 0, 0, 0});
+    }
+
+    private static byte[] buildPmt() {
+        return withCrc(new byte[]{
+                0x02, (byte) 0xB0, 0x17, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00,
+                0x1B, (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00,
+                0x0F, (byte) (0xE0 | (AUDIO_PID >> 8)), (byte) AUDIO_PID, (byte) 0xF0, 0x00,
+                0, 0, 0, 0});
+    }
+
+    //MPEG-2的CRC32，写在最后4个字节
+    private static byte[] withCrc(byte[] section) {
+        int crc = 0xFFFFFFFF;
+        for (int i = 0; i < section.length - 4; i++) {
+            crc ^= (section[i] & 0xFF) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+        }
+        int end = section.length;
+        section[end - 4] = (byte) (crc >> 24);
+        section[end - 3] = (byte) (crc >> 16);
+        section[end - 2] = (byte) (crc >> 8);
+        section[end - 1] = (byte) crc;
+        return section;
+    }
+
+    //PAT/PMT：一个TS包，pointer_field为0，剩下的填0xFF
+    private void writeSection(int pid, byte[] section) {
+        int start = startPacket(pid, true, false);
+        buffer[start + 4] = 0;
+        System.arraycopy(section, 0, buffer, start + 5, section.length);
+        for (int i = start + 5 + section.length; i < start + TS_PACKET_SIZE; i++) {
+            buffer[i] = (byte) 0xFF;
+        }
+        writePosition += TS_PACKET_SIZE;
+    }
+
+    /**
+     * 一个PES拆成TS包，最后一个包用适配域填充
+     *
+     * @param pcr 第一个包的适配域中带上的PCR（90kHz），-1表示没有
+     */
+    private void writePes(int pid, int streamId, byte[] es, long pts, long pcr) {
+        byte[] pes = new byte[14 + es.length];
+        pes[2] = 1;
+        pes[3] = (byte) streamId;
+        int pesLength = 8 + es.length;
+        pes[4] = (byte) (pesLength >> 8);
+        pes[5] = (byte) pesLength;
+        pes[6] = (byte) 0x80;
+        //只有PTS
+        pes[7] = (byte) 0x80;
+        pes[8] = 5;
+        pes[9] = (byte) (0x21 | ((pts >> 29) & 0x0E));
+        pes[10] = (byte) (pts >> 22);
+        pes[11] = (byte) (0x01 | ((pts >> 14) & 0xFE));
+        pes[12] = (byte) (pts >> 7);
+        pes[13] = (byte) (0x01 | ((pts << 1) & 0xFE));
+        System.arraycopy(es, 0, pes, 14, es.length);
+
+        int offset = 0;
+        boolean first = true;
+        while (offset < pes.length) {
+            boolean withPcr = first && pcr >= 0;
+            int remaining = pes.length - offset;
+            //PCR占8个字节的适配域（长度、标志、6字节PCR）
+            int capacity = TS_PACKET_SIZE - 4 - (withPcr ? 8 : 0);
+            int payload = Math.min(remaining, capacity);
+            int stuffing = capacity - payload;
+            boolean adaptation = withPcr || stuffing > 0;
+            int start = startPacket(pid, first, adaptation);
+            int position = start + 4;
+            if (adaptation) {
+                int adaptationLength;
+                if (withPcr) {
+                    adaptationLength = 7 + stuffing;
+                } else {
+                    //没有PCR时适配域至少有长度这一个字节
+                    adaptationLength = stuffing - 1;
+                }
+                buffer[position++] = (byte) adaptationLength;
+                if (adaptationLength > 0) {
+                    buffer[position++] = (byte) (withPcr ? 0x10 : 0x00);
+                    if (withPcr) {
+                        buffer[position++] = (byte) (pcr >> 25);
+                        buffer[position++] = (byte) (pcr >> 17);
+                        buffer[position++] = (byte) (pcr >> 9);
+                        buffer[position++] = (byte) (pcr >> 1);
+                        buffer[position++] = (byte) (((pcr & 0x01) << 7) | 0x7E);
+                        buffer[position++] = 0;
+                    }
+                    int end = start + TS_PACKET_SIZE - payload;
+                    while (position < end) {
+                        buffer[position++] = (byte) 0xFF;
+                    }
+                }
+            }
+            System.arraycopy(pes, offset, buffer, position, payload);
+            offset += payload;
+            writePosition += TS_PACKET_SIZE;
+            first = false;
+        }
+    }
+
+    //写TS包头，返回这个包在buffer中的位置
+    private int startPacket(int pid, boolean payloadStart, boolean adaptation) {
+        if (writePosition + TS_PACKET_SIZE > buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, writePosition);
+            buffer = larger;
+        }
+        int start = writePosition;
+        int counter = continuityCounters[pid];
+        continuityCounters[pid] = (counter + 1) & 0x0F;
+        buffer[start] = 0x47;
+        buffer[start + 1] = (byte) ((payloadStart ? 0x40 : 0x00) | (pid >> 8));
+        buffer[start + 2] = (byte) pid;
+        buffer[start + 3] = (byte) ((adaptation ? 0x30 : 0x10) | counter);
+        return start;
+    }
+}